@@ -0,0 +1,129 @@
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in milliseconds in log-linear buckets, in the manner of an HDR histogram.
+ * <p>
+ * Values below 128ms have a bucket each. Above that every power of two is split into 64 buckets, so a reported
+ * percentile is at most 1/64th above the recorded value. Values above {@link #MAX_VALUE} (about 2.3 hours) are
+ * counted as {@link #MAX_VALUE}. Recording is a single atomic increment and never allocates or locks.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final long MAX_VALUE = (1L << 23) - 1;
+    static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+    }
+
+    private LatencyHistogram(long[] counts) {
+        this.counts = new AtomicLongArray(counts);
+    }
+
+    public void record(long millis) {
+        counts.incrementAndGet(indexOf(Math.max(0, Math.min(millis, MAX_VALUE))));
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the highest value counted in the bucket
+     */
+    static long highestValueAt(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency that <code>percentile</code> percent of the recorded latencies do not exceed, or 0 if
+     * nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = toArray();
+        long count = 0;
+        for (long bucket : snapshot) {
+            count += bucket;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return highestValueAt(i);
+            }
+        }
+        return highestValueAt(snapshot.length - 1);
+    }
+
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return highestValueAt(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return a copy of the counts. Latencies recorded while copying may or may not be included.
+     */
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(toArray());
+    }
+
+    /**
+     * @return the latencies recorded in this histogram but not in <code>earlier</code>, a previous copy of it
+     */
+    public LatencyHistogram minus(LatencyHistogram earlier) {
+        long[] difference = toArray();
+        for (int i = 0; i < BUCKETS; i++) {
+            difference[i] = Math.max(0, difference[i] - earlier.counts.get(i));
+        }
+        return new LatencyHistogram(difference);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+    }
+
+    private long[] toArray() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,41 @@
+package org.cloudfoundry.identity.uaa.metrics;
+
+/**
+ * Records latencies into a {@link LatencyHistogram} that is never reset, and derives the latencies of the last
+ * completed interval from copies taken when intervals are rolled over.
+ * <p>
+ * Recording never locks or allocates. Intervals are rolled over when they are read, so an interval lasts from one
+ * rollover to the first read at least <code>intervalMillis</code> later.
+ */
+public class LatencyRecorder {
+
+    private final LatencyHistogram total = new LatencyHistogram();
+    private LatencyHistogram rolledOver = new LatencyHistogram();
+    private LatencyHistogram lastInterval = new LatencyHistogram();
+    private long intervalStart;
+
+    public LatencyRecorder(long now) {
+        this.intervalStart = now;
+    }
+
+    public void record(long millis) {
+        total.record(millis);
+    }
+
+    /**
+     * @return the latencies recorded in the last completed interval. The histogram must not be modified.
+     */
+    public synchronized LatencyHistogram getLastInterval(long now, long intervalMillis) {
+        if (now - intervalStart >= intervalMillis) {
+            LatencyHistogram current = total.copy();
+            lastInterval = current.minus(rolledOver);
+            rolledOver = current;
+            intervalStart = now;
+        }
+        return lastInterval;
+    }
+
+    public long getTotalCount() {
+        return total.getCount();
+    }
+}
@@ -0,0 +1,66 @@
+package org.cloudfoundry.identity.uaa.metrics;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Percentiles of the request latencies of one interval, in milliseconds.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class LatencySummary {
+    private final long count;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    @JsonCreator
+    public LatencySummary(@JsonProperty("count") long count,
+                          @JsonProperty("p50") long p50,
+                          @JsonProperty("p90") long p90,
+                          @JsonProperty("p99") long p99,
+                          @JsonProperty("p999") long p999,
+                          @JsonProperty("max") long max) {
+        this.count = count;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    public static LatencySummary of(LatencyHistogram histogram) {
+        return new LatencySummary(histogram.getCount(),
+                                  histogram.getValueAtPercentile(50),
+                                  histogram.getValueAtPercentile(90),
+                                  histogram.getValueAtPercentile(99),
+                                  histogram.getValueAtPercentile(99.9),
+                                  histogram.getMax());
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+}
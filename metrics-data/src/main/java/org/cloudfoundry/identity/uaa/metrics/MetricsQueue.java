@@ -22,9 +22,11 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import org.cloudfoundry.identity.uaa.metrics.MetricsUtil.MutableDouble;
 import org.cloudfoundry.identity.uaa.metrics.MetricsUtil.MutableLong;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.fasterxml.jackson.annotation.JsonInclude.Include.NON_NULL;
 import static java.util.Optional.ofNullable;
@@ -35,9 +37,13 @@ import static org.cloudfoundry.identity.uaa.metrics.MetricsUtil.addAverages;
 public class MetricsQueue  {
 
     public static final int MAX_ENTRIES = 5;
+    public static final String ALL_STATUS_CODES = "all";
 
     private ConcurrentLinkedDeque<RequestMetric> queue;
+    // ConcurrentLinkedDeque.size() walks the whole deque
+    private final AtomicInteger queueSize;
     private Map<StatusCodeGroup, RequestMetricSummary> statistics;
+    private final Map<StatusCodeGroup, LatencyRecorder> latencies = new ConcurrentHashMap<>();
 
     public MetricsQueue() {
         this(null,null);
@@ -48,31 +54,66 @@ public class MetricsQueue  {
                         @JsonProperty("detailed") Map<StatusCodeGroup, RequestMetricSummary> statistics) {
         this.queue = ofNullable(queue).orElse(new ConcurrentLinkedDeque<>());
         this.statistics = ofNullable(statistics).orElse(new ConcurrentHashMap<>());
+        this.queueSize = new AtomicInteger(this.queue.size());
     }
 
     public boolean offer(RequestMetric metric) {
         queue.offer(metric);
+        queueSize.incrementAndGet();
         //remove earliest entries
-        while (queue.size() > MAX_ENTRIES) {
-            queue.removeFirst();
+        while (queueSize.get() > MAX_ENTRIES && queue.pollFirst() != null) {
+            queueSize.decrementAndGet();
         }
 
         StatusCodeGroup statusCode = StatusCodeGroup.valueOf(metric.getStatusCode());
-        if (!statistics.containsKey(statusCode)) {
-            statistics.putIfAbsent(statusCode, new RequestMetricSummary());
-        }
         RequestMetricSummary totals = statistics.get(statusCode);
+        if (totals == null) {
+            totals = statistics.computeIfAbsent(statusCode, k -> new RequestMetricSummary());
+        }
         long time = metric.getRequestCompleteTime() - metric.getRequestStartTime();
+        long intolerableQueries = 0;
+        long intolerableQueryTime = 0;
+        for (QueryMetric query : metric.getQueries()) {
+            if (query.isIntolerable()) {
+                intolerableQueries++;
+                intolerableQueryTime += query.getRequestCompleteTime() - query.getRequestStartTime();
+            }
+        }
         totals.add(time,
                    time < metric.getUriGroup().getLimit(),
                    metric.getNrOfDatabaseQueries(),
                    metric.getDatabaseQueryTime(),
-                   metric.getQueries().stream().filter(QueryMetric::isIntolerable).count(),
-                   metric.getQueries().stream().filter(QueryMetric::isIntolerable).mapToLong(q -> q.getRequestCompleteTime()-q.getRequestStartTime()).sum()
+                   intolerableQueries,
+                   intolerableQueryTime
         );
+
+        LatencyRecorder recorder = latencies.get(statusCode);
+        if (recorder == null) {
+            recorder = latencies.computeIfAbsent(statusCode, k -> new LatencyRecorder(metric.getRequestCompleteTime()));
+        }
+        recorder.record(time);
         return true;
     }
 
+    /**
+     * Latency percentiles of the last completed interval per status code group, and of all of them under
+     * {@link #ALL_STATUS_CODES}. Latencies are only kept in memory, a deserialized queue has none.
+     */
+    public Map<String, LatencySummary> summarizeLatencies(long now, long intervalMillis) {
+        Map<String, LatencySummary> summaries = new LinkedHashMap<>();
+        LatencyHistogram all = new LatencyHistogram();
+        for (StatusCodeGroup statusCode : StatusCodeGroup.values()) {
+            LatencyRecorder recorder = latencies.get(statusCode);
+            if (recorder != null) {
+                LatencyHistogram interval = recorder.getLastInterval(now, intervalMillis);
+                summaries.put(statusCode.getName(), LatencySummary.of(interval));
+                all.add(interval);
+            }
+        }
+        summaries.put(ALL_STATUS_CODES, LatencySummary.of(all));
+        return summaries;
+    }
+
     public Map<StatusCodeGroup, RequestMetricSummary> getDetailed() {
         return statistics;
     }
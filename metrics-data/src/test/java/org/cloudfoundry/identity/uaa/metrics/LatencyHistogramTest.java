@@ -0,0 +1,56 @@
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsCoverEveryValueWithBoundedError() {
+        for (long value = 0; value <= LatencyHistogram.MAX_VALUE; value = value < 1000 ? value + 1 : value * 11 / 10) {
+            int index = LatencyHistogram.indexOf(value);
+            long highest = LatencyHistogram.highestValueAt(index);
+            assertTrue(highest >= value, "value " + value);
+            assertTrue(highest - value <= value / 64, "value " + value);
+            assertTrue(index == 0 || LatencyHistogram.highestValueAt(index - 1) < value, "value " + value);
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE));
+    }
+
+    @Test
+    void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+
+        assertEquals(1002, histogram.getCount());
+        long p50 = histogram.getValueAtPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 + 500 / 64, "p50 " + p50);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue(p99 >= 991 && p99 <= 991 + 991 / 64, "p99 " + p99);
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(0));
+        assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+    }
+
+    @Test
+    void intervalsAreTheDifferenceOfCopies() {
+        LatencyRecorder recorder = new LatencyRecorder(0);
+        recorder.record(10);
+        assertEquals(0, recorder.getLastInterval(500, 1000).getCount());
+        assertEquals(1, recorder.getLastInterval(1000, 1000).getCount());
+
+        recorder.record(20);
+        recorder.record(30);
+        assertEquals(1, recorder.getLastInterval(1500, 1000).getCount());
+        LatencyHistogram interval = recorder.getLastInterval(2000, 1000);
+        assertEquals(2, interval.getCount());
+        assertEquals(30, interval.getMax());
+        assertEquals(3, recorder.getTotalCount());
+    }
+}
@@ -0,0 +1,115 @@
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+
+/**
+ * Throughput of finding the URL group of a request in <code>UaaMetricsFilter</code>. It compares the former linear
+ * scan over the <code>performance-url-groups.yml</code> patterns with the {@link UrlGroupMatcher}, with and without
+ * its per path memo.
+ * <p>
+ * <code>extraGroups</code> adds generated groups ahead of the catch-all pattern, to show how each approach scales with
+ * the number of groups. The memo holds all 1024 request paths once warmed up, so <code>trieWithMemo</code> shows the
+ * best case and <code>trie</code> the worst, where every path is new.
+ * Run with: <code>./gradlew :cloudfoundry-identity-server:jmh -PjmhArgs=UrlGroupMatchingBenchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UrlGroupMatchingBenchmark {
+
+    private static final String[] PATHS = {
+            "/oauth/token", "/check_token", "/login", "/Users/%s", "/oauth/authorize", "/Groups/%s/members",
+            "/userinfo", "/oauth/clients/%s/secret", "/identity-zones/%s", "/resources/%s.css"
+    };
+
+    @Param({"0", "500"})
+    public int extraGroups;
+
+    private Map<AntPathRequestMatcher, UrlGroup> linear;
+    private UrlGroupMatcher trie;
+    private UrlGroupMatcher memoized;
+    private HttpServletRequest[] requests;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        List<UrlGroup> groups = new ArrayList<>(new UaaMetricsFilter(true, false, null).getUrlGroups());
+        UrlGroup catchAll = groups.remove(groups.size() - 1);
+        for (int i = 0; i < extraGroups; i++) {
+            groups.add(new UrlGroup().setPattern("/generated-" + i + "/**").setGroup("/generated-" + i).setCategory("API").setLimit(1000));
+        }
+        groups.add(catchAll);
+
+        linear = new LinkedHashMap<>();
+        groups.forEach(group -> linear.put(new AntPathRequestMatcher(group.getPattern()), group));
+        trie = new UrlGroupMatcher(groups, UaaMetricsFilter.FALLBACK);
+        trie.setMaxMemoEntries(0);
+        memoized = new UrlGroupMatcher(groups, UaaMetricsFilter.FALLBACK);
+
+        requests = new HttpServletRequest[1024];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = request(String.format(PATHS[i % PATHS.length], "id-" + i));
+        }
+    }
+
+    @Benchmark
+    public UrlGroup linearScan() {
+        HttpServletRequest request = nextRequest();
+        for (Map.Entry<AntPathRequestMatcher, UrlGroup> entry : linear.entrySet()) {
+            if (entry.getKey().matches(request)) {
+                return entry.getValue();
+            }
+        }
+        return UaaMetricsFilter.FALLBACK;
+    }
+
+    @Benchmark
+    public UrlGroup trie() {
+        return trie.match(nextRequest());
+    }
+
+    @Benchmark
+    public UrlGroup trieWithMemo() {
+        return memoized.match(nextRequest());
+    }
+
+    private HttpServletRequest nextRequest() {
+        next = (next + 1) & (requests.length - 1);
+        return requests[next];
+    }
+
+    private static HttpServletRequest request(String path) {
+        return (HttpServletRequest) Proxy.newProxyInstance(UrlGroupMatchingBenchmark.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getServletPath" -> path;
+                    case "getRequestURI" -> "/uaa" + path;
+                    case "getContextPath" -> "/uaa";
+                    default -> null;
+                });
+    }
+}
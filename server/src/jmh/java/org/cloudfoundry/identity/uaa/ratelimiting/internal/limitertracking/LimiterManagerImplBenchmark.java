@@ -0,0 +1,133 @@
+package org.cloudfoundry.identity.uaa.ratelimiting.internal.limitertracking;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.identity.uaa.ratelimiting.core.Limiter;
+import org.cloudfoundry.identity.uaa.ratelimiting.core.config.LimiterMapping;
+import org.cloudfoundry.identity.uaa.ratelimiting.core.http.AuthorizationCredentialIdExtractor;
+import org.cloudfoundry.identity.uaa.ratelimiting.core.http.RequestInfo;
+import org.cloudfoundry.identity.uaa.ratelimiting.internal.common.RateLimitingFactoriesSupplierWithStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of <code>LimiterManagerImpl.getLimiter</code> under contention, with the expiration purging thread running.
+ * <p>
+ * Each benchmark method is identical except for the thread count, so the report shows the scaling from 1 to 64 threads.
+ * Run with: <code>./gradlew :cloudfoundry-identity-server:jmh -PjmhArgs=LimiterManagerImplBenchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LimiterManagerImplBenchmark {
+
+    private static final List<LimiterMapping> LIMITER_MAPPINGS = List.of(
+            LimiterMapping.builder().name( "Token" ).pathSelector( "equals:/oauth/token" ).withCallerCredentialsID( "100000r/s" ).build(),
+            LimiterMapping.builder().name( "CheckToken" ).pathSelector( "equals:/check_token" ).withCallerCredentialsID( "100000r/s" ).build(),
+            LimiterMapping.builder().name( "Global" ).pathSelector( "All" ).global( "100000r/s" ).build() );
+
+    private static final String[] PATHS = {"/oauth/token", "/check_token", "/login"};
+
+    /**
+     * Number of distinct callers; a small number concentrates the contention on a few keys.
+     */
+    @Param({"16", "10000"})
+    public int callers;
+
+    private LimiterManagerImpl limiterManager;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        AuthorizationCredentialIdExtractor credentialIdExtractor = RequestInfo::getAuthorizationHeader;
+        limiterManager = new LimiterManagerImpl( null );
+        limiterManager.update( RateLimitingFactoriesSupplierWithStatus.builder()
+                                       .supplier( new InternalLimiterFactoriesSupplierImpl( credentialIdExtractor, null, LIMITER_MAPPINGS ) )
+                                       .build() );
+        limiterManager.startBackgroundProcessing();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        limiterManager.shutdownBackgroundProcessing();
+    }
+
+    @State(Scope.Thread)
+    public static class Request implements RequestInfo {
+        private String[] callerIDs;
+        private int next;
+        private String callerID;
+        private String servletPath;
+
+        @Setup(Level.Trial)
+        public void setup( LimiterManagerImplBenchmark benchmark ) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            callerIDs = new String[1024];
+            for ( int i = 0; i < callerIDs.length; i++ ) {
+                callerIDs[i] = "caller-" + random.nextInt( benchmark.callers );
+            }
+        }
+
+        Request advance() {
+            int i = next++ & 1023;
+            callerID = callerIDs[i];
+            servletPath = PATHS[i % PATHS.length];
+            return this;
+        }
+
+        @Override
+        public String getAuthorizationHeader() {
+            return callerID;
+        }
+
+        @Override
+        public String getClientIP() {
+            return "10.0.0.1";
+        }
+
+        @Override
+        public String getServletPath() {
+            return servletPath;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Limiter getLimiter_01_threads( Request request ) {
+        return limiterManager.getLimiter( request.advance() );
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Limiter getLimiter_04_threads( Request request ) {
+        return limiterManager.getLimiter( request.advance() );
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Limiter getLimiter_16_threads( Request request ) {
+        return limiterManager.getLimiter( request.advance() );
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Limiter getLimiter_64_threads( Request request ) {
+        return limiterManager.getLimiter( request.advance() );
+    }
+}
@@ -0,0 +1,154 @@
+package org.cloudfoundry.identity.uaa.scim.jdbc;
+
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimUserProvisioning;
+import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundException;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.cloudfoundry.identity.uaa.util.beans.DbUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Transitive group lookups of {@link JdbcScimGroupMembershipManager#getGroupsWithMember(String, boolean, String)},
+ * resolved with one recursive query or with one query per level, against an in-memory HSQLDB holding 10k groups
+ * nested 6 levels deep. Every group is a member of two groups of the next level, and each of the 1000 members
+ * belongs to <code>directMemberships</code> groups of the first level.
+ * <p>
+ * The benchmark runs on a single thread, as the embedded database is used through a single connection. It also
+ * understates the cost of the level by level lookup, since there is no network round trip per query.
+ * Run with: <code>./gradlew :cloudfoundry-identity-server:jmh -PjmhArgs=TransitiveGroupResolutionBenchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransitiveGroupResolutionBenchmark {
+
+    private static final int GROUPS = 10_000;
+    private static final int LEVELS = 6;
+    private static final int MEMBERS = 1_000;
+
+    @Param({"1", "10"})
+    public int directMemberships;
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcScimGroupMembershipManager recursive;
+    private JdbcScimGroupMembershipManager levelByLevel;
+    private String zoneId;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        zoneId = IdentityZoneHolder.get().getId();
+        dataSource = new SingleConnectionDataSource("jdbc:hsqldb:mem:group_benchmark", "sa", "", true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table groups (id varchar(36) not null primary key, displayname varchar(255) not null, " +
+                "description varchar(255), created timestamp default current_timestamp not null, " +
+                "lastmodified timestamp default current_timestamp not null, version integer default 0 not null, " +
+                "identity_zone_id varchar(36) not null)");
+        jdbcTemplate.execute("create table group_membership (group_id varchar(36) not null, member_id varchar(36) not null, " +
+                "member_type varchar(8) default 'USER' not null, authorities varchar(255) default 'READ' not null, " +
+                "added timestamp default current_timestamp not null, origin varchar(36) default 'uaa' not null, " +
+                "identity_zone_id varchar(36) not null, primary key (group_id, member_id))");
+        jdbcTemplate.execute("create index group_membership_member_idx on group_membership(member_id)");
+
+        int perLevel = GROUPS / LEVELS;
+        Random random = new Random(42);
+        List<Object[]> groups = new ArrayList<>();
+        List<Object[]> memberships = new ArrayList<>();
+        for (int level = 0; level < LEVELS; level++) {
+            for (int i = 0; i < perLevel; i++) {
+                groups.add(new Object[] {groupId(level, i), "group." + level + "." + i, zoneId});
+                if (level + 1 < LEVELS) {
+                    int first = random.nextInt(perLevel);
+                    int second = (first + 1 + random.nextInt(perLevel - 1)) % perLevel;
+                    memberships.add(new Object[] {groupId(level + 1, first), groupId(level, i), "GROUP", zoneId});
+                    memberships.add(new Object[] {groupId(level + 1, second), groupId(level, i), "GROUP", zoneId});
+                }
+            }
+        }
+        for (int member = 0; member < MEMBERS; member++) {
+            random.ints(0, perLevel).distinct().limit(directMemberships).forEach(i ->
+                    memberships.add(new Object[] {groupId(0, i), memberId(member), "USER", zoneId}));
+        }
+        jdbcTemplate.batchUpdate("insert into groups (id, displayname, identity_zone_id) values (?,?,?)", groups);
+        jdbcTemplate.batchUpdate("insert into group_membership (group_id, member_id, member_type, identity_zone_id) values (?,?,?,?)", memberships);
+
+        // members are not users, so that no default groups are added to the results
+        ScimUserProvisioning noUsers = (ScimUserProvisioning) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {ScimUserProvisioning.class}, (proxy, method, args) -> {
+                    throw new ScimResourceNotFoundException("No users in this benchmark");
+                });
+        DbUtils dbUtils = new DbUtils();
+        recursive = new JdbcScimGroupMembershipManager(jdbcTemplate, new TimeServiceImpl(), noUsers, null, dbUtils);
+        levelByLevel = new JdbcScimGroupMembershipManager(jdbcTemplate, new TimeServiceImpl(), noUsers, null, dbUtils);
+        levelByLevel.setRecursiveQueryEnabled(false);
+    }
+
+    private static String groupId(int level, int index) {
+        return "group-" + level + "-" + index;
+    }
+
+    private static String memberId(int index) {
+        return "member-" + index;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new JdbcTemplate(dataSource).execute("shutdown");
+        dataSource.destroy();
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+        private String[] members;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            members = new String[1024];
+            for (int i = 0; i < members.length; i++) {
+                members[i] = memberId(random.nextInt(MEMBERS));
+            }
+        }
+
+        String member() {
+            return members[next++ & 1023];
+        }
+    }
+
+    @Benchmark
+    public Set<ScimGroup> getGroupsWithMember_recursiveQuery(Request request) {
+        return recursive.getGroupsWithMember(request.member(), true, zoneId);
+    }
+
+    @Benchmark
+    public Set<ScimGroup> getGroupsWithMember_levelByLevel(Request request) {
+        return levelByLevel.getGroupsWithMember(request.member(), true, zoneId);
+    }
+}
@@ -0,0 +1,101 @@
+package org.cloudfoundry.identity.uaa.zone;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Throughput of the zone lookup the <code>IdentityZoneResolvingFilter</code> performs on every request, with and
+ * without the {@link CachingIdentityZoneProvisioning}, against an in-memory HSQLDB holding 1, 100 or 10k zones.
+ * <p>
+ * The benchmark runs on a single thread, as the embedded database is used through a single connection. It also
+ * understates the cost of the uncached lookup, since there is no network round trip.
+ * Run with: <code>./gradlew :cloudfoundry-identity-server:jmh -PjmhArgs=IdentityZoneResolutionBenchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdentityZoneResolutionBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int zones;
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcIdentityZoneProvisioning uncached;
+    private CachingIdentityZoneProvisioning cached;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        dataSource = new SingleConnectionDataSource("jdbc:hsqldb:mem:zone_benchmark", "sa", "", true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table identity_zone (id varchar(36) not null primary key, version integer default 0 not null, " +
+                "created timestamp default current_timestamp not null, lastmodified timestamp default current_timestamp not null, " +
+                "name varchar(255) not null, subdomain varchar(255) not null, description varchar(255), config longvarchar, " +
+                "active boolean default true not null)");
+        jdbcTemplate.execute("create unique index identity_zone_subdomain on identity_zone(subdomain)");
+
+        uncached = new JdbcIdentityZoneProvisioning(jdbcTemplate);
+        for (int i = 0; i < zones; i++) {
+            IdentityZone zone = new IdentityZone();
+            zone.setId("zone-" + i);
+            zone.setName("zone-" + i);
+            zone.setSubdomain("zone-" + i);
+            zone.setConfig(new IdentityZoneConfiguration());
+            uncached.create(zone);
+        }
+        cached = new CachingIdentityZoneProvisioning(uncached);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new JdbcTemplate(dataSource).execute("shutdown");
+        dataSource.destroy();
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+        private String[] subdomains;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup(IdentityZoneResolutionBenchmark benchmark) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            subdomains = new String[1024];
+            for (int i = 0; i < subdomains.length; i++) {
+                subdomains[i] = "zone-" + random.nextInt(benchmark.zones);
+            }
+        }
+
+        String subdomain() {
+            return subdomains[next++ & 1023];
+        }
+    }
+
+    @Benchmark
+    public IdentityZone retrieveBySubdomain_uncached(Request request) {
+        return uncached.retrieveBySubdomain(request.subdomain());
+    }
+
+    @Benchmark
+    public IdentityZone retrieveBySubdomain_cached(Request request) {
+        return cached.retrieveBySubdomain(request.subdomain());
+    }
+}
@@ -12,7 +12,10 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.approval;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public interface ApprovalStore {
 
@@ -30,5 +33,17 @@ public interface ApprovalStore {
 
     List<Approval> getApprovalsForUser(String userId, final String zoneId);
 
+    /**
+     * Retrieve the approvals of each of the given users, keyed by user id.
+     * Stores backed by a database should override this to resolve all users with bulk queries.
+     */
+    default Map<String, List<Approval>> getApprovalsForUsers(Collection<String> userIds, final String zoneId) {
+        Map<String, List<Approval>> approvals = new HashMap<>();
+        for (String userId : userIds) {
+            approvals.put(userId, getApprovalsForUser(userId, zoneId));
+        }
+        return approvals;
+    }
+
     List<Approval> getApprovalsForClient(String clientId, final String zoneId);
 }
@@ -42,17 +42,21 @@ public class JdbcAuditService implements UaaAuditService {
 
     @Override
     public void log(AuditEvent auditEvent, String zoneId) {
-        String origin = auditEvent.getOrigin();
-        String data = auditEvent.getData();
-        origin = origin == null ? "" : origin;
-        origin = origin.length() > 255 ? origin.substring(0, 255) : origin;
-        data = data == null ? "" : data;
-        data = data.length() > 255 ? data.substring(0, 255) : data;
+        String origin = truncate(auditEvent.getOrigin());
+        String data = truncate(auditEvent.getData());
         template.update("insert into sec_audit (principal_id, event_type, origin, event_data, identity_zone_id) values (?,?,?,?,?)",
                         auditEvent.getPrincipalId(), auditEvent.getType().getCode(), origin,
                         data, zoneId);
     }
 
+    /**
+     * Null safe truncation to the size of the origin and event_data columns.
+     */
+    protected static String truncate(String value) {
+        value = value == null ? "" : value;
+        return value.length() > 255 ? value.substring(0, 255) : value;
+    }
+
     private class AuditEventRowMapper implements RowMapper<AuditEvent> {
         @Override
         public AuditEvent mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -1,13 +1,41 @@
 package org.cloudfoundry.identity.uaa.audit;
 
+import org.cloudfoundry.identity.uaa.expiry.ExpirySweepable;
+import org.cloudfoundry.identity.uaa.expiry.ExpirySweeper;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.sql.Timestamp;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationFailure;
 
@@ -15,47 +43,193 @@ import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticat
  * An audit service that subscribes to audit events but only saves enough data
  * to answer queries about consecutive
  * failed logins.
+ * <p>
+ * With write-behind enabled, failures and resets are queued per principal and written by a background thread in
+ * JDBC batches, so request threads never wait on <code>sec_audit</code>. Repeated resets of a principal collapse
+ * into a single delete, and failures queued before a reset are dropped without ever being written.
+ * {@link #find(String, long, String)} merges the queued failures with the table, so lockout decisions always see
+ * every failure logged on this node. When the queue is full, events of principals with nothing queued are written
+ * directly as they are without write-behind, and the background thread is asked to flush right away.
  */
+@ManagedResource
+(
+    objectName = "cloudfoundry.identity:name=UnsuccessfulLoginAudit",
+    description = "UAA Unsuccessful Login Audit Write-Behind Metrics"
+)
 @Component("jdbcAuditService")
-public class JdbcUnsuccessfulLoginCountingAuditService extends JdbcAuditService {
+public class JdbcUnsuccessfulLoginCountingAuditService extends JdbcAuditService implements InitializingBean, DisposableBean, ExpirySweepable {
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcUnsuccessfulLoginCountingAuditService.class);
+
+    private static final String DELETE_PRINCIPAL_EVENTS_SQL = "delete from sec_audit where principal_id=? and identity_zone_id=? and event_type=?";
+
+    private static final String SELECT_EXPIRED_EVENTS_SQL = "select id from sec_audit where created < ?";
+
+    private static final String DELETE_EXPIRED_EVENT_SQL = "delete from sec_audit where id=? and created < ?";
+
+    private static final String INSERT_EVENT_SQL = "insert into sec_audit (principal_id, event_type, origin, event_data, created, identity_zone_id) values (?,?,?,?,?,?)";
 
     private final TimeService timeService;
+    private final TransactionTemplate transactionTemplate;
 
     private final Duration saveDataPeriod;
     private final Duration timeBetweenDelete;
 
     private AtomicLong lastDelete;
+    private volatile boolean backgroundSweep;
+
+    private final ConcurrentMap<PrincipalKey, PendingWrites> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushFailureCount = new AtomicLong();
+    private volatile long lastFlushLatencyMillis;
+    private volatile long maxFlushLatencyMillis;
+
+    private boolean writeBehind = false;
+    private int maxQueueSize = 10000;
+    private int batchSize = 500;
+    private long flushIntervalMillis = 100;
+    private volatile ScheduledExecutorService flusher;
 
     public JdbcUnsuccessfulLoginCountingAuditService(
             final JdbcTemplate template,
-            final TimeService timeService) {
+            final TimeService timeService,
+            final @Qualifier("transactionManager") PlatformTransactionManager transactionManager) {
         super(template);
         this.timeService = timeService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
         this.lastDelete = new AtomicLong(0);
         this.saveDataPeriod = Duration.ofDays(1L);
         this.timeBetweenDelete = Duration.ofSeconds(30L);
     }
 
+    /**
+     * Hands the deletion of old audit rows to the sweeper, taking it off the login and flush paths.
+     */
+    @Autowired(required = false)
+    public void setExpirySweeper(ExpirySweeper expirySweeper) {
+        this.backgroundSweep = expirySweeper.register(this);
+    }
+
+    @Value("${audit.writeBehind.enabled:false}")
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    @Value("${audit.writeBehind.maxQueueSize:10000}")
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    @Value("${audit.writeBehind.batchSize:500}")
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Value("${audit.writeBehind.flushIntervalMillis:100}")
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (writeBehind) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "uaa-audit-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::backgroundFlush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flusher = null;
+        }
+        try {
+            while (flush() > 0) {
+                // drain what is left
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Unable to write queued login audit events on shutdown", e);
+        }
+    }
+
     @Override
     public void log(AuditEvent auditEvent, String zoneId) {
         switch (auditEvent.getType()) {
             case UserAuthenticationSuccess, PasswordChangeSuccess, UserAccountUnlockedEvent:
-                resetAuthenticationEvents(auditEvent, zoneId, UserAuthenticationFailure);
+                if (!writeBehind || !enqueue(new PrincipalKey(zoneId, auditEvent.getPrincipalId()), null)) {
+                    resetAuthenticationEvents(auditEvent, zoneId, UserAuthenticationFailure);
+                }
                 break;
             case UserAuthenticationFailure:
-                periodicDelete();
-                super.log(auditEvent, zoneId);
+                if (!writeBehind || !enqueue(new PrincipalKey(zoneId, auditEvent.getPrincipalId()), new AuditEvent(
+                        auditEvent.getType(), auditEvent.getPrincipalId(), truncate(auditEvent.getOrigin()),
+                        truncate(auditEvent.getData()), auditEvent.getTime(), zoneId, null, null))) {
+                    periodicDelete();
+                    super.log(auditEvent, zoneId);
+                }
                 break;
             default:
                 break;
         }
     }
 
+    @Override
+    public List<AuditEvent> find(String principalId, long after, String zoneId) {
+        PrincipalKey key = new PrincipalKey(zoneId, principalId);
+        for (int attempt = 0; ; attempt++) {
+            PendingWrites writes = writeBehind ? pending.get(key) : null;
+            if (writes == null) {
+                return super.find(principalId, after, zoneId);
+            }
+            long taken;
+            boolean reset;
+            List<AuditEvent> queued;
+            synchronized (writes) {
+                awaitFlush(writes);
+                taken = writes.taken;
+                reset = writes.reset;
+                queued = new ArrayList<>(writes.failures);
+            }
+            List<AuditEvent> events = reset ? new ArrayList<>() : new ArrayList<>(super.find(principalId, after, zoneId));
+            boolean unchanged;
+            synchronized (writes) {
+                unchanged = writes.taken == taken;
+            }
+            // a flush that took the queued failures while the table was read may have counted them twice,
+            // so read again; after a few tries, count them twice rather than not at all
+            if (unchanged || attempt >= 2) {
+                for (AuditEvent failure : queued) {
+                    if (failure.getTime() > after) {
+                        events.add(failure);
+                    }
+                }
+                events.sort(Comparator.comparingLong(AuditEvent::getTime).reversed());
+                return events;
+            }
+        }
+    }
+
     private void resetAuthenticationEvents(AuditEvent auditEvent, String zoneId, AuditEventType eventType) {
-        getJdbcTemplate().update("delete from sec_audit where principal_id=? and identity_zone_id=? and event_type=?", auditEvent.getPrincipalId(), zoneId, eventType.getCode());
+        getJdbcTemplate().update(DELETE_PRINCIPAL_EVENTS_SQL, auditEvent.getPrincipalId(), zoneId, eventType.getCode());
     }
 
     protected void periodicDelete() {
+        if (backgroundSweep) {
+            return;
+        }
         long now = timeService.getCurrentTimeMillis();
         long lastCheck = lastDelete.get();
         if (now - lastCheck > timeBetweenDelete.toMillis() && lastDelete.compareAndSet(lastCheck, now)) {
@@ -65,4 +239,252 @@ public class JdbcUnsuccessfulLoginCountingAuditService extends JdbcAuditService
         }
     }
 
+    @Override
+    public String getSweepName() {
+        return "sec_audit";
+    }
+
+    /**
+     * Deletes up to <code>maxRows</code> audit rows older than a day.
+     */
+    @Override
+    public int sweepExpired(int maxRows) {
+        return ExpirySweeper.deleteBatch(getJdbcTemplate(), SELECT_EXPIRED_EVENTS_SQL, DELETE_EXPIRED_EVENT_SQL, maxRows,
+                new Timestamp(timeService.getCurrentTimeMillis() - saveDataPeriod.toMillis()));
+    }
+
+    /**
+     * Queues a failure, or a reset of the principal's failures when <code>failure</code> is null.
+     *
+     * @return false if the queue is full and nothing of the principal is queued, in which case the caller writes
+     * the event itself
+     */
+    private boolean enqueue(PrincipalKey key, AuditEvent failure) {
+        if (queueDepth.get() >= maxQueueSize) {
+            requestFlush();
+            if (!pending.containsKey(key)) {
+                return false;
+            }
+            // keep the order of the principal's writes
+        }
+        while (true) {
+            PendingWrites writes = pending.computeIfAbsent(key, k -> new PendingWrites());
+            synchronized (writes) {
+                if (writes.removed) {
+                    continue;
+                }
+                int before = writes.depth();
+                if (failure == null) {
+                    writes.failures.clear();
+                    writes.reset = true;
+                } else {
+                    writes.failures.add(failure);
+                }
+                queueDepth.addAndGet(writes.depth() - before);
+                return true;
+            }
+        }
+    }
+
+    private void requestFlush() {
+        ScheduledExecutorService current = flusher;
+        if (current != null && flushRequested.compareAndSet(false, true)) {
+            try {
+                current.execute(() -> {
+                    flushRequested.set(false);
+                    backgroundFlush();
+                });
+            } catch (RejectedExecutionException e) {
+                // shutting down, destroy() drains the queue
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    private void backgroundFlush() {
+        try {
+            periodicDelete();
+            while (flush() >= batchSize) {
+                // keep draining while the queue holds more than a batch
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Unable to write queued login audit events, will retry", e);
+        }
+    }
+
+    /**
+     * Writes up to one batch of queued resets and failures in a single transaction.
+     *
+     * @return the number of queued writes taken from the queue
+     */
+    public int flush() {
+        flushLock.lock();
+        try {
+            long start = System.nanoTime();
+            List<Map.Entry<PrincipalKey, PendingWrites>> taken = new ArrayList<>();
+            List<Object[]> deletes = new ArrayList<>();
+            List<Object[]> inserts = new ArrayList<>();
+            for (Map.Entry<PrincipalKey, PendingWrites> entry : pending.entrySet()) {
+                if (deletes.size() + inserts.size() >= batchSize) {
+                    break;
+                }
+                PrincipalKey key = entry.getKey();
+                PendingWrites writes = entry.getValue();
+                synchronized (writes) {
+                    if (writes.removed || writes.depth() == 0) {
+                        continue;
+                    }
+                    queueDepth.addAndGet(-writes.depth());
+                    writes.taken++;
+                    writes.flushing = true;
+                    writes.flushingReset = writes.reset;
+                    writes.flushingFailures = writes.failures;
+                    writes.reset = false;
+                    writes.failures = new ArrayList<>();
+                    if (writes.flushingReset) {
+                        deletes.add(new Object[]{key.principalId, key.zoneId, UserAuthenticationFailure.getCode()});
+                    }
+                    for (AuditEvent failure : writes.flushingFailures) {
+                        inserts.add(new Object[]{failure.getPrincipalId(), failure.getType().getCode(), failure.getOrigin(),
+                                failure.getData(), new Timestamp(failure.getTime()), key.zoneId});
+                    }
+                }
+                taken.add(entry);
+            }
+            if (taken.isEmpty()) {
+                return 0;
+            }
+
+            boolean written = false;
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    if (!deletes.isEmpty()) {
+                        getJdbcTemplate().batchUpdate(DELETE_PRINCIPAL_EVENTS_SQL, deletes);
+                    }
+                    if (!inserts.isEmpty()) {
+                        getJdbcTemplate().batchUpdate(INSERT_EVENT_SQL, inserts);
+                    }
+                });
+                written = true;
+            } catch (RuntimeException e) {
+                flushFailureCount.incrementAndGet();
+                throw e;
+            } finally {
+                for (Map.Entry<PrincipalKey, PendingWrites> entry : taken) {
+                    settle(entry.getKey(), entry.getValue(), written);
+                }
+                long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                lastFlushLatencyMillis = latency;
+                maxFlushLatencyMillis = Math.max(maxFlushLatencyMillis, latency);
+                flushCount.incrementAndGet();
+            }
+            return deletes.size() + inserts.size();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void settle(PrincipalKey key, PendingWrites writes, boolean written) {
+        synchronized (writes) {
+            if (!written) {
+                // put the batch back in front of whatever was queued meanwhile, unless
+                // a reset arrived since, which supersedes the failures of the batch
+                int before = writes.depth();
+                if (!writes.reset) {
+                    writes.failures.addAll(0, writes.flushingFailures);
+                    writes.reset = writes.flushingReset;
+                }
+                queueDepth.addAndGet(writes.depth() - before);
+            }
+            writes.flushing = false;
+            writes.flushingReset = false;
+            writes.flushingFailures = null;
+            if (writes.depth() == 0) {
+                writes.removed = true;
+                pending.remove(key, writes);
+            }
+            writes.notifyAll();
+        }
+    }
+
+    private static void awaitFlush(PendingWrites writes) {
+        while (writes.flushing) {
+            try {
+                writes.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Queued Login Audit Writes")
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Login Audit Flush Count")
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Login Audit Flush Failure Count")
+    public long getFlushFailureCount() {
+        return flushFailureCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Last Login Audit Flush Latency (ms)")
+    public long getLastFlushLatencyMillis() {
+        return lastFlushLatencyMillis;
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Max Login Audit Flush Latency (ms)")
+    public long getMaxFlushLatencyMillis() {
+        return maxFlushLatencyMillis;
+    }
+
+    /**
+     * Queued writes of one principal, guarded by its own monitor.
+     */
+    private static final class PendingWrites {
+        private List<AuditEvent> failures = new ArrayList<>();
+        private boolean reset;
+        private boolean flushing;
+        // the number of times a flush took the queued writes
+        private long taken;
+        private boolean flushingReset;
+        private List<AuditEvent> flushingFailures;
+        private boolean removed;
+
+        private int depth() {
+            return failures.size() + (reset ? 1 : 0);
+        }
+    }
+
+    private static final class PrincipalKey {
+        private final String zoneId;
+        private final String principalId;
+
+        private PrincipalKey(String zoneId, String principalId) {
+            this.zoneId = zoneId;
+            this.principalId = principalId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PrincipalKey)) {
+                return false;
+            }
+            PrincipalKey that = (PrincipalKey) o;
+            return Objects.equals(zoneId, that.zoneId) && Objects.equals(principalId, that.principalId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(zoneId, principalId);
+        }
+    }
 }
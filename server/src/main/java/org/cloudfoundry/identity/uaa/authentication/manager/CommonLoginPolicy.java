@@ -33,6 +33,7 @@ public class CommonLoginPolicy implements LoginPolicy {
     private final AuditEventType failureEventType;
     private final TimeService timeService;
     private final boolean enabled;
+    private LockoutCounters lockoutCounters;
 
     public CommonLoginPolicy(UaaAuditService auditService,
                              LockoutPolicyRetriever lockoutPolicyRetriever,
@@ -55,6 +56,16 @@ public class CommonLoginPolicy implements LoginPolicy {
             LockoutPolicy lockoutPolicy = lockoutPolicyRetriever.getLockoutPolicy();
 
             long eventsAfter = timeService.getCurrentTimeMillis() - lockoutPolicy.getCountFailuresWithin() * 1000;
+            // the counters only keep the most recent failures, a policy that needs more is checked against the audit
+            if (lockoutCounters != null && lockoutPolicy.getLockoutAfterFailures() <= lockoutCounters.getMaxTrackedFailures()) {
+                String zoneId = IdentityZoneHolder.get().getId();
+                failureCount = lockoutCounters.countFailures(principalId, zoneId, eventsAfter);
+                if (failureCount > 0 && failureCount >= lockoutPolicy.getLockoutAfterFailures()
+                        && lockoutCounters.lastFailure(principalId, zoneId) > timeService.getCurrentTimeMillis() - lockoutPolicy.getLockoutPeriodSeconds() * 1000) {
+                    return new Result(false, failureCount);
+                }
+                return new Result(true, failureCount);
+            }
             List<AuditEvent> events = auditService.find(principalId, eventsAfter, IdentityZoneHolder.get().getId());
 
             failureCount = sequentialFailureCount(events);
@@ -97,6 +108,14 @@ public class CommonLoginPolicy implements LoginPolicy {
         return null;
     }
 
+    /**
+     * Counts failures with the given in-memory counters instead of querying the audit service, for lockout policies
+     * that do not require more failures than the counters track.
+     */
+    public void setLockoutCounters(LockoutCounters lockoutCounters) {
+        this.lockoutCounters = lockoutCounters;
+    }
+
     public LockoutPolicyRetriever getLockoutPolicyRetriever() {
         return lockoutPolicyRetriever;
     }
@@ -21,6 +21,7 @@ import org.cloudfoundry.identity.uaa.authentication.manager.ChainedAuthenticatio
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
+import org.cloudfoundry.identity.uaa.provider.IdentityProviderRegistry;
 import org.cloudfoundry.identity.uaa.provider.JdbcIdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.provider.LdapIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMembershipManager;
@@ -52,6 +53,7 @@ public class DynamicZoneAwareAuthenticationManager implements AuthenticationMana
     private final ScimGroupProvisioning scimGroupProvisioning;
     private final LdapLoginAuthenticationManager ldapLoginAuthenticationManager;
     private ApplicationEventPublisher eventPublisher;
+    private IdentityProviderRegistry identityProviderRegistry;
 
     public DynamicZoneAwareAuthenticationManager(final @Qualifier("identityProviderProvisioning") IdentityProviderProvisioning provisioning,
                                                  AuthenticationManager internalUaaAuthenticationManager,
@@ -133,7 +135,9 @@ public class DynamicZoneAwareAuthenticationManager implements AuthenticationMana
 
     protected IdentityProvider getProvider(String origin, IdentityZone zone) {
         try {
-            IdentityProvider result = provisioning.retrieveByOrigin(origin, zone.getId());
+            IdentityProvider result = identityProviderRegistry != null ?
+                identityProviderRegistry.retrieveByOrigin(origin, zone.getId()) :
+                provisioning.retrieveByOrigin(origin, zone.getId());
             if (result!=null) {
                 return result;
             }
@@ -169,6 +173,10 @@ public class DynamicZoneAwareAuthenticationManager implements AuthenticationMana
         }
     }
 
+    public void setIdentityProviderRegistry(IdentityProviderRegistry identityProviderRegistry) {
+        this.identityProviderRegistry = identityProviderRegistry;
+    }
+
     @Override
     public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
         this.eventPublisher = applicationEventPublisher;
@@ -0,0 +1,474 @@
+package org.cloudfoundry.identity.uaa.authentication.manager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.cloudfoundry.identity.uaa.account.event.PasswordChangeEvent;
+import org.cloudfoundry.identity.uaa.account.event.UserAccountUnlockedEvent;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.authentication.event.UserAuthenticationFailureEvent;
+import org.cloudfoundry.identity.uaa.authentication.event.UserAuthenticationSuccessEvent;
+import org.cloudfoundry.identity.uaa.expiry.ExpirySweepable;
+import org.cloudfoundry.identity.uaa.expiry.ExpirySweeper;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the failed logins of each principal in memory, so that {@link CommonLoginPolicy} does not have to scan
+ * <code>sec_audit</code> on every login attempt.
+ * <p>
+ * Each principal keeps the times of its most recent <code>maxTrackedFailures</code> failures since its last successful
+ * login, password change or unlock. {@link CommonLoginPolicy} falls back to <code>sec_audit</code> for lockout
+ * policies that require more failures than that. When more than <code>maxPrincipals</code> principals have failures,
+ * the least recently used counters are dropped.
+ * <p>
+ * Every <code>syncIntervalMillis</code>, the counters changed since the last run are merged into the
+ * <code>lockout_counters</code> table, one row per principal. With <code>reconcile</code> enabled, rows changed by
+ * other nodes are merged back into memory as well, so that a cluster locks a principal out after roughly the same
+ * number of failures as a single node. A reset of a principal without a counter on this node only updates an
+ * existing row. Counters and rows untouched for <code>retentionMillis</code> are dropped.
+ */
+@ManagedResource
+(
+    objectName = "cloudfoundry.identity:name=LockoutCounters",
+    description = "UAA Login Lockout Counter Metrics"
+)
+public class LockoutCounters implements ApplicationListener<AbstractUaaEvent>, InitializingBean, DisposableBean, ExpirySweepable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LockoutCounters.class);
+
+    private static final String SELECT_COUNTER_SQL = "select failures, reset_at, updated_at from lockout_counters where principal_id=? and identity_zone_id=?";
+    private static final String SELECT_CHANGED_COUNTERS_SQL = "select principal_id, identity_zone_id, failures, reset_at from lockout_counters where updated_at > ?";
+    private static final String INSERT_COUNTER_SQL = "insert into lockout_counters (principal_id, identity_zone_id, failures, reset_at, updated_at) values (?,?,?,?,?)";
+    private static final String UPDATE_COUNTER_SQL = "update lockout_counters set failures=?, reset_at=?, updated_at=? where principal_id=? and identity_zone_id=? and updated_at=?";
+    private static final String RESET_COUNTER_SQL = "update lockout_counters set reset_at=?, updated_at=? where principal_id=? and identity_zone_id=? and reset_at < ?";
+    // keeps the encoded failures within the column size
+    private static final int MAX_PERSISTED_FAILURES = 100;
+    private static final String SELECT_EXPIRED_SQL = "select principal_id, identity_zone_id from lockout_counters where updated_at < ?";
+    private static final String DELETE_EXPIRED_SQL = "delete from lockout_counters where principal_id=? and identity_zone_id=? and updated_at < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TimeService timeService;
+    private volatile Cache<PrincipalKey, Counter> counters = newCounters(100_000);
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong syncFailures = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong rowsMerged = new AtomicLong();
+
+    private boolean reconcile = true;
+    private int maxTrackedFailures = 32;
+    private long syncIntervalMillis = 1_000;
+    private long clockSkewMillis = 5_000;
+    private long retentionMillis = 24 * 60 * 60 * 1000L;
+    private volatile long lastReconciledAt = -1;
+    private boolean backgroundSweep;
+    private ScheduledExecutorService scheduler;
+
+    public LockoutCounters(JdbcTemplate jdbcTemplate, TimeService timeService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.timeService = timeService;
+    }
+
+    /**
+     * Hands the deletion of old counter rows to the sweeper.
+     */
+    public void setExpirySweeper(ExpirySweeper expirySweeper) {
+        this.backgroundSweep = expirySweeper.register(this);
+    }
+
+    /**
+     * @return the number of failures of the principal after <code>after</code> and since its last reset
+     */
+    public int countFailures(String principalId, String zoneId, long after) {
+        Counter counter = counters.getIfPresent(new PrincipalKey(principalId, zoneId));
+        return counter == null ? 0 : counter.countAfter(after);
+    }
+
+    /**
+     * @return the time of the most recent failure of the principal since its last reset, or -1 if there is none
+     */
+    public long lastFailure(String principalId, String zoneId) {
+        Counter counter = counters.getIfPresent(new PrincipalKey(principalId, zoneId));
+        return counter == null ? -1 : counter.lastFailure();
+    }
+
+    public void recordFailure(String principalId, String zoneId) {
+        counter(new PrincipalKey(principalId, zoneId)).addFailure(timeService.getCurrentTimeMillis());
+    }
+
+    public void reset(String principalId, String zoneId) {
+        long now = timeService.getCurrentTimeMillis();
+        Counter counter = counters.getIfPresent(new PrincipalKey(principalId, zoneId));
+        if (counter != null) {
+            counter.reset(now);
+        } else if (reconcile) {
+            // peers may hold failures of the principal that this node has not seen yet, reset their row if there is one
+            try {
+                jdbcTemplate.update(RESET_COUNTER_SQL, now, now, principalId, zoneId, now);
+            } catch (RuntimeException e) {
+                syncFailures.incrementAndGet();
+                logger.warn("Unable to reset the lockout counter row of a principal.", e);
+            }
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof UserAuthenticationFailureEvent failure) {
+            recordFailure(failure.getUser().getId(), event.getIdentityZoneId());
+        } else if (event instanceof UserAuthenticationSuccessEvent success) {
+            reset(success.getUser().getId(), event.getIdentityZoneId());
+        } else if (event instanceof PasswordChangeEvent passwordChange && passwordChange.getUser() != null) {
+            reset(passwordChange.getUser().getId(), event.getIdentityZoneId());
+        } else if (event instanceof UserAccountUnlockedEvent && event.getSource() instanceof ScimUser user) {
+            reset(user.getId(), event.getIdentityZoneId());
+        }
+    }
+
+    private Counter counter(PrincipalKey key) {
+        return counters.asMap().computeIfAbsent(key, k -> new Counter(maxTrackedFailures));
+    }
+
+    /**
+     * Writes the changed counters and, with reconciliation, merges the rows changed by other nodes.
+     */
+    void sync() {
+        long now = timeService.getCurrentTimeMillis();
+        try {
+            for (Map.Entry<PrincipalKey, Counter> entry : counters.asMap().entrySet()) {
+                Counter counter = entry.getValue();
+                if (counter.isDirty()) {
+                    write(entry.getKey(), counter, now);
+                } else if (now - counter.lastChange() > retentionMillis) {
+                    counters.asMap().remove(entry.getKey(), counter);
+                }
+            }
+            if (reconcile) {
+                long since = lastReconciledAt < 0 ? now - retentionMillis : lastReconciledAt - clockSkewMillis;
+                jdbcTemplate.query(SELECT_CHANGED_COUNTERS_SQL, rs -> {
+                    PrincipalKey key = new PrincipalKey(rs.getString(1), rs.getString(2));
+                    long[] failures = decode(rs.getString(3));
+                    long resetAt = rs.getLong(4);
+                    Counter counter = counters.getIfPresent(key);
+                    if (counter != null || failures.length > 0) {
+                        (counter != null ? counter : counter(key)).merge(failures, resetAt, false);
+                        rowsMerged.incrementAndGet();
+                    }
+                }, since);
+                lastReconciledAt = now;
+            }
+            if (!backgroundSweep) {
+                sweepExpired(0);
+            }
+            syncs.incrementAndGet();
+        } catch (RuntimeException e) {
+            syncFailures.incrementAndGet();
+            logger.warn("Unable to synchronize lockout counters.", e);
+        }
+    }
+
+    private void write(PrincipalKey key, Counter counter, long now) {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Counter.Snapshot local = counter.takeSnapshot();
+            List<Object[]> rows = jdbcTemplate.query(SELECT_COUNTER_SQL,
+                    (rs, rowNum) -> new Object[]{decode(rs.getString(1)), rs.getLong(2), rs.getLong(3)}, key.principalId, key.zoneId);
+            if (rows.isEmpty()) {
+                try {
+                    jdbcTemplate.update(INSERT_COUNTER_SQL, key.principalId, key.zoneId, encode(local.failures), local.resetAt, now);
+                    rowsWritten.incrementAndGet();
+                    return;
+                } catch (DataIntegrityViolationException e) {
+                    // another node inserted the row first, merge with it
+                    counter.markDirty();
+                    continue;
+                }
+            }
+            Object[] row = rows.get(0);
+            counter.merge((long[]) row[0], (long) row[1], false);
+            Counter.Snapshot merged = counter.takeSnapshot();
+            if (jdbcTemplate.update(UPDATE_COUNTER_SQL, encode(merged.failures), merged.resetAt, now, key.principalId, key.zoneId, row[2]) > 0) {
+                rowsWritten.incrementAndGet();
+                return;
+            }
+            // the row changed in the meantime, read it again
+            counter.markDirty();
+        }
+        counter.markDirty();
+    }
+
+    @Override
+    public String getSweepName() {
+        return "lockout_counters";
+    }
+
+    /**
+     * Deletes at most <code>maxRows</code> counter rows untouched for the retention period, all of them if
+     * <code>maxRows</code> is not positive.
+     */
+    @Override
+    public int sweepExpired(int maxRows) {
+        return ExpirySweeper.deleteBatch(jdbcTemplate, SELECT_EXPIRED_SQL, DELETE_EXPIRED_SQL, maxRows,
+                timeService.getCurrentTimeMillis() - retentionMillis);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (reconcile) {
+            sync();
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "uaa-lockout-counters");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        sync();
+    }
+
+    static String encode(long[] failures) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = Math.max(0, failures.length - MAX_PERSISTED_FAILURES); i < failures.length; i++) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(Long.toString(failures[i], Character.MAX_RADIX));
+        }
+        return builder.toString();
+    }
+
+    static long[] decode(String failures) {
+        if (!StringUtils.hasText(failures)) {
+            return new long[0];
+        }
+        return Arrays.stream(failures.split(",")).mapToLong(failure -> Long.parseLong(failure.trim(), Character.MAX_RADIX)).toArray();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Principals Tracked")
+    public long getTrackedPrincipals() {
+        return counters.size();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Synchronizations")
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Failed Synchronizations")
+    public long getSyncFailureCount() {
+        return syncFailures.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Counter Rows Written")
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Counter Rows Merged From Other Nodes")
+    public long getRowsMerged() {
+        return rowsMerged.get();
+    }
+
+    public void setReconcile(boolean reconcile) {
+        this.reconcile = reconcile;
+    }
+
+    public int getMaxTrackedFailures() {
+        return maxTrackedFailures;
+    }
+
+    public void setMaxTrackedFailures(int maxTrackedFailures) {
+        this.maxTrackedFailures = maxTrackedFailures;
+    }
+
+    public void setMaxPrincipals(int maxPrincipals) {
+        this.counters = newCounters(maxPrincipals);
+    }
+
+    private static Cache<PrincipalKey, Counter> newCounters(int maxPrincipals) {
+        return CacheBuilder.newBuilder().maximumSize(maxPrincipals).build();
+    }
+
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    public void setClockSkewMillis(long clockSkewMillis) {
+        this.clockSkewMillis = clockSkewMillis;
+    }
+
+    public void setRetentionMillis(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * The most recent failures of a principal since its last reset, sorted from oldest to newest.
+     */
+    private static final class Counter {
+        private final int capacity;
+        private long[] failures = new long[0];
+        private long resetAt;
+        private long lastChange;
+        private boolean dirty;
+
+        private Counter(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * Failures at the same millisecond are counted separately.
+         */
+        synchronized void addFailure(long time) {
+            if (time > resetAt) {
+                int at = failures.length;
+                while (at > 0 && failures[at - 1] > time) {
+                    at--;
+                }
+                long[] added = new long[failures.length + 1];
+                System.arraycopy(failures, 0, added, 0, at);
+                added[at] = time;
+                System.arraycopy(failures, at, added, at + 1, failures.length - at);
+                failures = added.length > capacity ? Arrays.copyOfRange(added, added.length - capacity, added.length) : added;
+                lastChange = Math.max(lastChange, time);
+            }
+            dirty = true;
+        }
+
+        synchronized void reset(long time) {
+            merge(new long[0], time, true);
+        }
+
+        /**
+         * Keeps the most recent failures of both sides that happened after the later reset. A time that occurs on
+         * both sides is kept as often as on the side where it occurs more often, so merging the same failures again
+         * does not change the counter.
+         */
+        synchronized void merge(long[] otherFailures, long otherResetAt, boolean localChange) {
+            long reset = Math.max(resetAt, otherResetAt);
+            long[] combined = new long[failures.length + otherFailures.length];
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < failures.length || j < otherFailures.length) {
+                long next = j >= otherFailures.length || (i < failures.length && failures[i] <= otherFailures[j]) ? failures[i] : otherFailures[j];
+                int local = 0;
+                while (i < failures.length && failures[i] == next) {
+                    i++;
+                    local++;
+                }
+                int other = 0;
+                while (j < otherFailures.length && otherFailures[j] == next) {
+                    j++;
+                    other++;
+                }
+                if (next > reset) {
+                    for (int n = Math.max(local, other); n > 0; n--) {
+                        combined[size++] = next;
+                    }
+                }
+            }
+            int from = Math.max(0, size - capacity);
+            long[] merged = Arrays.copyOfRange(combined, from, size);
+            boolean changed = reset != resetAt || !Arrays.equals(merged, failures);
+            failures = merged;
+            resetAt = reset;
+            if (changed) {
+                lastChange = Math.max(lastChange, Math.max(reset, failures.length > 0 ? failures[failures.length - 1] : 0));
+            }
+            if (localChange) {
+                dirty = true;
+            }
+        }
+
+        synchronized int countAfter(long after) {
+            int count = 0;
+            for (int i = failures.length - 1; i >= 0 && failures[i] > after; i--) {
+                count++;
+            }
+            return count;
+        }
+
+        synchronized long lastFailure() {
+            return failures.length > 0 ? failures[failures.length - 1] : -1;
+        }
+
+        synchronized long lastChange() {
+            return lastChange;
+        }
+
+        synchronized boolean isDirty() {
+            return dirty;
+        }
+
+        synchronized void markDirty() {
+            dirty = true;
+        }
+
+        synchronized Snapshot takeSnapshot() {
+            dirty = false;
+            return new Snapshot(failures, resetAt);
+        }
+
+        private static final class Snapshot {
+            private final long[] failures;
+            private final long resetAt;
+
+            private Snapshot(long[] failures, long resetAt) {
+                this.failures = failures;
+                this.resetAt = resetAt;
+            }
+        }
+    }
+
+    private static final class PrincipalKey {
+        private final String principalId;
+        private final String zoneId;
+
+        private PrincipalKey(String principalId, String zoneId) {
+            this.principalId = principalId;
+            this.zoneId = zoneId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PrincipalKey other)) {
+                return false;
+            }
+            return Objects.equals(principalId, other.principalId) && Objects.equals(zoneId, other.zoneId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(principalId, zoneId);
+        }
+    }
+}
@@ -5,33 +5,72 @@ import java.net.URISyntaxException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+/**
+ * Caches URL content, such as OIDC discovery documents, JWKS and SAML metadata.
+ * <p>
+ * Only the first request for a URL waits for the fetch. Once the content is stale, it keeps being
+ * served while a background thread revalidates it, using a conditional GET when the server sent an
+ * <code>ETag</code>. A failed revalidation keeps the stale content and is retried with an exponential
+ * backoff. Content stays fresh for the <code>Cache-Control</code> max-age, bounded by the configured
+ * expiration and a minimum of {@link #MIN_FRESHNESS}.
+ * <p>
+ * At most {@link #MAX_QUEUED_REFRESHES} revalidations wait for a refresh thread, further ones are dropped and
+ * attempted again by the next request for the URL.
+ */
 @Component
-public class StaleUrlCache implements UrlContentCache {
+@ManagedResource(
+    objectName = "cloudfoundry.identity:name=UrlContentCache",
+    description = "UAA URL Content Cache Metrics"
+)
+public class StaleUrlCache implements UrlContentCache, DisposableBean {
   private static final Logger logger = LoggerFactory.getLogger(StaleUrlCache.class);
   private static final int DEFAULT_MAX_ENTRIES = 10_000;
+  static final Duration MIN_FRESHNESS = Duration.ofSeconds(30);
+  static final Duration MIN_BACKOFF = Duration.ofSeconds(5);
+  static final int MAX_QUEUED_REFRESHES = 100;
 
   private final Duration cacheExpiration;
-  private final LoadingCache<UriRequest, CacheEntry> cache;
+  private final TimeService timeService;
+  private final Ticker ticker;
+  private final Executor refreshExecutor;
+  private final Cache<UriRequest, CacheEntry> cache;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong refreshes = new AtomicLong();
+  private final AtomicLong notModified = new AtomicLong();
+  private final AtomicLong refreshFailures = new AtomicLong();
 
   @Autowired
   public StaleUrlCache(final TimeService timeService) {
@@ -44,9 +83,33 @@ public class StaleUrlCache implements UrlContentCache {
 
   public StaleUrlCache(final Duration cacheExpiration, final TimeService timeService, final int maxEntries,
       final Ticker ticker) {
+    this(cacheExpiration, timeService, maxEntries, ticker, defaultRefreshExecutor());
+  }
+
+  public StaleUrlCache(final Duration cacheExpiration, final TimeService timeService, final int maxEntries,
+      final Ticker ticker, final Executor refreshExecutor) {
     this.cacheExpiration = cacheExpiration;
-    this.cache = CacheBuilder.newBuilder().refreshAfterWrite(this.cacheExpiration.toMillis(), TimeUnit.MILLISECONDS)
-        .maximumSize(maxEntries).ticker(ticker).build(new UrlCacheLoader(timeService));
+    this.timeService = timeService;
+    this.ticker = ticker;
+    this.refreshExecutor = refreshExecutor;
+    this.cache = CacheBuilder.newBuilder().maximumSize(maxEntries).ticker(ticker).build();
+  }
+
+  private static Executor defaultRefreshExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(MAX_QUEUED_REFRESHES), runnable -> {
+      Thread thread = new Thread(runnable, "uaa-url-cache-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  @Override
+  public void destroy() {
+    if (refreshExecutor instanceof ExecutorService executorService) {
+      executorService.shutdownNow();
+    }
   }
 
   @Override
@@ -57,17 +120,111 @@ public class StaleUrlCache implements UrlContentCache {
   @Override
   public byte[] getUrlContent(String uri, final RestTemplate template, final HttpMethod method,
       HttpEntity<?> requestEntity) {
+    UriRequest request = new UriRequest(uri, template, method, requestEntity);
+    CacheEntry entry = cache.getIfPresent(request);
+    if (entry == null) {
+      misses.incrementAndGet();
+      try {
+        return cache.get(request, () -> fetch(request, null)).data;
+      } catch (UncheckedExecutionException e) {
+        logger.warn("UncheckedException " + e.getMessage() + e);
+        throw (RuntimeException) e.getCause();
+      } catch (ExecutionException e) {
+        logger.warn("ExecutionException " + e.getMessage() + e);
+        throw new IllegalArgumentException(e);
+      }
+    }
+    hits.incrementAndGet();
+    if (ticker.read() >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+      try {
+        refreshExecutor.execute(() -> refresh(request, entry));
+      } catch (RejectedExecutionException e) {
+        // queue full or shut down, the next request for the URL tries again
+        entry.refreshing.set(false);
+      }
+    }
+    CacheEntry current = cache.getIfPresent(request);
+    return (current != null ? current : entry).data;
+  }
+
+  private void refresh(UriRequest request, CacheEntry stale) {
+    refreshes.incrementAndGet();
+    CacheEntry refreshed;
     try {
-      return cache.get(new UriRequest(uri, template, method, requestEntity)).data;
-    } catch (UncheckedExecutionException e) {
-      logger.warn("UncheckedException " + e.getMessage() + e);
-      throw (RuntimeException) e.getCause();
-    } catch (ExecutionException e) {
-      logger.warn("ExecutionException " + e.getMessage() + e);
+      refreshed = fetch(request, stale);
+    } catch (RuntimeException e) {
+      refreshFailures.incrementAndGet();
+      int failures = stale.failures + 1;
+      long backoff = Math.min(MIN_BACKOFF.toNanos() << Math.min(failures - 1, 20), cacheExpiration.toNanos());
+      logger.warn("Unable to refresh content of {}, serving stale content and retrying in {}ms. {}", request.uri,
+          TimeUnit.NANOSECONDS.toMillis(backoff), e.getMessage());
+      refreshed = new CacheEntry(stale.timeEntered, stale.data, stale.etag, ticker.read() + backoff, failures);
+    }
+    if (!cache.asMap().replace(request, stale, refreshed)) {
+      stale.refreshing.set(false);
+    }
+  }
+
+  /**
+   * Fetches the content, revalidating <code>stale</code> if it carries an ETag.
+   */
+  private CacheEntry fetch(UriRequest request, CacheEntry stale) {
+    try {
+      final URI netUri = new URI(request.uri);
+      HttpHeaders headers = new HttpHeaders();
+      Object body = null;
+      if (request.requestEntity != null) {
+        headers.putAll(request.requestEntity.getHeaders());
+        body = request.requestEntity.getBody();
+      }
+      if (stale != null && stale.etag != null) {
+        headers.setIfNoneMatch(stale.etag);
+      }
+      ResponseEntity<byte[]> responseEntity = request.template.exchange(netUri, request.method,
+          new HttpEntity<>(body, headers), byte[].class);
+      if (responseEntity == null) {
+        throw new IllegalArgumentException("Unable to fetch content, no response");
+      }
+      long refreshAt = ticker.read() + freshness(responseEntity.getHeaders()).toNanos();
+      if (stale != null && responseEntity.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+        notModified.incrementAndGet();
+        return new CacheEntry(stale.timeEntered, stale.data, stale.etag, refreshAt, 0);
+      }
+      if (responseEntity.getStatusCode() != HttpStatus.OK) {
+        throw new IllegalArgumentException(
+            "Unable to fetch content, status:" + responseEntity.getStatusCode().getReasonPhrase());
+      }
+      Instant now = Instant.ofEpochMilli(timeService.getCurrentTimeMillis());
+      return new CacheEntry(now, responseEntity.getBody(), responseEntity.getHeaders().getETag(), refreshAt, 0);
+    } catch (RestClientException x) {
+      logger.warn("Unable to fetch metadata for {}. {}", request.uri, x.getMessage());
+      throw x;
+    } catch (URISyntaxException e) {
       throw new IllegalArgumentException(e);
     }
   }
 
+  private Duration freshness(HttpHeaders headers) {
+    String cacheControl = headers.getCacheControl();
+    if (cacheControl != null) {
+      for (String directive : cacheControl.split(",")) {
+        String trimmed = directive.trim().toLowerCase();
+        if (trimmed.startsWith("max-age=")) {
+          try {
+            Duration maxAge = Duration.ofSeconds(Long.parseLong(trimmed.substring("max-age=".length())));
+            return maxAge.compareTo(MIN_FRESHNESS) < 0 ? MIN_FRESHNESS :
+                maxAge.compareTo(cacheExpiration) > 0 ? cacheExpiration : maxAge;
+          } catch (NumberFormatException ignored) {
+            // fall back to the configured expiration
+          }
+        } else if ("no-cache".equals(trimmed) || "no-store".equals(trimmed)) {
+          return MIN_FRESHNESS.compareTo(cacheExpiration) < 0 ? MIN_FRESHNESS : cacheExpiration;
+        }
+      }
+    }
+    return cacheExpiration;
+  }
+
   @Override
   public void clear() {
     cache.invalidateAll();
@@ -78,6 +235,31 @@ public class StaleUrlCache implements UrlContentCache {
     return cache.size();
   }
 
+  @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Requests Served From Cache")
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Requests Waiting For A Fetch")
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Background Refreshes")
+  public long getRefreshCount() {
+    return refreshes.get();
+  }
+
+  @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Refreshes Answered Not Modified")
+  public long getNotModifiedCount() {
+    return notModified.get();
+  }
+
+  @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Failed Background Refreshes")
+  public long getRefreshFailureCount() {
+    return refreshFailures.get();
+  }
+
   static class UriRequest {
     final String uri;
     final RestTemplate template;
@@ -125,47 +307,17 @@ public class StaleUrlCache implements UrlContentCache {
   static class CacheEntry {
     final Instant timeEntered;
     final byte[] data;
+    final String etag;
+    final long refreshAt;
+    final int failures;
+    final AtomicBoolean refreshing = new AtomicBoolean();
 
-    CacheEntry(Instant timeEntered, byte[] data) {
+    CacheEntry(Instant timeEntered, byte[] data, String etag, long refreshAt, int failures) {
       this.timeEntered = timeEntered;
       this.data = data;
-    }
-
-  }
-
-  class UrlCacheLoader extends CacheLoader<UriRequest, CacheEntry> {
-
-    private final TimeService timeService;
-
-    UrlCacheLoader(TimeService timeService) {
-      this.timeService = timeService;
-    }
-
-    @Override
-    public CacheEntry load(UriRequest request) throws RuntimeException {
-      try {
-        byte[] metadata;
-        final URI netUri = new URI(request.uri);
-        if (request.requestEntity != null) {
-          ResponseEntity<byte[]> responseEntity = request.template.exchange(netUri, request.method,
-              request.requestEntity, byte[].class);
-          if (responseEntity.getStatusCode() == HttpStatus.OK) {
-            metadata = responseEntity.getBody();
-          } else {
-            throw new IllegalArgumentException(
-                "Unable to fetch content, status:" + responseEntity.getStatusCode().getReasonPhrase());
-          }
-        } else {
-          metadata = request.template.getForObject(netUri, byte[].class);
-        }
-        Instant now = Instant.ofEpochMilli(timeService.getCurrentTimeMillis());
-        return new CacheEntry(now, metadata);
-      } catch (RestClientException x) {
-        logger.warn("Unable to fetch metadata for {0}. {1}", request.uri, x.getMessage());
-        throw x;
-      } catch (URISyntaxException e) {
-        throw new IllegalArgumentException(e);
-      }
+      this.etag = etag;
+      this.refreshAt = refreshAt;
+      this.failures = failures;
     }
 
   }
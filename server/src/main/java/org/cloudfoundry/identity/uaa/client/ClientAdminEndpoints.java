@@ -26,6 +26,7 @@ import org.cloudfoundry.identity.uaa.provider.ClientAlreadyExistsException;
 import org.cloudfoundry.identity.uaa.provider.NoSuchClientException;
 import org.cloudfoundry.identity.uaa.resources.ActionResult;
 import org.cloudfoundry.identity.uaa.resources.AttributeNameMapper;
+import org.cloudfoundry.identity.uaa.resources.KeysetPage;
 import org.cloudfoundry.identity.uaa.resources.QueryableResourceManager;
 import org.cloudfoundry.identity.uaa.resources.ResourceMonitor;
 import org.cloudfoundry.identity.uaa.resources.SearchResults;
@@ -446,6 +447,16 @@ public class ClientAdminEndpoints implements ApplicationEventPublisherAware {
         approvalStore.revokeApprovalsForClient(clientId, IdentityZoneHolder.get().getId());
     }
 
+    public SearchResults<?> listClientDetails(
+                    String attributesCommaSeparated,
+                    String filter,
+                    String sortBy,
+                    String sortOrder,
+                    int startIndex,
+                    int count) {
+        return listClientDetails(attributesCommaSeparated, filter, sortBy, sortOrder, startIndex, count, null, true);
+    }
+
     @RequestMapping(value = "/oauth/clients", method = RequestMethod.GET)
     @ResponseBody
     public SearchResults<?> listClientDetails(
@@ -454,7 +465,9 @@ public class ClientAdminEndpoints implements ApplicationEventPublisherAware {
                     @RequestParam(required = false, defaultValue = "client_id") String sortBy,
                     @RequestParam(required = false, defaultValue = "ascending") String sortOrder,
                     @RequestParam(required = false, defaultValue = "1") int startIndex,
-                    @RequestParam(required = false, defaultValue = "100") int count) {
+                    @RequestParam(required = false, defaultValue = "100") int count,
+                    @RequestParam(required = false) String cursor,
+                    @RequestParam(required = false, defaultValue = "true") boolean includeTotal) {
 
         if (count > clientMaxCount) {
             count = clientMaxCount;
@@ -462,8 +475,19 @@ public class ClientAdminEndpoints implements ApplicationEventPublisherAware {
 
         List<ClientDetails> result = new ArrayList<ClientDetails>();
         List<ClientDetails> clients;
+        int total;
+        String nextCursor = null;
         try {
-            clients = clientDetailsService.query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId());
+            if (cursor == null) {
+                clients = clientDetailsService.query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId());
+                total = clients.size();
+            } else {
+                KeysetPage<ClientDetails> page = clientDetailsService.queryPage(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), cursor, count, includeTotal, IdentityZoneHolder.get().getId());
+                clients = page.getResources();
+                total = page.getTotalResults();
+                nextCursor = page.getNextCursor();
+                startIndex = 1;
+            }
             if (count > clients.size()) {
                 count = clients.size();
             }
@@ -479,14 +503,18 @@ public class ClientAdminEndpoints implements ApplicationEventPublisherAware {
         }
 
         if (!StringUtils.hasLength(attributesCommaSeparated)) {
-            return new SearchResults<>(Collections.singletonList(SCIM_CLIENTS_SCHEMA_URI), result, startIndex, count,
-                clients.size());
+            SearchResults<ClientDetails> results = new SearchResults<>(Collections.singletonList(SCIM_CLIENTS_SCHEMA_URI), result, startIndex, count,
+                total);
+            results.setNextCursor(nextCursor);
+            return results;
         }
 
         String[] attributes = attributesCommaSeparated.split(",");
         try {
-            return SearchResultsFactory.buildSearchResultFrom(result, startIndex, count, clients.size(), attributes,
+            SearchResults<Map<String, Object>> results = SearchResultsFactory.buildSearchResultFrom(result, startIndex, count, total, attributes,
                             attributeNameMapper, Collections.singletonList(SCIM_CLIENTS_SCHEMA_URI));
+            results.setNextCursor(nextCursor);
+            return results;
         } catch (SpelParseException e) {
             throw new UaaException("Invalid attributes: [" + attributesCommaSeparated + "]",
                             HttpStatus.BAD_REQUEST.value());
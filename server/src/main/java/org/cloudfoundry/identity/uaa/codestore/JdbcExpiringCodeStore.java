@@ -14,6 +14,9 @@ package org.cloudfoundry.identity.uaa.codestore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.cloudfoundry.identity.uaa.expiry.ExpirySweepable;
+import org.cloudfoundry.identity.uaa.expiry.ExpirySweeper;
+import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
@@ -28,7 +31,7 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.concurrent.atomic.AtomicLong;
 
-public class JdbcExpiringCodeStore implements ExpiringCodeStore {
+public class JdbcExpiringCodeStore implements ExpiringCodeStore, ExpirySweepable {
 
     public static final String tableName = "expiring_code_store";
     public static final String fields = "code, expiresat, data, intent, identity_zone_id";
@@ -52,6 +55,8 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
 
     private AtomicLong lastExpired = new AtomicLong();
     private long expirationInterval = 60 * 1_000L; // once a minute
+    private volatile boolean backgroundSweep;
+    private LimitSqlAdapter limitSqlAdapter;
 
     public long getExpirationInterval() {
         return expirationInterval;
@@ -165,6 +170,9 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
     }
 
     public int cleanExpiredEntries() {
+        if (backgroundSweep) {
+            return 0;
+        }
         long now = timeService.getCurrentTimeMillis();
         long lastCheck = lastExpired.get();
 
@@ -177,6 +185,33 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
         return 0;
     }
 
+    @Override
+    public String getSweepName() {
+        return tableName;
+    }
+
+    @Override
+    public int sweepExpired(int maxRows) {
+        String sql = limitSqlAdapter == null ? deleteExpired : limitSqlAdapter.getDeleteExpiredQuery(tableName, "code", "expiresat", maxRows);
+        int count = jdbcTemplate.update(sql, timeService.getCurrentTimeMillis());
+        logger.debug("Expiring code sweeper complete, deleted {} entries.", count);
+        return count;
+    }
+
+    /**
+     * Hands the deletion of expired codes to the sweeper, taking it off the request threads.
+     */
+    public void setExpirySweeper(ExpirySweeper expirySweeper) {
+        this.backgroundSweep = expirySweeper.register(this);
+    }
+
+    /**
+     * Bounds each sweep to a batch of rows. Without it, a sweep deletes every expired code at once.
+     */
+    public void setLimitSqlAdapter(LimitSqlAdapter limitSqlAdapter) {
+        this.limitSqlAdapter = limitSqlAdapter;
+    }
+
     protected static class JdbcExpiringCodeMapper implements RowMapper<ExpiringCode> {
 
         @Override
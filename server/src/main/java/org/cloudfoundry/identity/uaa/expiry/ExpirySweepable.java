@@ -0,0 +1,20 @@
+package org.cloudfoundry.identity.uaa.expiry;
+
+/**
+ * A store whose expired rows are deleted by the {@link ExpirySweeper} instead of on request threads.
+ */
+public interface ExpirySweepable {
+
+    /**
+     * @return the name of the sweep, normally the table name. It names the sweep's settings, metrics and lock row.
+     */
+    String getSweepName();
+
+    /**
+     * Deletes at most <code>maxRows</code> expired rows, see {@link ExpirySweeper#deleteBatch} for stores whose
+     * deletes cannot be limited in a single statement.
+     *
+     * @return the number of rows deleted
+     */
+    int sweepExpired(int maxRows);
+}
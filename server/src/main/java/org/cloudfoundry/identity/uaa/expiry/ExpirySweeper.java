@@ -0,0 +1,323 @@
+package org.cloudfoundry.identity.uaa.expiry;
+
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.env.Environment;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes expired rows of the registered {@link ExpirySweepable stores} on a background thread.
+ * <p>
+ * Each sweep runs every <code>intervalMillis</code> plus a random delay of up to <code>jitterMillis</code>. It deletes
+ * batches of <code>batchSize</code> rows until a batch comes back short or <code>timeBudgetMillis</code> is used up.
+ * The defaults can be overridden per sweep with <code>expirySweeper.tables.&lt;name&gt;.&lt;setting&gt;</code>.
+ * <p>
+ * Only one node of a cluster sweeps a given table. The node holding the lease in its <code>expiry_sweeper_lock</code>
+ * row renews it on every run, and another node takes over once a lease is left to expire.
+ * <p>
+ * Stores register while the context is wired; their sweeps are only scheduled once the context starts.
+ */
+@ManagedResource
+(
+    objectName = "cloudfoundry.identity:name=ExpirySweeper",
+    description = "UAA Expired Row Sweeper Metrics"
+)
+public class ExpirySweeper implements EnvironmentAware, SmartLifecycle, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpirySweeper.class);
+
+    private static final String RENEW_LEASE_SQL = "update expiry_sweeper_lock set lock_owner=?, lock_expires_at=? where lock_name=? and (lock_owner=? or lock_expires_at<?)";
+    private static final String INSERT_LEASE_SQL = "insert into expiry_sweeper_lock (lock_name, lock_owner, lock_expires_at) values (?,?,?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String owner = UUID.randomUUID().toString();
+    private final ConcurrentMap<String, Sweep> sweeps = new ConcurrentHashMap<>();
+
+    private TimeService timeService = new TimeServiceImpl();
+    private Environment environment;
+    private boolean enabled = true;
+    private int batchSize = 500;
+    private long timeBudgetMillis = 2500;
+    private long intervalMillis = 30_000;
+    private long jitterMillis = 5_000;
+    private boolean running;
+    private ScheduledExecutorService scheduler;
+
+    public ExpirySweeper(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Registers a store, whose sweep is scheduled once this sweeper is started.
+     *
+     * @return false if sweeping is disabled, in which case the store should keep cleaning up by itself
+     */
+    public synchronized boolean register(ExpirySweepable sweepable) {
+        if (!enabled) {
+            return false;
+        }
+        String name = sweepable.getSweepName();
+        Sweep sweep = new Sweep(sweepable,
+                getSetting(name, "batchSize", batchSize),
+                getSetting(name, "timeBudgetMillis", timeBudgetMillis),
+                getSetting(name, "intervalMillis", intervalMillis),
+                getSetting(name, "jitterMillis", jitterMillis));
+        if (sweeps.putIfAbsent(name, sweep) != null) {
+            throw new IllegalStateException("A sweep named " + name + " is already registered");
+        }
+        if (running) {
+            scheduleNext(sweep);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        sweeps.values().forEach(this::scheduleNext);
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Runs a sweep now on the calling thread, if this node holds or can take its lease.
+     *
+     * @return the number of rows deleted, or -1 if another node holds the lease
+     */
+    @ManagedOperation(description = "Run the named sweep now")
+    public int sweep(String name) {
+        Sweep sweep = sweeps.get(name);
+        if (sweep == null) {
+            throw new IllegalArgumentException("No sweep named " + name);
+        }
+        return run(sweep);
+    }
+
+    private synchronized void scheduleNext(Sweep sweep) {
+        if (running && scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "uaa-expiry-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        ScheduledExecutorService current = scheduler;
+        if (current == null || current.isShutdown()) {
+            return;
+        }
+        long delay = sweep.intervalMillis + (sweep.jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(sweep.jitterMillis + 1) : 0);
+        current.schedule(() -> {
+            try {
+                run(sweep);
+            } finally {
+                scheduleNext(sweep);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private int run(Sweep sweep) {
+        String name = sweep.sweepable.getSweepName();
+        synchronized (sweep) {
+            try {
+                if (!acquireLease(name, Math.max(sweep.intervalMillis + sweep.jitterMillis, sweep.timeBudgetMillis) * 3)) {
+                    sweep.skipped.incrementAndGet();
+                    return -1;
+                }
+                long start = timeService.getCurrentTimeMillis();
+                int total = 0;
+                int removed;
+                do {
+                    removed = sweep.sweepable.sweepExpired(sweep.batchSize);
+                    total += removed;
+                } while (removed >= sweep.batchSize && timeService.getCurrentTimeMillis() - start < sweep.timeBudgetMillis);
+                long duration = timeService.getCurrentTimeMillis() - start;
+
+                sweep.runs.incrementAndGet();
+                sweep.rowsDeleted.addAndGet(total);
+                sweep.lastRowsDeleted = total;
+                sweep.lastDurationMillis = duration;
+                logger.debug("Expiry sweep of {} removed {} rows in {}ms.", name, total, duration);
+                return total;
+            } catch (RuntimeException e) {
+                sweep.failures.incrementAndGet();
+                logger.warn("Expiry sweep of " + name + " failed.", e);
+                return 0;
+            }
+        }
+    }
+
+    boolean acquireLease(String name, long leaseMillis) {
+        long now = timeService.getCurrentTimeMillis();
+        if (jdbcTemplate.update(RENEW_LEASE_SQL, owner, now + leaseMillis, name, owner, now) > 0) {
+            return true;
+        }
+        try {
+            return jdbcTemplate.update(INSERT_LEASE_SQL, name, owner, now + leaseMillis) > 0;
+        } catch (DataIntegrityViolationException e) {
+            // the row exists and its lease is held by another node
+            return false;
+        }
+    }
+
+    private <T> T getSetting(String name, String setting, T defaultValue) {
+        if (environment == null) {
+            return defaultValue;
+        }
+        @SuppressWarnings("unchecked")
+        Class<T> type = (Class<T>) defaultValue.getClass();
+        return environment.getProperty("expirySweeper.tables." + name + "." + setting, type, defaultValue);
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+
+    /**
+     * Deletes a batch of at most <code>maxRows</code> rows, or all of them if <code>maxRows</code> is not positive,
+     * for stores whose delete statements cannot be limited by the {@link
+     * org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter LimitSqlAdapter}.
+     * <p>
+     * <code>selectKeysSql</code> selects the primary key columns of the rows to delete. <code>deleteByKeySql</code>
+     * then deletes each row by its key followed by <code>args</code> again, so that a row changed in between is kept.
+     *
+     * @return the number of rows deleted
+     */
+    public static int deleteBatch(JdbcTemplate jdbcTemplate, String selectKeysSql, String deleteByKeySql, int maxRows, Object... args) {
+        List<Object[]> keys = jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(selectKeysSql);
+            statement.setMaxRows(Math.max(maxRows, 0));
+            new ArgumentPreparedStatementSetter(args).setValues(statement);
+            return statement;
+        }, (rs, rowNum) -> {
+            int columns = rs.getMetaData().getColumnCount();
+            Object[] key = new Object[columns + args.length];
+            for (int i = 0; i < columns; i++) {
+                key[i] = rs.getObject(i + 1);
+            }
+            System.arraycopy(args, 0, key, columns, args.length);
+            return key;
+        });
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        int deleted = 0;
+        for (int count : jdbcTemplate.batchUpdate(deleteByKeySql, keys)) {
+            deleted += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+        }
+        return deleted;
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Expired Rows Deleted")
+    public long getRowsDeleted() {
+        return sweeps.values().stream().mapToLong(sweep -> sweep.rowsDeleted.get()).sum();
+    }
+
+    @ManagedAttribute(description = "Runs, rows deleted and durations of each sweep")
+    public Map<String, Map<String, Long>> getSweepStatistics() {
+        Map<String, Map<String, Long>> statistics = new LinkedHashMap<>();
+        sweeps.forEach((name, sweep) -> {
+            Map<String, Long> values = new LinkedHashMap<>();
+            values.put("runs", sweep.runs.get());
+            values.put("rowsDeleted", sweep.rowsDeleted.get());
+            values.put("lastRowsDeleted", sweep.lastRowsDeleted);
+            values.put("lastDurationMillis", sweep.lastDurationMillis);
+            values.put("skippedNotLeader", sweep.skipped.get());
+            values.put("failures", sweep.failures.get());
+            statistics.put(name, values);
+        });
+        return statistics;
+    }
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setTimeBudgetMillis(long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void setJitterMillis(long jitterMillis) {
+        this.jitterMillis = jitterMillis;
+    }
+
+    private static final class Sweep {
+        private final ExpirySweepable sweepable;
+        private final int batchSize;
+        private final long timeBudgetMillis;
+        private final long intervalMillis;
+        private final long jitterMillis;
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong rowsDeleted = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private volatile long lastRowsDeleted;
+        private volatile long lastDurationMillis;
+
+        private Sweep(ExpirySweepable sweepable, int batchSize, long timeBudgetMillis, long intervalMillis, long jitterMillis) {
+            this.sweepable = sweepable;
+            this.batchSize = batchSize;
+            this.timeBudgetMillis = timeBudgetMillis;
+            this.intervalMillis = intervalMillis;
+            this.jitterMillis = jitterMillis;
+        }
+    }
+}
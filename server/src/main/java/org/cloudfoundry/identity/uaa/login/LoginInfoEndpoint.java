@@ -27,6 +27,7 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import org.cloudfoundry.identity.uaa.provider.NoSuchClientException;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.support.PropertiesLoaderUtils;
@@ -64,6 +65,7 @@ import org.cloudfoundry.identity.uaa.provider.AbstractExternalOAuthIdentityProvi
 import org.cloudfoundry.identity.uaa.provider.AbstractIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
+import org.cloudfoundry.identity.uaa.provider.IdentityProviderRegistry;
 import org.cloudfoundry.identity.uaa.provider.OIDCIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.SamlIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.UaaIdentityProviderDefinition;
@@ -131,6 +133,7 @@ public class LoginInfoEndpoint {
     private final ExternalOAuthProviderConfigurator externalOAuthProviderConfigurator;
     private final Links globalLinks;
     private final String entityID;
+    private IdentityProviderRegistry identityProviderRegistry;
 
     private static final MapCollector<IdentityProvider, String, AbstractExternalOAuthIdentityProviderDefinition> idpsMapCollector =
             new MapCollector<>(
@@ -163,6 +166,31 @@ public class LoginInfoEndpoint {
         buildProperties = tryLoadAllProperties("build.properties");
     }
 
+    /**
+     * Reads the active providers from the registry instead of the database.
+     */
+    @Autowired(required = false)
+    public void setIdentityProviderRegistry(IdentityProviderRegistry identityProviderRegistry) {
+        this.identityProviderRegistry = identityProviderRegistry;
+    }
+
+    private IdentityProvider retrieveActiveByOrigin(String origin) {
+        if (identityProviderRegistry != null) {
+            return identityProviderRegistry.retrieveByOrigin(origin, IdentityZoneHolder.get().getId());
+        }
+        return providerProvisioning.retrieveByOrigin(origin, IdentityZoneHolder.get().getId());
+    }
+
+    private IdentityProvider retrieveUaaProvider() {
+        if (identityProviderRegistry != null) {
+            IdentityProvider active = identityProviderRegistry.get(IdentityZoneHolder.get().getId()).getByOrigin(OriginKeys.UAA);
+            if (active != null) {
+                return active;
+            }
+        }
+        return providerProvisioning.retrieveByOriginIgnoreActiveFlag(OriginKeys.UAA, IdentityZoneHolder.get().getId());
+    }
+
     private static Properties tryLoadAllProperties(final String fileName) {
         try {
             return PropertiesLoaderUtils.loadAllProperties(fileName);
@@ -327,13 +355,10 @@ public class LoginInfoEndpoint {
         boolean returnLoginPrompts = true;
         IdentityProvider ldapIdentityProvider = null;
         try {
-            ldapIdentityProvider = providerProvisioning.retrieveByOrigin(
-                    OriginKeys.LDAP, IdentityZoneHolder.get().getId()
-            );
+            ldapIdentityProvider = retrieveActiveByOrigin(OriginKeys.LDAP);
         } catch (EmptyResultDataAccessException ignored) {
         }
-        IdentityProvider uaaIdentityProvider =
-                providerProvisioning.retrieveByOriginIgnoreActiveFlag(OriginKeys.UAA, IdentityZoneHolder.get().getId());
+        IdentityProvider uaaIdentityProvider = retrieveUaaProvider();
         // ldap and uaa disabled removes username/password input boxes
         if (!uaaIdentityProvider.isActive()) {
             if (ldapIdentityProvider == null || !ldapIdentityProvider.isActive()) {
@@ -710,7 +735,7 @@ public class LoginInfoEndpoint {
         if (origin != null) {
             IdentityProvider providerForOrigin = null;
             try {
-                providerForOrigin = providerProvisioning.retrieveByOrigin(origin, IdentityZoneHolder.get().getId());
+                providerForOrigin = retrieveActiveByOrigin(origin);
             } catch (DataAccessException ignored) {
             }
             if (providerForOrigin != null) {
@@ -784,7 +809,9 @@ public class LoginInfoEndpoint {
         if (StringUtils.hasText(loginHint)) {
             model.addAttribute("login_hint", loginHint);
         }
-        List<IdentityProvider> identityProviders = DomainFilter.filter(providerProvisioning.retrieveActive(IdentityZoneHolder.get().getId()), clientDetails, email, false);
+        List<IdentityProvider> identityProviders = identityProviderRegistry != null ?
+                DomainFilter.filter(identityProviderRegistry.get(IdentityZoneHolder.get().getId()), clientDetails, email, false) :
+                DomainFilter.filter(providerProvisioning.retrieveActive(IdentityZoneHolder.get().getId()), clientDetails, email, false);
 
         if (!StringUtils.hasText(skipDiscovery) && identityProviders.size() == 1) {
             IdentityProvider matchedIdp = identityProviders.get(0);
@@ -908,7 +935,7 @@ public class LoginInfoEndpoint {
     protected Map<String, String> getSelfServiceLinks() {
         Map<String, String> selfServiceLinks = new HashMap<>();
         IdentityZone zone = IdentityZoneHolder.get();
-        IdentityProvider<UaaIdentityProviderDefinition> uaaIdp = providerProvisioning.retrieveByOriginIgnoreActiveFlag(OriginKeys.UAA, IdentityZoneHolder.get().getId());
+        IdentityProvider<UaaIdentityProviderDefinition> uaaIdp = retrieveUaaProvider();
         boolean disableInternalUserManagement = (uaaIdp.getConfig() != null) ? uaaIdp.getConfig().isDisableInternalUserManagement() : false;
 
         boolean selfServiceLinksEnabled = (zone.getConfig() != null) ? zone.getConfig().getLinks().getSelfService().isSelfServiceLinksEnabled() : true;
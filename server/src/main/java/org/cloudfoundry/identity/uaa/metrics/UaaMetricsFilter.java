@@ -12,7 +12,6 @@ import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.jmx.export.notification.NotificationPublisher;
 import org.springframework.jmx.export.notification.NotificationPublisherAware;
 import org.springframework.lang.NonNull;
-import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.yaml.snakeyaml.Yaml;
 
@@ -25,7 +24,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -48,9 +46,10 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
     private final TimeService timeService;
     private final IdleTimer inflight;
     private final Map<String, MetricsQueue> perUriMetrics;
-    private final LinkedHashMap<AntPathRequestMatcher, UrlGroup> urlGroups;
+    private final UrlGroupMatcher urlGroups;
     private boolean enabled = true;
     private boolean perRequestMetrics = false;
+    private long latencyIntervalMillis = 60_000;
 
     private NotificationPublisher notificationPublisher;
 
@@ -64,11 +63,7 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
         this.timeService = timeService;
         this.perUriMetrics = new ConcurrentHashMap<>();
         this.perUriMetrics.put(MetricsUtil.GLOBAL_GROUP, new MetricsQueue());
-        this.urlGroups = new LinkedHashMap<>();
-        List<UrlGroup> groups = getUrlGroups();
-        groups.forEach(
-                group -> urlGroups.put(new AntPathRequestMatcher(group.getPattern()), group)
-        );
+        this.urlGroups = new UrlGroupMatcher(getUrlGroups(), FALLBACK);
         this.inflight = new IdleTimer();
     }
 
@@ -110,10 +105,8 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
     }
 
     protected MetricsQueue getMetricsQueue(String uri) {
-        if (!perUriMetrics.containsKey(uri)) {
-            perUriMetrics.putIfAbsent(uri, new MetricsQueue());
-        }
-        return perUriMetrics.get(uri);
+        MetricsQueue queue = perUriMetrics.get(uri);
+        return queue != null ? queue : perUriMetrics.computeIfAbsent(uri, k -> new MetricsQueue());
     }
 
     /**
@@ -121,17 +114,11 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
      */
     protected UrlGroup getUriGroup(final HttpServletRequest request) {
         if (urlGroups != null) {
-            String uri = request.getRequestURI();
-            for (Map.Entry<AntPathRequestMatcher, UrlGroup> entry : urlGroups.entrySet()) {
-                if (entry.getKey().matches(request)) {
-                    UrlGroup group = entry.getValue();
-                    if (logger.isDebugEnabled()) {
-                        logger.debug(String.format("Successfully matched URI: %s to a group: %s", uri, group.getGroup()));
-                    }
-                    return group;
-                }
+            UrlGroup group = urlGroups.match(request);
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("Successfully matched URI: %s to a group: %s", request.getRequestURI(), group.getGroup()));
             }
-            return FALLBACK;
+            return group;
         } else {
             return FALLBACK;
         }
@@ -169,6 +156,18 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
         return JsonUtils.writeValueAsString(perUriMetrics.get(MetricsUtil.GLOBAL_GROUP));
     }
 
+    /**
+     * @return per URI group, the JSON of the latency percentiles of the last completed interval per status code group
+     */
+    @Override
+    @ManagedMetric(category = "performance", displayName = "Server Request Latency Percentiles for all URI Groups")
+    public Map<String, String> getLatencies() {
+        long now = timeService.getCurrentTimeMillis();
+        Map<String, String> data = new HashMap<>();
+        perUriMetrics.forEach((group, queue) -> data.put(group, JsonUtils.writeValueAsString(queue.summarizeLatencies(now, latencyIntervalMillis))));
+        return data;
+    }
+
     public List<UrlGroup> getUrlGroups() throws IOException {
         ClassPathResource resource = new ClassPathResource("performance-url-groups.yml");
         Yaml yaml = UaaYamlUtils.createYaml();
@@ -199,4 +198,8 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
     public void setPerRequestMetrics(boolean perRequestMetrics) {
         this.perRequestMetrics = perRequestMetrics;
     }
+
+    public void setLatencyIntervalMillis(long latencyIntervalMillis) {
+        this.latencyIntervalMillis = latencyIntervalMillis;
+    }
 }
@@ -0,0 +1,130 @@
+package org.cloudfoundry.identity.uaa.metrics;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.util.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the first {@link UrlGroup} whose pattern matches a request, like trying the patterns in order, without
+ * trying every pattern.
+ * <p>
+ * The patterns are put in a trie under their leading literal path segments. A request only tries the patterns found
+ * along its own path segments, in their original order, with the same {@link AntPathRequestMatcher} as before, so the
+ * result is the same as a linear scan. The result for a request path is remembered, up to <code>maxMemoEntries</code>
+ * paths.
+ */
+public class UrlGroupMatcher {
+
+    private final Node root = new Node();
+    private final UrlGroup fallback;
+    private volatile Cache<String, UrlGroup> memo = newMemo(10_000);
+
+    public UrlGroupMatcher(List<UrlGroup> groups, UrlGroup fallback) {
+        this.fallback = fallback;
+        int order = 0;
+        for (UrlGroup group : groups) {
+            Node node = root;
+            for (String segment : StringUtils.tokenizeToStringArray(group.getPattern(), "/", false, true)) {
+                if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0) {
+                    break;
+                }
+                node = node.children.computeIfAbsent(segment, k -> new Node());
+            }
+            node.candidates.add(new Candidate(order++, new AntPathRequestMatcher(group.getPattern()), group));
+        }
+    }
+
+    /**
+     * @return the group of the first pattern that matches the request, or the fallback group
+     */
+    public UrlGroup match(HttpServletRequest request) {
+        String path = getRequestPath(request);
+        UrlGroup group = memo.getIfPresent(path);
+        if (group == null) {
+            group = find(request, path);
+            memo.put(path, group);
+        }
+        return group;
+    }
+
+    private UrlGroup find(HttpServletRequest request, String path) {
+        Candidate best = firstMatch(root, request, null);
+        Node node = root;
+        int start = 0;
+        int length = path.length();
+        while (node != null && start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                node = node.children.get(path.substring(start, end));
+                if (node != null) {
+                    best = firstMatch(node, request, best);
+                }
+            }
+            start = end + 1;
+        }
+        return best == null ? fallback : best.group;
+    }
+
+    private static Candidate firstMatch(Node node, HttpServletRequest request, Candidate best) {
+        for (Candidate candidate : node.candidates) {
+            if (best != null && candidate.order > best.order) {
+                break;
+            }
+            if (candidate.matcher.matches(request)) {
+                return candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The path {@link AntPathRequestMatcher} matches against.
+     */
+    private static String getRequestPath(HttpServletRequest request) {
+        String url = request.getServletPath();
+        String pathInfo = request.getPathInfo();
+        if (pathInfo != null) {
+            url = StringUtils.hasLength(url) ? url + pathInfo : pathInfo;
+        }
+        return url == null ? "" : url;
+    }
+
+    public long getMemoSize() {
+        return memo.size();
+    }
+
+    public void setMaxMemoEntries(int maxMemoEntries) {
+        this.memo = newMemo(maxMemoEntries);
+    }
+
+    private static Cache<String, UrlGroup> newMemo(int maxMemoEntries) {
+        return CacheBuilder.newBuilder().maximumSize(Math.max(0, maxMemoEntries)).build();
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private final List<Candidate> candidates = new ArrayList<>();
+    }
+
+    private static final class Candidate {
+        private final int order;
+        private final AntPathRequestMatcher matcher;
+        private final UrlGroup group;
+
+        private Candidate(int order, AntPathRequestMatcher matcher, UrlGroup group) {
+            this.order = order;
+            this.matcher = matcher;
+            this.group = group;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.cloudfoundry.identity.uaa.oauth;
+
+import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
+import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationDetails;
+import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact binary form of the {@link OAuth2Authentication} stored with an authorization code.
+ * <p>
+ * Carries the same fields as the JSON map written by {@link UaaTokenStore#serializeOauth2Authentication(OAuth2Authentication)}
+ * as length-prefixed strings after a two byte header, instead of a JSON document of string-encoded JSON values. A
+ * {@link UaaAuthentication} is embedded with its own JSON serializer, which owns its many optional fields. Extensions
+ * of the request are not stored, as with the JSON form.
+ */
+public final class AuthorizationCodeCodec {
+
+    // neither JSON ('{') nor Java serialization (0xAC) starts with this byte
+    private static final byte MAGIC = (byte) 0xC0;
+    private static final byte VERSION = 1;
+
+    private static final byte NO_USER = 0;
+    private static final byte UAA_AUTHENTICATION = 1;
+    private static final byte UAA_PRINCIPAL = 2;
+
+    private AuthorizationCodeCodec() {
+    }
+
+    public static boolean isEncoded(byte[] data) {
+        return data != null && data.length >= 2 && data[0] == MAGIC;
+    }
+
+    public static byte[] encode(OAuth2Authentication authentication) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            Authentication userAuthentication = authentication.getUserAuthentication();
+            if (userAuthentication == null) {
+                out.writeByte(NO_USER);
+            } else if (userAuthentication instanceof UaaAuthentication) {
+                out.writeByte(UAA_AUTHENTICATION);
+                byte[] json = JsonUtils.writeValueAsBytes(userAuthentication);
+                out.writeInt(json.length);
+                out.write(json);
+            } else {
+                UaaPrincipal principal = (UaaPrincipal) userAuthentication.getPrincipal();
+                out.writeByte(UAA_PRINCIPAL);
+                writeString(out, principal.getId());
+                writeString(out, principal.getName());
+                writeString(out, principal.getEmail());
+                writeString(out, principal.getOrigin());
+                writeString(out, principal.getExternalId());
+                writeString(out, principal.getZoneId());
+                writeStrings(out, UaaStringUtils.getStringsFromAuthorities(userAuthentication.getAuthorities()));
+            }
+            OAuth2Request request = authentication.getOAuth2Request();
+            Map<String, String> parameters = request.getRequestParameters();
+            out.writeInt(parameters == null ? -1 : parameters.size());
+            if (parameters != null) {
+                for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                    writeString(out, parameter.getKey());
+                    writeString(out, parameter.getValue());
+                }
+            }
+            writeString(out, request.getClientId());
+            writeStrings(out, UaaStringUtils.getStringsFromAuthorities(request.getAuthorities()));
+            out.writeBoolean(request.isApproved());
+            writeStrings(out, request.getScope());
+            writeStrings(out, request.getResourceIds());
+            writeString(out, request.getRedirectUri());
+            writeStrings(out, request.getResponseTypes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static OAuth2Authentication decode(byte[] data) {
+        if (!isEncoded(data)) {
+            throw new IllegalArgumentException("Not an encoded authorization code authentication");
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            in.readByte();
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported authorization code encoding version: " + version);
+            }
+            Authentication userAuthentication = null;
+            byte kind = in.readByte();
+            if (kind == UAA_AUTHENTICATION) {
+                byte[] json = new byte[in.readInt()];
+                in.readFully(json);
+                userAuthentication = JsonUtils.readValue(json, UaaAuthentication.class);
+            } else if (kind == UAA_PRINCIPAL) {
+                UaaPrincipal principal = new UaaPrincipal(readString(in), readString(in), readString(in), readString(in), readString(in), readString(in));
+                Collection<? extends GrantedAuthority> authorities = UaaStringUtils.getAuthoritiesFromStrings(readStrings(in));
+                userAuthentication = new UaaAuthentication(principal, new ArrayList<>(authorities), UaaAuthenticationDetails.UNKNOWN);
+            }
+            Map<String, String> parameters = null;
+            int size = in.readInt();
+            if (size >= 0) {
+                parameters = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    parameters.put(readString(in), readString(in));
+                }
+            }
+            String clientId = readString(in);
+            Collection<? extends GrantedAuthority> authorities = UaaStringUtils.getAuthoritiesFromStrings(readStrings(in));
+            boolean approved = in.readBoolean();
+            Set<String> scope = readStrings(in);
+            Set<String> resourceIds = readStrings(in);
+            String redirectUri = readString(in);
+            Set<String> responseTypes = readStrings(in);
+
+            OAuth2Request request = new OAuth2Request(
+                parameters,
+                clientId,
+                authorities,
+                approved,
+                scope,
+                resourceIds,
+                redirectUri,
+                responseTypes,
+                new HashMap<String, Serializable>()
+            );
+            return new OAuth2Authentication(request, userAuthentication);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed authorization code authentication", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        // the JSON form restores missing collections as empty sets, so null is written as empty
+        out.writeInt(values == null ? 0 : values.size());
+        if (values != null) {
+            for (String value : values) {
+                writeString(out, value);
+            }
+        }
+    }
+
+    private static Set<String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Set<String> values = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+}
@@ -19,6 +19,7 @@ import org.springframework.security.oauth2.common.exceptions.InvalidTokenExcepti
 import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
 import org.springframework.security.oauth2.provider.error.DefaultWebResponseExceptionTranslator;
 import org.springframework.security.oauth2.provider.error.WebResponseExceptionTranslator;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.Assert;
@@ -99,7 +100,7 @@ public class CheckTokenEndpoint implements InitializingBean {
             throw new HttpRequestMethodNotSupportedException("POST");
         }
 
-        OAuth2AccessToken token = resourceServerTokenServices.readAccessToken(value);
+        OAuth2AccessToken token = readAccessToken(value);
         if (token == null) {
             throw new InvalidTokenException("Token was not recognised");
         }
@@ -109,7 +110,7 @@ public class CheckTokenEndpoint implements InitializingBean {
         }
 
         try {
-            resourceServerTokenServices.loadAuthentication(value);
+            loadAuthentication(value);
         } catch (AuthenticationException x) {
             throw new InvalidTokenException((x.getMessage()));
         }
@@ -154,6 +155,19 @@ public class CheckTokenEndpoint implements InitializingBean {
         }
     }
 
+    /**
+     * Lets {@link UaaTokenServices} serve repeated validations of the same token from its validation cache.
+     */
+    private OAuth2AccessToken readAccessToken(String token) {
+        return resourceServerTokenServices instanceof UaaTokenServices uaaTokenServices ?
+                uaaTokenServices.readIntrospectedAccessToken(token) : resourceServerTokenServices.readAccessToken(token);
+    }
+
+    private OAuth2Authentication loadAuthentication(String token) {
+        return resourceServerTokenServices instanceof UaaTokenServices uaaTokenServices ?
+                uaaTokenServices.loadIntrospectedAuthentication(token) : resourceServerTokenServices.loadAuthentication(token);
+    }
+
     @ExceptionHandler(InvalidTokenException.class)
     public ResponseEntity<OAuth2Exception> handleException(Exception e) throws Exception {
         logger.info("Handling error: " + e.getClass().getSimpleName() + ", " + e.getMessage());
@@ -0,0 +1,133 @@
+package org.cloudfoundry.identity.uaa.oauth;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.security.oauth2.common.exceptions.InvalidGrantException;
+import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.code.AuthorizationCodeServices;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps authorization codes in memory, encoded with the {@link AuthorizationCodeCodec}, instead of in the
+ * <code>oauth_code</code> table.
+ * <p>
+ * A code can only be redeemed on the node that issued it, so this store is only suitable for single node deployments
+ * or deployments that route the whole authorization code flow of a client to one node. Codes are lost on restart.
+ * <p>
+ * At most <code>maxCodes</code> codes are kept. Expired codes are dropped as new ones are created, and once the store
+ * is full the least recently created codes are evicted even if they have not expired.
+ */
+@ManagedResource(
+    objectName = "cloudfoundry.identity:name=InMemoryAuthorizationCodeServices",
+    description = "UAA In-Memory Authorization Code Store Metrics"
+)
+public class InMemoryAuthorizationCodeServices implements AuthorizationCodeServices {
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryAuthorizationCodeServices.class);
+
+    private final TimeService timeService;
+    private final Duration expirationTime;
+    private final int concurrencyLevel;
+    private final RandomValueStringGenerator generator = new RandomValueStringGenerator(32);
+    private final AtomicLong evicted = new AtomicLong();
+    private volatile Cache<String, StoredCode> codes;
+
+    public InMemoryAuthorizationCodeServices(TimeService timeService) {
+        this(timeService, UaaTokenStore.DEFAULT_EXPIRATION_TIME, 16);
+    }
+
+    public InMemoryAuthorizationCodeServices(TimeService timeService, Duration expirationTime, int concurrencyLevel) {
+        this.timeService = timeService;
+        this.expirationTime = expirationTime;
+        this.concurrencyLevel = Math.max(1, concurrencyLevel);
+        this.codes = newCache(100_000);
+    }
+
+    @Override
+    public String createAuthorizationCode(OAuth2Authentication authentication) {
+        byte[] encoded = AuthorizationCodeCodec.encode(authentication);
+        StoredCode stored = new StoredCode(encoded, timeService.getCurrentTimeMillis() + expirationTime.toMillis());
+        while (true) {
+            String code = generator.generate();
+            if (codes.asMap().putIfAbsent(code, stored) == null) {
+                return code;
+            }
+        }
+    }
+
+    @Override
+    public OAuth2Authentication consumeAuthorizationCode(String code) throws InvalidGrantException {
+        StoredCode stored = code == null ? null : codes.asMap().remove(code);
+        if (stored == null) {
+            throw new InvalidGrantException("Invalid authorization code: " + code);
+        }
+        if (stored.expiresAt < timeService.getCurrentTimeMillis()) {
+            logger.debug("[authorization_code] Found code, but it expired.");
+            throw new InvalidGrantException("Authorization code expired: " + code);
+        }
+        return AuthorizationCodeCodec.decode(stored.authentication);
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Codes Stored")
+    public long getSize() {
+        Cache<String, StoredCode> current = codes;
+        current.cleanUp();
+        return current.size();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Unexpired Codes Evicted")
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    public Duration getExpirationTime() {
+        return expirationTime;
+    }
+
+    public void setMaxCodes(int maxCodes) {
+        this.codes = newCache(maxCodes);
+    }
+
+    private Cache<String, StoredCode> newCache(int maxCodes) {
+        return CacheBuilder.newBuilder()
+                .concurrencyLevel(concurrencyLevel)
+                .maximumSize(maxCodes)
+                .expireAfterWrite(expirationTime)
+                .ticker(new Ticker() {
+                    @Override
+                    public long read() {
+                        return TimeUnit.MILLISECONDS.toNanos(timeService.getCurrentTimeMillis());
+                    }
+                })
+                .removalListener((RemovalListener<String, StoredCode>) removal -> {
+                    if (removal.getCause() == RemovalCause.SIZE) {
+                        evicted.incrementAndGet();
+                        logger.warn("[authorization_code] Store is full, evicted an unexpired code.");
+                    }
+                })
+                .build();
+    }
+
+    private static final class StoredCode {
+        private final byte[] authentication;
+        private final long expiresAt;
+
+        private StoredCode(byte[] authentication, long expiresAt) {
+            this.authentication = authentication;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
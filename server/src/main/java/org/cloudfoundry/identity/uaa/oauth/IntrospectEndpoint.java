@@ -1,29 +1,54 @@
 package org.cloudfoundry.identity.uaa.oauth;
 
+import org.cloudfoundry.identity.uaa.error.UaaException;
 import org.cloudfoundry.identity.uaa.util.UaaTokenUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.cloudfoundry.identity.uaa.oauth.token.IntrospectionClaims;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.HttpRequestMethodNotSupportedException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
 @Controller
-public class IntrospectEndpoint {
+public class IntrospectEndpoint implements DisposableBean {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final ResourceServerTokenServices resourceServerTokenServices;
 
+    @Value("${introspect.batch.maxTokens:100}")
+    private int maxBatchTokens = 100;
+    @Value("${introspect.batch.threads:4}")
+    private int batchThreads = 4;
+    private ExecutorService batchExecutor;
+
     public IntrospectEndpoint(
             final @Qualifier("tokenServices") ResourceServerTokenServices resourceServerTokenServices) {
         this.resourceServerTokenServices = resourceServerTokenServices;
@@ -35,12 +60,12 @@ public class IntrospectEndpoint {
         IntrospectionClaims introspectionClaims = new IntrospectionClaims();
 
         try {
-            OAuth2AccessToken oAuth2AccessToken = resourceServerTokenServices.readAccessToken(token);
+            OAuth2AccessToken oAuth2AccessToken = readAccessToken(token);
             if (oAuth2AccessToken.isExpired()) {
                 introspectionClaims.setActive(false);
                 return introspectionClaims;
             }
-            resourceServerTokenServices.loadAuthentication(token);
+            loadAuthentication(token);
             introspectionClaims = UaaTokenUtils.getClaims(oAuth2AccessToken.getValue(), IntrospectionClaims.class);
             introspectionClaims.setActive(true);
         } catch (InvalidTokenException e) {
@@ -51,9 +76,97 @@ public class IntrospectEndpoint {
         return introspectionClaims;
     }
 
-    @RequestMapping(value = "/introspect")
+    /**
+     * Introspects several tokens, given as repeated <code>token</code> parameters, in one request. The tokens are
+     * introspected concurrently on at most <code>introspect.batch.threads</code> threads, beyond which the request
+     * thread helps out, and the claims are returned in the order of the tokens. A token given more than once is only
+     * introspected once.
+     */
+    @RequestMapping(value = "/introspect/batch", method = POST)
+    @ResponseBody
+    public List<IntrospectionClaims> introspectBatch(@RequestParam("token") List<String> tokens) {
+        if (tokens.size() > maxBatchTokens) {
+            throw new UaaException("invalid_request", "At most " + maxBatchTokens + " tokens can be introspected at once.", 400);
+        }
+        IdentityZone zone = IdentityZoneHolder.get();
+        ExecutorService executor = getBatchExecutor();
+        Map<String, CompletableFuture<IntrospectionClaims>> introspections = new LinkedHashMap<>();
+        for (String token : tokens) {
+            introspections.computeIfAbsent(token, t -> CompletableFuture.supplyAsync(() -> introspectInZone(t, zone), executor));
+        }
+        List<IntrospectionClaims> claims = new ArrayList<>(tokens.size());
+        try {
+            for (String token : tokens) {
+                claims.add(introspections.get(token).join());
+            }
+        } catch (CompletionException e) {
+            introspections.values().forEach(introspection -> introspection.cancel(false));
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+        }
+        return claims;
+    }
+
+    private IntrospectionClaims introspectInZone(String token, IdentityZone zone) {
+        IdentityZone previous = IdentityZoneHolder.get();
+        IdentityZoneHolder.set(zone);
+        try {
+            return introspect(token);
+        } finally {
+            IdentityZoneHolder.set(previous);
+        }
+    }
+
+    private synchronized ExecutorService getBatchExecutor() {
+        if (batchExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(batchThreads, batchThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(maxBatchTokens), runnable -> {
+                        Thread thread = new Thread(runnable, "uaa-introspect-batch");
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            batchExecutor = executor;
+        }
+        return batchExecutor;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (batchExecutor != null) {
+            batchExecutor.shutdownNow();
+        }
+    }
+
+    public void setMaxBatchTokens(int maxBatchTokens) {
+        this.maxBatchTokens = maxBatchTokens;
+    }
+
+    public void setBatchThreads(int batchThreads) {
+        this.batchThreads = batchThreads;
+    }
+
+    @RequestMapping(value = {"/introspect", "/introspect/batch"})
     @ResponseBody
     public IntrospectionClaims methodNotSupported(HttpServletRequest request) throws HttpRequestMethodNotSupportedException {
         throw new HttpRequestMethodNotSupportedException(request.getMethod());
     }
+
+    /**
+     * Lets {@link UaaTokenServices} serve repeated validations of the same token from its validation cache.
+     */
+    private OAuth2AccessToken readAccessToken(String token) {
+        return resourceServerTokenServices instanceof UaaTokenServices uaaTokenServices ?
+                uaaTokenServices.readIntrospectedAccessToken(token) : resourceServerTokenServices.readAccessToken(token);
+    }
+
+    private OAuth2Authentication loadAuthentication(String token) {
+        return resourceServerTokenServices instanceof UaaTokenServices uaaTokenServices ?
+                uaaTokenServices.loadIntrospectedAuthentication(token) : resourceServerTokenServices.loadAuthentication(token);
+    }
+
+    @ExceptionHandler(UaaException.class)
+    public ResponseEntity<UaaException> handleUaaException(UaaException e) {
+        logger.info("Handling error: " + e.getClass().getSimpleName() + ", " + e.getMessage());
+        return new ResponseEntity<>(e, HttpStatus.valueOf(e.getHttpStatus()));
+    }
 }
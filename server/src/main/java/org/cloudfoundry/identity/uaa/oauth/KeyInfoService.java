@@ -14,21 +14,43 @@
  */
 package org.cloudfoundry.identity.uaa.oauth;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.impl.config.LegacyTokenKey;
 import org.cloudfoundry.identity.uaa.util.UaaTokenUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneConfiguration;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.cloudfoundry.identity.uaa.zone.TokenPolicy;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.util.StringUtils;
 
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import static org.cloudfoundry.identity.uaa.util.UaaUrlUtils.addSubdomainToUrl;
 
-public class KeyInfoService {
+/**
+ * Resolves the signing and verification keys of the current zone.
+ * <p>
+ * Building a {@link KeyInfo} parses PEM material and creates signers and verifiers, so the
+ * resulting keys are cached per zone, key URL and signing algorithm. The cache key carries a
+ * snapshot of the token policy key material, hence a changed policy never hits a stale entry;
+ * {@link IdentityZoneModifiedEvent}s and the {@link EntityDeletedEvent} of a zone only release
+ * the memory held for that zone. At most <code>maxEntries</code> key sets are kept, the least
+ * recently used are evicted beyond that.
+ */
+public class KeyInfoService implements ApplicationListener<AbstractUaaEvent> {
     private String uaaBaseURL;
+    private volatile Cache<KeyCacheKey, Map<String, KeyInfo>> keyCache = newCache(10_000);
 
     public KeyInfoService(String uaaBaseURL) {
         this.uaaBaseURL = uaaBaseURL;
@@ -47,24 +69,55 @@ public class KeyInfoService {
     }
 
     public Map<String, KeyInfo> getKeys(String sigAlg) {
-        IdentityZoneConfiguration config = IdentityZoneHolder.get().getConfig();
+        IdentityZone zone = IdentityZoneHolder.get();
+        IdentityZoneConfiguration config = zone.getConfig();
         if (config == null || config.getTokenPolicy().getKeys() == null || config.getTokenPolicy().getKeys().isEmpty()) {
             config = IdentityZoneHolder.getUaaZone().getConfig();
         }
 
+        Map<String, TokenPolicy.KeyInformation> keyInformation = config.getTokenPolicy().getKeys();
+        if (keyInformation.isEmpty()) {
+            Map<String, KeyInfo> keys = new HashMap<>();
+            keys.put(LegacyTokenKey.LEGACY_TOKEN_KEY_ID, LegacyTokenKey.getLegacyTokenKeyInfo());
+            return keys;
+        }
+
+        String keyUrl = addSubdomainToUrl(uaaBaseURL, zone.getSubdomain());
+        KeyCacheKey cacheKey = new KeyCacheKey(zone.getId(), keyUrl, sigAlg, keyInformation);
+        Map<String, KeyInfo> keys = keyCache.getIfPresent(cacheKey);
+        if (keys == null) {
+            keys = buildKeys(keyInformation, keyUrl, sigAlg);
+            keyCache.asMap().keySet().removeIf(cacheKey::replaces);
+            keyCache.put(cacheKey, keys);
+        }
+        return new HashMap<>(keys);
+    }
+
+    private static Map<String, KeyInfo> buildKeys(Map<String, TokenPolicy.KeyInformation> keyInformation, String keyUrl, String sigAlg) {
         Map<String, KeyInfo> keys = new HashMap<>();
-        for (Map.Entry<String, TokenPolicy.KeyInformation> entry : config.getTokenPolicy().getKeys().entrySet()) {
-            KeyInfo keyInfo = KeyInfoBuilder.build(entry.getKey(), entry.getValue().getSigningKey(), addSubdomainToUrl(uaaBaseURL, IdentityZoneHolder.get().getSubdomain()),
+        for (Map.Entry<String, TokenPolicy.KeyInformation> entry : keyInformation.entrySet()) {
+            KeyInfo keyInfo = KeyInfoBuilder.build(entry.getKey(), entry.getValue().getSigningKey(), keyUrl,
                 sigAlg != null ? sigAlg : entry.getValue().getSigningAlg(),
                 entry.getValue().getSigningCert());
             keys.put(entry.getKey(), keyInfo);
         }
+        return Collections.unmodifiableMap(keys);
+    }
 
-        if (keys.isEmpty()) {
-            keys.put(LegacyTokenKey.LEGACY_TOKEN_KEY_ID, LegacyTokenKey.getLegacyTokenKeyInfo());
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if ((event instanceof IdentityZoneModifiedEvent || event instanceof EntityDeletedEvent)
+                && event.getSource() instanceof IdentityZone zone) {
+            keyCache.asMap().keySet().removeIf(k -> Objects.equals(k.zoneId, zone.getId()));
         }
+    }
 
-        return keys;
+    public void setMaxEntries(int maxEntries) {
+        this.keyCache = newCache(maxEntries);
+    }
+
+    private static Cache<KeyCacheKey, Map<String, KeyInfo>> newCache(int maxEntries) {
+        return CacheBuilder.newBuilder().maximumSize(maxEntries).build();
     }
 
     public KeyInfo getActiveKey() {
@@ -95,4 +148,56 @@ public class KeyInfoService {
     public String getTokenEndpointUrl() throws URISyntaxException {
         return UaaTokenUtils.constructTokenEndpointUrl(uaaBaseURL, IdentityZoneHolder.get());
     }
+
+    /**
+     * Identifies a set of built keys. The key material is copied into the cache key,
+     * since token policies may be mutated in place.
+     */
+    private static final class KeyCacheKey {
+        private final String zoneId;
+        private final String keyUrl;
+        private final String sigAlg;
+        private final Map<String, List<String>> material;
+
+        private KeyCacheKey(String zoneId, String keyUrl, String sigAlg, Map<String, TokenPolicy.KeyInformation> keyInformation) {
+            this.zoneId = zoneId;
+            this.keyUrl = keyUrl;
+            this.sigAlg = sigAlg;
+            this.material = new HashMap<>();
+            for (Map.Entry<String, TokenPolicy.KeyInformation> entry : keyInformation.entrySet()) {
+                TokenPolicy.KeyInformation info = entry.getValue();
+                material.put(entry.getKey(), Arrays.asList(info.getSigningKey(), info.getSigningAlg(), info.getSigningCert()));
+            }
+        }
+
+        /**
+         * @return true if the other key addresses the same zone, URL and algorithm with outdated key material
+         */
+        private boolean replaces(KeyCacheKey other) {
+            return Objects.equals(zoneId, other.zoneId)
+                && Objects.equals(keyUrl, other.keyUrl)
+                && Objects.equals(sigAlg, other.sigAlg)
+                && !material.equals(other.material);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof KeyCacheKey)) {
+                return false;
+            }
+            KeyCacheKey that = (KeyCacheKey) o;
+            return Objects.equals(zoneId, that.zoneId)
+                && Objects.equals(keyUrl, that.keyUrl)
+                && Objects.equals(sigAlg, that.sigAlg)
+                && material.equals(that.material);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(zoneId, keyUrl, sigAlg, material);
+        }
+    }
 }
@@ -0,0 +1,177 @@
+package org.cloudfoundry.identity.uaa.oauth;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.cloudfoundry.identity.uaa.account.event.PasswordChangeEvent;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.client.event.AbstractClientAdminEvent;
+import org.cloudfoundry.identity.uaa.oauth.event.TokenRevocationEvent;
+import org.cloudfoundry.identity.uaa.oauth.token.RevocationStatusCache;
+import org.cloudfoundry.identity.uaa.scim.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.scim.event.UserModifiedEvent;
+import org.cloudfoundry.identity.uaa.util.JwtTokenSignedByThisUAA;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.springframework.context.ApplicationListener;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.EXPIRY_IN_SECONDS;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.JTI;
+
+/**
+ * Remembers access tokens that passed validation, so that resource servers calling <code>/check_token</code> and
+ * <code>/introspect</code> with the same token do not have it parsed, verified and checked against its client and
+ * user on every call. Other requests authenticated with a bearer token always validate it.
+ * <p>
+ * Tokens are keyed by zone and a SHA-256 digest of the token, and kept for at most <code>ttlMillis</code> and never
+ * past their expiry. Only successful validations are cached. Every entry is dropped when tokens are revoked, a client
+ * or its secret changes, a user, their password or a group changes, or a zone changes on this node. As an
+ * {@link RevocationStatusCache.InvalidationListener}, the entries of a revoked access token are dropped when it is
+ * deleted, and every entry when the revocation cache is dropped, which includes revocations made on other nodes.
+ * Other changes made on other nodes are seen after at most <code>ttlMillis</code>.
+ * <p>
+ * The cached validations are shared between requests and must not be modified.
+ */
+public class TokenValidationCache implements ApplicationListener<AbstractUaaEvent>, RevocationStatusCache.InvalidationListener {
+
+    private final TimeService timeService;
+    private volatile Cache<String, Entry> entries = newCache(100_000);
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private boolean enabled = true;
+    private long ttlMillis = 10_000;
+
+    public TokenValidationCache(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    /**
+     * @return the cached validation of <code>token</code>, or else the result of <code>validation</code>
+     */
+    public JwtTokenSignedByThisUAA validate(String token, String zoneId, Supplier<JwtTokenSignedByThisUAA> validation) {
+        if (!enabled) {
+            return validation.get();
+        }
+        String key = key(token, zoneId);
+        long now = timeService.getCurrentTimeMillis();
+        Entry entry = entries.getIfPresent(key);
+        if (entry != null && now < entry.validUntil) {
+            hits.incrementAndGet();
+            return entry.token;
+        }
+        misses.incrementAndGet();
+        long loadedGeneration = generation.get();
+        JwtTokenSignedByThisUAA validated = validation.get();
+        put(key, new Entry(validated, zoneId, validUntil(validated, now)), loadedGeneration);
+        return validated;
+    }
+
+    private long validUntil(JwtTokenSignedByThisUAA validated, long now) {
+        Map<String, Object> claims = validated.getClaims();
+        Object exp = claims == null ? null : claims.get(EXPIRY_IN_SECONDS);
+        if (exp instanceof Number expiry) {
+            return Math.min(now + ttlMillis, expiry.longValue() * 1000);
+        }
+        return now + ttlMillis;
+    }
+
+    private void put(String key, Entry entry, long loadedGeneration) {
+        Cache<String, Entry> cache = entries;
+        cache.put(key, entry);
+        if (generation.get() != loadedGeneration) {
+            // entries were invalidated while this token was validated, it may have been revoked meanwhile
+            cache.asMap().remove(key, entry);
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof TokenRevocationEvent
+                || event instanceof AbstractClientAdminEvent
+                || event instanceof UserModifiedEvent
+                || event instanceof PasswordChangeEvent
+                || event instanceof GroupModifiedEvent
+                || event instanceof IdentityZoneModifiedEvent) {
+            clear();
+        }
+    }
+
+    @Override
+    public void tokenInvalidated(String tokenId, String zoneId) {
+        generation.incrementAndGet();
+        entries.asMap().values().removeIf(entry -> zoneId.equals(entry.zoneId) && tokenId.equals(tokenId(entry.token)));
+    }
+
+    @Override
+    public void allInvalidated() {
+        clear();
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        entries.invalidateAll();
+    }
+
+    private static String tokenId(JwtTokenSignedByThisUAA token) {
+        Map<String, Object> claims = token.getClaims();
+        return claims == null ? null : (String) claims.get(JTI);
+    }
+
+    private static String key(String token, String zoneId) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return zoneId + "\n" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getSize() {
+        return entries.size();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.entries = newCache(maxEntries);
+    }
+
+    private static Cache<String, Entry> newCache(int maxEntries) {
+        return CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+    }
+
+    private static final class Entry {
+        private final JwtTokenSignedByThisUAA token;
+        private final String zoneId;
+        private final long validUntil;
+
+        private Entry(JwtTokenSignedByThisUAA token, String zoneId, long validUntil) {
+            this.token = token;
+            this.zoneId = zoneId;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -2,7 +2,9 @@ package org.cloudfoundry.identity.uaa.oauth;
 
 import org.cloudfoundry.identity.uaa.oauth.token.RevocableToken;
 import org.cloudfoundry.identity.uaa.oauth.token.RevocableTokenProvisioning;
+import org.cloudfoundry.identity.uaa.oauth.token.RevocationStatusCache;
 import org.cloudfoundry.identity.uaa.user.UaaUser;
+import org.cloudfoundry.identity.uaa.user.UaaUserCache;
 import org.cloudfoundry.identity.uaa.user.UaaUserDatabase;
 import org.cloudfoundry.identity.uaa.util.JwtTokenSignedByThisUAA;
 import org.cloudfoundry.identity.uaa.util.UaaTokenUtils;
@@ -14,6 +16,7 @@ import org.springframework.security.oauth2.provider.ClientDetails;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.BiFunction;
 
 import static org.cloudfoundry.identity.uaa.util.JwtTokenSignedByThisUAA.buildAccessTokenValidator;
 import static org.cloudfoundry.identity.uaa.util.JwtTokenSignedByThisUAA.buildRefreshTokenValidator;
@@ -24,6 +27,9 @@ public class TokenValidationService {
     private UaaUserDatabase userDatabase;
     private MultitenantClientServices multitenantClientServices;
     private KeyInfoService keyInfoService;
+    private RevocationStatusCache revocationStatusCache;
+    private UaaUserCache userCache;
+    private TokenValidationCache validationCache;
 
     public TokenValidationService(RevocableTokenProvisioning revocableTokenProvisioning,
                                   TokenEndpointBuilder tokenEndpointBuilder,
@@ -37,11 +43,48 @@ public class TokenValidationService {
         this.keyInfoService = keyInfoService;
     }
 
+    /**
+     * Serves the revocable token lookups of access token validations. Refresh tokens are always
+     * looked up in the database, since they may be used only once.
+     */
+    public void setRevocationStatusCache(RevocationStatusCache revocationStatusCache) {
+        this.revocationStatusCache = revocationStatusCache;
+    }
+
+    /**
+     * Serves the user lookups of token validations.
+     */
+    public void setUserCache(UaaUserCache userCache) {
+        this.userCache = userCache;
+    }
+
+    /**
+     * Serves repeated validations of the same access token by {@link #validateIntrospectedToken(String)}.
+     */
+    public void setValidationCache(TokenValidationCache validationCache) {
+        this.validationCache = validationCache;
+    }
+
+    /**
+     * Same as {@link #validateToken(String, boolean)} for an access token, served from the validation cache when
+     * there is one. Only for the token a resource server asks about at <code>/check_token</code> or
+     * <code>/introspect</code>, not for the bearer token of a request.
+     */
+    public JwtTokenSignedByThisUAA validateIntrospectedToken(String token) {
+        if (validationCache != null && token != null) {
+            return validationCache.validate(token, IdentityZoneHolder.get().getId(), () -> validateToken(token, true));
+        }
+        return validateToken(token, true);
+    }
+
     public JwtTokenSignedByThisUAA validateToken(String token, boolean isAccessToken) {
+        BiFunction<String, String, RevocableToken> revocableTokenLookup = isAccessToken && revocationStatusCache != null ?
+                (tokenId, zoneId) -> revocationStatusCache.retrieve(tokenId, zoneId, revocableTokenProvisioning::retrieve)
+                : revocableTokenProvisioning::retrieve;
         if (!UaaTokenUtils.isJwtToken(token)) {
             RevocableToken revocableToken;
             try {
-                revocableToken = revocableTokenProvisioning.retrieve(token, IdentityZoneHolder.get().getId());
+                revocableToken = revocableTokenLookup.apply(token, IdentityZoneHolder.get().getId());
             } catch (EmptyResultDataAccessException ex) {
                 throw new TokenRevokedException("The token expired, was revoked, or the token ID is incorrect.");
             }
@@ -51,11 +94,11 @@ public class TokenValidationService {
         JwtTokenSignedByThisUAA jwtToken = isAccessToken ?
                 buildAccessTokenValidator(token, keyInfoService) : buildRefreshTokenValidator(token, keyInfoService);
         jwtToken
-                .checkRevocableTokenStore(revocableTokenProvisioning)
+                .checkRevocableTokenStore(revocableTokenLookup)
                 .checkIssuer(tokenEndpointBuilder.getTokenEndpoint(IdentityZoneHolder.get()));
 
         ClientDetails client = jwtToken.getClientDetails(multitenantClientServices);
-        UaaUser user = jwtToken.getUserDetails(userDatabase);
+        UaaUser user = userCache != null ? jwtToken.getUserDetails(userCache::retrieveUserById) : jwtToken.getUserDetails(userDatabase);
         jwtToken
                 .checkClientAndUser(client, user);
 
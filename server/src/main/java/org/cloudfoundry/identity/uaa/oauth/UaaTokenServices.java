@@ -809,12 +809,24 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
     @Override
     public OAuth2Authentication loadAuthentication(String accessToken) throws AuthenticationException {
+        return loadAuthentication(accessToken, false);
+    }
+
+    /**
+     * Same as {@link #loadAuthentication(String)} for the token a resource server asks about at
+     * <code>/check_token</code> or <code>/introspect</code>, whose validation may be served from the validation cache.
+     */
+    public OAuth2Authentication loadIntrospectedAuthentication(String accessToken) throws AuthenticationException {
+        return loadAuthentication(accessToken, true);
+    }
+
+    private OAuth2Authentication loadAuthentication(String accessToken, boolean introspected) throws AuthenticationException {
         if (StringUtils.isEmpty(accessToken)) {
             throw new InvalidTokenException("Invalid access token value, must be at least 30 characters");
         }
 
         JwtTokenSignedByThisUAA jwtToken =
-          tokenValidationService.validateToken(accessToken, true)
+          validateAccessToken(accessToken, introspected)
           .checkJti();
 
         Map<String, Object> claims = jwtToken.getClaims();
@@ -885,8 +897,20 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
      */
     @Override
     public OAuth2AccessToken readAccessToken(String accessToken) {
+        return readAccessToken(accessToken, false);
+    }
+
+    /**
+     * Same as {@link #readAccessToken(String)} for the token a resource server asks about at
+     * <code>/check_token</code> or <code>/introspect</code>, whose validation may be served from the validation cache.
+     */
+    public OAuth2AccessToken readIntrospectedAccessToken(String accessToken) {
+        return readAccessToken(accessToken, true);
+    }
+
+    private OAuth2AccessToken readAccessToken(String accessToken, boolean introspected) {
         JwtTokenSignedByThisUAA jwtToken =
-                tokenValidationService.validateToken(accessToken, true).checkJti();
+                validateAccessToken(accessToken, introspected).checkJti();
 
         Map<String, Object> claims = jwtToken.getClaims();
         accessToken = jwtToken.getJwt().getEncoded();
@@ -912,6 +936,11 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         return token;
     }
 
+    private JwtTokenSignedByThisUAA validateAccessToken(String accessToken, boolean introspected) {
+        return introspected ?
+                tokenValidationService.validateIntrospectedToken(accessToken) : tokenValidationService.validateToken(accessToken, true);
+    }
+
     /**
      * This method is implemented only to support older API calls that assume
      * the presence of a token store
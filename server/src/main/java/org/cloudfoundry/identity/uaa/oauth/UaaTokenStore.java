@@ -18,6 +18,8 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationDetails;
 import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.expiry.ExpirySweepable;
+import org.cloudfoundry.identity.uaa.expiry.ExpirySweeper;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
@@ -26,7 +28,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DeadlockLoserDataAccessException;
-import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.support.SqlLobValue;
@@ -55,7 +58,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Semaphore;
 
-public class UaaTokenStore implements AuthorizationCodeServices {
+public class UaaTokenStore implements AuthorizationCodeServices, ExpirySweepable {
     public static final Duration DEFAULT_EXPIRATION_TIME = Duration.ofMinutes(5);
     public static final Duration LEGACY_CODE_EXPIRATION_TIME = Duration.ofDays(3);
     public static final String USER_AUTHENTICATION_UAA_AUTHENTICATION = "userAuthentication.uaaAuthentication";
@@ -75,17 +78,25 @@ public class UaaTokenStore implements AuthorizationCodeServices {
     private static final String SQL_SELECT_STATEMENT = "select code, user_id, client_id, expiresat, created, authentication from oauth_code where code = ?";
     private static final String SQL_INSERT_STATEMENT = "insert into oauth_code (code, user_id, client_id, expiresat, authentication, identity_zone_id) values (?, ?, ?, ?, ?, ?)";
     private static final String SQL_DELETE_STATEMENT = "delete from oauth_code where code = ?";
+    private static final String SQL_DELETE_RETURNING_STATEMENT = "delete from oauth_code where code = ? returning code, user_id, client_id, expiresat, created, authentication";
     private static final String SQL_EXPIRE_STATEMENT = "delete from oauth_code where expiresat > 0 AND expiresat < ?";
     private static final String SQL_CLEAN_STATEMENT = "delete from oauth_code where created < ? and expiresat = 0";
+    private static final String SQL_SELECT_EXPIRED_STATEMENT = "select id from oauth_code where expiresat > 0 AND expiresat < ?";
+    private static final String SQL_DELETE_EXPIRED_STATEMENT = "delete from oauth_code where id = ? and expiresat > 0 AND expiresat < ?";
+    private static final String SQL_SELECT_OLD_STATEMENT = "select id from oauth_code where created < ? and expiresat = 0";
+    private static final String SQL_DELETE_OLD_STATEMENT = "delete from oauth_code where id = ? and created < ? and expiresat = 0";
 
     private final DataSource dataSource;
     private final TimeService timeService;
     private final Duration expirationTime;
     private final RandomValueStringGenerator generator = new RandomValueStringGenerator(32);
-    private final RowMapper rowMapper = new TokenCodeRowMapper();
+    private final RowMapper<TokenCode> rowMapper = new TokenCodeRowMapper();
 
     private Instant lastClean = Instant.EPOCH;
     private Semaphore cleanMutex = new Semaphore(1);
+    private volatile boolean backgroundSweep;
+    private volatile Boolean deleteReturning;
+    private boolean binaryEncoding;
 
     public UaaTokenStore(DataSource dataSource, TimeService timeService) {
         this(dataSource, timeService, DEFAULT_EXPIRATION_TIME);
@@ -110,7 +121,8 @@ public class UaaTokenStore implements AuthorizationCodeServices {
                 Instant expiresAt = timeService.getCurrentInstant().plus(getExpirationTime());
                 String userId = authentication.getUserAuthentication()==null ? null : ((UaaPrincipal)authentication.getUserAuthentication().getPrincipal()).getId();
                 String clientId = authentication.getOAuth2Request().getClientId();
-                SqlLobValue data = new SqlLobValue(serializeOauth2Authentication(authentication));
+                byte[] serialized = binaryEncoding ? AuthorizationCodeCodec.encode(authentication) : serializeOauth2Authentication(authentication);
+                SqlLobValue data = new SqlLobValue(serialized);
                 int updated = template.update(
                     SQL_INSERT_STATEMENT,
                     new Object[] {code, userId, clientId, expiresAt.toEpochMilli(), data, IdentityZoneHolder.get().getId()},
@@ -129,24 +141,46 @@ public class UaaTokenStore implements AuthorizationCodeServices {
     @Override
     public OAuth2Authentication consumeAuthorizationCode(String code) throws InvalidGrantException {
         performExpirationCleanIfEnoughTimeHasElapsed();
-        JdbcTemplate template = new JdbcTemplate(dataSource);
-        try {
-            TokenCode tokenCode = (TokenCode) template.queryForObject(SQL_SELECT_STATEMENT, rowMapper, code);
-            if (tokenCode != null) {
-                try {
-                    if (tokenCode.isExpired()) {
-                        logger.debug("[oauth_code] Found code, but it expired:"+tokenCode);
-                        throw new InvalidGrantException("Authorization code expired: " + code);
-                    } else {
-                        return tokenCode.deserialize();
-                    }
-                } finally {
-                    template.update(SQL_DELETE_STATEMENT, code);
-                }
+        TokenCode tokenCode = removeTokenCode(new JdbcTemplate(dataSource), code);
+        if (tokenCode == null) {
+            throw new InvalidGrantException("Invalid authorization code: " + code);
+        }
+        if (tokenCode.isExpired()) {
+            logger.debug("[oauth_code] Found code, but it expired:"+tokenCode);
+            throw new InvalidGrantException("Authorization code expired: " + code);
+        }
+        return tokenCode.deserialize();
+    }
+
+    /**
+     * Deletes the code and returns its row, or null if the code does not exist or was consumed by a concurrent request.
+     * Only the request whose delete removed the row gets it, so a code can not be redeemed twice.
+     */
+    private TokenCode removeTokenCode(JdbcTemplate template, String code) {
+        if (isDeleteReturningSupported(template)) {
+            try {
+                List<TokenCode> deleted = template.query(SQL_DELETE_RETURNING_STATEMENT, rowMapper, code);
+                return deleted.isEmpty() ? null : deleted.get(0);
+            } catch (BadSqlGrammarException e) {
+                logger.debug("[oauth_code] delete ... returning is not supported, selecting codes before deleting them.", e);
+                deleteReturning = false;
             }
-        }catch (EmptyResultDataAccessException ignored) {
         }
-        throw new InvalidGrantException("Invalid authorization code: " + code);
+        List<TokenCode> found = template.query(SQL_SELECT_STATEMENT, rowMapper, code);
+        if (found.isEmpty() || template.update(SQL_DELETE_STATEMENT, code) != 1) {
+            return null;
+        }
+        return found.get(0);
+    }
+
+    private boolean isDeleteReturningSupported(JdbcTemplate template) {
+        Boolean supported = deleteReturning;
+        if (supported == null) {
+            String product = template.execute((ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+            supported = "PostgreSQL".equals(product);
+            deleteReturning = supported;
+        }
+        return supported;
     }
 
     protected byte[] serializeOauth2Authentication(OAuth2Authentication auth2Authentication) {
@@ -178,6 +212,9 @@ public class UaaTokenStore implements AuthorizationCodeServices {
     }
 
     protected OAuth2Authentication deserializeOauth2Authentication(byte[] data) {
+        if (AuthorizationCodeCodec.isEncoded(data)) {
+            return AuthorizationCodeCodec.decode(data);
+        }
         Map<String,Object> map = JsonUtils.readValue(data, new TypeReference<Map<String,Object>>() {});
         Authentication userAuthentication = null;
         if (map.get(USER_AUTHENTICATION_UAA_AUTHENTICATION) != null) {
@@ -214,6 +251,9 @@ public class UaaTokenStore implements AuthorizationCodeServices {
     }
 
     protected void performExpirationCleanIfEnoughTimeHasElapsed() {
+        if (backgroundSweep) {
+            return;
+        }
         if (cleanMutex.tryAcquire()) {
             //check if we should expire again
             try {
@@ -234,13 +274,56 @@ public class UaaTokenStore implements AuthorizationCodeServices {
             JdbcTemplate template = new JdbcTemplate(dataSource);
             int expired = template.update(SQL_EXPIRE_STATEMENT, now.toEpochMilli());
             logger.debug("[oauth_code] Removed "+expired+" expired entries.");
-            expired = template.update(SQL_CLEAN_STATEMENT, Timestamp.from(now.minus(LEGACY_CODE_EXPIRATION_TIME)));
-            logger.debug("[oauth_code] Removed "+expired+" old entries.");
+            int old = template.update(SQL_CLEAN_STATEMENT, Timestamp.from(now.minus(LEGACY_CODE_EXPIRATION_TIME)));
+            logger.debug("[oauth_code] Removed "+old+" old entries.");
         } catch (DeadlockLoserDataAccessException e) {
             logger.debug("[oauth code] Deadlock trying to expire entries, ignored.");
         }
     }
 
+    @Override
+    public String getSweepName() {
+        return "oauth_code";
+    }
+
+    /**
+     * Deletes up to <code>maxRows</code> expired codes, and old codes without an expiry with what is left.
+     */
+    @Override
+    public int sweepExpired(int maxRows) {
+        Instant now = timeService.getCurrentInstant();
+        try {
+            JdbcTemplate template = new JdbcTemplate(dataSource);
+            int expired = ExpirySweeper.deleteBatch(template, SQL_SELECT_EXPIRED_STATEMENT, SQL_DELETE_EXPIRED_STATEMENT, maxRows, now.toEpochMilli());
+            logger.debug("[oauth_code] Removed "+expired+" expired entries.");
+            if (maxRows > 0 && expired >= maxRows) {
+                return expired;
+            }
+            int old = ExpirySweeper.deleteBatch(template, SQL_SELECT_OLD_STATEMENT, SQL_DELETE_OLD_STATEMENT, maxRows <= 0 ? maxRows : maxRows - expired,
+                    Timestamp.from(now.minus(LEGACY_CODE_EXPIRATION_TIME)));
+            logger.debug("[oauth_code] Removed "+old+" old entries.");
+            return expired + old;
+        } catch (DeadlockLoserDataAccessException e) {
+            logger.debug("[oauth code] Deadlock trying to expire entries, ignored.");
+            return 0;
+        }
+    }
+
+    /**
+     * Hands the deletion of expired codes to the sweeper, taking it off the request threads.
+     */
+    public void setExpirySweeper(ExpirySweeper expirySweeper) {
+        this.backgroundSweep = expirySweeper.register(this);
+    }
+
+    /**
+     * Stores new codes with the {@link AuthorizationCodeCodec} instead of as JSON. Codes in either form are read, so
+     * this should only be enabled once every node of a deployment can read the binary form.
+     */
+    public void setBinaryEncoding(boolean binaryEncoding) {
+        this.binaryEncoding = binaryEncoding;
+    }
+
     private boolean enoughTimeHasPassedSinceLastExpirationClean(Instant last, Instant now) {
         return Duration.between(last, now).toMillis() > getExpirationTime().toMillis();
     }
@@ -14,15 +14,34 @@
  */
 package org.cloudfoundry.identity.uaa.oauth.jwt;
 
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.util.Base64URL;
 import org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKey;
 import org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKeySet;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Verifies a token with one of several keys.
+ * <p>
+ * The keys are indexed by key id and certificate thumbprint, so a token naming one of them is only verified with the
+ * keys of that id, or the key of that thumbprint, whose family matches the token's algorithm. Other tokens are verified
+ * with each key of the same family as the token's algorithm in turn, which is counted in {@link #getFallbackTrials()}.
+ */
 public class ChainedSignatureVerifier implements Verifier {
+    private static final List<String> FAMILIES = List.of("RSA", "EC", "HMAC");
+
+    private final AtomicLong fallbackTrials = new AtomicLong();
     private final List<SignatureVerifier> delegates;
+    private final Map<String, List<SignatureVerifier>> byKeyId = new HashMap<>();
+    private final Map<String, SignatureVerifier> byThumbprint = new HashMap<>();
+    private final Map<String, List<SignatureVerifier>> byFamily = new HashMap<>();
 
     public ChainedSignatureVerifier(JsonWebKeySet<? extends JsonWebKey> keys) {
         if(keys == null || keys.getKeys() == null || keys.getKeys().isEmpty()) {
@@ -30,13 +49,107 @@ public class ChainedSignatureVerifier implements Verifier {
         }
         List<SignatureVerifier> ds = new ArrayList<>(keys.getKeys().size());
         for (JsonWebKey key : keys.getKeys()) {
-            ds.add(new SignatureVerifier(key));
+            SignatureVerifier verifier = new SignatureVerifier(key);
+            ds.add(verifier);
+            indexKeyId(verifier, key.getKid());
+            indexThumbprint(verifier, key.getX5t());
+            indexThumbprint(verifier, (String) key.getKeyProperties().get("x5t#S256"));
         }
         delegates = Collections.unmodifiableList(ds);
+        indexFamilies();
     }
 
     public ChainedSignatureVerifier(List<SignatureVerifier> delegates) {
         this.delegates = delegates;
+        for (SignatureVerifier verifier : delegates) {
+            indexKeyId(verifier, verifier.keyId());
+        }
+        indexFamilies();
+    }
+
+    private void indexKeyId(SignatureVerifier verifier, String keyId) {
+        if (keyId != null) {
+            byKeyId.computeIfAbsent(keyId, k -> new ArrayList<>()).add(verifier);
+        }
+    }
+
+    /**
+     * Each family gets the verifiers of its own or of no known family, in their original order.
+     */
+    private void indexFamilies() {
+        for (String family : FAMILIES) {
+            byFamily.put(family, ofFamily(delegates, family));
+        }
+    }
+
+    private static List<SignatureVerifier> ofFamily(List<SignatureVerifier> verifiers, String family) {
+        List<SignatureVerifier> candidates = new ArrayList<>(verifiers.size());
+        for (SignatureVerifier verifier : verifiers) {
+            String own = family(verifier.algorithm());
+            if (family.equals(own) || !FAMILIES.contains(own) || !FAMILIES.contains(family)) {
+                candidates.add(verifier);
+            }
+        }
+        return candidates;
+    }
+
+    private void indexThumbprint(SignatureVerifier verifier, String thumbprint) {
+        if (thumbprint != null) {
+            byThumbprint.putIfAbsent(thumbprint, verifier);
+        }
+    }
+
+    /**
+     * @return the verifiers to try for a token with <code>header</code>, in order: those whose key id or else the one
+     * whose thumbprint the header names, or else all keys; only keys of the token's algorithm family are included
+     */
+    @SuppressWarnings("deprecation")
+    public List<SignatureVerifier> getCandidates(JWSHeader header) {
+        String family = family(header.getAlgorithm().getName());
+        List<SignatureVerifier> named = header.getKeyID() == null ? null : byKeyId.get(header.getKeyID());
+        if (named == null) {
+            named = byThumbprint(header.getX509CertSHA256Thumbprint());
+        }
+        if (named == null) {
+            named = byThumbprint(header.getX509CertThumbprint());
+        }
+        if (named != null) {
+            List<SignatureVerifier> candidates = ofFamily(named, family);
+            if (!candidates.isEmpty()) {
+                return candidates;
+            }
+        }
+        List<SignatureVerifier> candidates = byFamily.getOrDefault(family, delegates);
+        fallbackTrials.addAndGet(candidates.size());
+        return candidates;
+    }
+
+    private List<SignatureVerifier> byThumbprint(Base64URL thumbprint) {
+        SignatureVerifier verifier = thumbprint == null ? null : byThumbprint.get(thumbprint.toString());
+        return verifier == null ? null : Collections.singletonList(verifier);
+    }
+
+    private static String family(String algorithm) {
+        if (algorithm == null) {
+            return "";
+        }
+        JWSAlgorithm alg = JWSAlgorithm.parse(algorithm);
+        if (JWSAlgorithm.Family.RSA.contains(alg)) {
+            return "RSA";
+        } else if (JWSAlgorithm.Family.EC.contains(alg)) {
+            return "EC";
+        } else if (JWSAlgorithm.Family.HMAC_SHA.contains(alg)) {
+            return "HMAC";
+        }
+        return algorithm;
+    }
+
+    /**
+     * @return how many keys this verifier offered to be tried in turn, for tokens whose key id and thumbprint did not
+     * name a key of their algorithm family
+     */
+    public long getFallbackTrials() {
+        return fallbackTrials.get();
     }
 
     public String algorithm() {
@@ -4,12 +4,8 @@ import com.nimbusds.jose.Algorithm;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.jwk.JWKSet;
-import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
-import com.nimbusds.jose.jwk.source.JWKSource;
 import com.nimbusds.jose.proc.BadJOSEException;
 import com.nimbusds.jose.proc.BadJWSException;
-import com.nimbusds.jose.proc.JWSKeySelector;
-import com.nimbusds.jose.proc.JWSVerificationKeySelector;
 import com.nimbusds.jose.proc.SecurityContext;
 import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet;
@@ -17,7 +13,6 @@ import com.nimbusds.jwt.JWTParser;
 import com.nimbusds.jwt.proc.BadJWTException;
 import com.nimbusds.jwt.proc.ConfigurableJWTProcessor;
 import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
-import com.nimbusds.jwt.proc.DefaultJWTProcessor;
 import org.cloudfoundry.identity.uaa.client.ClientJwtConfiguration;
 import org.cloudfoundry.identity.uaa.oauth.KeyInfo;
 import org.cloudfoundry.identity.uaa.oauth.KeyInfoBuilder;
@@ -28,6 +23,7 @@ import org.cloudfoundry.identity.uaa.oauth.token.Claims;
 import org.cloudfoundry.identity.uaa.provider.OIDCIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.oauth.OidcMetadataFetcher;
 import org.cloudfoundry.identity.uaa.provider.oauth.OidcMetadataFetchingException;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
 import org.cloudfoundry.identity.uaa.zone.beans.IdentityZoneManagerImpl;
 import org.springframework.context.ApplicationContext;
@@ -121,8 +117,8 @@ public class JwtClientAuthentication {
         if (!clientId.equals(getClientId(clientAssertion))) {
           throw new BadCredentialsException("Wrong client_assertion");
         }
-        return clientId.equals(validateClientJWToken(JWTParser.parse(clientAssertion), oidcMetadataFetcher == null ? new JWKSet() :
-            JWKSet.parse(oidcMetadataFetcher.fetchWebKeySet(clientJwtConfiguration).getKeySetMap()),
+        return clientId.equals(validateClientJWToken(JWTParser.parse(clientAssertion), oidcMetadataFetcher == null ? null :
+            oidcMetadataFetcher.fetchWebKeySet(clientJwtConfiguration).getKeySetMap(),
             clientId, keyInfoService.getTokenEndpointUrl()).getSubject());
       } catch (ParseException | URISyntaxException | OidcMetadataFetchingException e) {
         throw new BadCredentialsException("Bad client_assertion", e);
@@ -146,18 +142,23 @@ public class JwtClientAuthentication {
     }
   }
 
-  private JWTClaimsSet validateClientJWToken(JWT jwtAssertion, JWKSet jwkSet, String expectedClientId, String expectedAud) {
+  private JWTClaimsSet validateClientJWToken(JWT jwtAssertion, Map<String, Object> keySetMap, String expectedClientId, String expectedAud) {
     Algorithm algorithm = jwtAssertion.getHeader().getAlgorithm();
     if (algorithm == null || NOT_SUPPORTED_ALGORITHMS.contains(algorithm) || !(algorithm instanceof JWSAlgorithm)) {
       throw new BadCredentialsException("Bad client_assertion algorithm");
     }
-    JWKSource<SecurityContext> keySource = new ImmutableJWKSet<>(jwkSet);
-    JWSKeySelector<SecurityContext> keySelector = new JWSVerificationKeySelector<>((JWSAlgorithm) algorithm, keySource);
-    ConfigurableJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
-    jwtProcessor.setJWSKeySelector(keySelector);
-
-    JWTClaimsSet.Builder claimSetBuilder = new JWTClaimsSet.Builder().issuer(expectedClientId).subject(expectedClientId);
-    jwtProcessor.setJWTClaimsSetVerifier(new DefaultJWTClaimsVerifier<>(expectedAud, claimSetBuilder.build(), JWT_REQUIRED_CLAIMS));
+    // the key set is only parsed when no processor was built for these keys and expected claims yet
+    String key = JwtProcessorRegistry.key("client_assertion", algorithm, expectedClientId, expectedAud,
+        JwtProcessorRegistry.digest(JsonUtils.writeValueAsString(keySetMap)));
+    ConfigurableJWTProcessor<SecurityContext> jwtProcessor = JwtProcessorRegistry.getInstance().getProcessor(key, () -> {
+      JWTClaimsSet.Builder claimSetBuilder = new JWTClaimsSet.Builder().issuer(expectedClientId).subject(expectedClientId);
+      try {
+        return JwtProcessorRegistry.createProcessor((JWSAlgorithm) algorithm, keySetMap == null ? new JWKSet() : JWKSet.parse(keySetMap),
+            new DefaultJWTClaimsVerifier<>(expectedAud, claimSetBuilder.build(), JWT_REQUIRED_CLAIMS));
+      } catch (ParseException e) {
+        throw new BadCredentialsException("Bad client_assertion", e);
+      }
+    });
 
     try {
       return jwtProcessor.process(jwtAssertion, null);
@@ -0,0 +1,206 @@
+package org.cloudfoundry.identity.uaa.oauth.jwt;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes signed JWTs in compact serialization without building intermediate claim sets, header objects or JSON
+ * strings.
+ * <p>
+ * The header and claims are written as UTF-8 JSON straight into a buffer, base64url encoded into a second buffer
+ * that holds the signing input, and that is signed as is. Encoders, with their buffers and JSON generator, are reused
+ * through a small pool rather than kept per thread, so that request threads do not hold on to them, or to this class,
+ * after the application is undeployed. An encoder whose buffers grew past <code>MAX_RETAINED_BYTES</code> is dropped
+ * instead of being returned to the pool. The JSON is standard, so the tokens verify and parse like those nimbus
+ * serializes, though keys and escapes may be written in a different order or form.
+ */
+final class JwtEncoder {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte[] BASE64URL = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_RETAINED_BYTES = 16 * 1024;
+    private static final BlockingQueue<JwtEncoder> ENCODERS = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
+    private final Buffer json = new Buffer();
+    private final JsonGenerator generator;
+    private byte[] signingInput = new byte[1024];
+    private int length;
+
+    private JwtEncoder() {
+        try {
+            generator = MAPPER.getFactory().createGenerator(json);
+            generator.setRootValueSeparator(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the signed token in compact serialization
+     */
+    static String encode(HeaderParameters header, Map<String, Object> claims, JWSSigner signer) throws JOSEException {
+        JwtEncoder encoder = ENCODERS.poll();
+        if (encoder == null) {
+            encoder = new JwtEncoder();
+        }
+        String encoded;
+        try {
+            encoded = encoder.sign(header, claims, signer);
+        } catch (IOException | RuntimeException e) {
+            // the generator may be left mid-value, so the encoder is not returned to the pool
+            throw e instanceof IOException ioException ? new UncheckedIOException(ioException) : (RuntimeException) e;
+        }
+        if (encoder.signingInput.length <= MAX_RETAINED_BYTES && encoder.json.bytes().length <= MAX_RETAINED_BYTES) {
+            ENCODERS.offer(encoder);
+        }
+        return encoded;
+    }
+
+    private String sign(HeaderParameters header, Map<String, Object> claims, JWSSigner signer) throws IOException, JOSEException {
+        JWSHeader jwsHeader = new JWSHeader(JWSAlgorithm.parse(header.alg));
+        if (!signer.supportedJWSAlgorithms().contains(jwsHeader.getAlgorithm())) {
+            throw new JOSEException("The " + header.alg + " algorithm is not supported by the JWS signer");
+        }
+        length = 0;
+        writeHeader(header);
+        appendEncoded();
+        append((byte) '.');
+        writeValue(claims);
+        appendEncoded();
+        String signature = signer.sign(jwsHeader, Arrays.copyOf(signingInput, length)).toString();
+        return new StringBuilder(length + 1 + signature.length())
+                .append(new String(signingInput, 0, length, StandardCharsets.US_ASCII))
+                .append('.')
+                .append(signature)
+                .toString();
+    }
+
+    private void writeHeader(HeaderParameters header) throws IOException {
+        generator.writeStartObject();
+        writeField("alg", header.alg);
+        writeField("typ", header.typ);
+        writeField("kid", header.kid);
+        writeField("jku", header.jku);
+        writeField("cty", header.cty);
+        writeField("enc", header.enc);
+        writeField("iv", header.iv);
+        writeField("x5u", header.x5u);
+        writeField("x5t", header.x5t);
+        writeField("x5t#S256", header.x5tS256);
+        writeField("x5c", header.x5c);
+        writeField("jwk", header.jwk);
+        writeField("crit", header.crit);
+        generator.writeEndObject();
+    }
+
+    private void writeField(String name, Object value) throws IOException {
+        if (value != null) {
+            generator.writeFieldName(name);
+            writeValue(value);
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String string) {
+            generator.writeString(string);
+        } else if (value instanceof Map<?, ?> map) {
+            generator.writeStartObject();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                writeValue(entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof Collection<?> collection) {
+            generator.writeStartArray();
+            for (Object element : collection) {
+                writeValue(element);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            generator.writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal decimal) {
+            generator.writeNumber(decimal);
+        } else if (value instanceof BigInteger integer) {
+            generator.writeNumber(integer);
+        } else if (value instanceof Boolean bool) {
+            generator.writeBoolean(bool);
+        } else {
+            generator.writeObject(value);
+        }
+    }
+
+    /**
+     * Base64url encodes the JSON written since the last call, without padding, onto the signing input.
+     */
+    private void appendEncoded() throws IOException {
+        generator.flush();
+        byte[] src = json.bytes();
+        int srcLength = json.size();
+        ensureCapacity(length + (srcLength + 2) / 3 * 4);
+        byte[] dst = signingInput;
+        int d = length;
+        int s = 0;
+        for (int whole = srcLength / 3 * 3; s < whole; s += 3) {
+            int bits = (src[s] & 0xff) << 16 | (src[s + 1] & 0xff) << 8 | (src[s + 2] & 0xff);
+            dst[d++] = BASE64URL[bits >>> 18 & 0x3f];
+            dst[d++] = BASE64URL[bits >>> 12 & 0x3f];
+            dst[d++] = BASE64URL[bits >>> 6 & 0x3f];
+            dst[d++] = BASE64URL[bits & 0x3f];
+        }
+        int remaining = srcLength - s;
+        if (remaining > 0) {
+            int bits = (src[s] & 0xff) << 16 | (remaining == 2 ? (src[s + 1] & 0xff) << 8 : 0);
+            dst[d++] = BASE64URL[bits >>> 18 & 0x3f];
+            dst[d++] = BASE64URL[bits >>> 12 & 0x3f];
+            if (remaining == 2) {
+                dst[d++] = BASE64URL[bits >>> 6 & 0x3f];
+            }
+        }
+        length = d;
+        json.reset();
+    }
+
+    private void append(byte b) {
+        ensureCapacity(length + 1);
+        signingInput[length++] = b;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > signingInput.length) {
+            signingInput = Arrays.copyOf(signingInput, Math.max(capacity, signingInput.length * 2));
+        }
+    }
+
+    /**
+     * A {@link ByteArrayOutputStream} whose bytes can be read without copying them.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(1024);
+        }
+
+        private byte[] bytes() {
+            return buf;
+        }
+    }
+}
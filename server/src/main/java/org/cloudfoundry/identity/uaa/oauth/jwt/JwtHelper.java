@@ -1,22 +1,13 @@
 package org.cloudfoundry.identity.uaa.oauth.jwt;
 
-import com.nimbusds.jose.Algorithm;
 import com.nimbusds.jose.Header;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.JWSObject;
 import com.nimbusds.jose.JWSSigner;
 import com.nimbusds.jose.KeyLengthException;
-import com.nimbusds.jose.Payload;
-import com.nimbusds.jose.crypto.bc.BouncyCastleFIPSProviderSingleton;
-import com.nimbusds.jose.jwk.JWKSet;
-import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
-import com.nimbusds.jose.jwk.source.JWKSource;
 import com.nimbusds.jose.proc.BadJOSEException;
 import com.nimbusds.jose.proc.BadJWSException;
-import com.nimbusds.jose.proc.JWSKeySelector;
-import com.nimbusds.jose.proc.JWSVerificationKeySelector;
 import com.nimbusds.jose.proc.SecurityContext;
 import com.nimbusds.jose.util.Base64URL;
 import com.nimbusds.jwt.JWT;
@@ -24,8 +15,6 @@ import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.JWTParser;
 import com.nimbusds.jwt.proc.BadJWTException;
 import com.nimbusds.jwt.proc.ConfigurableJWTProcessor;
-import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
-import com.nimbusds.jwt.proc.DefaultJWTProcessor;
 import org.cloudfoundry.identity.uaa.oauth.InvalidSignatureException;
 import org.cloudfoundry.identity.uaa.oauth.KeyInfo;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
@@ -33,12 +22,12 @@ import org.springframework.security.authentication.InsufficientAuthenticationExc
 import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.util.StringUtils;
 
+import java.io.UncheckedIOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.text.ParseException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
@@ -151,9 +140,8 @@ class JwtImpl implements Jwt {
 
     private static final String INVALID_TOKEN = "Invalid token";
     private final JWT parsedJwtObject;
-    private final JWSObject signedJwsObject;
+    private final String encoded;
     private final JwtHeader header;
-    private final JWSSigner signature;
     private final JWTClaimsSet claimsSet;
 
     /**
@@ -164,14 +152,11 @@ class JwtImpl implements Jwt {
      */
     JwtImpl(JwtHeader header, Map<String, Object> payLoad, JWSSigner signature) {
         this.header = header;
-        this.signature = signature;
         this.parsedJwtObject = null;
         try {
             this.claimsSet = JWTClaimsSet.parse(Optional.ofNullable(payLoad).orElseThrow(() -> new JOSEException("Payload null")));
-            JWSObject jwsObject = new JWSObject(JWSHeader.parse(JsonUtils.convertValue(header.parameters, HashMap.class)), new Payload(payLoad));
-            jwsObject.sign(signature);
-            signedJwsObject = jwsObject;
-        } catch (ParseException | JOSEException e) {
+            this.encoded = JwtEncoder.encode(header.parameters, payLoad, signature);
+        } catch (ParseException | JOSEException | UncheckedIOException | IllegalArgumentException e) {
             throw new InvalidTokenException(INVALID_TOKEN, e);
         }
     }
@@ -187,8 +172,7 @@ class JwtImpl implements Jwt {
         } catch (ParseException e) {
             throw new InvalidTokenException(INVALID_TOKEN, e);
         }
-        this.signedJwsObject = null;
-        this.signature = null;
+        this.encoded = null;
     }
     /**
      * Validates a signature contained in the 'signature' segment.
@@ -198,13 +182,15 @@ class JwtImpl implements Jwt {
     @Override
     public void verifySignature(Verifier verifier) {
         if (parsedJwtObject != null && verifier instanceof SignatureVerifier signatureVerifier) {
-            validateClientJWToken(parsedJwtObject, signatureVerifier.getJwkSet());
+            validateClientJWToken(parsedJwtObject, signatureVerifier, null);
             return;
         } else if (parsedJwtObject != null && verifier instanceof ChainedSignatureVerifier chainedSignatureVerifier) {
             Exception last = new InvalidSignatureException("No matching keys found.");
-            for (SignatureVerifier delegate : chainedSignatureVerifier.getDelegates()) {
+            JWSHeader jwsHeader = (JWSHeader) parsedJwtObject.getHeader();
+            String keyId = jwsHeader.getKeyID();
+            for (SignatureVerifier delegate : chainedSignatureVerifier.getCandidates(jwsHeader)) {
                 try {
-                    validateClientJWToken(parsedJwtObject, delegate.getJwkSet(((JWSHeader) parsedJwtObject.getHeader()).getKeyID()));
+                    validateClientJWToken(parsedJwtObject, delegate, keyId);
                     //success
                     return;
                 } catch (Exception e) {
@@ -235,7 +221,7 @@ class JwtImpl implements Jwt {
     }
 
     private String getEncodedSignedJwt() {
-        return signature != null && signedJwsObject != null ? signedJwsObject.serialize() : "";
+        return encoded != null ? encoded : "";
     }
 
     @Override
@@ -248,20 +234,19 @@ class JwtImpl implements Jwt {
         return header == null ? null : header.parameters;
     }
 
-    private JWTClaimsSet validateClientJWToken(JWT jwtAssertion, JWKSet jwkSet) {
-        Algorithm algorithm = jwtAssertion.getHeader().getAlgorithm();
-        JWKSource<SecurityContext> keySource = new ImmutableJWKSet<>(jwkSet);
-        JWSKeySelector<SecurityContext> keySelector = new JWSVerificationKeySelector<>((JWSAlgorithm) algorithm, keySource);
-        ConfigurableJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
-        jwtProcessor.setJWSKeySelector(keySelector);
-        jwtProcessor.setJWTClaimsSetVerifier(new DefaultJWTClaimsVerifier<>(null, null));
-        jwtProcessor.getJWSVerifierFactory().getJCAContext().setProvider(BouncyCastleFIPSProviderSingleton.getInstance());
+    /**
+     * @param keyId the key id to verify the key of <code>verifier</code> under, or <code>null</code> for its own
+     */
+    private JWTClaimsSet validateClientJWToken(JWT jwtAssertion, SignatureVerifier verifier, String keyId) {
+        JWSAlgorithm algorithm = (JWSAlgorithm) jwtAssertion.getHeader().getAlgorithm();
+        ConfigurableJWTProcessor<SecurityContext> jwtProcessor = keyId == null ?
+                verifier.getProcessor(algorithm) : verifier.getProcessor(keyId, algorithm);
         try {
             return jwtProcessor.process(jwtAssertion, null);
         } catch (BadJWSException | BadJWTException jwtException) { // signature failed
             throw new InvalidSignatureException("Unauthorized token", jwtException);
         } catch (KeyLengthException ke ) {
-            return UaaMacSigner.verify(jwtAssertion.getParsedString(), jwkSet);
+            return UaaMacSigner.verify(jwtAssertion.getParsedString(), keyId == null ? verifier.getJwkSet() : verifier.getJwkSet(keyId));
         } catch (BadJOSEException | JOSEException e) { // key resolution, structure of JWT failed
             throw new InvalidSignatureException("Untrusted token", e);
         }
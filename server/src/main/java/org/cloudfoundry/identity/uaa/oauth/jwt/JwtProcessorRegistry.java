@@ -0,0 +1,114 @@
+package org.cloudfoundry.identity.uaa.oauth.jwt;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.crypto.bc.BouncyCastleFIPSProviderSingleton;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.proc.ConfigurableJWTProcessor;
+import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import com.nimbusds.jwt.proc.JWTClaimsSetVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the JWT processors that verify signatures, so that the key set, key selector, claims verifier and JCA
+ * context are set up once per key rather than on every verification.
+ * <p>
+ * A processor is configured once and then only used to process tokens, which {@link DefaultJWTProcessor} supports
+ * from many threads. Processors are looked up by a key naming everything they were built from: the key id, the
+ * algorithm, a digest of the key material and any expected claims. A changed key therefore gets a new processor,
+ * and the least recently used ones are evicted once the registry is full.
+ */
+public final class JwtProcessorRegistry {
+
+    private static final JwtProcessorRegistry INSTANCE = new JwtProcessorRegistry(1_000);
+
+    private final Cache<String, ConfigurableJWTProcessor<SecurityContext>> processors;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    JwtProcessorRegistry(int maxEntries) {
+        this.processors = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+    }
+
+    public static JwtProcessorRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public ConfigurableJWTProcessor<SecurityContext> getProcessor(String key, Supplier<ConfigurableJWTProcessor<SecurityContext>> factory) {
+        ConfigurableJWTProcessor<SecurityContext> processor = processors.getIfPresent(key);
+        if (processor != null) {
+            hits.incrementAndGet();
+            return processor;
+        }
+        misses.incrementAndGet();
+        processor = factory.get();
+        ConfigurableJWTProcessor<SecurityContext> existing = processors.asMap().putIfAbsent(key, processor);
+        return existing != null ? existing : processor;
+    }
+
+    /**
+     * @return a processor accepting tokens signed with <code>algorithm</code> by a key of <code>jwkSet</code>, which
+     * only checks the expiry and not-before claims
+     */
+    public static ConfigurableJWTProcessor<SecurityContext> createProcessor(JWSAlgorithm algorithm, JWKSet jwkSet) {
+        ConfigurableJWTProcessor<SecurityContext> processor = createProcessor(algorithm, jwkSet, new DefaultJWTClaimsVerifier<>(null, null));
+        processor.getJWSVerifierFactory().getJCAContext().setProvider(BouncyCastleFIPSProviderSingleton.getInstance());
+        return processor;
+    }
+
+    public static ConfigurableJWTProcessor<SecurityContext> createProcessor(JWSAlgorithm algorithm, JWKSet jwkSet, JWTClaimsSetVerifier<SecurityContext> claimsVerifier) {
+        ConfigurableJWTProcessor<SecurityContext> processor = new DefaultJWTProcessor<>();
+        processor.setJWSKeySelector(new JWSVerificationKeySelector<>(algorithm, new ImmutableJWKSet<>(jwkSet)));
+        processor.setJWTClaimsSetVerifier(claimsVerifier);
+        return processor;
+    }
+
+    /**
+     * @return the parts joined into a registry key
+     */
+    public static String key(Object... parts) {
+        StringBuilder key = new StringBuilder();
+        for (Object part : parts) {
+            key.append(part).append('\u0000');
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return a SHA-256 digest of key material, to stand in for it in registry keys
+     */
+    public static String digest(String keyMaterial) {
+        try {
+            return Base64URL.encode(MessageDigest.getInstance("SHA-256").digest(keyMaterial.getBytes(StandardCharsets.UTF_8))).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getSize() {
+        return processors.size();
+    }
+
+    public void clear() {
+        processors.invalidateAll();
+    }
+}
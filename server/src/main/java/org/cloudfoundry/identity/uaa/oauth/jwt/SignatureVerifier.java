@@ -6,18 +6,23 @@ import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKParameterNames;
 import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.ConfigurableJWTProcessor;
 import org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKey;
 import org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKeyHelper;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
 
 import java.text.ParseException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 
 public class SignatureVerifier implements Verifier {
     private final JsonWebKey delegate;
     private final String algorithm;
     private JWKSet jwk;
+    private volatile String keyDigest;
 
     public SignatureVerifier(String keyId, String alg, JWK verificationKey) {
         if (keyId == null || alg == null) {
@@ -81,6 +86,10 @@ public class SignatureVerifier implements Verifier {
         return algorithm;
     }
 
+    public String keyId() {
+        return delegate.getKid();
+    }
+
     public JWKSet getJwkSet() {
         return this.jwk;
     }
@@ -95,4 +104,35 @@ public class SignatureVerifier implements Verifier {
         }
         return new JWKSet();
     }
+
+    /**
+     * @return a processor verifying tokens signed with <code>alg</code> by the key of {@link #getJwkSet()}, shared
+     * through the {@link JwtProcessorRegistry}
+     */
+    public ConfigurableJWTProcessor<SecurityContext> getProcessor(JWSAlgorithm alg) {
+        return JwtProcessorRegistry.getInstance().getProcessor(
+                JwtProcessorRegistry.key("key", alg, getKeyDigest()),
+                () -> JwtProcessorRegistry.createProcessor(alg, getJwkSet()));
+    }
+
+    /**
+     * @return a processor verifying tokens signed with <code>alg</code> by the key of {@link #getJwkSet(String)},
+     * shared through the {@link JwtProcessorRegistry}
+     */
+    public ConfigurableJWTProcessor<SecurityContext> getProcessor(String keyId, JWSAlgorithm alg) {
+        return JwtProcessorRegistry.getInstance().getProcessor(
+                JwtProcessorRegistry.key("kid", keyId, alg, getKeyDigest()),
+                () -> JwtProcessorRegistry.createProcessor(alg, getJwkSet(keyId)));
+    }
+
+    private String getKeyDigest() {
+        String digest = keyDigest;
+        if (digest == null) {
+            Map<String, Object> properties = new TreeMap<>(delegate.getKeyProperties());
+            properties.put("verifier_alg", algorithm);
+            digest = JwtProcessorRegistry.digest(JsonUtils.writeValueAsString(properties));
+            keyDigest = digest;
+        }
+        return digest;
+    }
 }
@@ -3,6 +3,8 @@ package org.cloudfoundry.identity.uaa.oauth.token;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.cloudfoundry.identity.uaa.audit.event.SystemDeletable;
+import org.cloudfoundry.identity.uaa.expiry.ExpirySweepable;
+import org.cloudfoundry.identity.uaa.expiry.ExpirySweeper;
 import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.springframework.dao.EmptyResultDataAccessException;
@@ -20,7 +22,7 @@ import java.util.stream.Collectors;
 import static org.cloudfoundry.identity.uaa.oauth.token.RevocableToken.TokenType.REFRESH_TOKEN;
 import static org.springframework.util.StringUtils.isEmpty;
 
-public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisioning, SystemDeletable {
+public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisioning, SystemDeletable, ExpirySweepable {
 
     private final static String REFRESH_TOKEN_RESPONSE_TYPE = REFRESH_TOKEN.toString();
     private final static String FIELDS = "token_id,client_id,user_id,format,response_type,issued_at,expires_at,scope,data,identity_zone_id";
@@ -48,6 +50,8 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
 
     private AtomicLong lastExpiredCheck = new AtomicLong(0);
     private Duration maxExpirationRuntime = Duration.ofMillis(2500L);
+    private volatile boolean backgroundSweep;
+    private RevocationStatusCache revocationStatusCache;
     private final static Duration EXPIRATION_CHECK_INTERVAL = Duration.ofSeconds(30);
 
     public JdbcRevocableTokenProvisioning(JdbcTemplate jdbcTemplate,
@@ -109,6 +113,7 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
                 t.getScope(),
                 t.getValue(),
                 zoneId);
+        tokenChanged(t.getTokenId(), null, zoneId);
     }
 
     @Override
@@ -125,6 +130,7 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
                 t.getScope(),
                 t.getValue(),
                 zoneId);
+        tokenChanged(t.getTokenId(), null, zoneId);
         return retrieve(t.getTokenId(), false, zoneId);
     }
 
@@ -141,6 +147,7 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
                 t.getValue(),
                 id,
                 zoneId);
+        tokenChanged(id, null, zoneId);
         return retrieve(id, false, zoneId);
     }
 
@@ -157,6 +164,7 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
                     t.getValue(),
                     id,
                     zoneId);
+            tokenChanged(id, null, zoneId);
         } else {
             template.update(INSERT_QUERY,
                     t.getTokenId(),
@@ -169,6 +177,7 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
                     t.getScope(),
                     t.getValue(),
                     zoneId);
+            tokenChanged(t.getTokenId(), null, zoneId);
         }
     }
 
@@ -176,22 +185,47 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
     public RevocableToken delete(String id, int version, String zoneId) {
         RevocableToken previous = retrieve(id, false, zoneId);
         template.update(DELETE_QUERY, id, zoneId);
+        // removing an expired token revokes nothing, so peers need not hear about it
+        tokenChanged(id, previous.getExpiresAt() >= timeService.getCurrentTimeMillis() ? previous : null, zoneId);
         return previous;
     }
 
     @Override
     public int deleteByIdentityZone(String zoneId) {
-        return template.update(DELETE_BY_ZONE_QUERY, zoneId);
+        return tokensDeleted(template.update(DELETE_BY_ZONE_QUERY, zoneId));
     }
 
     @Override
     public int deleteByClient(String clientId, String zoneId) {
-        return template.update(DELETE_BY_CLIENT_QUERY, clientId, zoneId);
+        return tokensDeleted(template.update(DELETE_BY_CLIENT_QUERY, clientId, zoneId));
     }
 
     @Override
     public int deleteByUser(String userId, String zoneId) {
-        return template.update(DELETE_BY_USER_QUERY, userId, zoneId);
+        return tokensDeleted(template.update(DELETE_BY_USER_QUERY, userId, zoneId));
+    }
+
+    /**
+     * @param revoked the token if it was revoked and is still valid, which peers must then hear about
+     */
+    private void tokenChanged(String id, RevocableToken revoked, String zoneId) {
+        if (revocationStatusCache != null) {
+            revocationStatusCache.evict(id, zoneId, revoked != null && revoked.getResponseType() != REFRESH_TOKEN);
+        }
+    }
+
+    private int tokensDeleted(int count) {
+        if (revocationStatusCache != null && count > 0) {
+            revocationStatusCache.evictAll();
+        }
+        return count;
+    }
+
+    /**
+     * Keeps the cache up to date with the tokens created, changed and deleted through this provisioning.
+     */
+    public void setRevocationStatusCache(RevocationStatusCache revocationStatusCache) {
+        this.revocationStatusCache = revocationStatusCache;
     }
 
     @Override
@@ -218,6 +252,9 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
     }
 
     private void checkExpired() {
+        if (backgroundSweep) {
+            return;
+        }
         long now = timeService.getCurrentTimeMillis();
         long lastCheck = lastExpiredCheck.get();
         if ((now - lastCheck) > EXPIRATION_CHECK_INTERVAL.toMillis() && lastExpiredCheck.compareAndSet(lastCheck, now)) {
@@ -248,6 +285,28 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
         return removed >= maxRows;
     }
 
+    @Override
+    public String getSweepName() {
+        return TABLE;
+    }
+
+    @Override
+    public int sweepExpired(int maxRows) {
+        String sql = limitSqlAdapter.getDeleteExpiredQuery(
+                TABLE, "token_id", "expires_at", maxRows
+        );
+        int removed = template.update(sql, timeService.getCurrentTimeMillis());
+        logger.debug("Removed " + removed + " expired revocable tokens.");
+        return removed;
+    }
+
+    /**
+     * Hands the deletion of expired tokens to the sweeper, taking it off the request threads.
+     */
+    public void setExpirySweeper(ExpirySweeper expirySweeper) {
+        this.backgroundSweep = expirySweeper.register(this);
+    }
+
     public void setMaxExpirationRuntime(long maxExpirationRuntime) {
         this.maxExpirationRuntime = Duration.ofMillis(maxExpirationRuntime);
     }
@@ -0,0 +1,263 @@
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.client.event.SecretChangeEvent;
+import org.cloudfoundry.identity.uaa.oauth.event.TokenRevocationEvent;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Remembers the result of revocable token lookups made while validating access tokens, so that
+ * <code>/check_token</code> and <code>/introspect</code> do not query <code>revocable_tokens</code> on every call.
+ * <p>
+ * Both found and missing tokens are cached for at most <code>ttlMillis</code>, and found tokens never past their
+ * expiry. Deletes made on this node evict the affected entries right away, as do {@link TokenRevocationEvent}s.
+ * Deleting access tokens also increments the epoch in <code>revocation_epoch</code>; every node polls it each
+ * <code>pollIntervalMillis</code> and drops its cache when it changed, so a revocation made on a peer is seen
+ * within that window. The cache is bypassed while the epoch cannot be read.
+ * <p>
+ * Revoking the tokens of a user or client by changing their salt, and changing a client secret, increment the epoch
+ * as well, since no <code>revocable_tokens</code> row changes for tokens that are not revocable.
+ * <p>
+ * Tokens created on this node evict their entries too, so that a lookup racing ahead of the insert does not leave
+ * a new token reported as missing.
+ * <p>
+ * {@link InvalidationListener}s are told about every revoked access token and every time the cache is dropped, so
+ * that caches built on top of these lookups can follow.
+ */
+public class RevocationStatusCache implements ApplicationListener<AbstractUaaEvent>, InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevocationStatusCache.class);
+
+    static final String EPOCH_ID = "revocations";
+    private static final String SELECT_EPOCH_SQL = "select epoch from revocation_epoch where id=?";
+    private static final String INCREMENT_EPOCH_SQL = "update revocation_epoch set epoch = epoch + 1 where id=?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TimeService timeService;
+    private volatile Cache<String, Entry> entries = newCache(100_000);
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private boolean enabled = true;
+    private long ttlMillis = 30_000;
+    private long pollIntervalMillis = 1_000;
+    private volatile boolean epochKnown;
+    private volatile long epoch;
+    private ScheduledExecutorService poller;
+    private List<InvalidationListener> invalidationListeners = Collections.emptyList();
+
+    public RevocationStatusCache(JdbcTemplate jdbcTemplate, TimeService timeService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.timeService = timeService;
+    }
+
+    /**
+     * Same contract as {@link RevocableTokenProvisioning#retrieve(String, String)}, with <code>lookup</code> doing
+     * the lookups that are not cached.
+     */
+    public RevocableToken retrieve(String tokenId, String zoneId, BiFunction<String, String, RevocableToken> lookup) {
+        if (!enabled || !epochKnown) {
+            return lookup.apply(tokenId, zoneId);
+        }
+        String key = key(tokenId, zoneId);
+        long now = timeService.getCurrentTimeMillis();
+        Entry entry = entries.getIfPresent(key);
+        if (entry != null && now < entry.validUntil) {
+            hits.incrementAndGet();
+            if (entry.token == null) {
+                throw new EmptyResultDataAccessException("Token not found or revoked.", 1);
+            }
+            return entry.token;
+        }
+        misses.incrementAndGet();
+        long loadedGeneration = generation.get();
+        try {
+            RevocableToken token = lookup.apply(tokenId, zoneId);
+            put(key, new Entry(token, Math.min(now + ttlMillis, token.getExpiresAt())), loadedGeneration);
+            return token;
+        } catch (EmptyResultDataAccessException e) {
+            put(key, new Entry(null, now + ttlMillis), loadedGeneration);
+            throw e;
+        }
+    }
+
+    private void put(String key, Entry entry, long loadedGeneration) {
+        Cache<String, Entry> cache = entries;
+        cache.put(key, entry);
+        if (generation.get() != loadedGeneration) {
+            // tokens were evicted while this one was looked up, it may predate the change
+            cache.asMap().remove(key, entry);
+        }
+    }
+
+    /**
+     * Called after a single token was deleted or changed on this node.
+     */
+    void evict(String tokenId, String zoneId, boolean accessToken) {
+        generation.incrementAndGet();
+        entries.invalidate(key(tokenId, zoneId));
+        if (accessToken) {
+            invalidationListeners.forEach(listener -> listener.tokenInvalidated(tokenId, zoneId));
+            publishRevocation();
+        }
+    }
+
+    /**
+     * Called after tokens of a user, client or zone were deleted on this node.
+     */
+    void evictAll() {
+        clear();
+        publishRevocation();
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof TokenRevocationEvent revocation) {
+            generation.incrementAndGet();
+            entries.asMap().values().removeIf(entry -> entry.token != null
+                && Objects.equals(entry.token.getZoneId(), revocation.getZoneId())
+                && (revocation.getUserId() == null || Objects.equals(entry.token.getUserId(), revocation.getUserId()))
+                && (revocation.getClientId() == null || Objects.equals(entry.token.getClientId(), revocation.getClientId())));
+            publishRevocation();
+        } else if (event instanceof SecretChangeEvent) {
+            publishRevocation();
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        entries.invalidateAll();
+        invalidationListeners.forEach(InvalidationListener::allInvalidated);
+    }
+
+    private void publishRevocation() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            jdbcTemplate.update(INCREMENT_EPOCH_SQL, EPOCH_ID);
+        } catch (DataAccessException e) {
+            logger.warn("Unable to publish token revocation to other nodes.", e);
+        }
+    }
+
+    void pollEpoch() {
+        try {
+            List<Long> epochs = jdbcTemplate.queryForList(SELECT_EPOCH_SQL, Long.class, EPOCH_ID);
+            long current = epochs.isEmpty() ? 0 : epochs.get(0);
+            if (!epochKnown || current != epoch) {
+                clear();
+                epoch = current;
+            }
+            epochKnown = true;
+        } catch (RuntimeException e) {
+            if (epochKnown) {
+                logger.warn("Unable to read the token revocation epoch, bypassing the revocation cache.", e);
+            }
+            epochKnown = false;
+            clear();
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (enabled) {
+            pollEpoch();
+            poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "uaa-revocation-epoch");
+                thread.setDaemon(true);
+                return thread;
+            });
+            poller.scheduleWithFixedDelay(this::pollEpoch, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+    }
+
+    private static String key(String tokenId, String zoneId) {
+        return zoneId + ":" + tokenId;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public void setPollIntervalMillis(long pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.entries = newCache(maxEntries);
+    }
+
+    private static Cache<String, Entry> newCache(int maxEntries) {
+        return CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+    }
+
+    public void setInvalidationListeners(List<InvalidationListener> invalidationListeners) {
+        this.invalidationListeners = invalidationListeners;
+    }
+
+    /**
+     * Told when token validations that went through the cache may no longer hold.
+     */
+    public interface InvalidationListener {
+
+        /**
+         * Called after an access token was revoked on this node.
+         */
+        void tokenInvalidated(String tokenId, String zoneId);
+
+        /**
+         * Called after the cache was dropped, which includes revocations made on other nodes.
+         */
+        void allInvalidated();
+    }
+
+    private static final class Entry {
+        private final RevocableToken token;
+        private final long validUntil;
+
+        private Entry(RevocableToken token, long validUntil) {
+            this.token = token;
+            this.validUntil = validUntil;
+        }
+    }
+}
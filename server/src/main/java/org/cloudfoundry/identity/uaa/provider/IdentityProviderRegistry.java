@@ -0,0 +1,307 @@
+package org.cloudfoundry.identity.uaa.provider;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityProviderModifiedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Caches the active identity providers of each zone, parsed once and indexed by origin key, OIDC issuer and email
+ * domain, for the login page, IdP discovery and authentication.
+ * <p>
+ * The providers of a zone are served as is for <code>revalidateAfterMillis</code>. After that, the number, latest
+ * modification and versions of the providers of the zone are compared with the database, which does not read or
+ * parse the provider configurations; a changed zone is reloaded. After <code>maxAgeMillis</code> a zone is always
+ * reloaded. Changes made on this node evict the zone right away, through {@link IdentityProviderModifiedEvent}s and
+ * {@link EntityDeletedEvent}s.
+ * <p>
+ * The cached providers are shared between requests and must not be modified.
+ */
+@ManagedResource(
+    objectName = "cloudfoundry.identity:name=IdentityProviderRegistry",
+    description = "UAA Identity Provider Registry Metrics"
+)
+public class IdentityProviderRegistry implements ApplicationListener<AbstractUaaEvent> {
+
+    private static final String VERSION_SQL = "select count(*), max(lastmodified), sum(version) from identity_provider where identity_zone_id=?";
+
+    private final IdentityProviderProvisioning provisioning;
+    private final JdbcTemplate jdbcTemplate;
+    private volatile Cache<String, Entry> zones = newCache(10_000);
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong versionChecks = new AtomicLong();
+
+    private TimeService timeService = new TimeServiceImpl();
+    private boolean enabled = true;
+    private long revalidateAfterMillis = 5_000;
+    private long maxAgeMillis = 60_000;
+
+    public IdentityProviderRegistry(IdentityProviderProvisioning provisioning, JdbcTemplate jdbcTemplate) {
+        this.provisioning = provisioning;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @return the active providers of the zone, in the order of {@link IdentityProviderProvisioning#retrieveActive(String)}
+     */
+    public ZoneProviders get(String zoneId) {
+        if (!enabled) {
+            misses.incrementAndGet();
+            return new ZoneProviders(provisioning.retrieveActive(zoneId));
+        }
+        long now = timeService.getCurrentTimeMillis();
+        Entry entry = zones.getIfPresent(zoneId);
+        if (entry != null) {
+            if (now - entry.checkedAt < revalidateAfterMillis) {
+                hits.incrementAndGet();
+                return entry.providers;
+            }
+            if (now - entry.loadedAt < maxAgeMillis) {
+                versionChecks.incrementAndGet();
+                if (entry.version.equals(version(zoneId))) {
+                    zones.asMap().replace(zoneId, entry, new Entry(entry.providers, entry.version, entry.loadedAt, now));
+                    hits.incrementAndGet();
+                    return entry.providers;
+                }
+            }
+        }
+        misses.incrementAndGet();
+        long loadedGeneration = generation.get();
+        // the version is read before the providers, so a concurrent change is detected by the next check
+        List<Object> version = version(zoneId);
+        ZoneProviders providers = new ZoneProviders(provisioning.retrieveActive(zoneId));
+        put(zoneId, new Entry(providers, version, now, now), loadedGeneration);
+        return providers;
+    }
+
+    public List<IdentityProvider> retrieveActive(String zoneId) {
+        return get(zoneId).getActive();
+    }
+
+    /**
+     * Same contract as {@link IdentityProviderProvisioning#retrieveByOrigin(String, String)}.
+     */
+    public IdentityProvider retrieveByOrigin(String origin, String zoneId) {
+        IdentityProvider provider = get(zoneId).getByOrigin(origin);
+        if (provider == null) {
+            throw new EmptyResultDataAccessException("No active identity provider with origin " + origin, 1);
+        }
+        return provider;
+    }
+
+    private List<Object> version(String zoneId) {
+        return jdbcTemplate.queryForObject(VERSION_SQL,
+                (rs, rowNum) -> Arrays.asList(rs.getLong(1), rs.getTimestamp(2), rs.getLong(3)), zoneId);
+    }
+
+    private void put(String zoneId, Entry entry, long loadedGeneration) {
+        Cache<String, Entry> cache = zones;
+        cache.put(zoneId, entry);
+        if (generation.get() != loadedGeneration) {
+            // zones were evicted while this one was loaded, it may predate the change
+            cache.asMap().remove(zoneId, entry);
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof IdentityProviderModifiedEvent) {
+            evict(event.getIdentityZoneId());
+            if (event.getSource() instanceof IdentityProvider provider) {
+                evict(provider.getIdentityZoneId());
+            }
+        } else if (event instanceof EntityDeletedEvent) {
+            if (event.getSource() instanceof IdentityProvider provider) {
+                evict(provider.getIdentityZoneId());
+            } else if (event.getSource() instanceof IdentityZone zone) {
+                evict(zone.getId());
+            }
+        }
+    }
+
+    private void evict(String zoneId) {
+        generation.incrementAndGet();
+        if (zoneId != null) {
+            zones.invalidate(zoneId);
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        zones.invalidateAll();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Zones Served From Cache")
+    public long getHits() {
+        return hits.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Zones Loaded")
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Version Checks")
+    public long getVersionChecks() {
+        return versionChecks.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Zones Cached")
+    public long getSize() {
+        return zones.size();
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setRevalidateAfterMillis(long revalidateAfterMillis) {
+        this.revalidateAfterMillis = revalidateAfterMillis;
+    }
+
+    public void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.zones = newCache(maxEntries);
+    }
+
+    private static Cache<String, Entry> newCache(int maxEntries) {
+        return CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+    }
+
+    /**
+     * The active providers of one zone with their indexes.
+     */
+    public static final class ZoneProviders {
+        private final List<IdentityProvider> active;
+        private final Map<String, IdentityProvider> byOrigin = new HashMap<>();
+        private final Map<String, List<IdentityProvider>> byIssuer = new HashMap<>();
+        private final List<IdentityProvider> withoutIssuer = new ArrayList<>();
+        private final Map<String, Set<IdentityProvider>> byEmailDomain = new HashMap<>();
+        private final Map<IdentityProvider, Set<Pattern>> emailDomainWildcards = new IdentityHashMap<>();
+
+        ZoneProviders(List<IdentityProvider> providers) {
+            this.active = Collections.unmodifiableList(new ArrayList<>(providers));
+            for (IdentityProvider provider : active) {
+                byOrigin.putIfAbsent(provider.getOriginKey(), provider);
+                if (OriginKeys.OIDC10.equals(provider.getType()) && provider.getConfig() instanceof OIDCIdentityProviderDefinition definition) {
+                    if (StringUtils.hasText(definition.getIssuer())) {
+                        byIssuer.computeIfAbsent(definition.getIssuer(), k -> new ArrayList<>()).add(provider);
+                    } else {
+                        withoutIssuer.add(provider);
+                    }
+                }
+                List<String> emailDomains = provider.getConfig() == null ? null : provider.getConfig().getEmailDomain();
+                if (emailDomains != null) {
+                    List<String> wildcards = new ArrayList<>();
+                    for (String emailDomain : emailDomains) {
+                        if (emailDomain.contains("*")) {
+                            wildcards.add(emailDomain);
+                        } else {
+                            byEmailDomain.computeIfAbsent(emailDomain, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(provider);
+                        }
+                    }
+                    if (!wildcards.isEmpty()) {
+                        emailDomainWildcards.put(provider, UaaStringUtils.constructWildcards(wildcards));
+                    }
+                }
+            }
+        }
+
+        public List<IdentityProvider> getActive() {
+            return active;
+        }
+
+        /**
+         * @return the active provider with the origin key, or null
+         */
+        public IdentityProvider getByOrigin(String origin) {
+            return byOrigin.get(origin);
+        }
+
+        /**
+         * @return the active OIDC providers configured with the issuer
+         */
+        public List<IdentityProvider> getByIssuer(String issuer) {
+            return byIssuer.getOrDefault(issuer, Collections.emptyList());
+        }
+
+        /**
+         * @return the active OIDC providers without a configured issuer, which may get one from their discovery document
+         */
+        public List<IdentityProvider> getWithoutIssuer() {
+            return withoutIssuer;
+        }
+
+        /**
+         * @return whether the provider lists an email domain that matches <code>domain</code>
+         */
+        public boolean matchesEmailDomain(IdentityProvider provider, String domain) {
+            Set<IdentityProvider> exact = byEmailDomain.get(domain);
+            if (exact != null && exact.contains(provider)) {
+                return true;
+            }
+            Set<Pattern> wildcards = emailDomainWildcards.get(provider);
+            return wildcards != null && UaaStringUtils.matches(wildcards, domain);
+        }
+
+        /**
+         * @return the active providers that list an email domain matching <code>domain</code>
+         */
+        public List<IdentityProvider> getByEmailDomain(String domain) {
+            List<IdentityProvider> matched = new ArrayList<>();
+            for (IdentityProvider provider : active) {
+                if (matchesEmailDomain(provider, domain)) {
+                    matched.add(provider);
+                }
+            }
+            return matched;
+        }
+    }
+
+    private static final class Entry {
+        private final ZoneProviders providers;
+        private final List<Object> version;
+        private final long loadedAt;
+        private final long checkedAt;
+
+        private Entry(ZoneProviders providers, List<Object> version, long loadedAt, long checkedAt) {
+            this.providers = providers;
+            this.version = version;
+            this.loadedAt = loadedAt;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
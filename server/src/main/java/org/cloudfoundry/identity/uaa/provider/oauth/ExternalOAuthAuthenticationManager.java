@@ -59,6 +59,9 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.InsufficientAuthenticationException;
 import org.springframework.security.core.Authentication;
@@ -89,6 +92,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static java.util.Collections.emptyList;
@@ -111,6 +115,10 @@ import static org.springframework.http.HttpMethod.GET;
 import static org.springframework.util.StringUtils.hasText;
 import static org.springframework.util.StringUtils.isEmpty;
 
+@ManagedResource(
+        objectName = "cloudfoundry.identity:name=ExternalOAuthAuthentication",
+        description = "UAA External OAuth Authentication Metrics"
+)
 public class ExternalOAuthAuthenticationManager extends ExternalLoginAuthenticationManager<ExternalOAuthAuthenticationManager.AuthenticationData> {
 
     public static Logger logger = LoggerFactory.getLogger(ExternalOAuthAuthenticationManager.class);
@@ -122,6 +130,8 @@ public class ExternalOAuthAuthenticationManager extends ExternalLoginAuthenticat
     private TokenEndpointBuilder tokenEndpointBuilder;
     private KeyInfoService keyInfoService;
 
+    private final AtomicLong signatureFallbackTrials = new AtomicLong();
+
     //origin is per thread during execution
     private final ThreadLocal<String> origin = ThreadLocal.withInitial(() -> "unknown");
 
@@ -643,18 +653,31 @@ public class ExternalOAuthAuthenticationManager extends ExternalLoginAuthenticat
 
         JwtTokenSignedByThisUAA jwtToken;
 
-        if (tokenEndpointBuilder.getTokenEndpoint(IdentityZoneHolder.get()).equals(config.getIssuer())) {
-            List<SignatureVerifier> signatureVerifiers = getTokenKeyForUaaOrigin();
-            jwtToken = buildIdTokenValidator(idToken, new ChainedSignatureVerifier(signatureVerifiers), keyInfoService);
-        } else {
-            JsonWebKeySet<JsonWebKey> tokenKeyFromOAuth = getTokenKeyFromOAuth(config);
-            jwtToken = buildIdTokenValidator(idToken, new ChainedSignatureVerifier(tokenKeyFromOAuth), keyInfoService)
+        boolean issuedByThisUaa = tokenEndpointBuilder.getTokenEndpoint(IdentityZoneHolder.get()).equals(config.getIssuer());
+        ChainedSignatureVerifier verifier = issuedByThisUaa ?
+                new ChainedSignatureVerifier(getTokenKeyForUaaOrigin()) :
+                new ChainedSignatureVerifier(getTokenKeyFromOAuth(config));
+        try {
+            jwtToken = buildIdTokenValidator(idToken, verifier, keyInfoService);
+        } finally {
+            signatureFallbackTrials.addAndGet(verifier.getFallbackTrials());
+        }
+        if (!issuedByThisUaa) {
+            jwtToken = jwtToken
                 .checkIssuer((isEmpty(config.getIssuer()) ? config.getTokenUrl().toString() : config.getIssuer()))
                 .checkAudience(config.getRelyingPartyId());
         }
         return jwtToken.checkExpiry();
     }
 
+    /**
+     * @return how many keys were tried in turn to verify id tokens whose key id and thumbprint did not name a key
+     */
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Id Token Keys Tried Without A Matching Key Id")
+    public long getSignatureFallbackTrials() {
+        return signatureFallbackTrials.get();
+    }
+
     protected List<SignatureVerifier> getTokenKeyForUaaOrigin() {
         Map<String, KeyInfo> keys = keyInfoService.getKeys();
         return keys.values().stream()
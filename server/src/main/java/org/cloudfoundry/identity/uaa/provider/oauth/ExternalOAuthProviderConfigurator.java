@@ -2,8 +2,10 @@ package org.cloudfoundry.identity.uaa.provider.oauth;
 
 import org.cloudfoundry.identity.uaa.oauth.pkce.verifiers.S256PkceVerifier;
 import org.cloudfoundry.identity.uaa.provider.AbstractExternalOAuthIdentityProviderDefinition;
+import org.cloudfoundry.identity.uaa.provider.AbstractIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
+import org.cloudfoundry.identity.uaa.provider.IdentityProviderRegistry;
 import org.cloudfoundry.identity.uaa.provider.OIDCIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.util.SessionUtils;
 import org.cloudfoundry.identity.uaa.util.UaaRandomStringUtil;
@@ -38,6 +40,7 @@ public class ExternalOAuthProviderConfigurator implements IdentityProviderProvis
     private final IdentityProviderProvisioning providerProvisioning;
     private final OidcMetadataFetcher oidcMetadataFetcher;
     private final UaaRandomStringUtil uaaRandomStringUtil;
+    private IdentityProviderRegistry identityProviderRegistry;
 
     public ExternalOAuthProviderConfigurator(
             final @Qualifier("identityProviderProvisioning") IdentityProviderProvisioning providerProvisioning,
@@ -48,6 +51,14 @@ public class ExternalOAuthProviderConfigurator implements IdentityProviderProvis
         this.uaaRandomStringUtil = uaaRandomStringUtil;
     }
 
+    /**
+     * Reads the active providers from the registry instead of the database. The cached providers are copied before
+     * their discovery document is applied.
+     */
+    public void setIdentityProviderRegistry(IdentityProviderRegistry identityProviderRegistry) {
+        this.identityProviderRegistry = identityProviderRegistry;
+    }
+
     protected OIDCIdentityProviderDefinition overlay(OIDCIdentityProviderDefinition definition) {
         try {
             oidcMetadataFetcher.fetchMetadataAndUpdateDefinition(definition);
@@ -150,7 +161,17 @@ public class ExternalOAuthProviderConfigurator implements IdentityProviderProvis
     }
 
     public IdentityProvider retrieveByIssuer(String issuer, String zoneId) throws IncorrectResultSizeDataAccessException {
-        List<IdentityProvider> providers = retrieveAll(true, zoneId)
+        List<IdentityProvider> candidates;
+        if (identityProviderRegistry != null) {
+            // providers without a configured issuer may get it from their discovery document
+            IdentityProviderRegistry.ZoneProviders zoneProviders = identityProviderRegistry.get(zoneId);
+            candidates = new ArrayList<>(zoneProviders.getByIssuer(issuer));
+            candidates.addAll(zoneProviders.getWithoutIssuer());
+            candidates = overlayAll(candidates, true);
+        } else {
+            candidates = retrieveAll(true, zoneId);
+        }
+        List<IdentityProvider> providers = candidates
                 .stream()
                 .filter(p -> OIDC10.equals(p.getType()) &&
                         issuer.equals(((OIDCIdentityProviderDefinition) p.getConfig()).getIssuer()))
@@ -165,11 +186,18 @@ public class ExternalOAuthProviderConfigurator implements IdentityProviderProvis
 
     @Override
     public List<IdentityProvider> retrieveAll(boolean activeOnly, String zoneId) {
+        if (activeOnly && identityProviderRegistry != null) {
+            return overlayAll(identityProviderRegistry.retrieveActive(zoneId), true);
+        }
+        return overlayAll(providerProvisioning.retrieveAll(activeOnly, zoneId), false);
+    }
+
+    private List<IdentityProvider> overlayAll(List<IdentityProvider> providers, boolean shared) {
         final List<String> types = Arrays.asList(OAUTH20, OIDC10);
-        List<IdentityProvider> providers = providerProvisioning.retrieveAll(activeOnly, zoneId);
         List<IdentityProvider> overlayedProviders = new ArrayList<>();
         ofNullable(providers).orElse(emptyList()).stream()
                 .filter(p -> types.contains(p.getType()))
+                .map(p -> shared ? copyOf(p) : p)
                 .forEach(p -> {
                     if (p.getType().equals(OIDC10)) {
                         try {
@@ -185,6 +213,34 @@ public class ExternalOAuthProviderConfigurator implements IdentityProviderProvis
         return overlayedProviders;
     }
 
+    /**
+     * Copies a cached provider, and the OIDC definition that the overlay modifies.
+     */
+    private static IdentityProvider copyOf(IdentityProvider provider) {
+        Object config = provider.getConfig();
+        if (config instanceof OIDCIdentityProviderDefinition definition) {
+            try {
+                config = definition.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        IdentityProvider copy = new IdentityProvider();
+        copy.setId(provider.getId());
+        copy.setVersion(provider.getVersion());
+        copy.setCreated(provider.getCreated());
+        copy.setLastModified(provider.getLastModified());
+        copy.setName(provider.getName());
+        copy.setOriginKey(provider.getOriginKey());
+        copy.setIdentityZoneId(provider.getIdentityZoneId());
+        copy.setConfig((AbstractIdentityProviderDefinition) config);
+        copy.setType(provider.getType());
+        copy.setActive(provider.isActive());
+        copy.setAliasId(provider.getAliasId());
+        copy.setAliasZid(provider.getAliasZid());
+        return copy;
+    }
+
     @Override
     public IdentityProvider retrieveByOrigin(String origin, String zoneId) {
         IdentityProvider p = providerProvisioning.retrieveByOrigin(origin, zoneId);
@@ -1,16 +1,22 @@
 package org.cloudfoundry.identity.uaa.ratelimiting.internal.limitertracking;
 
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.cloudfoundry.identity.uaa.ratelimiting.core.CompoundKey;
 import org.cloudfoundry.identity.uaa.ratelimiting.internal.common.InternalLimiter;
 import org.cloudfoundry.identity.uaa.ratelimiting.internal.common.InternalLimiterFactory;
 import org.cloudfoundry.identity.uaa.ratelimiting.util.NanoTimeSupplier;
 
+/**
+ * Tracks the active <code>InternalLimiter</code> per <code>CompoundKey</code>.
+ * <p>
+ * Lookups are lock free, replacements and removals are atomic per key (via the <code>ConcurrentHashMap</code> bin locks),
+ * so request threads and the expiration purging thread never contend on a single monitor.
+ */
 public class LimiterByCompoundKey implements CompoundKeyPurger {
-    private final Map<CompoundKey, InternalLimiter> map = new HashMap<>();
+    private final ConcurrentMap<CompoundKey, InternalLimiter> map = new ConcurrentHashMap<>();
     private final NanoTimeSupplier currentTimeSupplier;
 
     public LimiterByCompoundKey( NanoTimeSupplier currentTimeSupplier ) {
@@ -18,13 +24,12 @@ public class LimiterByCompoundKey implements CompoundKeyPurger {
     }
 
     @Override
-    public synchronized boolean removeCompoundKey( CompoundKey compoundKey, long expectedExpirationSecond ) {
+    public boolean removeCompoundKey( CompoundKey compoundKey, long expectedExpirationSecond ) {
         InternalLimiter limiter = map.get( compoundKey );
         if ( limiter != null ) {
             long limiterExpirationSecond = limiter.getWindowEndExclusive().getEpochSecond();
             if ( expectedExpirationSecond == limiterExpirationSecond ) {
-                map.remove( compoundKey );
-                return true;
+                return map.remove( compoundKey, limiter ); // only if not replaced in the meantime
             }
         }
         return false;
@@ -32,7 +37,7 @@ public class LimiterByCompoundKey implements CompoundKeyPurger {
 
     public InternalLimiter get( CompoundKey compoundKey, InternalLimiterFactory factory,
                                 CompoundKeyExpirationAdder compoundKeyExpirationAdder ) {
-        InternalLimiter existingLimiter = get( compoundKey );
+        InternalLimiter existingLimiter = map.get( compoundKey );
         Instant now = currentTimeSupplier.nowAsInstant();
         if ( (existingLimiter != null) && !existingLimiter.isExpired( now ) ) {
             return existingLimiter;
@@ -46,16 +51,17 @@ public class LimiterByCompoundKey implements CompoundKeyPurger {
         return actualNewLimiter;
     }
 
-    private synchronized InternalLimiter get( CompoundKey compoundKey ) {
-        return map.get( compoundKey );
+    // package friendly for testing
+    int size() {
+        return map.size();
     }
 
-    private synchronized InternalLimiter put( CompoundKey compoundKey, InternalLimiter existingLimiter, InternalLimiter newLimiter ) {
-        InternalLimiter mappedLimiter = map.get( compoundKey );
-        if ( existingLimiter != mappedLimiter ) { // Our Thread paused between get and put, and another thread updated map already
-            return mappedLimiter; // return updated
-        }
-        map.put( compoundKey, newLimiter );
-        return newLimiter;
+    private InternalLimiter put( CompoundKey compoundKey, InternalLimiter existingLimiter, InternalLimiter newLimiter ) {
+        return map.compute( compoundKey, ( key, mappedLimiter ) -> {
+            if ( (mappedLimiter != null) && (mappedLimiter != existingLimiter) ) { // Our Thread paused between get and put, and another thread updated map already
+                return mappedLimiter; // keep (and return) updated
+            }
+            return newLimiter; // unchanged or purged since our get
+        } );
     }
 }
@@ -0,0 +1,39 @@
+package org.cloudfoundry.identity.uaa.resources;
+
+import java.util.List;
+
+/**
+ * One page of a keyset (seek) query.
+ */
+public class KeysetPage<T> {
+
+    public static final int TOTAL_NOT_COUNTED = -1;
+
+    private final List<T> resources;
+    private final String nextCursor;
+    private final int totalResults;
+
+    public KeysetPage(List<T> resources, String nextCursor, int totalResults) {
+        this.resources = resources;
+        this.nextCursor = nextCursor;
+        this.totalResults = totalResults;
+    }
+
+    public List<T> getResources() {
+        return resources;
+    }
+
+    /**
+     * @return the opaque token to request the following page with, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return the number of rows matching the filter, or {@link #TOTAL_NOT_COUNTED} if the count was skipped
+     */
+    public int getTotalResults() {
+        return totalResults;
+    }
+}
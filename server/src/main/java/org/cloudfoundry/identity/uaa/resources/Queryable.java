@@ -20,4 +20,14 @@ public interface Queryable<T> {
 
     List<T> query(String filter, String sortBy, boolean ascending, String zoneId);
 
+    /**
+     * Keyset (seek) variant of {@link #query(String, String, boolean, String)}: returns at most <code>count</code>
+     * rows following the position encoded in <code>cursor</code> (the first page if it is empty), ordered by the
+     * sort attribute and then by id.
+     *
+     * @param includeTotal whether to also count all the rows matching the filter, which costs a second query
+     */
+    KeysetPage<T> queryPage(String filter, String sortBy, boolean ascending, String cursor, int count,
+                            boolean includeTotal, String zoneId);
+
 }
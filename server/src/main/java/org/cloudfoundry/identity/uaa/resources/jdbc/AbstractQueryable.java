@@ -1,5 +1,6 @@
 package org.cloudfoundry.identity.uaa.resources.jdbc;
 
+import org.cloudfoundry.identity.uaa.resources.KeysetPage;
 import org.cloudfoundry.identity.uaa.resources.Queryable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,6 +10,7 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.util.StringUtils;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -85,6 +87,33 @@ public abstract class AbstractQueryable<T> implements Queryable<T> {
         }
     }
 
+    @Override
+    public KeysetPage<T> queryPage(String filter, String sortBy, boolean ascending, String cursor, int count,
+                                   boolean includeTotal, String zoneId) {
+        String sortColumn = StringUtils.hasText(sortBy) ? queryConverter.map(sortBy).trim().toLowerCase() : getIdColumn();
+        validateOrderBy(sortColumn);
+        if (!getKeysetSortColumns().contains(sortColumn)) {
+            throw new IllegalArgumentException("Invalid sort field for cursor pagination: " + sortBy);
+        }
+        KeysetCursor after = null;
+        if (StringUtils.hasText(cursor)) {
+            after = KeysetCursor.decode(cursor);
+            if (!after.matches(sortColumn, ascending)) {
+                throw new IllegalArgumentException("Cursor does not match the requested sort order");
+            }
+        }
+
+        SearchQueryConverter.ProcessedFilter where = queryConverter.convert(filter, null, ascending, zoneId);
+        String sql = getBaseSqlQuery() + " where (" + where.getSql() + ")";
+        try {
+            return pagingListFactory.createKeysetPage(sql, where.getParams(), sortColumn, getIdColumn(), ascending,
+                    after, rowMapper, count, includeTotal);
+        } catch (DataAccessException e) {
+            logger.debug("Filter '" + filter + "' generated invalid SQL", e);
+            throw new IllegalArgumentException("Invalid filter: " + filter);
+        }
+    }
+
     private String getQuerySQL(SearchQueryConverter.ProcessedFilter where) {
         if (where.hasOrderBy()) {
             return getBaseSqlQuery() + " where (" + where.getSql().replace(where.ORDER_BY, ")" + where.ORDER_BY);
@@ -99,6 +128,20 @@ public abstract class AbstractQueryable<T> implements Queryable<T> {
 
     protected abstract void validateOrderBy(String orderBy) throws IllegalArgumentException;
 
+    /**
+     * The unique column used to break ties between rows with the same sort value in keyset pages.
+     */
+    protected String getIdColumn() {
+        return "id";
+    }
+
+    /**
+     * The lower case, non nullable columns that keyset pages may be sorted by.
+     */
+    protected Set<String> getKeysetSortColumns() {
+        return Collections.singleton(getIdColumn());
+    }
+
     protected void validateOrderBy(final String csvRequestedOrderBy, final String csvAllowedFields) throws IllegalArgumentException {
         if (!StringUtils.hasText(csvRequestedOrderBy)) {
             return;
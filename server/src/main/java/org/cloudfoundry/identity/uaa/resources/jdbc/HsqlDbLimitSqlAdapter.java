@@ -29,4 +29,9 @@ public class HsqlDbLimitSqlAdapter implements LimitSqlAdapter {
             " ORDER BY "+ expiresColumn +
             " LIMIT " + maxRows + " OFFSET 0)";
     }
+
+    @Override
+    public String getKeysetPredicate(String sortColumn, String idColumn, boolean ascending, String sortParam, String idParam) {
+        return "(" + sortColumn + ", " + idColumn + ")" + (ascending ? " > " : " < ") + "(:" + sortParam + ", :" + idParam + ")";
+    }
 }
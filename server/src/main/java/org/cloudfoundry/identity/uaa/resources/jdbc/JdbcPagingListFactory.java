@@ -12,9 +12,14 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.resources.jdbc;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.cloudfoundry.identity.uaa.resources.KeysetPage;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -27,6 +32,9 @@ import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
  */
 public class JdbcPagingListFactory {
 
+    private static final String KEYSET_SORT_PARAM = "__keyset_sort";
+    private static final String KEYSET_ID_PARAM = "__keyset_id";
+
     private NamedParameterJdbcTemplate jdbcTemplate;
     private LimitSqlAdapter limitSqlAdapter;
 
@@ -38,4 +46,71 @@ public class JdbcPagingListFactory {
     public <T> List<T> createJdbcPagingList(String sql, Map<String, ?> args, RowMapper<T> mapper, int pageSize) {
         return new JdbcPagingList<T>(jdbcTemplate, limitSqlAdapter, sql, args, mapper, pageSize);
     }
+
+    /**
+     * Fetches one keyset page. The query must end with its where clause: the seek predicate and the
+     * order by on <code>(sortColumn, idColumn)</code> are appended here. Both columns must be selected
+     * by the query and the sort column must not be nullable.
+     */
+    public <T> KeysetPage<T> createKeysetPage(String sql, Map<String, ?> args, String sortColumn, String idColumn,
+                                              boolean ascending, KeysetCursor after, RowMapper<T> mapper,
+                                              int pageSize, boolean includeTotal) {
+        int total = includeTotal ?
+                jdbcTemplate.queryForObject(JdbcPagingList.getCountSql(sql), args, Integer.class) :
+                KeysetPage.TOTAL_NOT_COUNTED;
+
+        boolean sortById = sortColumn.equalsIgnoreCase(idColumn);
+        String direction = ascending ? " asc" : " desc";
+        Map<String, Object> params = new HashMap<>(args);
+        StringBuilder seekSql = new StringBuilder(sql);
+        if (after != null) {
+            params.put(KEYSET_ID_PARAM, after.getId());
+            if (sortById) {
+                seekSql.append(" and ").append(idColumn).append(ascending ? " > :" : " < :").append(KEYSET_ID_PARAM);
+            } else {
+                params.put(KEYSET_SORT_PARAM, after.getSortValue());
+                seekSql.append(" and ").append(limitSqlAdapter.getKeysetPredicate(sortColumn, idColumn, ascending, KEYSET_SORT_PARAM, KEYSET_ID_PARAM));
+            }
+        }
+        seekSql.append(" order by ").append(sortColumn).append(direction);
+        if (!sortById) {
+            seekSql.append(", ").append(idColumn).append(direction);
+        }
+
+        // one row more than requested tells whether there is a next page without counting
+        List<Row<T>> rows = jdbcTemplate.query(
+                limitSqlAdapter.getKeysetLimitSql(seekSql.toString(), pageSize + 1),
+                params,
+                (rs, rowNum) -> new Row<>(mapper.mapRow(rs, rowNum), getSortValue(rs, sortColumn), rs.getString(idColumn)));
+
+        List<T> resources = new ArrayList<>(Math.min(rows.size(), pageSize));
+        for (int i = 0; i < rows.size() && i < pageSize; i++) {
+            resources.add(rows.get(i).resource);
+        }
+        String nextCursor = null;
+        if (rows.size() > pageSize && pageSize > 0) {
+            Row<T> last = rows.get(pageSize - 1);
+            nextCursor = new KeysetCursor(sortColumn, ascending, last.sortValue, last.id).encode();
+        }
+        return new KeysetPage<>(resources, nextCursor, total);
+    }
+
+    private static Object getSortValue(ResultSet rs, String sortColumn) throws SQLException {
+        Object value = rs.getObject(sortColumn);
+        // drivers differ in the java.time/java.sql types they return for timestamp columns
+        return value instanceof java.time.temporal.Temporal || value instanceof java.util.Date ?
+                rs.getTimestamp(sortColumn) : value;
+    }
+
+    private static final class Row<T> {
+        private final T resource;
+        private final Object sortValue;
+        private final String id;
+
+        private Row(T resource, Object sortValue, String id) {
+            this.resource = resource;
+            this.sortValue = sortValue;
+            this.id = id;
+        }
+    }
 }
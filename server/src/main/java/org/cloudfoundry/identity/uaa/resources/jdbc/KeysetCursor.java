@@ -0,0 +1,105 @@
+package org.cloudfoundry.identity.uaa.resources.jdbc;
+
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Position of the last row of a keyset (seek) page: the value of the sort column and the id of that row.
+ * <p>
+ * Clients only ever see the {@link #encode() encoded} form, an opaque URL safe token. The token also records the
+ * sort column and direction it was produced for, so that it cannot be replayed against a different ordering.
+ */
+public final class KeysetCursor {
+
+    private static final String TIMESTAMP = "ts";
+    private static final String NUMBER = "n";
+    private static final String STRING = "s";
+
+    private final String sortColumn;
+    private final boolean ascending;
+    private final Object sortValue;
+    private final String id;
+
+    public KeysetCursor(String sortColumn, boolean ascending, Object sortValue, String id) {
+        this.sortColumn = sortColumn;
+        this.ascending = ascending;
+        this.sortValue = sortValue instanceof java.util.Date && !(sortValue instanceof Timestamp) ?
+                new Timestamp(((java.util.Date) sortValue).getTime()) : sortValue;
+        this.id = id;
+    }
+
+    public String getSortColumn() {
+        return sortColumn;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public Object getSortValue() {
+        return sortValue;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public boolean matches(String sortColumn, boolean ascending) {
+        return this.sortColumn.equalsIgnoreCase(sortColumn) && this.ascending == ascending;
+    }
+
+    public String encode() {
+        Map<String, Object> token = new LinkedHashMap<>();
+        token.put("c", sortColumn);
+        token.put("a", ascending);
+        if (sortValue instanceof Timestamp) {
+            token.put("t", TIMESTAMP);
+            token.put("v", ((Timestamp) sortValue).toInstant().toString());
+        } else if (sortValue instanceof Number) {
+            token.put("t", NUMBER);
+            token.put("v", ((Number) sortValue).longValue());
+        } else {
+            token.put("t", STRING);
+            token.put("v", sortValue == null ? null : sortValue.toString());
+        }
+        token.put("id", id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(JsonUtils.writeValueAsBytes(token));
+    }
+
+    public static KeysetCursor decode(String token) throws IllegalArgumentException {
+        try {
+            Map<String, Object> map = JsonUtils.readValueAsMap(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+            Object value = map.get("v");
+            Object sortValue;
+            switch (String.valueOf(map.get("t"))) {
+                case TIMESTAMP:
+                    sortValue = Timestamp.from(Instant.parse((String) value));
+                    break;
+                case NUMBER:
+                    sortValue = ((Number) value).longValue();
+                    break;
+                case STRING:
+                    sortValue = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid cursor: " + token);
+            }
+            String sortColumn = (String) map.get("c");
+            String id = (String) map.get("id");
+            if (sortColumn == null || sortValue == null || id == null) {
+                throw new IllegalArgumentException("Invalid cursor: " + token);
+            }
+            return new KeysetCursor(sortColumn, Boolean.TRUE.equals(map.get("a")), sortValue, id);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token, e);
+        }
+    }
+}
@@ -18,5 +18,24 @@ public interface LimitSqlAdapter {
         return sql + " limit " + size + " offset " + index;
     }
 
+    /**
+     * Limits an already ordered keyset (seek) query to its first <code>size</code> rows. Unlike
+     * {@link #getLimitSql(String, int, int)} no rows are skipped, so the cost of a page does not grow with its depth.
+     */
+    default String getKeysetLimitSql(String sql, int size) {
+        return sql + " limit " + size;
+    }
+
+    /**
+     * Predicate selecting the rows strictly after (or before, when descending) the last row of the previous page,
+     * ordered by <code>(sortColumn, idColumn)</code>. The default is the expanded form, which every database
+     * can resolve with a range scan on the sort column index.
+     */
+    default String getKeysetPredicate(String sortColumn, String idColumn, boolean ascending, String sortParam, String idParam) {
+        String op = ascending ? " > " : " < ";
+        return "(" + sortColumn + op + ":" + sortParam +
+            " or (" + sortColumn + " = :" + sortParam + " and " + idColumn + op + ":" + idParam + "))";
+    }
+
     String getDeleteExpiredQuery(String tablename, String primaryKeyColumn, String expiresColumn, int maxRows);
 }
@@ -15,6 +15,10 @@
 
 package org.cloudfoundry.identity.uaa.resources.jdbc;
 
+/**
+ * Keyset pages use the default expanded predicate: MySQL does not reliably use an index for
+ * row value comparisons such as <code>(a, b) &gt; (?, ?)</code>.
+ */
 public class MySqlLimitSqlAdapter implements LimitSqlAdapter {
     public String getDeleteExpiredQuery(String tablename, String primaryKeyColumn, String expiresColumn, int maxRows) {
         return "delete from " +
@@ -21,6 +21,11 @@ public class OracleLimitSqlAdapter implements LimitSqlAdapter {
                         + ") where rnum >= " + index;
     }
 
+    @Override
+    public String getKeysetLimitSql(String sql, int size) {
+        return "select * from (" + sql + ") where rownum <= " + size;
+    }
+
     @Override
     public String getDeleteExpiredQuery(String tablename, String primaryKeyColumn, String expiresColumn, int maxRows) {
         throw new UnsupportedOperationException();
@@ -33,4 +33,9 @@ public class PostgresLimitSqlAdapter implements LimitSqlAdapter {
             expiresColumn +
             " LIMIT "+maxRows+" FOR UPDATE SKIP LOCKED))";
     }
+
+    @Override
+    public String getKeysetPredicate(String sortColumn, String idColumn, boolean ascending, String sortParam, String idParam) {
+        return "(" + sortColumn + ", " + idColumn + ")" + (ascending ? " > " : " < ") + "(:" + sortParam + ", :" + idParam + ")";
+    }
 }
@@ -4,7 +4,9 @@ import org.cloudfoundry.identity.uaa.scim.exception.MemberAlreadyExistsException
 import org.cloudfoundry.identity.uaa.scim.exception.MemberNotFoundException;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundException;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public interface ScimGroupMembershipManager {
@@ -42,6 +44,21 @@ public interface ScimGroupMembershipManager {
             final boolean transitive,
             final String zoneId) throws ScimResourceNotFoundException;
 
+    /**
+     * Retrieve all groups that each of the given users belongs to, resolving
+     * the whole list with a few bulk queries instead of one per user. The
+     * default groups of the zone are included for every user.
+     *
+     * @param userIds    ids of existing users
+     * @param transitive true means indirect/transitive membership is also
+     *                   processed (nested groups)
+     * @return the groups keyed by user id, with an entry for every given user id
+     */
+    Map<String, Set<ScimGroup>> getGroupsWithUserMembers(
+            final Collection<String> userIds,
+            final boolean transitive,
+            final String zoneId) throws ScimResourceNotFoundException;
+
     /**
      * Retrieve a particular member's membership details
      */
@@ -95,4 +112,20 @@ public interface ScimGroupMembershipManager {
             final String origin,
             final String zoneId) throws ScimResourceNotFoundException;
 
+    /**
+     * Add the member to and remove it from the given groups in a single
+     * transaction, with one batched statement each. Memberships that already
+     * exist or are already gone are skipped, as are the default groups of the
+     * zone.
+     *
+     * @param addGroupIds    ids of existing groups to add the member to, with the given origin
+     * @param removeGroupIds ids of groups to remove the member from
+     */
+    void updateExternalMemberships(
+            final String memberId,
+            final String origin,
+            final Collection<String> addGroupIds,
+            final Collection<String> removeGroupIds,
+            final String zoneId);
+
 }
@@ -15,8 +15,17 @@ package org.cloudfoundry.identity.uaa.scim;
 import org.cloudfoundry.identity.uaa.resources.Queryable;
 import org.cloudfoundry.identity.uaa.resources.ResourceManager;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface ScimGroupProvisioning extends ResourceManager<ScimGroup>, Queryable<ScimGroup> {
     ScimGroup createOrGet(ScimGroup group, String zoneId);
 
     ScimGroup getByName(String displayName, String zoneId);
+
+    /**
+     * Retrieve the groups with any of the given display names, compared case
+     * insensitively. Names without a group are left out of the result.
+     */
+    List<ScimGroup> getByNames(Collection<String> displayNames, String zoneId);
 }
@@ -218,19 +218,7 @@ public class ScimUserBootstrap implements
             //delete previous membership relation ships
             String origin = exEvent.getUser().getOrigin();
             if (!OriginKeys.UAA.equals(origin)) {
-                Set<ScimGroup> groupsWithMember = membershipManager.getGroupsWithExternalMember(exEvent.getUser().getId(), origin, IdentityZoneHolder.get().getId());
-                Map<String, ScimGroup> groupsMap = groupsWithMember.stream().collect(Collectors.toMap(ScimGroup::getDisplayName, Function.identity()));
-                Collection<? extends GrantedAuthority> externalAuthorities = new LinkedHashSet<>(exEvent.getExternalAuthorities());
-                for (GrantedAuthority authority : externalAuthorities) {
-                    if (groupsMap.containsKey(authority.getAuthority())) {
-                        groupsMap.remove(authority.getAuthority());
-                    } else {
-                        addToGroup(exEvent.getUser().getId(), authority.getAuthority(), origin, exEvent.isAddGroups());
-                    }
-                }
-                for (ScimGroup group : groupsMap.values()) {
-                    membershipManager.removeMemberById(group.getId(), exEvent.getUser().getId(), group.getZoneId());
-                }
+                updateExternalGroups(exEvent.getUser().getId(), origin, exEvent.getExternalAuthorities(), exEvent.isAddGroups());
             }
             //update the user itself
             if (event.isUserModified()) {
@@ -248,6 +236,56 @@ public class ScimUserBootstrap implements
         }
     }
 
+    /**
+     * Reconcile the external group memberships of a user with the authorities
+     * of its latest login: the groups are resolved with one query, and the
+     * added and removed memberships are written in one batch.
+     */
+    private void updateExternalGroups(String userId, String origin, Collection<? extends GrantedAuthority> authorities, boolean addGroups) {
+        String zoneId = IdentityZoneHolder.get().getId();
+        Set<ScimGroup> groupsWithMember = membershipManager.getGroupsWithExternalMember(userId, origin, zoneId);
+        Map<String, ScimGroup> currentGroups = groupsWithMember.stream().collect(Collectors.toMap(ScimGroup::getDisplayName, Function.identity()));
+
+        Set<String> desiredGroupIds = new LinkedHashSet<>();
+        Set<String> unresolvedNames = new LinkedHashSet<>();
+        for (GrantedAuthority authority : authorities) {
+            String name = authority.getAuthority();
+            if (!hasText(name)) {
+                continue;
+            }
+            ScimGroup current = currentGroups.get(name);
+            if (current != null) {
+                desiredGroupIds.add(current.getId());
+            } else {
+                unresolvedNames.add(name);
+            }
+        }
+        if (!unresolvedNames.isEmpty()) {
+            Map<String, ScimGroup> groupsByName = new HashMap<>();
+            for (ScimGroup group : scimGroupProvisioning.getByNames(unresolvedNames, zoneId)) {
+                groupsByName.putIfAbsent(group.getDisplayName().toLowerCase(), group);
+            }
+            for (String name : unresolvedNames) {
+                ScimGroup group = groupsByName.get(name.toLowerCase());
+                if (group == null && addGroups) {
+                    logger.debug("Creating group: " + name);
+                    group = scimGroupProvisioning.createOrGet(new ScimGroup(null, name, zoneId), zoneId);
+                    groupsByName.put(name.toLowerCase(), group);
+                }
+                if (group == null) {
+                    logger.debug("No group found with name:" + name + ". Group membership will not be added.");
+                } else {
+                    desiredGroupIds.add(group.getId());
+                }
+            }
+        }
+
+        Set<String> currentGroupIds = groupsWithMember.stream().map(ScimGroup::getId).collect(Collectors.toSet());
+        List<String> added = desiredGroupIds.stream().filter(id -> !currentGroupIds.contains(id)).collect(Collectors.toList());
+        List<String> removed = currentGroupIds.stream().filter(id -> !desiredGroupIds.contains(id)).collect(Collectors.toList());
+        membershipManager.updateExternalMemberships(userId, origin, added, removed, zoneId);
+    }
+
     private void addToGroup(String scimUserId, String gName) {
         addToGroup(scimUserId, gName, OriginKeys.UAA, true);
     }
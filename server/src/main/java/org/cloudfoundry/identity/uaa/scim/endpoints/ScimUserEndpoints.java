@@ -13,6 +13,7 @@ import org.cloudfoundry.identity.uaa.error.UaaException;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.resources.AttributeNameMapper;
+import org.cloudfoundry.identity.uaa.resources.KeysetPage;
 import org.cloudfoundry.identity.uaa.resources.ResourceMonitor;
 import org.cloudfoundry.identity.uaa.resources.SearchResults;
 import org.cloudfoundry.identity.uaa.resources.SearchResultsFactory;
@@ -79,6 +80,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -376,6 +378,21 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
         }
     }
 
+    public SearchResults<?> findUsers(
+            String attributesCommaSeparated,
+            String filter,
+            String sortBy,
+            String sortOrder,
+            int startIndex,
+            int count) {
+        return findUsers(attributesCommaSeparated, filter, sortBy, sortOrder, startIndex, count, null, true);
+    }
+
+    /**
+     * Pages by <code>startIndex</code> unless a <code>cursor</code> is given, in which case the results are
+     * paged by keyset: an empty cursor requests the first page and every page but the last carries the cursor
+     * of the next one. Keyset pages can skip the total count with <code>includeTotal=false</code>.
+     */
     @RequestMapping(value = "/Users", method = RequestMethod.GET)
     @ResponseBody
     public SearchResults<?> findUsers(
@@ -384,7 +401,9 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
             @RequestParam(required = false, defaultValue = "created") String sortBy,
             @RequestParam(required = false, defaultValue = "ascending") String sortOrder,
             @RequestParam(required = false, defaultValue = "1") int startIndex,
-            @RequestParam(required = false, defaultValue = "100") int count) {
+            @RequestParam(required = false, defaultValue = "100") int count,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "true") boolean includeTotal) {
 
         if (startIndex < 1) {
             startIndex = 1;
@@ -395,18 +414,27 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
         }
 
         List<ScimUser> input = new ArrayList<>();
-        List<ScimUser> result;
+        int total;
+        String nextCursor = null;
         Set<String> attributes = StringUtils.commaDelimitedListToSet(attributesCommaSeparated);
         try {
-            result = scimUserProvisioning.query(filter, sortBy, sortOrder.equals("ascending"), identityZoneManager.getCurrentIdentityZoneId());
-            for (ScimUser user : UaaPagingUtils.subList(result, startIndex, count)) {
-                if (attributes.isEmpty() || attributes.stream().anyMatch("groups"::equalsIgnoreCase)) {
-                    syncGroups(user);
-                }
-                if (attributes.isEmpty() || attributes.stream().anyMatch("approvals"::equalsIgnoreCase)) {
-                    syncApprovals(user);
-                }
-                input.add(user);
+            boolean ascending = sortOrder.equals("ascending");
+            if (cursor == null) {
+                List<ScimUser> result = scimUserProvisioning.query(filter, sortBy, ascending, identityZoneManager.getCurrentIdentityZoneId());
+                input.addAll(UaaPagingUtils.subList(result, startIndex, count));
+                total = result.size();
+            } else {
+                KeysetPage<ScimUser> page = scimUserProvisioning.queryPage(filter, sortBy, ascending, cursor, count, includeTotal, identityZoneManager.getCurrentIdentityZoneId());
+                input.addAll(page.getResources());
+                total = page.getTotalResults();
+                nextCursor = page.getNextCursor();
+                startIndex = 1;
+            }
+            if (attributes.isEmpty() || attributes.stream().anyMatch("groups"::equalsIgnoreCase)) {
+                syncGroups(input);
+            }
+            if (attributes.isEmpty() || attributes.stream().anyMatch("approvals"::equalsIgnoreCase)) {
+                syncApprovals(input);
             }
         } catch (IllegalArgumentException e) {
             String msg = "Invalid filter expression: [" + filter + "]";
@@ -418,7 +446,9 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
 
         if (!StringUtils.hasLength(attributesCommaSeparated)) {
             // Return all user data
-            return new SearchResults<>(Arrays.asList(ScimCore.SCHEMAS), input, startIndex, count, result.size());
+            SearchResults<ScimUser> results = new SearchResults<>(Arrays.asList(ScimCore.SCHEMAS), input, startIndex, count, total);
+            results.setNextCursor(nextCursor);
+            return results;
         }
 
         Map<String, String> attributeMap = new HashMap<>();
@@ -428,14 +458,16 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
         AttributeNameMapper mapper = new SimpleAttributeNameMapper(attributeMap);
 
         try {
-            return SearchResultsFactory.buildSearchResultFrom(input,
+            SearchResults<Map<String, Object>> results = SearchResultsFactory.buildSearchResultFrom(input,
                     startIndex,
                     count,
-                    result.size(),
+                    total,
                     attributes.toArray(new String[0]),
                     mapper,
                     Arrays.asList(ScimCore.SCHEMAS)
             );
+            results.setNextCursor(nextCursor);
+            return results;
         } catch (JsonPathException e) {
             throw new ScimException("Invalid attributes: [" + attributesCommaSeparated + "]", HttpStatus.BAD_REQUEST);
         }
@@ -473,6 +505,29 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
 
         Set<ScimGroup> directGroups = membershipManager.getGroupsWithMember(user.getId(), false, identityZoneManager.getCurrentIdentityZoneId());
         Set<ScimGroup> indirectGroups = membershipManager.getGroupsWithMember(user.getId(), true, identityZoneManager.getCurrentIdentityZoneId());
+        user.setGroups(toUserGroups(directGroups, indirectGroups));
+        return user;
+    }
+
+    /**
+     * Resolves the groups of a whole page of users with bulk queries
+     */
+    private void syncGroups(List<ScimUser> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        List<String> userIds = users.stream().map(ScimUser::getId).collect(Collectors.toList());
+        Map<String, Set<ScimGroup>> directGroups = membershipManager.getGroupsWithUserMembers(userIds, false, identityZoneManager.getCurrentIdentityZoneId());
+        Map<String, Set<ScimGroup>> indirectGroups = membershipManager.getGroupsWithUserMembers(userIds, true, identityZoneManager.getCurrentIdentityZoneId());
+        for (ScimUser user : users) {
+            user.setGroups(toUserGroups(
+                    directGroups.getOrDefault(user.getId(), Collections.emptySet()),
+                    indirectGroups.getOrDefault(user.getId(), Collections.emptySet())));
+        }
+    }
+
+    private static Set<ScimUser.Group> toUserGroups(Set<ScimGroup> directGroups, Set<ScimGroup> transitiveGroups) {
+        Set<ScimGroup> indirectGroups = new HashSet<>(transitiveGroups);
         indirectGroups.removeAll(directGroups);
         Set<ScimUser.Group> groups = new HashSet<>();
         for (ScimGroup group : directGroups) {
@@ -481,24 +536,40 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
         for (ScimGroup group : indirectGroups) {
             groups.add(new ScimUser.Group(group.getId(), group.getDisplayName(), ScimUser.Group.Type.INDIRECT));
         }
-
-        user.setGroups(groups);
-        return user;
+        return groups;
     }
 
     private ScimUser syncApprovals(ScimUser user) {
         if (user == null || approvalStore == null) {
             return user;
         }
-        Set<Approval> approvals = new HashSet<>(approvalStore.getApprovalsForUser(user.getId(), identityZoneManager.getCurrentIdentityZoneId()));
-        Set<Approval> active = new HashSet<>(approvals);
+        user.setApprovals(activeApprovals(approvalStore.getApprovalsForUser(user.getId(), identityZoneManager.getCurrentIdentityZoneId())));
+        return user;
+    }
+
+    /**
+     * Resolves the approvals of a whole page of users with bulk queries
+     */
+    private void syncApprovals(List<ScimUser> users) {
+        if (users.isEmpty() || approvalStore == null) {
+            return;
+        }
+        List<String> userIds = users.stream().map(ScimUser::getId).collect(Collectors.toList());
+        Map<String, List<Approval>> approvals = approvalStore.getApprovalsForUsers(userIds, identityZoneManager.getCurrentIdentityZoneId());
+        for (ScimUser user : users) {
+            user.setApprovals(activeApprovals(approvals.getOrDefault(user.getId(), Collections.emptyList())));
+        }
+    }
+
+    private static Set<Approval> activeApprovals(List<Approval> approvals) {
+        Date now = new Date();
+        Set<Approval> active = new HashSet<>();
         for (Approval approval : approvals) {
-            if (!approval.isActiveAsOf(new Date())) {
-                active.remove(approval);
+            if (approval.isActiveAsOf(now)) {
+                active.add(approval);
             }
         }
-        user.setApprovals(active);
-        return user;
+        return active;
     }
 
     @ExceptionHandler(UaaException.class)
@@ -1,5 +1,7 @@
 package org.cloudfoundry.identity.uaa.scim.jdbc;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.cloudfoundry.identity.uaa.scim.ScimGroup;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMember;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMembershipManager;
@@ -7,6 +9,8 @@ import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
 import org.cloudfoundry.identity.uaa.scim.exception.MemberAlreadyExistsException;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceConstraintFailedException;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundException;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
 import org.cloudfoundry.identity.uaa.util.beans.DbUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,8 +25,19 @@ import org.springframework.util.StringUtils;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lookups by external group, made on every federated login, are answered from an index of all the mappings of a
+ * zone and origin. An index is loaded on first use and reloaded after <code>indexTtlMillis</code>, which bounds how
+ * long changes made on other nodes take to show. Changes made through this class drop the affected indexes right
+ * away. A TTL of 0 queries the database on every lookup.
+ */
 public class JdbcScimGroupExternalMembershipManager
         implements ScimGroupExternalMembershipManager {
 
@@ -51,6 +66,7 @@ public class JdbcScimGroupExternalMembershipManager
     private final String getExternalGroupMappingsInZoneSql;
     private final String getGroupsByExternalGroupMappingSql;
     private final String getGroupsWithExternalGroupMappingsSql;
+    private final String getExternalGroupMappingsByOriginSql;
 
     private static final String DELETE_EXTERNAL_GROUP_MAPPING_SQL =
             String.format("delete from %s where group_id=? and lower(external_group)=lower(?) and origin=? and identity_zone_id = ?",
@@ -66,6 +82,11 @@ public class JdbcScimGroupExternalMembershipManager
 
     private ScimGroupProvisioning scimGroupProvisioning;
 
+    private volatile Cache<String, MappingIndex> mappingIndexes = newCache(10_000);
+    private final AtomicLong indexGeneration = new AtomicLong();
+    private TimeService timeService = new TimeServiceImpl();
+    private long indexTtlMillis = 30_000;
+
     public JdbcScimGroupExternalMembershipManager(final JdbcTemplate jdbcTemplate, DbUtils dbUtils) throws SQLException {
         this.jdbcTemplate = jdbcTemplate;
 
@@ -87,6 +108,11 @@ public class JdbcScimGroupExternalMembershipManager
                 JOIN_EXTERNAL_GROUP_MAPPING_FIELDS,
                 joinGroupTable
         );
+        getExternalGroupMappingsByOriginSql = String.format("select %s from %s where gm.identity_zone_id = ? and %s",
+                JOIN_EXTERNAL_GROUP_MAPPING_FIELDS,
+                joinGroupTable,
+                JOIN_WHERE_ID
+        );
         getExternalGroupMappingsSql = String.format("select %s from %s where gm.identity_zone_id = ? and gm.group_id=? and %s",
                 JOIN_EXTERNAL_GROUP_MAPPING_FIELDS,
                 joinGroupTable,
@@ -98,6 +124,22 @@ public class JdbcScimGroupExternalMembershipManager
         this.scimGroupProvisioning = scimGroupProvisioning;
     }
 
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    public void setIndexTtlMillis(long indexTtlMillis) {
+        this.indexTtlMillis = indexTtlMillis;
+    }
+
+    public void setMaxIndexes(int maxIndexes) {
+        this.mappingIndexes = newCache(maxIndexes);
+    }
+
+    private static Cache<String, MappingIndex> newCache(int maxIndexes) {
+        return CacheBuilder.newBuilder().maximumSize(maxIndexes).build();
+    }
+
     @Override
     public ScimGroupExternalMember mapExternalGroup(final String groupId,
                                                     final String externalGroup,
@@ -131,6 +173,8 @@ public class JdbcScimGroupExternalMembershipManager
                 // MemberAlreadyExistsException("The mapping between group " +
                 // group.getDisplayName() + " and external group " +
                 // externalGroup + " already exists");
+            } finally {
+                invalidateMappings(zoneId, origin);
             }
             return getExternalGroupMap(groupId, externalGroup, origin, zoneId);
         } else {
@@ -154,6 +198,7 @@ public class JdbcScimGroupExternalMembershipManager
                 ps.setString(3, origin);
                 ps.setString(4, zoneId);
             });
+            invalidateMappings(zoneId, origin);
             if (count == 1) {
                 return result;
             } else if (count == 0) {
@@ -215,6 +260,7 @@ public class JdbcScimGroupExternalMembershipManager
             ps.setString(1, groupId);
             ps.setString(2, zoneId);
         });
+        invalidateMappings(zoneId);
     }
 
     @Override
@@ -222,13 +268,60 @@ public class JdbcScimGroupExternalMembershipManager
                                                                              final String origin,
                                                                              final String zoneId)
             throws ScimResourceNotFoundException {
+        if (indexTtlMillis <= 0 || externalGroup == null) {
+            return jdbcTemplate.query(getGroupsByExternalGroupMappingSql, ps -> {
+                ps.setString(1, zoneId);
+                ps.setString(2, origin);
+                ps.setString(3, externalGroup);
 
-        return jdbcTemplate.query(getGroupsByExternalGroupMappingSql, ps -> {
-            ps.setString(1, zoneId);
-            ps.setString(2, origin);
-            ps.setString(3, externalGroup);
+            }, rowMapper);
+        }
+        String key = indexKey(zoneId, origin);
+        long now = timeService.getCurrentTimeMillis();
+        MappingIndex index = mappingIndexes.getIfPresent(key);
+        if (index == null || now >= index.expiresAt) {
+            long generation = indexGeneration.get();
+            index = loadIndex(zoneId, origin, now + indexTtlMillis);
+            putIndex(key, index, generation);
+        }
+        return new ArrayList<>(index.byExternalGroup.getOrDefault(externalGroup.toLowerCase(), Collections.emptyList()));
+    }
 
-        }, rowMapper);
+    private MappingIndex loadIndex(String zoneId, String origin, long expiresAt) {
+        Map<String, List<ScimGroupExternalMember>> byExternalGroup = new HashMap<>();
+        jdbcTemplate.query(getExternalGroupMappingsByOriginSql, rs -> {
+            ScimGroupExternalMember mapping = rowMapper.mapRow(rs, 0);
+            byExternalGroup.computeIfAbsent(mapping.getExternalGroup().toLowerCase(), k -> new ArrayList<>()).add(mapping);
+        }, zoneId, origin);
+        return new MappingIndex(byExternalGroup, expiresAt);
+    }
+
+    private void putIndex(String key, MappingIndex index, long generation) {
+        Cache<String, MappingIndex> cache = mappingIndexes;
+        cache.put(key, index);
+        if (indexGeneration.get() != generation) {
+            // mappings changed while loading, the index may be stale
+            cache.asMap().remove(key, index);
+        }
+    }
+
+    /**
+     * Drops the mapping indexes of a zone, for changes that can affect any of its origins, such as renaming or
+     * deleting a group.
+     */
+    public void invalidateMappings(String zoneId) {
+        indexGeneration.incrementAndGet();
+        String prefix = indexKey(zoneId, "");
+        mappingIndexes.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    void invalidateMappings(String zoneId, String origin) {
+        indexGeneration.incrementAndGet();
+        mappingIndexes.invalidate(indexKey(zoneId, origin));
+    }
+
+    private static String indexKey(String zoneId, String origin) {
+        return zoneId + "\n" + origin;
     }
 
     private ScimGroupExternalMember getExternalGroupMap(final String groupId,
@@ -262,4 +355,13 @@ public class JdbcScimGroupExternalMembershipManager
         }
     }
 
+    private static final class MappingIndex {
+        private final Map<String, List<ScimGroupExternalMember>> byExternalGroup;
+        private final long expiresAt;
+
+        private MappingIndex(Map<String, List<ScimGroupExternalMember>> byExternalGroup, long expiresAt) {
+            this.byExternalGroup = byExternalGroup;
+            this.expiresAt = expiresAt;
+        }
+    }
 }
@@ -13,10 +13,14 @@ import org.cloudfoundry.identity.uaa.zone.IdentityZoneProvisioning;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.BadSqlGrammarException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -25,6 +29,7 @@ import java.sql.Types;
 import java.util.*;
 import java.util.stream.Collectors;
 
+import static java.util.Collections.emptyList;
 import static java.util.Collections.emptySet;
 import static java.util.stream.Collectors.toSet;
 import static org.springframework.util.StringUtils.hasText;
@@ -45,6 +50,8 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
 
     private static final String GET_MEMBER_COUNT_SQL = String.format("select count(*) from %s where member_id=? and group_id=? and identity_zone_id=?", MEMBERSHIP_TABLE);
 
+    private static final String GET_GROUP_IDS_OF_MEMBER_SQL = String.format("select group_id from %s where member_id=? and identity_zone_id=?", MEMBERSHIP_TABLE);
+
     private static final String DELETE_MEMBER_WITH_ORIGIN_SQL = String.format("delete from %s where member_id=? and origin = ? and identity_zone_id=?", MEMBERSHIP_TABLE);
 
     private static final String DELETE_MEMBER_SQL = String.format("delete from %s where member_id=? and group_id = ? and identity_zone_id=?", MEMBERSHIP_TABLE);
@@ -63,6 +70,8 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
                     " from %s m, %s g where m.group_id = g.id and g.identity_zone_id = ? and m.member_id = ? and m.origin = ?",
             MEMBERSHIP_TABLE, GROUP_TABLE);
 
+    private static final int MAX_EXTERNAL_MEMBERSHIP_ATTEMPTS = 3;
+
     @Value("${database.maxParameters:-1}")
     private int maxSqlParameters;
 
@@ -72,10 +81,15 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
     private final ScimGroupMemberRowMapper rowMapper;
     private final TimeBasedExpiringValueMap<String, ScimGroup> defaultGroupCache;
     private final String dynamicGetGroupsByMemberSqlBase;
+    private final String dynamicGetGroupsAndMemberByMemberSqlBase;
     private final String getGroupsByExternalMemberSql;
+    private final String getTransitiveGroupsByMemberSql;
+    private volatile boolean recursiveQueryEnabled = true;
 
     private ScimGroupProvisioning scimGroupProvisioning;
 
+    private TransactionTemplate transactionTemplate;
+
     public JdbcScimGroupMembershipManager(
             final JdbcTemplate jdbcTemplate,
             final TimeService timeService,
@@ -95,6 +109,22 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
                 quotedGroupsIdentifier,
                 MEMBERSHIP_TABLE
         );
+        dynamicGetGroupsAndMemberByMemberSqlBase = String.format(
+                "select %s, gm.member_id from %s g, %s gm where gm.group_id = g.id and gm.identity_zone_id = " +
+                        "g.identity_zone_id and gm.identity_zone_id = ? and gm.member_id in (",
+                "g." + JdbcScimGroupProvisioning.GROUP_FIELDS.replace(",", ",g."),
+                quotedGroupsIdentifier,
+                MEMBERSHIP_TABLE
+        );
+        getTransitiveGroupsByMemberSql = String.format(
+                "with recursive member_groups (group_id) as (" +
+                        "select group_id from %2$s where identity_zone_id = ? and member_id = ? " +
+                        "union select gm.group_id from %2$s gm, member_groups mg where gm.identity_zone_id = ? and gm.member_id = mg.group_id" +
+                        ") select %1$s from %3$s g where g.identity_zone_id = ? and g.id in (select group_id from member_groups)",
+                "g." + JdbcScimGroupProvisioning.GROUP_FIELDS.replace(",", ",g."),
+                MEMBERSHIP_TABLE,
+                quotedGroupsIdentifier
+        );
         getGroupsByExternalMemberSql = String.format("select g.id, g.displayName, g.description, g.created, g.lastModified, g.version, g.identity_zone_id" +
                         " from %s m, %s g where m.group_id = g.id and g.identity_zone_id = ? and m.member_id = ? and m.origin = ?",
                 MEMBERSHIP_TABLE,
@@ -109,10 +139,25 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
         this.maxSqlParameters = maxSqlParameters;
     }
 
+    /**
+     * Resolve nested groups with a single recursive query. It is turned off by itself if the
+     * database does not support recursive queries.
+     */
+    public void setRecursiveQueryEnabled(boolean recursiveQueryEnabled) {
+        this.recursiveQueryEnabled = recursiveQueryEnabled;
+    }
+
     public void setScimGroupProvisioning(final ScimGroupProvisioning groupProvisioning) {
         this.scimGroupProvisioning = groupProvisioning;
     }
 
+    /**
+     * The transaction manager {@link #updateExternalMemberships} applies its changes with.
+     */
+    public void setTransactionManager(final PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
     private Set<ScimGroup> getDefaultUserGroups(String zoneId) {
         if (!hasText(zoneId)) {
             return emptySet();
@@ -201,54 +246,127 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
     @Override
     public Set<ScimGroup> getGroupsWithMember(final String memberId, boolean transitive, String zoneId)
             throws ScimResourceNotFoundException {
-        List<ScimGroup> results = new ArrayList<>();
-        getGroupsWithMember(results, Collections.singletonList(memberId), transitive, zoneId);
+        Set<ScimGroup> results = new HashSet<>();
+        if (transitive && recursiveQueryEnabled && IdentityZoneHolder.get().getId().equals(zoneId)) {
+            try {
+                results.addAll(jdbcTemplate.query(getTransitiveGroupsByMemberSql, new ScimGroupRowMapper(), zoneId, memberId, zoneId, zoneId));
+            } catch (BadSqlGrammarException e) {
+                logger.info("Recursive queries are not supported by the database, resolving nested groups one level at a time.");
+                recursiveQueryEnabled = false;
+                getGroupsWithMember(results, Collections.singletonList(memberId), transitive, zoneId);
+            }
+        } else {
+            getGroupsWithMember(results, Collections.singletonList(memberId), transitive, zoneId);
+        }
         if (isUser(memberId)) {
             results.addAll(getDefaultUserGroups(zoneId));
         }
-        return new HashSet<>(results);
+        return results;
     }
 
-    private void getGroupsWithMember(List<ScimGroup> results, final List<String> memberId, boolean transitive, final String zoneId) {
-        if (results == null) {
-            return;
-        }
-        if (memberId.size() == 0) {
-            return;
-        }
+    /**
+     * Resolves nested groups with one query per level, for databases without recursive queries
+     */
+    private void getGroupsWithMember(Set<ScimGroup> results, final List<String> memberId, boolean transitive, final String zoneId) {
         if (!IdentityZoneHolder.get().getId().equals(zoneId)) {
             return;
         }
-        List<ScimGroup> groups = new ArrayList<>();
         List<String> memberList = new ArrayList<>(memberId);
-        try {
-        	while (!memberList.isEmpty()) {
-        	    int size = maxSqlParameters > 1 ? Math.min(maxSqlParameters - 1, memberList.size()) : memberList.size();
-                StringBuilder builder = new StringBuilder(dynamicGetGroupsByMemberSqlBase);
-                builder.append(memberList.subList(0, size).stream().map(s -> "?").collect(Collectors.joining(", ")));
-                builder.append(");");
-                Object[] parameterList = ArrayUtils.addAll(new Object[] { zoneId }, memberList.subList(0, size).toArray());
-                groups.addAll(jdbcTemplate.query(builder.toString(), new ScimGroupRowMapper(), parameterList));
-                memberList = memberList.subList(size, memberList.size());
+        while (!memberList.isEmpty()) {
+            List<ScimGroup> groups = new ArrayList<>();
+            try {
+                while (!memberList.isEmpty()) {
+                    int size = maxSqlParameters > 1 ? Math.min(maxSqlParameters - 1, memberList.size()) : memberList.size();
+                    StringBuilder builder = new StringBuilder(dynamicGetGroupsByMemberSqlBase);
+                    builder.append(memberList.subList(0, size).stream().map(s -> "?").collect(Collectors.joining(", ")));
+                    builder.append(");");
+                    Object[] parameterList = ArrayUtils.addAll(new Object[] { zoneId }, memberList.subList(0, size).toArray());
+                    groups.addAll(jdbcTemplate.query(builder.toString(), new ScimGroupRowMapper(), parameterList));
+                    memberList = memberList.subList(size, memberList.size());
+                }
+            } catch (EmptyResultDataAccessException ex) {
+                groups = Collections.emptyList();
             }
-        } catch (EmptyResultDataAccessException ex) {
-            groups = Collections.EMPTY_LIST;
+
+            List<String> nextLevel = new ArrayList<>();
+            for (ScimGroup group : groups) {
+                if (results.add(group)) { // nested group cycles are only resolved once
+                    nextLevel.add(group.getId());
+                }
+            }
+            memberList = transitive ? nextLevel : Collections.emptyList();
         }
+    }
 
-        List<String> nextLevel = new ArrayList<>();
-        for (ScimGroup group : groups) {
-            if (!results.contains(group)) { // to ensure we don't go into
-                // infinite recursion caused by
-                // nested group cycles
-                results.add(group);
-                nextLevel.add(group.getId());
+    @Override
+    public Map<String, Set<ScimGroup>> getGroupsWithUserMembers(final Collection<String> userIds, boolean transitive, String zoneId)
+            throws ScimResourceNotFoundException {
+        Map<String, Set<ScimGroup>> groupsByMember = new HashMap<>();
+        if (IdentityZoneHolder.get().getId().equals(zoneId)) {
+            Set<String> resolved = new HashSet<>(userIds);
+            List<String> nextLevel = new ArrayList<>(resolved);
+            while (!nextLevel.isEmpty()) {
+                Map<String, Set<ScimGroup>> level = getGroupsByMember(nextLevel, zoneId);
+                groupsByMember.putAll(level);
+                nextLevel = new ArrayList<>();
+                if (transitive) {
+                    for (Set<ScimGroup> groups : level.values()) {
+                        for (ScimGroup group : groups) {
+                            if (resolved.add(group.getId())) { // nested group cycles are only resolved once
+                                nextLevel.add(group.getId());
+                            }
+                        }
+                    }
+                }
             }
         }
-        if (transitive) {
-            getGroupsWithMember(results, nextLevel, transitive, zoneId);
+
+        Set<ScimGroup> defaultGroups = userIds.isEmpty() ? emptySet() : getDefaultUserGroups(zoneId);
+        Map<String, Set<ScimGroup>> results = new HashMap<>();
+        for (String userId : userIds) {
+            Set<ScimGroup> groups = collectGroups(userId, groupsByMember, transitive);
+            groups.addAll(defaultGroups);
+            results.put(userId, groups);
+        }
+        return results;
+    }
+
+    /**
+     * Direct groups of each member, one query per {@code maxSqlParameters} members
+     */
+    private Map<String, Set<ScimGroup>> getGroupsByMember(final List<String> memberIds, final String zoneId) {
+        Map<String, Set<ScimGroup>> groupsByMember = new HashMap<>();
+        ScimGroupRowMapper groupRowMapper = new ScimGroupRowMapper();
+        int memberIdColumn = JdbcScimGroupProvisioning.GROUP_FIELDS.split(",").length + 1;
+        List<String> memberList = memberIds;
+        while (!memberList.isEmpty()) {
+            int size = maxSqlParameters > 1 ? Math.min(maxSqlParameters - 1, memberList.size()) : memberList.size();
+            StringBuilder builder = new StringBuilder(dynamicGetGroupsAndMemberByMemberSqlBase);
+            builder.append(memberList.subList(0, size).stream().map(s -> "?").collect(Collectors.joining(", ")));
+            builder.append(")");
+            Object[] parameterList = ArrayUtils.addAll(new Object[] { zoneId }, memberList.subList(0, size).toArray());
+            jdbcTemplate.query(builder.toString(), rs -> {
+                ScimGroup group = groupRowMapper.mapRow(rs, 0);
+                groupsByMember.computeIfAbsent(rs.getString(memberIdColumn), k -> new HashSet<>()).add(group);
+            }, parameterList);
+            memberList = memberList.subList(size, memberList.size());
         }
+        return groupsByMember;
     }
 
+    private static Set<ScimGroup> collectGroups(String memberId, Map<String, Set<ScimGroup>> groupsByMember, boolean transitive) {
+        Set<ScimGroup> results = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(memberId);
+        while (!pending.isEmpty()) {
+            for (ScimGroup group : groupsByMember.getOrDefault(pending.pop(), emptySet())) {
+                if (results.add(group) && transitive) {
+                    pending.push(group.getId());
+                }
+            }
+        }
+        return results;
+    }
 
     @Override
     public Set<ScimGroup> getGroupsWithExternalMember(final String memberId, final String origin, String zoneId) throws ScimResourceNotFoundException {
@@ -267,6 +385,59 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
         return new HashSet<>(results);
     }
 
+    @Override
+    public void updateExternalMemberships(final String memberId, final String origin, final Collection<String> addGroupIds,
+                                          final Collection<String> removeGroupIds, final String zoneId) {
+        if (addGroupIds.isEmpty() && removeGroupIds.isEmpty()) {
+            return;
+        }
+        Set<String> defaultGroupIds = addGroupIds.isEmpty() ? emptySet() :
+                getDefaultUserGroups(zoneId).stream().map(ScimGroup::getId).collect(toSet());
+        List<Object[]> deletes = removeGroupIds.stream()
+                .distinct()
+                .map(groupId -> new Object[]{memberId, groupId, zoneId})
+                .collect(Collectors.toList());
+        logger.debug("Updating external memberships of member:{}, adding {} and removing {} groups",
+                UaaStringUtils.getCleanedUserControlString(memberId), addGroupIds.size(), deletes.size());
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transactionTemplate.executeWithoutResult(status ->
+                        applyExternalMemberships(memberId, origin, addGroupIds, defaultGroupIds, deletes, zoneId));
+                return;
+            } catch (DuplicateKeyException e) {
+                if (attempt == MAX_EXTERNAL_MEMBERSHIP_ATTEMPTS) {
+                    throw e;
+                }
+                // a concurrent login added some of the memberships first, the retry skips them
+                logger.debug("Retrying external membership update of member:{} after a concurrent insert",
+                        UaaStringUtils.getCleanedUserControlString(memberId));
+            }
+        }
+    }
+
+    private void applyExternalMemberships(final String memberId, final String origin, final Collection<String> addGroupIds,
+                                          final Set<String> defaultGroupIds, final List<Object[]> deletes, final String zoneId) {
+        List<Object[]> inserts = emptyList();
+        if (!addGroupIds.isEmpty()) {
+            // memberships of another origin and the implicit default groups are left as they are
+            Set<String> skippedGroupIds = new HashSet<>(defaultGroupIds);
+            skippedGroupIds.addAll(jdbcTemplate.queryForList(GET_GROUP_IDS_OF_MEMBER_SQL, String.class, memberId, zoneId));
+            Timestamp added = new Timestamp(new Date().getTime());
+            inserts = addGroupIds.stream()
+                    .distinct()
+                    .filter(groupId -> !skippedGroupIds.contains(groupId))
+                    .map(groupId -> new Object[]{groupId, memberId, ScimGroupMember.Type.USER.toString(), null, added, origin, zoneId})
+                    .collect(Collectors.toList());
+        }
+        if (!deletes.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_MEMBER_SQL, deletes);
+        }
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(ADD_MEMBER_SQL, inserts);
+        }
+    }
+
     @Override
     public ScimGroupMember getMemberById(String groupId, String memberId, String zoneId) throws ScimResourceNotFoundException,
             MemberNotFoundException {
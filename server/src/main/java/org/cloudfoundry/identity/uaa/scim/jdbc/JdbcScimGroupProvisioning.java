@@ -19,6 +19,7 @@ import org.cloudfoundry.identity.uaa.zone.ZoneDoesNotExistsException;
 import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
@@ -26,10 +27,13 @@ import org.springframework.jdbc.core.JdbcTemplate;
 
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static org.cloudfoundry.identity.uaa.zone.ZoneManagementScopes.getSystemScopes;
 import static org.springframework.util.StringUtils.hasText;
@@ -44,6 +48,8 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
         return logger;
     }
 
+    private static final Set<String> KEYSET_SORT_COLUMNS = Set.of("id", "created", "lastmodified", "displayname");
+
     protected static final String GROUP_FIELDS = "id,displayName,description,created,lastModified,version,identity_zone_id";
 
     protected static final String GROUP_TABLE = "groups";
@@ -54,6 +60,7 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
     private final String updateGroupSql;
     private final String getGroupSql;
     private final String getGroupByNameSql;
+    private final String getGroupsByNamesSqlBase;
     private final String queryForFilter;
     private final String deleteGroupSql;
     private final String deleteGroupSqlByIdZoneVersion;
@@ -68,6 +75,9 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
 
     private final JdbcTemplate jdbcTemplate;
 
+    @Value("${database.maxParameters:-1}")
+    private int maxSqlParameters;
+
     private JdbcScimGroupExternalMembershipManager jdbcScimGroupExternalMembershipManager;
     private JdbcScimGroupMembershipManager jdbcScimGroupMembershipManager;
     private JdbcIdentityZoneProvisioning jdbcIdentityZoneProvisioning;
@@ -95,6 +105,11 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
                 GROUP_FIELDS,
                 quotedGroupsTableName
         );
+        getGroupsByNamesSqlBase = String.format(
+                "select %s from %s where identity_zone_id=? and LOWER(displayName) in (",
+                GROUP_FIELDS,
+                quotedGroupsTableName
+        );
         queryForFilter = String.format(
                 "select %s from %s",
                 GROUP_FIELDS,
@@ -193,6 +208,30 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
         }
     }
 
+    @Override
+    public List<ScimGroup> getByNames(Collection<String> displayNames, String zoneId) {
+        List<String> names = displayNames.stream()
+                .filter(name -> hasText(name))
+                .map(String::toLowerCase)
+                .distinct()
+                .collect(Collectors.toList());
+        List<ScimGroup> groups = new ArrayList<>();
+        while (!names.isEmpty()) {
+            int size = maxSqlParameters > 1 ? Math.min(maxSqlParameters - 1, names.size()) : names.size();
+            List<Object> parameters = new ArrayList<>(size + 1);
+            parameters.add(zoneId);
+            parameters.addAll(names.subList(0, size));
+            String sql = getGroupsByNamesSqlBase + names.subList(0, size).stream().map(s -> "?").collect(Collectors.joining(", ")) + ")";
+            groups.addAll(jdbcTemplate.query(sql, rowMapper, parameters.toArray()));
+            names = names.subList(size, names.size());
+        }
+        return groups;
+    }
+
+    public void setMaxSqlParameters(int maxSqlParameters) {
+        this.maxSqlParameters = maxSqlParameters;
+    }
+
     @Override
     public void onApplicationEvent(AbstractUaaEvent event) {
         if (event instanceof IdentityZoneModifiedEvent zevent && zevent.getEventType() == AuditEventType.IdentityZoneCreatedEvent) {
@@ -214,6 +253,11 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
         return GROUP_TABLE;
     }
 
+    @Override
+    protected Set<String> getKeysetSortColumns() {
+        return KEYSET_SORT_COLUMNS;
+    }
+
 
     @Override
     public List<ScimGroup> retrieveAll(final String zoneId) {
@@ -289,6 +333,8 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
             if (updated != 1) {
                 throw new IncorrectResultSizeDataAccessException(1, updated);
             }
+            // the external group mappings carry the display name
+            invalidateExternalGroupMappings(zoneId);
             return retrieve(id, zoneId);
         } catch (DuplicateKeyException ex) {
             throw new InvalidScimResourceException("A group with displayName: " + group.getDisplayName()
@@ -319,6 +365,7 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
         jdbcTemplate.update(deleteZoneAdminMembershipByZone, IdentityZone.getUaaZoneId(), "zones." + zoneId + ".%");
         jdbcTemplate.update(deleteZoneAdminGroupsByZone, IdentityZone.getUaaZoneId(), "zones." + zoneId + ".%");
         jdbcTemplate.update(deleteExternalGroupByZone, zoneId);
+        invalidateExternalGroupMappings(zoneId);
         jdbcTemplate.update(deleteGroupMembershipByZone, zoneId);
         return jdbcTemplate.update(deleteGroupByZone, zoneId);
     }
@@ -326,9 +373,16 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
     @Override
     public int deleteByOrigin(String origin, String zoneId) {
         jdbcTemplate.update(deleteExternalGroupByProvider, zoneId, origin);
+        invalidateExternalGroupMappings(zoneId);
         return jdbcTemplate.update(deleteGroupMembershipByProvider, zoneId, origin);
     }
 
+    private void invalidateExternalGroupMappings(String zoneId) {
+        if (jdbcScimGroupExternalMembershipManager != null) {
+            jdbcScimGroupExternalMembershipManager.invalidateMappings(zoneId);
+        }
+    }
+
     @Override
     public int deleteByUser(String userId, String zoneId) {
         return jdbcTemplate.update(deleteMemberSql, userId, userId, zoneId);
@@ -59,6 +59,7 @@ import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.regex.Pattern;
 
@@ -106,6 +107,8 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
 
     public static final String USER_BY_USERNAME_AND_ORIGIN_AND_ZONE_QUERY = "select " + USER_FIELDS + " from users " + "where LOWER(username)=LOWER(?) and LOWER(origin)=LOWER(?) and LOWER(identity_zone_id)=LOWER(?)";
 
+    private static final Set<String> KEYSET_SORT_COLUMNS = Set.of("id", "created", "lastmodified", "username");
+
     public static final String ALL_USERS = "select " + USER_FIELDS + " from users";
 
     public static final String HARD_DELETE_OF_GROUP_MEMBERS_BY_ZONE = "delete from group_membership where identity_zone_id = ?";
@@ -187,6 +190,11 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
         return "users";
     }
 
+    @Override
+    protected Set<String> getKeysetSortColumns() {
+        return KEYSET_SORT_COLUMNS;
+    }
+
     @Override
     public List<ScimUser> retrieveAll(String zoneId) {
         return query("id pr", "created", true, zoneId);
@@ -66,6 +66,7 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
     private final RowMapper<UaaUserPrototype> minimalMapper = new UaaUserPrototypeRowMapper();
     private final RowMapper<UserInfo> userInfoMapper = new UserInfoRowMapper();
     private String quotedGroupsIdentifier;
+    private UaaUserCache userCache;
 
     RowMapper<UaaUser> getMapper() {
         return mapper;
@@ -99,6 +100,13 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
         this.maxSqlParameters = maxSqlParameters;
     }
 
+    /**
+     * The cache to evict a user from when it logs on.
+     */
+    public void setUserCache(UaaUserCache userCache) {
+        this.userCache = userCache;
+    }
+
     boolean isUseSkipLocked() {
         return this.useSkipLocked;
     }
@@ -202,6 +210,9 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
     @Override
     public void updateLastLogonTime(String userId) {
         jdbcTemplate.update(DEFAULT_UPDATE_USER_LAST_LOGON, timeService.getCurrentTimeMillis(), userId, identityZoneManager.getCurrentIdentityZoneId());
+        if (userCache != null) {
+            userCache.evict(userId, identityZoneManager.getCurrentIdentityZoneId());
+        }
     }
 
     private UaaUserPrototype getUaaUserPrototype(ResultSet rs) throws SQLException {
@@ -0,0 +1,165 @@
+package org.cloudfoundry.identity.uaa.user;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.cloudfoundry.identity.uaa.account.event.PasswordChangeEvent;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.scim.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.scim.event.UserModifiedEvent;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.zone.beans.IdentityZoneManager;
+import org.springframework.context.ApplicationListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the users loaded while validating tokens, so that <code>/check_token</code>, <code>/introspect</code> and
+ * <code>/userinfo</code> do not resolve the group memberships of the user on every call.
+ * <p>
+ * Every hit compares the version, password, salt, email and username of the user with the database, and a deleted
+ * or deactivated user is never served, so the fields that the revocation signature of a token is computed from are
+ * always current. The authorities of a cached user may be up to <code>maxStalenessMillis</code> old. Changes made on
+ * this node evict the affected users right away: {@link UserModifiedEvent}s, {@link PasswordChangeEvent}s and logons
+ * evict one user, {@link GroupModifiedEvent}s every user of the zone. Logons are only seen when the cache is set as
+ * the {@link JdbcUaaUserDatabase#setUserCache user cache} of the user database.
+ * <p>
+ * The cached users are shared between requests and must not be modified.
+ */
+public class UaaUserCache implements ApplicationListener<AbstractUaaEvent> {
+
+    private static final String SELECT_USER_VERSION_SQL = "select version from users where id = ? and identity_zone_id = ?";
+    private static final String SELECT_VERSION_SQL = "select version, password, salt, email, username from users where id = ? and active = ? and identity_zone_id = ?";
+
+    private final JdbcUaaUserDatabase userDatabase;
+    private final JdbcTemplate jdbcTemplate;
+    private final IdentityZoneManager identityZoneManager;
+    private final TimeService timeService;
+    private volatile Cache<String, Entry> entries = newCache(100_000);
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private boolean enabled = true;
+    private long maxStalenessMillis = 10_000;
+
+    public UaaUserCache(JdbcUaaUserDatabase userDatabase, JdbcTemplate jdbcTemplate, IdentityZoneManager identityZoneManager, TimeService timeService) {
+        this.userDatabase = userDatabase;
+        this.jdbcTemplate = jdbcTemplate;
+        this.identityZoneManager = identityZoneManager;
+        this.timeService = timeService;
+    }
+
+    /**
+     * Same contract as {@link UaaUserDatabase#retrieveUserById(String)}.
+     */
+    public UaaUser retrieveUserById(String id) throws UsernameNotFoundException {
+        if (!enabled) {
+            return userDatabase.retrieveUserById(id);
+        }
+        String zoneId = identityZoneManager.getCurrentIdentityZoneId();
+        String key = key(id, zoneId);
+        long now = timeService.getCurrentTimeMillis();
+        Entry entry = entries.getIfPresent(key);
+        if (entry != null && now - entry.loadedAt < maxStalenessMillis) {
+            List<List<Object>> versions = jdbcTemplate.query(SELECT_VERSION_SQL,
+                    (rs, rowNum) -> Arrays.asList(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5)),
+                    id, true, zoneId);
+            if (versions.isEmpty()) {
+                entries.asMap().remove(key, entry);
+                throw new UsernameNotFoundException(id);
+            }
+            if (versions.get(0).equals(entry.version)) {
+                hits.incrementAndGet();
+                return entry.user;
+            }
+        }
+        misses.incrementAndGet();
+        long loadedGeneration = generation.get();
+        // the version is read before the user, so a concurrent update is detected by the next lookup
+        List<Integer> versions = jdbcTemplate.queryForList(SELECT_USER_VERSION_SQL, Integer.class, id, zoneId);
+        UaaUser user = userDatabase.retrieveUserById(id);
+        if (!versions.isEmpty()) {
+            put(key, new Entry(user, Arrays.asList(versions.get(0), user.getPassword(), user.getSalt(), user.getEmail(), user.getUsername()), now), loadedGeneration);
+        }
+        return user;
+    }
+
+    private void put(String key, Entry entry, long loadedGeneration) {
+        Cache<String, Entry> cache = entries;
+        cache.put(key, entry);
+        if (generation.get() != loadedGeneration) {
+            // users were evicted while this one was loaded, it may predate the change
+            cache.asMap().remove(key, entry);
+        }
+    }
+
+    void evict(String userId, String zoneId) {
+        generation.incrementAndGet();
+        entries.invalidate(key(userId, zoneId));
+    }
+
+    private void evictZone(String zoneId) {
+        generation.incrementAndGet();
+        entries.asMap().keySet().removeIf(key -> key.startsWith(zoneId + "\n"));
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof UserModifiedEvent userModified) {
+            evict(userModified.getUserId(), event.getIdentityZoneId());
+        } else if (event instanceof PasswordChangeEvent passwordChange && passwordChange.getUser() != null) {
+            evict(passwordChange.getUser().getId(), event.getIdentityZoneId());
+        } else if (event instanceof GroupModifiedEvent) {
+            evictZone(event.getIdentityZoneId());
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        entries.invalidateAll();
+    }
+
+    private static String key(String userId, String zoneId) {
+        return zoneId + "\n" + userId;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setMaxStalenessMillis(long maxStalenessMillis) {
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.entries = newCache(maxEntries);
+    }
+
+    private static Cache<String, Entry> newCache(int maxEntries) {
+        return CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+    }
+
+    private static final class Entry {
+        private final UaaUser user;
+        private final List<Object> version;
+        private final long loadedAt;
+
+        private Entry(UaaUser user, List<Object> version, long loadedAt) {
+            this.user = user;
+            this.version = version;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
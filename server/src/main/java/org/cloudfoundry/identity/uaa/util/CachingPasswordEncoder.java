@@ -2,6 +2,9 @@ package org.cloudfoundry.identity.uaa.util;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.crypto.codec.Hex;
 import org.springframework.security.crypto.codec.Utf8;
@@ -19,31 +22,50 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.springframework.security.crypto.util.EncodingUtils.concatenate;
 
 /**
  * Wrapper around a slow password encoder that does a fast translation in memory only
  * This uses a hash to as a key to store a list of
+ * <p>
+ * The cache holds at most <code>maxKeys</code> passwords, evicting the least recently used one
+ * when full, and forgets each of them <code>cacheTtl</code> after it was added.
  */
+@ManagedResource
+(
+    objectName = "cloudfoundry.identity:name=CachingPasswordEncoder",
+    description = "Password Match Cache Metrics"
+)
 public class CachingPasswordEncoder implements PasswordEncoder {
 
-    private final MessageDigest messageDigest;
+    private final ThreadLocal<MessageDigest> messageDigest;
     private final byte[] secret;
     private final byte[] salt;
 
     private final int ITERATIONS = 25;
-    private final int MAX_KEYS = 1000;
     private final int MAX_ENCODED_PASSWORDS = 5;
-    private final Duration CACHE_TTL = Duration.ofMinutes(5L);
+    private int maxKeys = 10000;
+    private Duration cacheTtl = Duration.ofMinutes(5L);
 
     private volatile Cache<CharSequence, Set<String>> cache = null;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
 
     private final PasswordEncoder passwordEncoder;
 
     CachingPasswordEncoder(final PasswordEncoder passwordEncoder) throws NoSuchAlgorithmException {
         this.passwordEncoder = passwordEncoder;
-        this.messageDigest = MessageDigest.getInstance("SHA-256");
+        // fail at construction rather than on the first match if SHA-256 is unavailable
+        MessageDigest.getInstance("SHA-256");
+        this.messageDigest = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
         this.secret = Utf8.encode(new RandomValueStringGenerator().generate());
         this.salt = KeyGenerators.secureRandom().generateKey();
         buildCache();
@@ -64,14 +86,7 @@ public class CachingPasswordEncoder implements PasswordEncoder {
     // internal helpers
 
     Set<String> getOrCreateHashList(String cacheKey) {
-        Set<String> result = cache.getIfPresent(cacheKey);
-        if (result == null) {
-            if (cache.size() >= MAX_KEYS) {
-                cache.invalidateAll();
-            }
-            cache.put(cacheKey, Collections.synchronizedSet(new LinkedHashSet<>()));
-        }
-        return cache.getIfPresent(cacheKey);
+        return cache.asMap().computeIfAbsent(cacheKey, k -> Collections.synchronizedSet(new LinkedHashSet<>()));
     }
 
     private boolean internalMatches(String cacheKey, CharSequence rawPassword, String encodedPassword) {
@@ -80,9 +95,11 @@ public class CachingPasswordEncoder implements PasswordEncoder {
         List<String> searchList = (cacheValue != null ? new ArrayList<>(cacheValue) : Collections.emptyList());
         for (String encoded : searchList) {
             if (hashesEquals(encoded, encodedPassword)) {
+                hits.incrementAndGet();
                 return true;
             }
         }
+        misses.incrementAndGet();
         if (passwordEncoder.matches(rawPassword, encodedPassword)) {
             result = true;
             cacheValue = getOrCreateHashList(cacheKey);
@@ -110,12 +127,11 @@ public class CachingPasswordEncoder implements PasswordEncoder {
     }
 
     private byte[] digest(byte[] value) {
-        synchronized (messageDigest) {
-            for (int i = 0; i < ITERATIONS; i++) {
-                value = messageDigest.digest(value);
-            }
-            return value;
+        MessageDigest digest = messageDigest.get();
+        for (int i = 0; i < ITERATIONS; i++) {
+            value = digest.digest(value);
         }
+        return value;
     }
 
     private boolean hashesEquals(String a, String b) {
@@ -134,14 +150,40 @@ public class CachingPasswordEncoder implements PasswordEncoder {
     }
 
     int getMaxKeys() {
-        return MAX_KEYS;
+        return maxKeys;
+    }
+
+    public void setMaxKeys(int maxKeys) {
+        this.maxKeys = maxKeys;
+        buildCache();
+    }
+
+    public void setCacheTtlSeconds(long cacheTtlSeconds) {
+        this.cacheTtl = Duration.ofSeconds(cacheTtlSeconds);
+        buildCache();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Matches Served From Cache")
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Matches Delegated To The Password Encoder")
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Cached Passwords Evicted Or Expired")
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
     }
 
     int getMaxEncodedPasswords() {
         return MAX_ENCODED_PASSWORDS;
     }
 
-    long getNumberOfKeys() {
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Cached Passwords")
+    public long getNumberOfKeys() {
         return cache.size();
     }
 
@@ -151,7 +193,9 @@ public class CachingPasswordEncoder implements PasswordEncoder {
 
     void buildCache() {
         cache = CacheBuilder.newBuilder()
-                .expireAfterWrite(CACHE_TTL.getSeconds(), TimeUnit.SECONDS)
+                .maximumSize(maxKeys)
+                .expireAfterWrite(cacheTtl.toMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
                 .build();
     }
 }
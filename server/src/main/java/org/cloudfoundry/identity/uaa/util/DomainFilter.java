@@ -16,12 +16,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.cloudfoundry.identity.uaa.oauth.client.ClientConstants;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
+import org.cloudfoundry.identity.uaa.provider.IdentityProviderRegistry;
 import org.springframework.security.oauth2.provider.ClientDetails;
 import org.springframework.util.StringUtils;
 
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.function.BiPredicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -37,6 +39,19 @@ public class DomainFilter {
     }
 
     public static List<IdentityProvider> filter(List<IdentityProvider> activeProviders, ClientDetails client, String email, boolean useUaaFallback) {
+        return filter(activeProviders, client, email, useUaaFallback, (p, domain) -> doesEmailDomainMatchProvider(p, domain, true));
+    }
+
+    /**
+     * Same as {@link #filter(List, ClientDetails, String, boolean)}, matching email domains with the precompiled
+     * patterns of the registry.
+     */
+    public static List<IdentityProvider> filter(IdentityProviderRegistry.ZoneProviders activeProviders, ClientDetails client, String email, boolean useUaaFallback) {
+        return filter(activeProviders.getActive(), client, email, useUaaFallback, activeProviders::matchesEmailDomain);
+    }
+
+    private static List<IdentityProvider> filter(List<IdentityProvider> activeProviders, ClientDetails client, String email, boolean useUaaFallback,
+                                                 BiPredicate<IdentityProvider, String> explicitDomainMatcher) {
         if (!StringUtils.hasText(email)) {
             return EMPTY_LIST;
         }
@@ -55,7 +70,7 @@ public class DomainFilter {
                 final String domain = email.substring(email.indexOf('@') + 1);
                 List<IdentityProvider> explicitlyMatched =
                     activeProviders.stream().filter(
-                        p -> doesEmailDomainMatchProvider(p, domain, true)
+                        p -> explicitDomainMatcher.test(p, domain)
                     ).collect(Collectors.toList());
                 if (explicitlyMatched.size()>0 || !useUaaFallback) {
                     return explicitlyMatched;
@@ -20,6 +20,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -379,13 +380,20 @@ public abstract class JwtTokenSignedByThisUAA {
     }
 
     public JwtTokenSignedByThisUAA checkRevocableTokenStore(RevocableTokenProvisioning revocableTokenProvisioning) {
+        return checkRevocableTokenStore(revocableTokenProvisioning::retrieve);
+    }
+
+    /**
+     * @param revocableTokenLookup retrieves a token by id and zone id, throwing {@link EmptyResultDataAccessException} if it is not found
+     */
+    public JwtTokenSignedByThisUAA checkRevocableTokenStore(BiFunction<String, String, RevocableToken> revocableTokenLookup) {
         try {
             String tokenId;
             if (claims.containsKey(ClaimConstants.REVOCABLE) && (boolean) claims.get(ClaimConstants.REVOCABLE)) {
                 if ((tokenId = (String) claims.get(ClaimConstants.JTI)) == null) {
                     throw new InvalidTokenException("The token does not bear a token ID (JTI).", null);
                 }
-                checkRevocableToken(revocableTokenProvisioning, tokenId);
+                checkRevocableToken(revocableTokenLookup, tokenId);
             }
         } catch (ClassCastException ex) {
             throw new InvalidTokenException("The token's revocability or JTI claim is invalid or unparseable.", ex);
@@ -394,10 +402,10 @@ public abstract class JwtTokenSignedByThisUAA {
         return this;
     }
 
-    private static void checkRevocableToken(RevocableTokenProvisioning revocableTokenProvisioning, String tokenId) {
+    private static void checkRevocableToken(BiFunction<String, String, RevocableToken> revocableTokenLookup, String tokenId) {
         RevocableToken revocableToken = null;
         try {
-            revocableToken = revocableTokenProvisioning.retrieve(tokenId, IdentityZoneHolder.get().getId());
+            revocableToken = revocableTokenLookup.apply(tokenId, IdentityZoneHolder.get().getId());
         } catch (EmptyResultDataAccessException ignored) {
             // ignore exception until null check below
         }
@@ -477,10 +485,17 @@ public abstract class JwtTokenSignedByThisUAA {
     }
 
     public UaaUser getUserDetails(UaaUserDatabase userDatabase) {
+        return getUserDetails(userDatabase::retrieveUserById);
+    }
+
+    /**
+     * @param userLookup retrieves a user by id, throwing {@link UsernameNotFoundException} if it is not found
+     */
+    public UaaUser getUserDetails(Function<String, UaaUser> userLookup) {
         String userId = (String) claims.get(USER_ID);
         if (UaaTokenUtils.isUserToken(claims)) {
             try {
-                return userDatabase.retrieveUserById(userId);
+                return userLookup.apply(userId);
             } catch (UsernameNotFoundException e) {
                 throw new InvalidTokenException("Token bears a non-existent user ID: " + userId);
             }
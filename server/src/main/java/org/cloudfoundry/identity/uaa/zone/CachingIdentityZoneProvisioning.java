@@ -0,0 +1,180 @@
+package org.cloudfoundry.identity.uaa.zone;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the zones resolved by subdomain, which the {@link IdentityZoneResolvingFilter} does on every request.
+ * <p>
+ * A cached zone is served as is for <code>revalidateAfterMillis</code>. After that, its version is compared with
+ * the database, which does not read or parse the zone configuration; a changed or deleted zone is reloaded. After
+ * <code>maxAgeMillis</code> a zone is always reloaded. Subdomains without an active zone are remembered for
+ * <code>negativeTtlMillis</code>.
+ * <p>
+ * Changes made on this node invalidate the cache immediately, through {@link IdentityZoneModifiedEvent}s and the
+ * modification count of the delegate. Changes made on other nodes are picked up by the version check.
+ * <p>
+ * The cached zones are shared between requests and must not be modified.
+ */
+public class CachingIdentityZoneProvisioning implements IdentityZoneProvisioning, ApplicationListener<AbstractUaaEvent> {
+
+    private final JdbcIdentityZoneProvisioning delegate;
+    private volatile Cache<String, Entry> bySubdomain = newCache(20_000);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong versionChecks = new AtomicLong();
+
+    private TimeService timeService = new TimeServiceImpl();
+    private long revalidateAfterMillis = 5_000;
+    private long maxAgeMillis = 60_000;
+    private long negativeTtlMillis = 5_000;
+
+    public CachingIdentityZoneProvisioning(JdbcIdentityZoneProvisioning delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public IdentityZone retrieveBySubdomain(String subdomain) {
+        if (subdomain == null) {
+            return delegate.retrieveBySubdomain(null);
+        }
+        String key = subdomain.toLowerCase();
+        long generation = delegate.getModificationCount();
+        long now = timeService.getCurrentTimeMillis();
+        Entry entry = bySubdomain.getIfPresent(key);
+        if (entry != null && entry.generation == generation) {
+            if (entry.zone == null) {
+                if (now - entry.loadedAt < negativeTtlMillis) {
+                    hits.incrementAndGet();
+                    throw new EmptyResultDataAccessException("No active zone for subdomain " + key, 1);
+                }
+            } else if (now - entry.checkedAt < revalidateAfterMillis) {
+                hits.incrementAndGet();
+                return entry.zone;
+            } else if (now - entry.loadedAt < maxAgeMillis) {
+                versionChecks.incrementAndGet();
+                Integer version = delegate.retrieveVersion(entry.zone.getId());
+                if (version != null && version == entry.zone.getVersion()) {
+                    bySubdomain.asMap().replace(key, entry, new Entry(entry.zone, generation, entry.loadedAt, now));
+                    hits.incrementAndGet();
+                    return entry.zone;
+                }
+            }
+        }
+        misses.incrementAndGet();
+        try {
+            IdentityZone zone = delegate.retrieveBySubdomain(key);
+            bySubdomain.put(key, new Entry(zone, generation, now, now));
+            return zone;
+        } catch (EmptyResultDataAccessException e) {
+            bySubdomain.put(key, new Entry(null, generation, now, now));
+            throw e;
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof IdentityZoneModifiedEvent || event instanceof EntityDeletedEvent) {
+            if (event.getSource() instanceof IdentityZone zone) {
+                evict(zone);
+            }
+        }
+    }
+
+    private void evict(IdentityZone zone) {
+        bySubdomain.asMap().entrySet().removeIf(e ->
+            e.getValue().zone == null
+                || e.getValue().zone.getId().equals(zone.getId())
+                || e.getKey().equalsIgnoreCase(zone.getSubdomain())
+        );
+    }
+
+    public void clear() {
+        bySubdomain.invalidateAll();
+    }
+
+    @Override
+    public IdentityZone create(IdentityZone identityZone) {
+        return delegate.create(identityZone);
+    }
+
+    @Override
+    public IdentityZone update(IdentityZone identityZone) {
+        return delegate.update(identityZone);
+    }
+
+    @Override
+    public IdentityZone retrieve(String id) {
+        return delegate.retrieve(id);
+    }
+
+    @Override
+    public IdentityZone retrieveIgnoreActiveFlag(String id) {
+        return delegate.retrieveIgnoreActiveFlag(id);
+    }
+
+    @Override
+    public List<IdentityZone> retrieveAll() {
+        return delegate.retrieveAll();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getVersionChecks() {
+        return versionChecks.get();
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    public void setRevalidateAfterMillis(long revalidateAfterMillis) {
+        this.revalidateAfterMillis = revalidateAfterMillis;
+    }
+
+    public void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public void setNegativeTtlMillis(long negativeTtlMillis) {
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.bySubdomain = newCache(maxEntries);
+    }
+
+    private static Cache<String, Entry> newCache(int maxEntries) {
+        return CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+    }
+
+    private static final class Entry {
+        private final IdentityZone zone;
+        private final long generation;
+        private final long loadedAt;
+        private final long checkedAt;
+
+        private Entry(IdentityZone zone, long generation, long loadedAt, long checkedAt) {
+            this.zone = zone;
+            this.generation = generation;
+            this.loadedAt = loadedAt;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
@@ -16,6 +16,7 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component("identityZoneProvisioning")
 public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, SystemDeletable {
@@ -38,12 +39,16 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
 
     public static final String IDENTITY_ZONE_BY_SUBDOMAIN_QUERY = "select " + ID_ZONE_FIELDS + " from identity_zone " + "where subdomain=? and active = ?";
 
+    public static final String IDENTITY_ZONE_VERSION_QUERY = "select version from identity_zone where id=? and active = ?";
+
     public static final Logger logger = LoggerFactory.getLogger(JdbcIdentityZoneProvisioning.class);
 
     protected final JdbcTemplate jdbcTemplate;
 
     private final RowMapper<IdentityZone> mapper = new IdentityZoneRowMapper();
 
+    private final AtomicLong modificationCount = new AtomicLong();
+
     public JdbcIdentityZoneProvisioning(final JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
     }
@@ -85,6 +90,22 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
         return jdbcTemplate.queryForObject(IDENTITY_ZONE_BY_SUBDOMAIN_QUERY, mapper, subdomain.toLowerCase(), true);
     }
 
+    /**
+     * @return the version of the active zone, or null if there is no such zone. This is much cheaper than
+     * loading the zone, since the configuration is neither read nor parsed.
+     */
+    public Integer retrieveVersion(String id) {
+        List<Integer> versions = jdbcTemplate.queryForList(IDENTITY_ZONE_VERSION_QUERY, Integer.class, id, true);
+        return versions.isEmpty() ? null : versions.get(0);
+    }
+
+    /**
+     * @return a counter that changes whenever a zone is created, updated or deleted through this instance
+     */
+    public long getModificationCount() {
+        return modificationCount.get();
+    }
+
     @Override
     public IdentityZone create(final IdentityZone identityZone) {
 
@@ -102,6 +123,8 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
             });
         } catch (DuplicateKeyException e) {
             throw new ZoneAlreadyExistsException(e.getMostSpecificCause().getMessage(), e);
+        } finally {
+            modificationCount.incrementAndGet();
         }
 
         return retrieveIgnoreActiveFlag(identityZone.getId());
@@ -124,13 +147,19 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
         } catch (DuplicateKeyException e) {
             //duplicate subdomain
             throw new ZoneAlreadyExistsException(e.getMostSpecificCause().getMessage(), e);
+        } finally {
+            modificationCount.incrementAndGet();
         }
         return retrieveIgnoreActiveFlag(identityZone.getId());
     }
 
     @Override
     public int deleteByIdentityZone(String zoneId) {
-        return jdbcTemplate.update(DELETE_IDENTITY_ZONE_SQL, zoneId);
+        try {
+            return jdbcTemplate.update(DELETE_IDENTITY_ZONE_SQL, zoneId);
+        } finally {
+            modificationCount.incrementAndGet();
+        }
     }
 
     @Override
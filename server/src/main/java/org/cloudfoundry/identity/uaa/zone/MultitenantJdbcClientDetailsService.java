@@ -1,5 +1,7 @@
 package org.cloudfoundry.identity.uaa.zone;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.cloudfoundry.identity.uaa.audit.event.SystemDeletable;
 import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
 import org.cloudfoundry.identity.uaa.client.InvalidClientDetailsException;
@@ -11,17 +13,23 @@ import org.cloudfoundry.identity.uaa.provider.NoSuchClientException;
 import org.cloudfoundry.identity.uaa.resources.ResourceMonitor;
 import org.cloudfoundry.identity.uaa.security.ContextSensitiveOAuth2SecurityExpressionMethods;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
 import org.cloudfoundry.identity.uaa.util.UaaUrlUtils;
 import org.cloudfoundry.identity.uaa.zone.beans.IdentityZoneManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.InvalidDataAccessResourceUsageException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -32,17 +40,21 @@ import org.springframework.security.oauth2.provider.ClientDetails;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Collections.emptySet;
 import static org.cloudfoundry.identity.uaa.oauth.client.ClientConstants.REQUIRED_USER_GROUPS;
@@ -51,14 +63,31 @@ import static org.springframework.util.StringUtils.commaDelimitedListToSet;
 
 /**
  * A copy of JdbcClientDetailsService but with IdentityZone awareness
+ * <p>
+ * Loaded clients are cached per zone and served as is for <code>cacheRevalidateAfterMillis</code>. After that, their
+ * last modification time, secret and JWT configuration are compared with the database, which does not read or parse
+ * the additional information; a changed or deleted client is reloaded. After <code>cacheMaxAgeMillis</code> a client
+ * is always reloaded. Changes made through this service invalidate the cached client immediately, a load that raced
+ * with the change is not cached. Within an HTTP request, a client is loaded at most once unless it is changed by
+ * that request.
+ * <p>
+ * Changes made directly in the database that leave the last modification time, secret and JWT configuration as they
+ * were, such as a new scope, are not seen until <code>cacheMaxAgeMillis</code> has passed or {@link #clearCache()} is
+ * called.
  */
 @Component("jdbcClientDetailsService")
+@ManagedResource(
+        objectName = "cloudfoundry.identity:name=ClientDetailsCache",
+        description = "UAA Client Details Cache Metrics"
+)
 public class MultitenantJdbcClientDetailsService extends MultitenantClientServices implements
         ResourceMonitor<ClientDetails>,
         SystemDeletable {
 
     protected static final Logger logger = LoggerFactory.getLogger(MultitenantJdbcClientDetailsService.class);
 
+    private static final String REQUEST_CLIENTS_ATTRIBUTE = MultitenantJdbcClientDetailsService.class.getName() + ".CLIENTS";
+
     private static final String GET_CREATED_BY_SQL =
             "select created_by from oauth_client_details where client_id=? and identity_zone_id=?";
 
@@ -78,6 +107,9 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
     private static final String DEFAULT_SELECT_STATEMENT =
             BASE_FIND_STATEMENT + " where client_id = ? and identity_zone_id = ?";
 
+    private static final String VERSION_SELECT_STATEMENT =
+            "select lastmodified, client_secret, client_jwt_config from oauth_client_details where client_id = ? and identity_zone_id = ?";
+
     private static final String SINGLE_SELECT_STATEMENT =
             "select client_id from oauth_client_details where client_id = ? and identity_zone_id = ?";
 
@@ -115,6 +147,19 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
 
     private JdbcListFactory listFactory;
 
+    private volatile Cache<String, CacheEntry> clientCache = newClientCache(10000);
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong cacheVersionChecks = new AtomicLong();
+
+    private TimeService timeService = new TimeServiceImpl();
+
+    @Value("${clients.cache.revalidateAfterMillis:5000}")
+    private long cacheRevalidateAfterMillis;
+
+    @Value("${clients.cache.maxAgeMillis:60000}")
+    private long cacheMaxAgeMillis;
+
     public MultitenantJdbcClientDetailsService(
             final JdbcTemplate jdbcTemplate,
             final IdentityZoneManager identityZoneManager,
@@ -128,6 +173,56 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
 
     @Override
     public ClientDetails loadClientByClientId(String clientId, String zoneId) throws InvalidClientException {
+        if (cacheRevalidateAfterMillis <= 0) {
+            return retrieveClient(clientId, zoneId);
+        }
+        String key = cacheKey(clientId, zoneId);
+        Map<String, CacheEntry> requestClients = getRequestClients();
+        CacheEntry entry = requestClients != null ? requestClients.get(key) : null;
+        if (entry != null) {
+            cacheHits.incrementAndGet();
+        } else {
+            entry = lookupClient(key, clientId, zoneId);
+            if (requestClients != null) {
+                requestClients.put(key, entry);
+            }
+        }
+        return copyOf(entry.client);
+    }
+
+    private CacheEntry lookupClient(String key, String clientId, String zoneId) {
+        long now = timeService.getCurrentTimeMillis();
+        Cache<String, CacheEntry> cache = clientCache;
+        CacheEntry entry = cache.getIfPresent(key);
+        if (entry != null && entry.client != null) {
+            if (now - entry.checkedAt < cacheRevalidateAfterMillis) {
+                cacheHits.incrementAndGet();
+                return entry;
+            } else if (now - entry.loadedAt < cacheMaxAgeMillis) {
+                cacheVersionChecks.incrementAndGet();
+                List<List<Object>> versions = jdbcTemplate.query(VERSION_SELECT_STATEMENT,
+                        (rs, rowNum) -> Arrays.asList(rs.getTimestamp(1), rs.getString(2), rs.getString(3)), clientId, zoneId);
+                if (versions.size() == 1 && versions.get(0).equals(entry.version)) {
+                    CacheEntry checked = new CacheEntry(entry.client, entry.version, entry.loadedAt, now);
+                    cache.asMap().replace(key, entry, checked);
+                    cacheHits.incrementAndGet();
+                    return checked;
+                }
+            }
+        }
+        cacheMisses.incrementAndGet();
+        ClientDetails client = retrieveClient(clientId, zoneId);
+        CacheEntry loaded = new CacheEntry(client, versionOf(client), now, now);
+        // only replaces the entry seen before loading, so a client changed meanwhile is not cached
+        if (entry == null) {
+            cache.asMap().putIfAbsent(key, loaded);
+        } else {
+            cache.asMap().replace(key, entry, loaded);
+        }
+        return loaded;
+    }
+
+    private ClientDetails retrieveClient(String clientId, String zoneId) {
         ClientDetails details;
         try {
             details = jdbcTemplate.queryForObject(selectClientDetailsSql, new ClientDetailsRowMapper(), clientId, zoneId);
@@ -144,6 +239,7 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
             throw new ClientAlreadyExistsException("Client already exists: " + clientDetails.getClientId());
         }
         jdbcTemplate.update(DEFAULT_INSERT_STATEMENT, getInsertClientDetailsFields(clientDetails, zoneId));
+        evictClient(clientDetails.getClientId(), zoneId);
     }
 
     private boolean exists(String clientId, String zoneId) {
@@ -154,6 +250,7 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
     @Override
     public void updateClientDetails(ClientDetails clientDetails, String zoneId) throws NoSuchClientException {
         int count = jdbcTemplate.update(DEFAULT_UPDATE_STATEMENT, getFieldsForUpdate(clientDetails, zoneId));
+        evictClient(clientDetails.getClientId(), zoneId);
         if (count != 1) {
             throw new NoSuchClientException(NO_CLIENT_FOUND_WITH_ID + clientDetails.getClientId() + " in identity zone id=" + zoneId);
         }
@@ -162,6 +259,7 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
     @Override
     public void updateClientSecret(String clientId, String secret, String zoneId) throws NoSuchClientException {
         int count = jdbcTemplate.update(DEFAULT_UPDATE_SECRET_STATEMENT, secret != null ? passwordEncoder.encode(secret) : null, clientId, zoneId);
+        evictClient(clientId, zoneId);
         if (count != 1) {
             throw new NoSuchClientException(NO_CLIENT_FOUND_WITH_ID + clientId);
         }
@@ -170,6 +268,7 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
     @Override
     public void updateClientJwtConfig(String clientId, String keyConfig, String zoneId) throws NoSuchClientException {
         int count = jdbcTemplate.update(DEFAULT_UPDATE_CLIENT_JWT_CONFIG_STATEMENT, keyConfig, clientId, zoneId);
+        evictClient(clientId, zoneId);
         if (count != 1) {
             throw new NoSuchClientException(NO_CLIENT_FOUND_WITH_ID + clientId);
         }
@@ -251,12 +350,19 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
 
     @Override
     public int deleteByIdentityZone(String zoneId) {
-        return jdbcTemplate.update(DELETE_CLIENTS_BY_ZONE, zoneId);
+        int count = jdbcTemplate.update(DELETE_CLIENTS_BY_ZONE, zoneId);
+        clientCache.asMap().keySet().removeIf(key -> key.startsWith(zoneId + "\n"));
+        Map<String, CacheEntry> requestClients = getRequestClients();
+        if (requestClients != null) {
+            requestClients.keySet().removeIf(key -> key.startsWith(zoneId + "\n"));
+        }
+        return count;
     }
 
     @Override
     public int deleteByClient(String clientId, String zoneId) {
         int count = jdbcTemplate.update(DEFAULT_DELETE_STATEMENT, clientId, zoneId);
+        evictClient(clientId, zoneId);
         if (count == 0) {
             throw new NoSuchClientException(NO_CLIENT_FOUND_WITH_ID + clientId);
         }
@@ -270,12 +376,13 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
 
     @Override
     public void addClientSecret(String clientId, String newSecret, String zoneId) throws NoSuchClientException {
-        ClientDetails clientDetails = loadClientByClientId(clientId, zoneId);
+        ClientDetails clientDetails = retrieveClient(clientId, zoneId);
         String encodedNewSecret = passwordEncoder.encode(newSecret);
         StringBuilder newSecretBuilder = new StringBuilder()
                 .append(clientDetails.getClientSecret() == null ? "" : clientDetails.getClientSecret() + " ")
                 .append(encodedNewSecret);
         int count = jdbcTemplate.update(DEFAULT_UPDATE_SECRET_STATEMENT, newSecretBuilder.toString(), clientId, zoneId);
+        evictClient(clientId, zoneId);
         if (count != 1) {
             throw new NoSuchClientException(NO_CLIENT_FOUND_WITH_ID + clientId);
         }
@@ -283,9 +390,10 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
 
     @Override
     public void deleteClientSecret(String clientId, String zoneId) throws NoSuchClientException {
-        ClientDetails clientDetails = loadClientByClientId(clientId, zoneId);
+        ClientDetails clientDetails = retrieveClient(clientId, zoneId);
         String clientSecret = clientDetails.getClientSecret().split(" ")[1];
         int count = jdbcTemplate.update(DEFAULT_UPDATE_SECRET_STATEMENT, clientSecret, clientId, zoneId);
+        evictClient(clientId, zoneId);
         if (count != 1) {
             throw new NoSuchClientException("Unable to update client with " + clientId);
         }
@@ -295,7 +403,7 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
     public void addClientJwtConfig(String clientId, String keyConfig, String zoneId, boolean overwrite) throws NoSuchClientException {
         ClientJwtConfiguration clientJwtConfiguration = ClientJwtConfiguration.parse(keyConfig);
         if (clientJwtConfiguration != null) {
-            UaaClientDetails uaaUaaClientDetails = (UaaClientDetails) loadClientByClientId(clientId, zoneId);
+            UaaClientDetails uaaUaaClientDetails = (UaaClientDetails) retrieveClient(clientId, zoneId);
             ClientJwtConfiguration existingConfig = ClientJwtConfiguration.readValue(uaaUaaClientDetails);
             ClientJwtConfiguration result = ClientJwtConfiguration.merge(existingConfig, clientJwtConfiguration, overwrite);
             if (result != null) {
@@ -315,7 +423,7 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
             clientJwtConfiguration = new ClientJwtConfiguration(keyConfig, null);
         }
         if (clientJwtConfiguration != null) {
-            UaaClientDetails uaaUaaClientDetails = (UaaClientDetails) loadClientByClientId(clientId, zoneId);
+            UaaClientDetails uaaUaaClientDetails = (UaaClientDetails) retrieveClient(clientId, zoneId);
             ClientJwtConfiguration result = ClientJwtConfiguration.delete(ClientJwtConfiguration.readValue(uaaUaaClientDetails), clientJwtConfiguration);
             updateClientJwtConfig(clientId, result != null ? JsonUtils.writeValueAsString(result) : null, zoneId);
         } else {
@@ -323,6 +431,122 @@ public class MultitenantJdbcClientDetailsService extends MultitenantClientServic
         }
     }
 
+    /**
+     * Replaces the cached client with an empty entry, which a load that started before the change cannot replace.
+     */
+    private void evictClient(String clientId, String zoneId) {
+        String key = cacheKey(clientId, zoneId);
+        clientCache.put(key, new CacheEntry(null, null, 0, 0));
+        Map<String, CacheEntry> requestClients = getRequestClients();
+        if (requestClients != null) {
+            requestClients.remove(key);
+        }
+    }
+
+    public void clearCache() {
+        clientCache.invalidateAll();
+        Map<String, CacheEntry> requestClients = getRequestClients();
+        if (requestClients != null) {
+            requestClients.clear();
+        }
+    }
+
+    private static Cache<String, CacheEntry> newClientCache(int maxEntries) {
+        return CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+    }
+
+    private static String cacheKey(String clientId, String zoneId) {
+        return zoneId + "\n" + clientId;
+    }
+
+    private static List<Object> versionOf(ClientDetails client) {
+        return Arrays.asList(
+                client.getAdditionalInformation().get("lastModified"),
+                client.getClientSecret(),
+                client instanceof UaaClientDetails uaaClient ? uaaClient.getClientJwtConfig() : null);
+    }
+
+    /**
+     * Callers may modify the clients they load, so each one gets its own copy of the cached client
+     */
+    private static ClientDetails copyOf(ClientDetails client) {
+        UaaClientDetails copy = new UaaClientDetails(client);
+        if (client instanceof UaaClientDetails uaaClient) {
+            copy.setClientJwtConfig(uaaClient.getClientJwtConfig());
+            if (uaaClient.getAutoApproveScopes() != null) {
+                copy.setAutoApproveScopes(uaaClient.getAutoApproveScopes());
+            }
+        }
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, CacheEntry> getRequestClients() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Map<String, CacheEntry> clients = (Map<String, CacheEntry>) attributes.getAttribute(REQUEST_CLIENTS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (clients == null) {
+            clients = new HashMap<>();
+            attributes.setAttribute(REQUEST_CLIENTS_ATTRIBUTE, clients, RequestAttributes.SCOPE_REQUEST);
+        }
+        return clients;
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Client Lookups Served From Cache")
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Client Lookups Loaded From Database")
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Client Version Checks")
+    public long getCacheVersionChecks() {
+        return cacheVersionChecks.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Client Cache Hit Ratio")
+    public double getCacheHitRatio() {
+        long hits = cacheHits.get();
+        long total = hits + cacheMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    public void setCacheRevalidateAfterMillis(long cacheRevalidateAfterMillis) {
+        this.cacheRevalidateAfterMillis = cacheRevalidateAfterMillis;
+    }
+
+    public void setCacheMaxAgeMillis(long cacheMaxAgeMillis) {
+        this.cacheMaxAgeMillis = cacheMaxAgeMillis;
+    }
+
+    @Value("${clients.cache.maxEntries:10000}")
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.clientCache = newClientCache(cacheMaxEntries);
+    }
+
+    private static final class CacheEntry {
+        private final ClientDetails client;
+        private final List<Object> version;
+        private final long loadedAt;
+        private final long checkedAt;
+
+        private CacheEntry(ClientDetails client, List<Object> version, long loadedAt, long checkedAt) {
+            this.client = client;
+            this.version = version;
+            this.loadedAt = loadedAt;
+            this.checkedAt = checkedAt;
+        }
+    }
+
     /**
      * Row mapper for ClientDetails.
      *
@@ -0,0 +1,6 @@
+-- one lease row per expiry sweep, held by the node that deletes that table's expired rows
+CREATE TABLE expiry_sweeper_lock (
+  lock_name VARCHAR(255) NOT NULL PRIMARY KEY,
+  lock_owner VARCHAR(255) NOT NULL,
+  lock_expires_at BIGINT NOT NULL
+);
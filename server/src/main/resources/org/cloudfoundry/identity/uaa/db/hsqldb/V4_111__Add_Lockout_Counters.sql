@@ -0,0 +1,11 @@
+-- recent login failures per principal, merged by every node so that lockouts do not scan sec_audit
+CREATE TABLE lockout_counters (
+  principal_id VARCHAR(255) NOT NULL,
+  identity_zone_id VARCHAR(36) NOT NULL,
+  failures VARCHAR(1024) NOT NULL,
+  reset_at BIGINT NOT NULL,
+  updated_at BIGINT NOT NULL,
+  PRIMARY KEY (principal_id, identity_zone_id)
+);
+
+CREATE INDEX lockout_counters_updated_at_idx ON lockout_counters (updated_at);
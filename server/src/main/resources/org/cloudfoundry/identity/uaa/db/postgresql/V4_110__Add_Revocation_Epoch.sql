@@ -0,0 +1,7 @@
+-- incremented whenever a valid access token is revoked, polled by every node to drop its revocation cache
+CREATE TABLE revocation_epoch (
+  id VARCHAR(36) NOT NULL PRIMARY KEY,
+  epoch BIGINT NOT NULL
+);
+
+INSERT INTO revocation_epoch (id, epoch) VALUES ('revocations', 0);
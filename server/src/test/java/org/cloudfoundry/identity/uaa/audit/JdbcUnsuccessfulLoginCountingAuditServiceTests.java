@@ -8,7 +8,9 @@ import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.sql.Timestamp;
 import java.util.EnumSet;
@@ -25,6 +27,7 @@ import static org.hamcrest.collection.IsEmptyCollection.empty;
 import static org.hamcrest.core.Is.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -41,11 +44,14 @@ class JdbcUnsuccessfulLoginCountingAuditServiceTests {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @BeforeEach
     void createService() {
         template = spy(jdbcTemplate);
         mockTimeService = mock(TimeService.class);
-        auditService = new JdbcUnsuccessfulLoginCountingAuditService(template, mockTimeService);
+        auditService = new JdbcUnsuccessfulLoginCountingAuditService(template, mockTimeService, transactionManager);
         jdbcTemplate.execute("DELETE FROM sec_audit WHERE principal_id='1' or principal_id='clientA' or principal_id='clientB'");
         authDetails = "1.1.1.1";
     }
@@ -166,6 +172,77 @@ class JdbcUnsuccessfulLoginCountingAuditServiceTests {
         assertThat(auditService.find("1", 0, loginFailureEvent.getIdentityZoneId()), is(empty()));
     }
 
+    @Test
+    void writeBehindFailuresAreCountedBeforeAndAfterFlush() {
+        auditService.setWriteBehind(true);
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), IdentityZone.getUaaZoneId());
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), IdentityZone.getUaaZoneId());
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='1'", Integer.class), is(0));
+        assertEquals(2, auditService.getQueueDepth());
+        assertThat(auditService.find("1", 0, IdentityZone.getUaaZoneId()), hasSize(2));
+
+        assertEquals(2, auditService.flush());
+        assertEquals(0, auditService.getQueueDepth());
+        assertEquals(1, auditService.getFlushCount());
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='1'", Integer.class), is(2));
+        List<AuditEvent> events = auditService.find("1", 0, IdentityZone.getUaaZoneId());
+        assertThat(events, hasSize(2));
+        assertEquals("joe", events.get(0).getData());
+        assertEquals("1.1.1.1", events.get(0).getOrigin());
+    }
+
+    @Test
+    void writeBehindResetsAreCoalesced() {
+        auditService.setWriteBehind(true);
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), IdentityZone.getUaaZoneId());
+        auditService.flush();
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), IdentityZone.getUaaZoneId());
+        auditService.log(getAuditEvent(UserAuthenticationSuccess, "1", "joe"), IdentityZone.getUaaZoneId());
+        auditService.log(getAuditEvent(PasswordChangeSuccess, "1", "joe"), IdentityZone.getUaaZoneId());
+        assertEquals(1, auditService.getQueueDepth());
+        assertThat(auditService.find("1", 0, IdentityZone.getUaaZoneId()), is(empty()));
+
+        reset(template);
+        assertEquals(1, auditService.flush());
+        verify(template, times(1)).batchUpdate(anyString(), anyList());
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='1'", Integer.class), is(0));
+        assertThat(auditService.find("1", 0, IdentityZone.getUaaZoneId()), is(empty()));
+    }
+
+    @Test
+    void writeBehindQueueIsBounded() {
+        auditService.setWriteBehind(true);
+        auditService.setMaxQueueSize(2);
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), IdentityZone.getUaaZoneId());
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "clientA", "joe"), IdentityZone.getUaaZoneId());
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "clientB", "joe"), IdentityZone.getUaaZoneId());
+        // clientB has nothing queued, so its failure is written directly instead of flushing on this thread
+        assertEquals(2, auditService.getQueueDepth());
+        assertEquals(0, auditService.getFlushCount());
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='clientB'", Integer.class), is(1));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id in ('1', 'clientA')", Integer.class), is(0));
+
+        // a principal with queued writes keeps queueing to stay in order
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), IdentityZone.getUaaZoneId());
+        assertEquals(3, auditService.getQueueDepth());
+        assertThat(auditService.find("1", 0, IdentityZone.getUaaZoneId()), hasSize(2));
+    }
+
+    @Test
+    void writeBehindFindDoesNotCountFlushedFailuresTwice() {
+        auditService.setWriteBehind(true);
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), IdentityZone.getUaaZoneId());
+        // a flush moves the queued failure into the table between taking the queue and reading the table
+        doAnswer(invocation -> {
+            if (auditService.getFlushCount() == 0) {
+                auditService.flush();
+            }
+            return invocation.callRealMethod();
+        }).when(template).query(anyString(), any(RowMapper.class), any(), any(), any());
+
+        assertThat(auditService.find("1", 0, IdentityZone.getUaaZoneId()), hasSize(1));
+    }
+
     private AuditEvent getAuditEvent(AuditEventType type, String principal, String data) {
         return new AuditEvent(type, principal, authDetails, data, System.currentTimeMillis(), IdentityZone.getUaaZoneId(), null, null);
     }
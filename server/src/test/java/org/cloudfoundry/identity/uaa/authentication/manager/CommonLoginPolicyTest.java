@@ -5,6 +5,7 @@ import org.cloudfoundry.identity.uaa.audit.AuditEventType;
 import org.cloudfoundry.identity.uaa.audit.UaaAuditService;
 import org.cloudfoundry.identity.uaa.provider.LockoutPolicy;
 import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
@@ -90,4 +91,46 @@ class CommonLoginPolicyTest {
         assertTrue(result.isAllowed());
         assertEquals(1, result.getFailureCount());
     }
+
+    @Test
+    void isAllowed_withLockoutCounters_countsFailuresSinceTheLastSuccessWithoutTheAuditService() {
+        when(lockoutPolicyRetriever.getLockoutPolicy()).thenReturn(new LockoutPolicy(60, 2, 300));
+        String zoneId = IdentityZoneHolder.get().getId();
+        LockoutCounters lockoutCounters = new LockoutCounters(mock(JdbcTemplate.class), timeService);
+        commonLoginPolicy.setLockoutCounters(lockoutCounters);
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(10_000L);
+        lockoutCounters.recordFailure("principal", zoneId);
+        lockoutCounters.reset("principal", zoneId);
+        when(timeService.getCurrentTimeMillis()).thenReturn(20_000L);
+        lockoutCounters.recordFailure("principal", zoneId);
+        assertTrue(commonLoginPolicy.isAllowed("principal").isAllowed());
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(30_000L);
+        lockoutCounters.recordFailure("principal", zoneId);
+        LoginPolicy.Result result = commonLoginPolicy.isAllowed("principal");
+        assertFalse(result.isAllowed());
+        assertEquals(2, result.getFailureCount());
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(30_000L + 300_000L);
+        assertTrue(commonLoginPolicy.isAllowed("principal").isAllowed());
+        verifyNoInteractions(auditService);
+    }
+
+    @Test
+    void isAllowed_withLockoutCounters_usesTheAuditServiceWhenThePolicyNeedsMoreFailuresThanTracked() {
+        when(lockoutPolicyRetriever.getLockoutPolicy()).thenReturn(new LockoutPolicy(60, 3, 300));
+        String zoneId = IdentityZoneHolder.get().getId();
+        LockoutCounters lockoutCounters = new LockoutCounters(mock(JdbcTemplate.class), timeService);
+        lockoutCounters.setMaxTrackedFailures(2);
+        commonLoginPolicy.setLockoutCounters(lockoutCounters);
+        when(timeService.getCurrentTimeMillis()).thenReturn(30_000L);
+        AuditEvent auditEvent = new AuditEvent(failureEventType, null, null, null, 20_000L, null, null, null);
+        when(auditService.find(eq("principal"), anyLong(), eq(zoneId))).thenReturn(List.of(auditEvent, auditEvent, auditEvent));
+
+        LoginPolicy.Result result = commonLoginPolicy.isAllowed("principal");
+
+        assertFalse(result.isAllowed());
+        assertEquals(3, result.getFailureCount());
+    }
 }
@@ -0,0 +1,159 @@
+package org.cloudfoundry.identity.uaa.authentication.manager;
+
+import org.cloudfoundry.identity.uaa.annotations.WithDatabaseContext;
+import org.cloudfoundry.identity.uaa.authentication.event.UserAuthenticationFailureEvent;
+import org.cloudfoundry.identity.uaa.authentication.event.UserAuthenticationSuccessEvent;
+import org.cloudfoundry.identity.uaa.test.TestUtils;
+import org.cloudfoundry.identity.uaa.user.UaaUser;
+import org.cloudfoundry.identity.uaa.user.UaaUserPrototype;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.Authentication;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@WithDatabaseContext
+class LockoutCountersTests {
+
+    private static final String ZONE_ID = "lockout-zone";
+
+    private TimeService timeService;
+    private LockoutCounters counters;
+    private LockoutCounters peer;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1_000L);
+        counters = new LockoutCounters(jdbcTemplate, timeService);
+        peer = new LockoutCounters(jdbcTemplate, timeService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestUtils.deleteFrom(jdbcTemplate, "lockout_counters");
+    }
+
+    @Test
+    void failuresAreCountedUntilTheNextSuccess() {
+        UaaUser user = user("user-id");
+        counters.onApplicationEvent(new UserAuthenticationFailureEvent(user, mock(Authentication.class), ZONE_ID));
+        when(timeService.getCurrentTimeMillis()).thenReturn(2_000L);
+        counters.onApplicationEvent(new UserAuthenticationFailureEvent(user, mock(Authentication.class), ZONE_ID));
+
+        assertEquals(2, counters.countFailures("user-id", ZONE_ID, 0));
+        assertEquals(1, counters.countFailures("user-id", ZONE_ID, 1_000));
+        assertEquals(2_000L, counters.lastFailure("user-id", ZONE_ID));
+        assertEquals(0, counters.countFailures("user-id", "other-zone", 0));
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(3_000L);
+        counters.onApplicationEvent(new UserAuthenticationSuccessEvent(user, mock(Authentication.class), ZONE_ID));
+        assertEquals(0, counters.countFailures("user-id", ZONE_ID, 0));
+        assertEquals(-1L, counters.lastFailure("user-id", ZONE_ID));
+    }
+
+    @Test
+    void onlyTheMostRecentFailuresAreTracked() {
+        counters.setMaxTrackedFailures(3);
+        for (long time = 1_000; time <= 5_000; time += 1_000) {
+            when(timeService.getCurrentTimeMillis()).thenReturn(time);
+            counters.recordFailure("user-id", ZONE_ID);
+        }
+
+        assertEquals(3, counters.countFailures("user-id", ZONE_ID, 0));
+        assertEquals(5_000L, counters.lastFailure("user-id", ZONE_ID));
+    }
+
+    @Test
+    void failuresAtTheSameMillisecondAreCountedOnceEach() {
+        counters.recordFailure("user-id", ZONE_ID);
+        counters.recordFailure("user-id", ZONE_ID);
+        counters.sync();
+        counters.sync();
+        peer.sync();
+
+        assertEquals(2, counters.countFailures("user-id", ZONE_ID, 0));
+        assertEquals(2, peer.countFailures("user-id", ZONE_ID, 0));
+    }
+
+    @Test
+    void failuresOfOtherNodesAreMergedOnSync() {
+        counters.recordFailure("user-id", ZONE_ID);
+        counters.sync();
+        when(timeService.getCurrentTimeMillis()).thenReturn(2_000L);
+        peer.recordFailure("user-id", ZONE_ID);
+        peer.sync();
+
+        assertEquals(2, peer.countFailures("user-id", ZONE_ID, 0));
+        assertEquals(1, peer.getRowsWritten());
+        counters.sync();
+        assertEquals(2, counters.countFailures("user-id", ZONE_ID, 0));
+        assertEquals(2_000L, counters.lastFailure("user-id", ZONE_ID));
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(3_000L);
+        peer.reset("user-id", ZONE_ID);
+        peer.sync();
+        counters.sync();
+        assertEquals(0, counters.countFailures("user-id", ZONE_ID, 0));
+    }
+
+    @Test
+    void resetsWithoutACounterOnlyUpdateExistingRows() {
+        counters.reset("user-id", ZONE_ID);
+        assertEquals(0, counters.getTrackedPrincipals());
+        assertEquals(0, (int) jdbcTemplate.queryForObject("select count(*) from lockout_counters", Integer.class));
+
+        peer.recordFailure("user-id", ZONE_ID);
+        peer.sync();
+        when(timeService.getCurrentTimeMillis()).thenReturn(2_000L);
+        counters.reset("user-id", ZONE_ID);
+        assertEquals(0, counters.getTrackedPrincipals());
+        peer.sync();
+        assertEquals(0, peer.countFailures("user-id", ZONE_ID, 0));
+    }
+
+    @Test
+    void rowsOutsideTheRetentionAreSwept() {
+        counters.recordFailure("user-id", ZONE_ID);
+        counters.sync();
+        assertEquals(1, (int) jdbcTemplate.queryForObject("select count(*) from lockout_counters", Integer.class));
+
+        counters.setRetentionMillis(60_000);
+        when(timeService.getCurrentTimeMillis()).thenReturn(62_000L);
+        assertEquals(1, counters.sweepExpired(0));
+    }
+
+    @Test
+    void sweepsDeleteAtMostMaxRows() {
+        counters.recordFailure("user-id", ZONE_ID);
+        counters.recordFailure("other-user-id", ZONE_ID);
+        counters.sync();
+
+        counters.setRetentionMillis(60_000);
+        when(timeService.getCurrentTimeMillis()).thenReturn(62_000L);
+        assertEquals(1, counters.sweepExpired(1));
+        assertEquals(1, counters.sweepExpired(1));
+        assertEquals(0, counters.sweepExpired(1));
+    }
+
+    @Test
+    void failuresSurviveTheCodec() {
+        long[] failures = {0L, 1_700_000_000_000L, Long.MAX_VALUE};
+        assertEquals(failures.length, LockoutCounters.decode(LockoutCounters.encode(failures)).length);
+        assertEquals(1_700_000_000_000L, LockoutCounters.decode(LockoutCounters.encode(failures))[1]);
+        assertEquals(0, LockoutCounters.decode("").length);
+    }
+
+    private static UaaUser user(String id) {
+        return new UaaUser(new UaaUserPrototype().withId(id).withUsername("joe").withEmail("joe@test.org").withZoneId(ZONE_ID));
+    }
+}
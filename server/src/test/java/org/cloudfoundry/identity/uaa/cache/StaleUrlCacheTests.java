@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTimeout;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.same;
@@ -17,7 +18,13 @@ import static org.mockito.Mockito.when;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.testing.FakeTicker;
 
@@ -29,8 +36,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -59,16 +68,25 @@ class StaleUrlCacheTests {
     mockTimeService = mock(TimeService.class);
     when(mockTimeService.getCurrentTimeMillis()).thenAnswer(e -> System.currentTimeMillis());
     ticker = new FakeTicker();
-    cache = new StaleUrlCache(CACHE_EXPIRATION, mockTimeService, 2, ticker);
+    cache = new StaleUrlCache(CACHE_EXPIRATION, mockTimeService, 2, ticker, Runnable::run);
     mockRestTemplate = mock(RestTemplate.class);
     reset(mockRestTemplate);
-    when(mockRestTemplate.getForObject(any(URI.class), any())).thenReturn(content, new byte[1024]);
+    when(mockRestTemplate.exchange(any(URI.class), any(HttpMethod.class), any(HttpEntity.class), same(byte[].class)))
+        .thenReturn(ok(content, new HttpHeaders()), ok(new byte[1024], new HttpHeaders()));
+  }
+
+  private static ResponseEntity<byte[]> ok(byte[] body, HttpHeaders headers) {
+    return new ResponseEntity<>(body, headers, HttpStatus.OK);
+  }
+
+  private void verifyFetches(int count) throws URISyntaxException {
+    verify(mockRestTemplate, times(count)).exchange(eq(new URI(uri)), eq(HttpMethod.GET), any(HttpEntity.class), same(byte[].class));
   }
 
   @Test
   void correct_method_invoked_on_rest_template() throws URISyntaxException {
     cache.getUrlContent(uri, mockRestTemplate);
-    verify(mockRestTemplate, times(1)).getForObject(eq(new URI(uri)), same(byte[].class));
+    verifyFetches(1);
   }
 
   @Test
@@ -78,7 +96,8 @@ class StaleUrlCacheTests {
 
   @Test
   void rest_client_exception_is_propagated() {
-    when(mockRestTemplate.getForObject(any(URI.class), any())).thenThrow(new RestClientException("mock"));
+    when(mockRestTemplate.exchange(any(URI.class), any(HttpMethod.class), any(HttpEntity.class), same(byte[].class)))
+        .thenThrow(new RestClientException("mock"));
     assertThrows(RestClientException.class, () -> cache.getUrlContent(uri, mockRestTemplate));
   }
 
@@ -86,7 +105,7 @@ class StaleUrlCacheTests {
   void calling_twice_uses_cache() throws Exception {
     byte[] c1 = cache.getUrlContent(uri, mockRestTemplate);
     byte[] c2 = cache.getUrlContent(uri, mockRestTemplate);
-    verify(mockRestTemplate, times(1)).getForObject(eq(new URI(uri)), same(byte[].class));
+    verifyFetches(1);
     assertSame(c1, c2);
     assertEquals(1, cache.size());
   }
@@ -98,7 +117,7 @@ class StaleUrlCacheTests {
     ticker.advance(Duration.ofMillis(CACHE_EXPIRATION.toMillis() + 1));
     System.err.println("eeot: " + ticker.read());
     byte[] c2 = cache.getUrlContent(uri, mockRestTemplate);
-    verify(mockRestTemplate, times(2)).getForObject(eq(new URI(uri)), same(byte[].class));
+    verifyFetches(2);
     assertNotSame(c1, c2);
   }
 
@@ -116,14 +135,17 @@ class StaleUrlCacheTests {
     byte[] c2 = new byte[1024];
     byte[] c3 = new byte[1024];
     mockRestTemplate = mock(RestTemplate.class);
-    when(mockRestTemplate.getForObject(eq(new URI(uri1)), any())).thenReturn(c1);
-    when(mockRestTemplate.getForObject(eq(new URI(uri2)), any())).thenReturn(c2);
-    when(mockRestTemplate.getForObject(eq(new URI(uri3)), any())).thenReturn(c3);
+    when(mockRestTemplate.exchange(eq(new URI(uri1)), any(HttpMethod.class), any(HttpEntity.class), same(byte[].class)))
+        .thenReturn(ok(c1, new HttpHeaders()));
+    when(mockRestTemplate.exchange(eq(new URI(uri2)), any(HttpMethod.class), any(HttpEntity.class), same(byte[].class)))
+        .thenReturn(ok(c2, new HttpHeaders()));
+    when(mockRestTemplate.exchange(eq(new URI(uri3)), any(HttpMethod.class), any(HttpEntity.class), same(byte[].class)))
+        .thenReturn(ok(c3, new HttpHeaders()));
     for (String uri : Arrays.asList(uri1, uri1, uri2, uri2, uri3, uri3)) {
       cache.getUrlContent(uri, mockRestTemplate);
     }
     for (String uri : Arrays.asList(uri1, uri2, uri3)) {
-      verify(mockRestTemplate, times(1)).getForObject(eq(new URI(uri)), same(byte[].class));
+      verify(mockRestTemplate, times(1)).exchange(eq(new URI(uri)), eq(HttpMethod.GET), any(HttpEntity.class), same(byte[].class));
     }
     assertEquals(2, cache.size());
   }
@@ -134,17 +156,133 @@ class StaleUrlCacheTests {
     byte[] c1 = cache.getUrlContent(uri, mockRestTemplate);
     ticker.advance(Duration.ofMillis(CACHE_EXPIRATION.toMillis() + 1));
     System.err.println("serof: " + ticker.read());
-    when(mockRestTemplate.getForObject(any(URI.class), any())).thenThrow(new RestClientException("mock"));
+    when(mockRestTemplate.exchange(any(URI.class), any(HttpMethod.class), any(HttpEntity.class), same(byte[].class)))
+        .thenThrow(new RestClientException("mock"));
+    byte[] c2 = cache.getUrlContent(uri, mockRestTemplate);
+    verifyFetches(2);
+    assertSame(c1, c2);
+    assertEquals(1, cache.getRefreshFailureCount());
+  }
+
+  @Test
+  void stale_entry_is_returned_while_refreshing() throws Exception {
+    List<Runnable> refreshes = new ArrayList<>();
+    cache = new StaleUrlCache(CACHE_EXPIRATION, mockTimeService, 2, ticker, refreshes::add);
+    byte[] c1 = cache.getUrlContent(uri, mockRestTemplate);
+    ticker.advance(Duration.ofMillis(CACHE_EXPIRATION.toMillis() + 1));
+    assertSame(c1, cache.getUrlContent(uri, mockRestTemplate));
+    assertSame(c1, cache.getUrlContent(uri, mockRestTemplate));
+    assertEquals(1, refreshes.size());
+    verifyFetches(1);
+
+    refreshes.get(0).run();
+    verifyFetches(2);
+    assertNotSame(c1, cache.getUrlContent(uri, mockRestTemplate));
+    assertEquals(1, cache.getRefreshCount());
+  }
+
+  @Test
+  void rejected_refresh_is_retried_by_the_next_request() throws Exception {
+    List<Runnable> refreshes = new ArrayList<>();
+    AtomicBoolean full = new AtomicBoolean(true);
+    cache = new StaleUrlCache(CACHE_EXPIRATION, mockTimeService, 2, ticker, runnable -> {
+      if (full.get()) {
+        throw new RejectedExecutionException("queue full");
+      }
+      refreshes.add(runnable);
+    });
+    byte[] c1 = cache.getUrlContent(uri, mockRestTemplate);
+    ticker.advance(Duration.ofMillis(CACHE_EXPIRATION.toMillis() + 1));
+    assertSame(c1, cache.getUrlContent(uri, mockRestTemplate));
+    assertEquals(0, refreshes.size());
+
+    full.set(false);
+    assertSame(c1, cache.getUrlContent(uri, mockRestTemplate));
+    assertEquals(1, refreshes.size());
+  }
+
+  @Test
+  void destroy_shuts_down_the_refresh_executor() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    cache = new StaleUrlCache(CACHE_EXPIRATION, mockTimeService, 2, ticker, executor);
+    cache.destroy();
+    assertTrue(executor.isShutdown());
+  }
+
+  @Test
+  void refresh_sends_etag_and_keeps_content_when_not_modified() throws Exception {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setETag("\"v1\"");
+    when(mockRestTemplate.exchange(any(URI.class), any(HttpMethod.class), any(HttpEntity.class), same(byte[].class)))
+        .thenReturn(ok(content, headers), new ResponseEntity<>(HttpStatus.NOT_MODIFIED));
+    byte[] c1 = cache.getUrlContent(uri, mockRestTemplate);
+    ticker.advance(Duration.ofMillis(CACHE_EXPIRATION.toMillis() + 1));
     byte[] c2 = cache.getUrlContent(uri, mockRestTemplate);
-    verify(mockRestTemplate, times(2)).getForObject(eq(new URI(uri)), same(byte[].class));
     assertSame(c1, c2);
+    assertEquals(1, cache.getNotModifiedCount());
+
+    ArgumentCaptor<HttpEntity> requests = ArgumentCaptor.forClass(HttpEntity.class);
+    verify(mockRestTemplate, times(2)).exchange(eq(new URI(uri)), eq(HttpMethod.GET), requests.capture(), same(byte[].class));
+    assertEquals(0, requests.getAllValues().get(0).getHeaders().getIfNoneMatch().size());
+    assertEquals(List.of("\"v1\""), requests.getAllValues().get(1).getHeaders().getIfNoneMatch());
+  }
+
+  @Test
+  void max_age_shortens_freshness() throws Exception {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setCacheControl("public, max-age=60");
+    when(mockRestTemplate.exchange(any(URI.class), any(HttpMethod.class), any(HttpEntity.class), same(byte[].class)))
+        .thenReturn(ok(content, headers), ok(new byte[1024], headers));
+    cache.getUrlContent(uri, mockRestTemplate);
+    ticker.advance(Duration.ofSeconds(59));
+    cache.getUrlContent(uri, mockRestTemplate);
+    verifyFetches(1);
+    ticker.advance(Duration.ofSeconds(1));
+    cache.getUrlContent(uri, mockRestTemplate);
+    verifyFetches(2);
+  }
+
+  @Test
+  void failed_refresh_backs_off_exponentially() throws Exception {
+    byte[] c1 = cache.getUrlContent(uri, mockRestTemplate);
+    when(mockRestTemplate.exchange(any(URI.class), any(HttpMethod.class), any(HttpEntity.class), same(byte[].class)))
+        .thenThrow(new RestClientException("mock"));
+    ticker.advance(CACHE_EXPIRATION);
+    assertSame(c1, cache.getUrlContent(uri, mockRestTemplate));
+    verifyFetches(2);
+
+    ticker.advance(StaleUrlCache.MIN_BACKOFF.minusMillis(1));
+    cache.getUrlContent(uri, mockRestTemplate);
+    verifyFetches(2);
+    ticker.advance(Duration.ofMillis(1));
+    cache.getUrlContent(uri, mockRestTemplate);
+    verifyFetches(3);
+
+    ticker.advance(StaleUrlCache.MIN_BACKOFF);
+    cache.getUrlContent(uri, mockRestTemplate);
+    verifyFetches(3);
+    ticker.advance(StaleUrlCache.MIN_BACKOFF);
+    assertSame(c1, cache.getUrlContent(uri, mockRestTemplate));
+    verifyFetches(4);
+    assertEquals(3, cache.getRefreshFailureCount());
+  }
+
+  @Test
+  void hits_and_misses_are_counted() {
+    cache.getUrlContent(uri, mockRestTemplate);
+    cache.getUrlContent(uri, mockRestTemplate);
+    cache.getUrlContent(uri, mockRestTemplate);
+    assertEquals(1, cache.getMissCount());
+    assertEquals(2, cache.getHitCount());
   }
 
   @Test
   public void extended_method_invoked_on_rest_template() throws URISyntaxException {
     HttpEntity httpEntity = mock(HttpEntity.class);
+    when(httpEntity.getHeaders()).thenReturn(new HttpHeaders());
     ResponseEntity<byte[]> responseEntity = mock(ResponseEntity.class);
     when(mockRestTemplate.exchange(any(URI.class), any(HttpMethod.class), any(HttpEntity.class), any(Class.class))).thenReturn(responseEntity);
+    when(responseEntity.getHeaders()).thenReturn(new HttpHeaders());
     when(responseEntity.getStatusCode()).thenReturn(HttpStatus.OK);
     when(responseEntity.getBody()).thenReturn(new byte[1]);
     cache.getUrlContent(uri, mockRestTemplate, HttpMethod.GET, httpEntity);
@@ -155,8 +293,10 @@ class StaleUrlCacheTests {
   @Test
   public void extended_method_invoked_on_rest_template_invalid_http_response() throws URISyntaxException {
     HttpEntity httpEntity = mock(HttpEntity.class);
+    when(httpEntity.getHeaders()).thenReturn(new HttpHeaders());
     ResponseEntity<byte[]> responseEntity = mock(ResponseEntity.class);
     when(mockRestTemplate.exchange(any(URI.class), any(HttpMethod.class), any(HttpEntity.class), any(Class.class))).thenReturn(responseEntity);
+    when(responseEntity.getHeaders()).thenReturn(new HttpHeaders());
     when(responseEntity.getStatusCode()).thenReturn(HttpStatus.TEMPORARY_REDIRECT);
     assertThrows(IllegalArgumentException.class, () -> cache.getUrlContent(uri, mockRestTemplate, HttpMethod.GET, httpEntity));
   }
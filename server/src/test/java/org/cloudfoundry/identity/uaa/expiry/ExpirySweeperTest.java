@@ -0,0 +1,184 @@
+package org.cloudfoundry.identity.uaa.expiry;
+
+import org.cloudfoundry.identity.uaa.annotations.WithDatabaseContext;
+import org.cloudfoundry.identity.uaa.test.TestUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@WithDatabaseContext
+class ExpirySweeperTest {
+
+    private static final String NAME = "test_sweep";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private ExpirySweeper sweeper;
+    private ExpirySweeper otherNode;
+    private FakeSweepable sweepable;
+
+    @BeforeEach
+    void setUp() {
+        TestUtils.deleteFrom(jdbcTemplate, "expiry_sweeper_lock");
+        sweeper = newSweeper();
+        otherNode = newSweeper();
+        sweepable = new FakeSweepable(1250);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sweeper.destroy();
+        otherNode.destroy();
+        TestUtils.deleteFrom(jdbcTemplate, "expiry_sweeper_lock");
+    }
+
+    @Test
+    void sweepDeletesInBatchesUntilAShortBatch() {
+        assertTrue(sweeper.register(sweepable));
+
+        assertEquals(1250, sweeper.sweep(NAME));
+        assertEquals(3, sweepable.calls.get());
+
+        Map<String, Long> statistics = sweeper.getSweepStatistics().get(NAME);
+        assertEquals(1L, statistics.get("runs"));
+        assertEquals(1250L, statistics.get("rowsDeleted"));
+        assertEquals(1250L, sweeper.getRowsDeleted());
+    }
+
+    @Test
+    void sweepStopsWhenTheTimeBudgetIsUsed() {
+        sweeper.setTimeBudgetMillis(0);
+        sweeper.register(sweepable);
+
+        assertEquals(500, sweeper.sweep(NAME));
+        assertEquals(1, sweepable.calls.get());
+    }
+
+    @Test
+    void onlyTheLeaseHolderSweeps() {
+        sweeper.register(sweepable);
+        FakeSweepable other = new FakeSweepable(10);
+        otherNode.register(other);
+
+        assertEquals(1250, sweeper.sweep(NAME));
+        assertEquals(-1, otherNode.sweep(NAME));
+        assertEquals(0, other.calls.get());
+        assertEquals(1L, otherNode.getSweepStatistics().get(NAME).get("skippedNotLeader"));
+
+        // the holder renews its own lease
+        assertEquals(0, sweeper.sweep(NAME));
+    }
+
+    @Test
+    void expiredLeaseIsTakenOver() {
+        sweeper.register(sweepable);
+        FakeSweepable other = new FakeSweepable(10);
+        otherNode.register(other);
+        sweeper.sweep(NAME);
+
+        jdbcTemplate.update("update expiry_sweeper_lock set lock_expires_at=? where lock_name=?", System.currentTimeMillis() - 1, NAME);
+
+        assertEquals(10, otherNode.sweep(NAME));
+        assertEquals(-1, sweeper.sweep(NAME));
+    }
+
+    @Test
+    void disabledSweeperDoesNotRegister() {
+        sweeper.setEnabled(false);
+
+        assertFalse(sweeper.register(sweepable));
+        assertThrows(IllegalArgumentException.class, () -> sweeper.sweep(NAME));
+    }
+
+    @Test
+    void failedSweepIsCounted() {
+        sweeper.register(new ExpirySweepable() {
+            @Override
+            public String getSweepName() {
+                return NAME;
+            }
+
+            @Override
+            public int sweepExpired(int maxRows) {
+                throw new IllegalStateException("boom");
+            }
+        });
+
+        assertEquals(0, sweeper.sweep(NAME));
+        assertEquals(1L, sweeper.getSweepStatistics().get(NAME).get("failures"));
+    }
+
+    @Test
+    void sweepsAreScheduledOnceStarted() throws Exception {
+        sweeper.setIntervalMillis(0);
+        sweeper.register(sweepable);
+        Thread.sleep(100);
+        assertEquals(0, sweepable.calls.get());
+
+        sweeper.start();
+        assertTrue(sweeper.isRunning());
+        for (int i = 0; i < 100 && sweepable.calls.get() == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(sweepable.calls.get() > 0);
+
+        sweeper.stop();
+        assertFalse(sweeper.isRunning());
+    }
+
+    @Test
+    void deleteBatchDeletesAtMostMaxRows() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            jdbcTemplate.update("insert into expiry_sweeper_lock (lock_name, lock_owner, lock_expires_at) values (?,?,?)", "batch-" + i, "owner", now - 1);
+        }
+        jdbcTemplate.update("insert into expiry_sweeper_lock (lock_name, lock_owner, lock_expires_at) values (?,?,?)", "batch-current", "owner", now + 60_000);
+        String select = "select lock_name from expiry_sweeper_lock where lock_expires_at < ?";
+        String delete = "delete from expiry_sweeper_lock where lock_name=? and lock_expires_at < ?";
+
+        assertEquals(3, ExpirySweeper.deleteBatch(jdbcTemplate, select, delete, 3, now));
+        assertEquals(2, ExpirySweeper.deleteBatch(jdbcTemplate, select, delete, 3, now));
+        assertEquals(0, ExpirySweeper.deleteBatch(jdbcTemplate, select, delete, 3, now));
+        assertEquals(1, jdbcTemplate.queryForObject("select count(*) from expiry_sweeper_lock", Integer.class));
+    }
+
+    private ExpirySweeper newSweeper() {
+        ExpirySweeper result = new ExpirySweeper(jdbcTemplate);
+        result.setIntervalMillis(60_000);
+        result.setJitterMillis(0);
+        return result;
+    }
+
+    private static class FakeSweepable implements ExpirySweepable {
+        private final AtomicInteger remaining;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private FakeSweepable(int expired) {
+            this.remaining = new AtomicInteger(expired);
+        }
+
+        @Override
+        public String getSweepName() {
+            return NAME;
+        }
+
+        @Override
+        public int sweepExpired(int maxRows) {
+            calls.incrementAndGet();
+            int removed = Math.min(maxRows, remaining.get());
+            remaining.addAndGet(-removed);
+            return removed;
+        }
+    }
+}
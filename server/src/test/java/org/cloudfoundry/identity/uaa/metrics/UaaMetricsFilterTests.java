@@ -1,5 +1,6 @@
 package org.cloudfoundry.identity.uaa.metrics;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
@@ -40,6 +41,7 @@ import static org.mockito.Mockito.same;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 class UaaMetricsFilterTests {
 
@@ -204,6 +206,25 @@ class UaaMetricsFilterTests {
         assertEquals(2, metricSummary.getTotals().getCount());
     }
 
+    @Test
+    void latency_percentiles_per_interval() throws Exception {
+        TimeService timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1000L, 1040L, 2000L, 2100L);
+        filter = new UaaMetricsFilter(true, false, timeService);
+        filter.setLatencyIntervalMillis(1000);
+        performTwoSimpleRequests();
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(4000L);
+        Map<String, String> latencies = filter.getLatencies();
+        Map<String, LatencySummary> group = readValue(latencies.get(filter.getUriGroup(request).getGroup()), new TypeReference<Map<String, LatencySummary>>() {});
+        assertEquals(40, group.get("2xx").getP99());
+        assertEquals(100, group.get("5xx").getMax());
+        assertEquals(2, group.get(MetricsQueue.ALL_STATUS_CODES).getCount());
+        assertEquals(40, group.get(MetricsQueue.ALL_STATUS_CODES).getP50());
+        Map<String, LatencySummary> global = readValue(latencies.get(MetricsUtil.GLOBAL_GROUP), new TypeReference<Map<String, LatencySummary>>() {});
+        assertEquals(2, global.get(MetricsQueue.ALL_STATUS_CODES).getCount());
+    }
+
     @Test
     void url_groups() {
         request.setServerName("localhost:8080");
@@ -0,0 +1,72 @@
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.cloudfoundry.identity.uaa.metrics.UaaMetricsFilter.FALLBACK;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UrlGroupMatcherTests {
+
+    private List<UrlGroup> groups;
+    private UrlGroupMatcher matcher;
+
+    @BeforeEach
+    void setup() throws Exception {
+        groups = new UaaMetricsFilter(true, false, null).getUrlGroups();
+        matcher = new UrlGroupMatcher(groups, FALLBACK);
+    }
+
+    @Test
+    void matchesLikeTryingEveryPatternInOrder() {
+        for (String path : Arrays.asList("/", "", "/oauth/token", "/oauth/token/", "/oauth/token/list/user/abc",
+                "/oauth/clients/abc/secret", "/oauth/clients/tx/secret", "/oauth/clients/tx/abc", "/oauth/clients/restricted",
+                "/oauth/clients/abc/meta", "/oauth/clients", "/Groups", "/Groups/", "/Groups/abc/members", "/Groups/External/list",
+                "/groups", "/Users/abc", "/ids/Users", "/error", "/error404/x", "/errors", "//oauth//token", "/oauth/token/.well-known/openid-configuration",
+                "/.well-known/openid-configuration", "/login.do", "/login", "/login/callback/oidc", "/saml/idp/initiate",
+                "/saml/metadata", "/vendor/font.css", "/unknown/path", "/change_email.do")) {
+            MockHttpServletRequest request = request(path);
+            assertThat(path, matcher.match(request), sameInstance(linearScan(request)));
+        }
+    }
+
+    @Test
+    void resultsAreRememberedPerPath() {
+        assertEquals("/oauth-oidc", matcher.match(request("/oauth/token")).getGroup());
+        assertEquals("/oauth-oidc", matcher.match(request("/oauth/token")).getGroup());
+        assertEquals(1, matcher.getMemoSize());
+
+        matcher.setMaxMemoEntries(2);
+        matcher.match(request("/Users/a"));
+        matcher.match(request("/Users/b"));
+        matcher.match(request("/Users/c"));
+        assertEquals(2, matcher.getMemoSize());
+
+        matcher.setMaxMemoEntries(0);
+        assertEquals("/users", matcher.match(request("/Users/d")).getGroup());
+    }
+
+    private UrlGroup linearScan(MockHttpServletRequest request) {
+        for (UrlGroup group : groups) {
+            if (new AntPathRequestMatcher(group.getPattern()).matches(request)) {
+                return group;
+            }
+        }
+        return FALLBACK;
+    }
+
+    private static MockHttpServletRequest request(String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContextPath("/uaa");
+        request.setRequestURI("/uaa" + path);
+        request.setPathInfo(path);
+        return request;
+    }
+}
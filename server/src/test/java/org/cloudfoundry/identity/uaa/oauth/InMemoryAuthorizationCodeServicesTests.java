@@ -0,0 +1,85 @@
+package org.cloudfoundry.identity.uaa.oauth;
+
+import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
+import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationDetails;
+import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.client.UaaClientDetails;
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.exceptions.InvalidGrantException;
+import org.springframework.security.oauth2.common.util.OAuth2Utils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.TokenRequest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class InMemoryAuthorizationCodeServicesTests {
+
+    private TimeService timeService;
+    private InMemoryAuthorizationCodeServices codeServices;
+    private OAuth2Authentication authentication;
+
+    @BeforeEach
+    void setUp() {
+        timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1_000L);
+        codeServices = new InMemoryAuthorizationCodeServices(timeService, Duration.ofMinutes(5), 4);
+
+        UaaClientDetails client = new UaaClientDetails("clientid", null, "openid", "authorization_code", "uaa.none", null);
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(OAuth2Utils.CLIENT_ID, client.getClientId());
+        parameters.put(OAuth2Utils.REDIRECT_URI, "https://example.com/callback");
+        TokenRequest request = new TokenRequest(parameters, client.getClientId(), client.getScope(), "authorization_code");
+        UaaPrincipal principal = new UaaPrincipal("userid", "username", "username@test.org", OriginKeys.UAA, null, IdentityZone.getUaaZoneId());
+        UaaAuthentication userAuthentication = new UaaAuthentication(principal, AuthorityUtils.createAuthorityList("openid"), UaaAuthenticationDetails.UNKNOWN);
+        authentication = new OAuth2Authentication(request.createOAuth2Request(client), userAuthentication);
+    }
+
+    @Test
+    void codesAreConsumedOnlyOnce() {
+        String code = codeServices.createAuthorizationCode(authentication);
+        assertTrue(code.length() >= 32);
+
+        OAuth2Authentication consumed = codeServices.consumeAuthorizationCode(code);
+        assertEquals(authentication.getOAuth2Request().getRequestParameters(), consumed.getOAuth2Request().getRequestParameters());
+        assertEquals(authentication.getUserAuthentication().getPrincipal(), consumed.getUserAuthentication().getPrincipal());
+        assertThrows(InvalidGrantException.class, () -> codeServices.consumeAuthorizationCode(code));
+        assertEquals(0, codeServices.getSize());
+    }
+
+    @Test
+    void expiredCodesAreRejectedAndSwept() {
+        String code = codeServices.createAuthorizationCode(authentication);
+        codeServices.createAuthorizationCode(authentication);
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(1_000L + Duration.ofMinutes(6).toMillis());
+        assertThrows(InvalidGrantException.class, () -> codeServices.consumeAuthorizationCode(code));
+        for (int i = 0; i < 100; i++) {
+            codeServices.createAuthorizationCode(authentication);
+        }
+        assertEquals(100, codeServices.getSize());
+        assertThrows(InvalidGrantException.class, () -> codeServices.consumeAuthorizationCode("non-existent"));
+    }
+
+    @Test
+    void fullStoreEvictsCodes() {
+        codeServices.setMaxCodes(8);
+        for (int i = 0; i < 50; i++) {
+            codeServices.createAuthorizationCode(authentication);
+        }
+        assertTrue(codeServices.getSize() <= 8);
+        assertEquals(50 - codeServices.getSize(), codeServices.getEvicted());
+    }
+}
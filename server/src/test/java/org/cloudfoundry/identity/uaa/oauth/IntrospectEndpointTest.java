@@ -1,7 +1,9 @@
 package org.cloudfoundry.identity.uaa.oauth;
 
 import org.cloudfoundry.identity.uaa.oauth.token.IntrospectionClaims;
+import org.cloudfoundry.identity.uaa.error.UaaException;
 import org.cloudfoundry.identity.uaa.extensions.PollutionPreventionExtension;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -11,6 +13,10 @@ import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -30,6 +36,11 @@ class IntrospectEndpointTest {
         introspectEndpoint = new IntrospectEndpoint(resourceServerTokenServices);
     }
 
+    @AfterEach
+    void tearDown() {
+        introspectEndpoint.destroy();
+    }
+
     @Test
     void validToken() {
         OAuth2AccessToken token = mock(OAuth2AccessToken.class);
@@ -100,4 +111,35 @@ class IntrospectEndpointTest {
         assertFalse(claimsResult.isActive());
         assertNull(claimsResult.getName());
     }
-}
\ No newline at end of file
+
+    @Test
+    void batchReturnsClaimsInTheOrderOfTheTokens() {
+        String invalidToken = "invalid-token";
+        OAuth2AccessToken token = mock(OAuth2AccessToken.class);
+        when(resourceServerTokenServices.readAccessToken(validToken)).thenReturn(token);
+        when(resourceServerTokenServices.readAccessToken(invalidToken)).thenThrow(new InvalidTokenException("Bla"));
+        when(token.isExpired()).thenReturn(false);
+        when(token.getValue()).thenReturn(validToken);
+
+        List<IntrospectionClaims> claims = introspectEndpoint.introspectBatch(Arrays.asList(validToken, invalidToken, validToken));
+
+        assertEquals(3, claims.size());
+        assertTrue(claims.get(0).isActive());
+        assertEquals("UAA username", claims.get(0).getName());
+        assertFalse(claims.get(1).isActive());
+        assertSame(claims.get(0), claims.get(2));
+        verify(resourceServerTokenServices).readAccessToken(validToken);
+        verify(resourceServerTokenServices).loadAuthentication(validToken);
+    }
+
+    @Test
+    void batchIsLimited() {
+        introspectEndpoint.setMaxBatchTokens(2);
+
+        UaaException e = assertThrows(UaaException.class,
+                () -> introspectEndpoint.introspectBatch(Collections.nCopies(3, validToken)));
+
+        assertEquals(400, e.getHttpStatus());
+        verifyNoInteractions(resourceServerTokenServices);
+    }
+}
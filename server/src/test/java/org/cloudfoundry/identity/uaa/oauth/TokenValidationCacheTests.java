@@ -0,0 +1,136 @@
+package org.cloudfoundry.identity.uaa.oauth;
+
+import org.cloudfoundry.identity.uaa.oauth.event.TokenRevocationEvent;
+import org.cloudfoundry.identity.uaa.util.JwtTokenSignedByThisUAA;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TokenValidationCacheTests {
+
+    private TimeService timeService;
+    private TokenValidationCache cache;
+    private JwtTokenSignedByThisUAA validated;
+    private AtomicInteger validations;
+    private Supplier<JwtTokenSignedByThisUAA> validation;
+
+    @BeforeEach
+    void setUp() {
+        timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1_000_000L);
+        cache = new TokenValidationCache(timeService);
+        cache.setTtlMillis(10_000);
+
+        validated = mock(JwtTokenSignedByThisUAA.class);
+        when(validated.getClaims()).thenReturn(Map.of("exp", 2_000L));
+        validations = new AtomicInteger();
+        validation = () -> {
+            validations.incrementAndGet();
+            return validated;
+        };
+    }
+
+    @Test
+    void repeatedValidationIsServedFromTheCache() {
+        assertSame(validated, cache.validate("token", "zone", validation));
+        assertSame(validated, cache.validate("token", "zone", validation));
+
+        assertEquals(1, validations.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void tokensAreCachedPerZone() {
+        cache.validate("token", "zone", validation);
+        cache.validate("token", "other-zone", validation);
+
+        assertEquals(2, validations.get());
+    }
+
+    @Test
+    void entriesExpireAfterTheTtl() {
+        cache.validate("token", "zone", validation);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1_010_000L);
+        cache.validate("token", "zone", validation);
+
+        assertEquals(2, validations.get());
+    }
+
+    @Test
+    void entriesExpireWithTheToken() {
+        when(validated.getClaims()).thenReturn(Map.of("exp", 1_005L));
+        cache.validate("token", "zone", validation);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1_005_000L);
+        cache.validate("token", "zone", validation);
+
+        assertEquals(2, validations.get());
+    }
+
+    @Test
+    void failedValidationsAreNotCached() {
+        Supplier<JwtTokenSignedByThisUAA> failing = () -> {
+            validations.incrementAndGet();
+            throw new InvalidTokenException("invalid");
+        };
+        assertThrows(InvalidTokenException.class, () -> cache.validate("token", "zone", failing));
+        assertThrows(InvalidTokenException.class, () -> cache.validate("token", "zone", failing));
+
+        assertEquals(2, validations.get());
+    }
+
+    @Test
+    void revocationEventInvalidatesEntries() {
+        cache.validate("token", "zone", validation);
+        cache.onApplicationEvent(new TokenRevocationEvent("user-id", null, "zone", mock(Authentication.class)));
+        cache.validate("token", "zone", validation);
+
+        assertEquals(2, validations.get());
+    }
+
+    @Test
+    void revokedTokenIsInvalidated() {
+        JwtTokenSignedByThisUAA other = mock(JwtTokenSignedByThisUAA.class);
+        when(other.getClaims()).thenReturn(Map.of("exp", 2_000L, "jti", "other-token-id"));
+        when(validated.getClaims()).thenReturn(Map.of("exp", 2_000L, "jti", "token-id"));
+        cache.validate("token", "zone", validation);
+        cache.validate("other-token", "zone", () -> other);
+
+        cache.tokenInvalidated("token-id", "zone");
+
+        cache.validate("token", "zone", validation);
+        cache.validate("other-token", "zone", () -> other);
+        assertEquals(2, validations.get());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void revocationCacheDropInvalidatesEntries() {
+        cache.validate("token", "zone", validation);
+        cache.allInvalidated();
+        cache.validate("token", "zone", validation);
+
+        assertEquals(2, validations.get());
+    }
+
+    @Test
+    void disabledCacheAlwaysValidates() {
+        cache.setEnabled(false);
+        cache.validate("token", "zone", validation);
+        cache.validate("token", "zone", validation);
+
+        assertEquals(2, validations.get());
+    }
+}
@@ -138,6 +138,36 @@ class UaaTokenStoreTests {
         assertThat(userAuthentication.getExternalGroups(), containsInAnyOrder("group1", "group2", "group3"));
     }
 
+    @Test
+    void binaryEncodedCodesAreReadBack() {
+        store.setBinaryEncoding(true);
+        ((UaaAuthentication) uaaAuthentication.getUserAuthentication()).setExternalGroups(new HashSet<>(Arrays.asList("group1", "group2")));
+
+        String code = store.createAuthorizationCode(uaaAuthentication);
+        byte[] stored = jdbcTemplate.queryForObject("SELECT authentication FROM oauth_code WHERE code = ?", byte[].class, code);
+        assertTrue(AuthorizationCodeCodec.isEncoded(stored));
+        OAuth2Authentication authentication = store.consumeAuthorizationCode(code);
+        assertEquals(uaaAuthentication.getOAuth2Request().getScope(), authentication.getOAuth2Request().getScope());
+        assertEquals(uaaAuthentication.getOAuth2Request().getRequestParameters(), authentication.getOAuth2Request().getRequestParameters());
+        assertThat(((UaaAuthentication) authentication.getUserAuthentication()).getExternalGroups(), containsInAnyOrder("group1", "group2"));
+
+        code = store.createAuthorizationCode(usernamePasswordAuthentication);
+        authentication = store.consumeAuthorizationCode(code);
+        assertEquals(principal, authentication.getUserAuthentication().getPrincipal());
+        assertThat(UaaStringUtils.getStringsFromAuthorities(authentication.getUserAuthentication().getAuthorities()), containsInAnyOrder("openid"));
+
+        store.setBinaryEncoding(false);
+        code = store.createAuthorizationCode(clientAuthentication);
+        assertTrue(store.consumeAuthorizationCode(code).isClientOnly());
+    }
+
+    @Test
+    void codesAreConsumedOnlyOnce() {
+        String code = store.createAuthorizationCode(uaaAuthentication);
+        assertNotNull(store.consumeAuthorizationCode(code));
+        assertThrows(InvalidGrantException.class, () -> store.consumeAuthorizationCode(code));
+    }
+
     @Test
     void consumeClientCredentialsFromOldStore() {
         String code = legacyCodeServices.createAuthorizationCode(clientAuthentication);
@@ -244,6 +274,19 @@ class UaaTokenStoreTests {
         assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(0));
     }
 
+    @Test
+    void sweepWithoutALimitDeletesExpiredAndLegacyCodes() {
+        for (int i = 0; i < 5; i++) {
+            legacyCodeServices.createAuthorizationCode(clientAuthentication);
+            store.createAuthorizationCode(clientAuthentication);
+        }
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(10));
+        doReturn(Instant.now().plus(Duration.ofDays(4))).when(timeService).getCurrentInstant();
+
+        assertThat(store.sweepExpired(0), is(10));
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(0));
+    }
+
     @Test
     void expiresAtOnCode() {
         UaaTokenStore.TokenCode code = store.createTokenCodeForTesting("code", "userid", "clientid", Optional.of(Instant.now().minusSeconds(1)), Instant.now(), new byte[0]);
@@ -15,6 +15,7 @@
 
 package org.cloudfoundry.identity.uaa.oauth.jwt;
 
+import com.nimbusds.jose.JWSObject;
 import org.cloudfoundry.identity.uaa.oauth.InvalidSignatureException;
 import org.cloudfoundry.identity.uaa.oauth.KeyInfo;
 import org.cloudfoundry.identity.uaa.oauth.KeyInfoBuilder;
@@ -33,6 +34,7 @@ import static java.util.Collections.singletonMap;
 import static org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKey.KeyType.MAC;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
@@ -225,4 +227,45 @@ public class ChainedSignatureVerifierTests {
         Mockito.verifyNoInteractions(macSigner);
     }
 
+    @Test
+    public void key_named_by_the_token_is_the_only_candidate() throws Exception {
+        JsonWebKey namedValidKey = new JsonWebKey(KeyInfoBuilder.build("valid", rsaSigningKey, "http://localhost/uaa").getJwkMap());
+        JsonWebKey namedInvalidKey = new JsonWebKey(KeyInfoBuilder.build("invalid", invalidRsaSigningKey, "http://localhost/uaa").getJwkMap());
+        verifier = new ChainedSignatureVerifier(new JsonWebKeySet<>(Arrays.asList(namedInvalidKey, namedValidKey)));
+        Jwt jwt = JwtHelper.decode(signedValidContent.getEncoded());
+
+        List<SignatureVerifier> candidates = verifier.getCandidates(JWSObject.parse(jwt.getEncoded()).getHeader());
+        assertEquals(1, candidates.size());
+        assertSame(verifier.getDelegates().get(1), candidates.get(0));
+        jwt.verifySignature(verifier);
+        assertEquals(0, verifier.getFallbackTrials());
+    }
+
+    @Test
+    public void every_key_of_the_named_key_id_is_a_candidate() throws Exception {
+        JsonWebKey rotatedInvalidKey = new JsonWebKey(KeyInfoBuilder.build("valid", invalidRsaSigningKey, "http://localhost/uaa").getJwkMap());
+        JsonWebKey namedValidKey = new JsonWebKey(KeyInfoBuilder.build("valid", rsaSigningKey, "http://localhost/uaa").getJwkMap());
+        verifier = new ChainedSignatureVerifier(new JsonWebKeySet<>(Arrays.asList(rotatedInvalidKey, invalidKey, namedValidKey)));
+        Jwt jwt = JwtHelper.decode(signedValidContent.getEncoded());
+
+        List<SignatureVerifier> candidates = verifier.getCandidates(JWSObject.parse(jwt.getEncoded()).getHeader());
+        assertEquals(Arrays.asList(verifier.getDelegates().get(0), verifier.getDelegates().get(2)), candidates);
+        jwt.verifySignature(verifier);
+        assertEquals(0, verifier.getFallbackTrials());
+    }
+
+    @Test
+    public void keys_of_other_families_are_not_tried_without_a_matching_kid() throws Exception {
+        Map<String, Object> p = new HashMap<>();
+        p.put("kty", MAC.name());
+        p.put("value", "mac-content");
+        JsonWebKey macKey = new JsonWebKey(p);
+        verifier = new ChainedSignatureVerifier(new JsonWebKeySet<>(Arrays.asList(macKey, invalidKey, validKey)));
+        Jwt jwt = JwtHelper.decode(signedValidContent.getEncoded());
+
+        List<SignatureVerifier> candidates = verifier.getCandidates(JWSObject.parse(jwt.getEncoded()).getHeader());
+        assertEquals(verifier.getDelegates().subList(1, 3), candidates);
+        assertEquals(2, verifier.getFallbackTrials());
+        jwt.verifySignature(verifier);
+    }
 }
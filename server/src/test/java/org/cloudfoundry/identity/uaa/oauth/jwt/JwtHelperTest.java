@@ -1,6 +1,10 @@
 package org.cloudfoundry.identity.uaa.oauth.jwt;
 
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.Payload;
 import com.nimbusds.jose.jwk.JWKParameterNames;
+import com.nimbusds.jwt.JWTParser;
 import org.cloudfoundry.identity.uaa.oauth.InvalidSignatureException;
 import org.cloudfoundry.identity.uaa.oauth.KeyInfo;
 import org.cloudfoundry.identity.uaa.oauth.KeyInfoBuilder;
@@ -14,7 +18,9 @@ import org.springframework.security.oauth2.common.exceptions.InvalidTokenExcepti
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import static org.cloudfoundry.identity.uaa.test.ModelTestUtils.getResourceAsString;
 import static org.cloudfoundry.identity.uaa.util.UaaStringUtils.DEFAULT_UAA_URL;
@@ -112,4 +118,53 @@ public class JwtHelperTest {
         assertThrows(InvalidTokenException.class, () -> JwtHelper.decode("invalid"));
         assertThrows(InsufficientAuthenticationException.class, () -> JwtHelper.decode(""));
     }
+
+    @Test
+    public void encodedTokenMatchesTheNimbusSerialization() throws Exception {
+        KeyInfo rsaKeyInfo = KeyInfoBuilder.build("key-id-1", privatekey, "http://localhost/uaa", "RS256", certificate);
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("sub", "subject");
+        claims.put("aud", Arrays.asList("one", "two"));
+        claims.put("scope", Set.of("openid"));
+        claims.put("exp", 1700000000L);
+        claims.put("revocable", true);
+        claims.put("name", "J\u00fcrgen \"<&>\" \u2028\n\t");
+        claims.put("ext", Map.of("nested", Arrays.asList(1, 2.5, null)));
+
+        Jwt jwt = JwtHelper.encode(claims, rsaKeyInfo);
+        JWSObject nimbus = new JWSObject(JWSHeader.parse(Map.of("alg", "RS256", "kid", "key-id-1", "typ", "JWT",
+                "jku", jwt.getHeader().getJku())), new Payload(claims));
+
+        JWSObject parsed = JWSObject.parse(jwt.getEncoded());
+        assertEquals(nimbus.getHeader().toJSONObject(), parsed.getHeader().toJSONObject());
+        assertEquals(nimbus.getPayload().toJSONObject(), parsed.getPayload().toJSONObject());
+        assertEquals(JWTParser.parse(jwt.getEncoded()).getJWTClaimsSet().toJSONObject(), jwt.getClaimSet().toJSONObject());
+        JwtHelper.decode(jwt.getEncoded()).verifySignature(rsaKeyInfo.getVerifier());
+    }
+
+    @Test
+    public void encoderStartsOverAfterAFailure() {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("sub", "subject");
+        claims.put("bad", new Object());
+        assertThrows(InvalidTokenException.class, () -> JwtHelper.encode(claims, keyInfo));
+
+        Jwt jwt = JwtHelper.encode(Map.of("sub", "testJwtContent"), keyInfo);
+        assertEquals("testJwtContent", JwtHelper.decode(jwt.getEncoded()).getClaimSet().getSubject());
+    }
+
+    @Test
+    public void encodingRejectsInvalidRegisteredClaims() {
+        assertThrows(InvalidTokenException.class, () -> JwtHelper.encode(Map.of("exp", "tomorrow"), keyInfo));
+    }
+
+    @Test
+    public void largeTokensAreEncoded() {
+        String large = "x".repeat(64 * 1024);
+        Jwt jwt = JwtHelper.encode(Map.of("sub", large), keyInfo);
+        assertEquals(large, JwtHelper.decode(jwt.getEncoded()).getClaimSet().getSubject());
+
+        jwt = JwtHelper.encode(Map.of("sub", "testJwtContent"), keyInfo);
+        assertEquals("testJwtContent", JwtHelper.decode(jwt.getEncoded()).getClaimSet().getSubject());
+    }
 }
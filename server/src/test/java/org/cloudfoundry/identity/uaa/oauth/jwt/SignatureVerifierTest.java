@@ -16,6 +16,7 @@
 package org.cloudfoundry.identity.uaa.oauth.jwt;
 
 
+import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.jwk.JWKParameterNames;
 import org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKey;
 import org.junit.jupiter.api.Test;
@@ -26,7 +27,9 @@ import java.util.HashMap;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 
 class SignatureVerifierTest {
@@ -77,4 +80,31 @@ class SignatureVerifierTest {
         JsonWebKey jsonWebKey = new JsonWebKey(key);
         assertThrows(IllegalArgumentException.class, () -> new SignatureVerifier(jsonWebKey));
     }
+
+    @Test
+    void processorsAreSharedBetweenVerifiersOfTheSameKey() {
+        SignatureVerifier verifier = new SignatureVerifier(hmacKey("shared-key", "tokenKey"));
+        SignatureVerifier sameKey = new SignatureVerifier(hmacKey("shared-key", "tokenKey"));
+
+        assertSame(verifier.getProcessor(JWSAlgorithm.HS256), sameKey.getProcessor(JWSAlgorithm.HS256));
+        assertSame(verifier.getProcessor("other-kid", JWSAlgorithm.HS256), sameKey.getProcessor("other-kid", JWSAlgorithm.HS256));
+        assertNotSame(verifier.getProcessor(JWSAlgorithm.HS256), verifier.getProcessor(JWSAlgorithm.HS512));
+        assertNotSame(verifier.getProcessor(JWSAlgorithm.HS256), verifier.getProcessor("other-kid", JWSAlgorithm.HS256));
+    }
+
+    @Test
+    void processorsAreNotSharedBetweenDifferentKeys() {
+        SignatureVerifier verifier = new SignatureVerifier(hmacKey("rotated-key", "tokenKey"));
+        SignatureVerifier rotated = new SignatureVerifier(hmacKey("rotated-key", "newTokenKey"));
+
+        assertNotSame(verifier.getProcessor(JWSAlgorithm.HS256), rotated.getProcessor(JWSAlgorithm.HS256));
+    }
+
+    private static JsonWebKey hmacKey(String kid, String value) {
+        HashMap key = new HashMap();
+        key.put(JWKParameterNames.KEY_TYPE, "MAC");
+        key.put(JWKParameterNames.KEY_ID, kid);
+        key.put("value", value);
+        return new JsonWebKey(key);
+    }
 }
@@ -1,5 +1,7 @@
 package org.cloudfoundry.identity.uaa.oauth.token;
 
+import org.cloudfoundry.identity.uaa.audit.AuditEventType;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.impl.config.LegacyTokenKey;
 import org.cloudfoundry.identity.uaa.oauth.KeyInfo;
 import org.cloudfoundry.identity.uaa.oauth.KeyInfoService;
@@ -9,6 +11,7 @@ import org.cloudfoundry.identity.uaa.zone.IdentityZoneConfiguration;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneProvisioning;
 import org.cloudfoundry.identity.uaa.zone.TokenPolicy;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -23,6 +26,8 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -127,6 +132,64 @@ class KeyInfoServiceTests {
         assertThat(key.keyURL(), is("https://subdomain.localhost/uaa/token_keys"));
     }
 
+    @Test
+    void testKeysAreReusedWhileKeyMaterialIsUnchanged() {
+        String keyId = generator.generate();
+        configureDefaultZoneKeys(Collections.singletonMap(keyId, SIGNING_KEY));
+
+        KeyInfo key = keyInfoService.getKey(keyId);
+        assertSame(key, keyInfoService.getKey(keyId));
+        assertSame(key, keyInfoService.getActiveKey());
+        assertNotSame(key, keyInfoService.getKey(keyId, "RS512"));
+    }
+
+    @Test
+    void testKeysAreRebuiltWhenKeyMaterialChanges() {
+        String keyId = generator.generate();
+        configureDefaultZoneKeys(Collections.singletonMap(keyId, SIGNING_KEY));
+        KeyInfo key = keyInfoService.getKey(keyId);
+
+        IdentityZoneHolder.get().getConfig().getTokenPolicy().setKeys(Collections.singletonMap(keyId, "testkey"));
+
+        KeyInfo rebuilt = keyInfoService.getKey(keyId);
+        assertNotSame(key, rebuilt);
+        assertEquals("testkey", rebuilt.verifierKey());
+    }
+
+    @Test
+    void testZoneModifiedEventInvalidatesKeys() {
+        String keyId = generator.generate();
+        configureDefaultZoneKeys(Collections.singletonMap(keyId, SIGNING_KEY));
+        KeyInfo key = keyInfoService.getKey(keyId);
+
+        keyInfoService.onApplicationEvent(new IdentityZoneModifiedEvent(IdentityZoneHolder.get(), null, AuditEventType.IdentityZoneModifiedEvent, IdentityZone.getUaaZoneId()));
+
+        assertNotSame(key, keyInfoService.getKey(keyId));
+    }
+
+    @Test
+    void testZoneDeletedEventInvalidatesKeys() {
+        String keyId = generator.generate();
+        configureDefaultZoneKeys(Collections.singletonMap(keyId, SIGNING_KEY));
+        KeyInfo key = keyInfoService.getKey(keyId);
+
+        keyInfoService.onApplicationEvent(new EntityDeletedEvent<>(IdentityZoneHolder.get(), null, IdentityZone.getUaaZoneId()));
+
+        assertNotSame(key, keyInfoService.getKey(keyId));
+    }
+
+    @Test
+    void testKeySetsAreBounded() {
+        keyInfoService.setMaxEntries(1);
+        String keyId = generator.generate();
+        configureDefaultZoneKeys(Collections.singletonMap(keyId, SIGNING_KEY));
+        KeyInfo key = keyInfoService.getKey(keyId);
+
+        keyInfoService.getKey(keyId, "RS512");
+
+        assertNotSame(key, keyInfoService.getKey(keyId));
+    }
+
     @Test
     void testActiveKeyFallsBackToLegacyKey() {
         configureDefaultZoneKeys(Collections.emptyMap());
@@ -0,0 +1,174 @@
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import org.cloudfoundry.identity.uaa.annotations.WithDatabaseContext;
+import org.cloudfoundry.identity.uaa.oauth.event.TokenRevocationEvent;
+import org.cloudfoundry.identity.uaa.resources.jdbc.LimitSqlAdapter;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.Authentication;
+
+import java.util.List;
+
+import static org.cloudfoundry.identity.uaa.oauth.token.RevocableToken.TokenType.ACCESS_TOKEN;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+@WithDatabaseContext
+class RevocationStatusCacheTests {
+
+    private static final String ZONE_ID = IdentityZone.getUaaZoneId();
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private LimitSqlAdapter limitSqlAdapter;
+
+    private JdbcRevocableTokenProvisioning provisioning;
+    private RevocationStatusCache cache;
+    private RevocableToken token;
+
+    @BeforeEach
+    void setUp() {
+        provisioning = new JdbcRevocableTokenProvisioning(jdbcTemplate, limitSqlAdapter, new TimeServiceImpl());
+        cache = new RevocationStatusCache(jdbcTemplate, new TimeServiceImpl());
+        provisioning.setRevocationStatusCache(cache);
+        cache.setPollIntervalMillis(60_000);
+        cache.afterPropertiesSet();
+
+        token = new RevocableToken()
+                .setTokenId("cached-token-id")
+                .setClientId("client-id")
+                .setUserId("user-id")
+                .setResponseType(ACCESS_TOKEN)
+                .setIssuedAt(System.currentTimeMillis())
+                .setExpiresAt(System.currentTimeMillis() + 60_000)
+                .setValue("token-value")
+                .setScope("openid");
+        provisioning.create(token, ZONE_ID);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.destroy();
+        jdbcTemplate.update("DELETE FROM revocable_tokens");
+    }
+
+    @Test
+    void lookupIsServedFromTheCache() {
+        assertEquals("token-value", retrieve(token.getTokenId()).getValue());
+        jdbcTemplate.update("update revocable_tokens set data=? where token_id=?", "changed", token.getTokenId());
+
+        assertEquals("token-value", retrieve(token.getTokenId()).getValue());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void unknownTokenIsCached() {
+        assertThrows(EmptyResultDataAccessException.class, () -> retrieve("unknown"));
+        assertThrows(EmptyResultDataAccessException.class, () -> retrieve("unknown"));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void localDeleteEvictsImmediately() {
+        retrieve(token.getTokenId());
+        long epoch = readEpoch();
+
+        provisioning.delete(token.getTokenId(), -1, ZONE_ID);
+
+        assertThrows(EmptyResultDataAccessException.class, () -> retrieve(token.getTokenId()));
+        assertEquals(epoch + 1, readEpoch());
+    }
+
+    @Test
+    void deletingTheUsersTokensEvictsEverything() {
+        retrieve(token.getTokenId());
+
+        provisioning.deleteByUser("user-id", ZONE_ID);
+
+        assertThrows(EmptyResultDataAccessException.class, () -> retrieve(token.getTokenId()));
+    }
+
+    @Test
+    void revocationEventEvictsMatchingTokens() {
+        retrieve(token.getTokenId());
+        jdbcTemplate.update("update revocable_tokens set data=? where token_id=?", "changed", token.getTokenId());
+
+        cache.onApplicationEvent(new TokenRevocationEvent("other-user", null, ZONE_ID, mock(Authentication.class)));
+        assertEquals("token-value", retrieve(token.getTokenId()).getValue());
+
+        cache.onApplicationEvent(new TokenRevocationEvent("user-id", null, ZONE_ID, mock(Authentication.class)));
+        assertEquals("changed", retrieve(token.getTokenId()).getValue());
+    }
+
+    @Test
+    void revocationEventIsPublishedToPeers() {
+        long epoch = readEpoch();
+
+        cache.onApplicationEvent(new TokenRevocationEvent("user-id", null, ZONE_ID, mock(Authentication.class)));
+
+        assertEquals(epoch + 1, readEpoch());
+    }
+
+    @Test
+    void listenersAreToldAboutRevokedAccessTokensAndDrops() {
+        RevocationStatusCache.InvalidationListener listener = mock(RevocationStatusCache.InvalidationListener.class);
+        cache.setInvalidationListeners(List.of(listener));
+
+        provisioning.delete(token.getTokenId(), -1, ZONE_ID);
+        verify(listener).tokenInvalidated(token.getTokenId(), ZONE_ID);
+
+        jdbcTemplate.update("update revocation_epoch set epoch = epoch + 1 where id=?", RevocationStatusCache.EPOCH_ID);
+        cache.pollEpoch();
+        verify(listener).allInvalidated();
+    }
+
+    @Test
+    void peerRevocationIsSeenAtTheNextPoll() {
+        retrieve(token.getTokenId());
+        // a peer deletes the token and increments the epoch
+        jdbcTemplate.update("delete from revocable_tokens where token_id=?", token.getTokenId());
+        jdbcTemplate.update("update revocation_epoch set epoch = epoch + 1 where id=?", RevocationStatusCache.EPOCH_ID);
+
+        retrieve(token.getTokenId());
+        cache.pollEpoch();
+
+        assertThrows(EmptyResultDataAccessException.class, () -> retrieve(token.getTokenId()));
+    }
+
+    @Test
+    void creatingATokenEvictsAMissingEntry() {
+        RevocableToken created = new RevocableToken()
+                .setTokenId("created-token-id")
+                .setClientId("client-id")
+                .setUserId("user-id")
+                .setResponseType(ACCESS_TOKEN)
+                .setIssuedAt(System.currentTimeMillis())
+                .setExpiresAt(System.currentTimeMillis() + 60_000)
+                .setValue("created-value")
+                .setScope("openid");
+        assertThrows(EmptyResultDataAccessException.class, () -> retrieve(created.getTokenId()));
+
+        provisioning.create(created, ZONE_ID);
+
+        assertEquals("created-value", retrieve(created.getTokenId()).getValue());
+    }
+
+    private RevocableToken retrieve(String tokenId) {
+        return cache.retrieve(tokenId, ZONE_ID, provisioning::retrieve);
+    }
+
+    private long readEpoch() {
+        return jdbcTemplate.queryForObject("select epoch from revocation_epoch where id=?", Long.class, RevocationStatusCache.EPOCH_ID);
+    }
+}
@@ -0,0 +1,145 @@
+package org.cloudfoundry.identity.uaa.provider;
+
+import org.cloudfoundry.identity.uaa.annotations.WithDatabaseContext;
+import org.cloudfoundry.identity.uaa.util.DomainFilter;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityProviderModifiedEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@WithDatabaseContext
+class IdentityProviderRegistryTests {
+
+    private JdbcIdentityProviderProvisioning provisioning;
+    private IdentityProviderRegistry registry;
+    private TimeService timeService;
+    private String zoneId;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        zoneId = "registry-" + new RandomValueStringGenerator().generate();
+        timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1_000L);
+        provisioning = new JdbcIdentityProviderProvisioning(jdbcTemplate);
+        registry = new IdentityProviderRegistry(provisioning, jdbcTemplate);
+        registry.setTimeService(timeService);
+        registry.setRevalidateAfterMillis(5_000);
+        registry.setMaxAgeMillis(60_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        provisioning.deleteByIdentityZone(zoneId);
+    }
+
+    @Test
+    void activeProvidersAreIndexed() {
+        IdentityProvider issuer = provisioning.create(oidcProvider("issuer", "https://issuer.example.com", Collections.singletonList("example.com")), zoneId);
+        IdentityProvider discovered = provisioning.create(oidcProvider("discovered", null, Collections.singletonList("*.example.org")), zoneId);
+        IdentityProvider inactive = oidcProvider("inactive", "https://issuer.example.com", null);
+        inactive.setActive(false);
+        provisioning.create(inactive, zoneId);
+
+        IdentityProviderRegistry.ZoneProviders providers = registry.get(zoneId);
+
+        assertEquals(2, providers.getActive().size());
+        assertEquals(issuer.getId(), providers.getByOrigin("issuer").getId());
+        assertNull(providers.getByOrigin("inactive"));
+        assertThrows(EmptyResultDataAccessException.class, () -> registry.retrieveByOrigin("inactive", zoneId));
+        assertEquals(issuer.getId(), providers.getByIssuer("https://issuer.example.com").get(0).getId());
+        assertEquals(1, providers.getByIssuer("https://issuer.example.com").size());
+        assertEquals(discovered.getId(), providers.getWithoutIssuer().get(0).getId());
+
+        assertThat(ids(providers.getByEmailDomain("example.com")), contains(issuer.getId()));
+        assertThat(ids(providers.getByEmailDomain("sub.example.org")), contains(discovered.getId()));
+        assertThat(providers.getByEmailDomain("a.b.example.org"), empty());
+        assertThat(providers.getByEmailDomain("EXAMPLE.com"), empty());
+    }
+
+    @Test
+    void changesOnOtherNodesAreSeenAfterTheVersionCheck() {
+        provisioning.create(oidcProvider("issuer", "https://issuer.example.com", null), zoneId);
+        IdentityProviderRegistry.ZoneProviders providers = registry.get(zoneId);
+
+        jdbcTemplate.update("update identity_provider set active = ?, version = version + 1 where identity_zone_id = ?", false, zoneId);
+        assertThat(registry.get(zoneId), sameInstance(providers));
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(6_000L);
+        assertThat(registry.get(zoneId).getActive(), empty());
+        assertEquals(1, registry.getVersionChecks());
+        assertEquals(2, registry.getMisses());
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(12_000L);
+        registry.get(zoneId);
+        assertEquals(2, registry.getVersionChecks());
+        assertEquals(2, registry.getHits());
+    }
+
+    @Test
+    void modifiedProvidersEvictTheirZone() {
+        IdentityProvider provider = provisioning.create(oidcProvider("issuer", "https://issuer.example.com", null), zoneId);
+        IdentityProviderRegistry.ZoneProviders providers = registry.get(zoneId);
+
+        registry.onApplicationEvent(IdentityProviderModifiedEvent.identityProviderModified(provider, zoneId));
+
+        assertThat(registry.get(zoneId), not(sameInstance(providers)));
+        assertEquals(0, registry.getHits());
+    }
+
+    @Test
+    void emailDomainsMatchLikeTheDomainFilter() {
+        IdentityProvider provider = provisioning.create(oidcProvider("issuer", null, Arrays.asList("example.com", "*.example.net")), zoneId);
+        IdentityProviderRegistry.ZoneProviders providers = registry.get(zoneId);
+        IdentityProvider cached = providers.getByOrigin("issuer");
+
+        for (String domain : Arrays.asList("example.com", "example.net", "a.example.net", "a.b.example.net", "exampleXcom")) {
+            List<IdentityProvider> expected = DomainFilter.getIdpsForEmailDomain(providers.getActive(), "joe@" + domain);
+            assertEquals(!expected.isEmpty(), providers.matchesEmailDomain(cached, domain), domain);
+        }
+        assertTrue(providers.matchesEmailDomain(cached, "a.example.net"));
+        assertFalse(providers.matchesEmailDomain(cached, "exampleXcom"));
+        assertEquals(provider.getId(), cached.getId());
+    }
+
+    private IdentityProvider<OIDCIdentityProviderDefinition> oidcProvider(String origin, String issuer, List<String> emailDomains) {
+        OIDCIdentityProviderDefinition definition = new OIDCIdentityProviderDefinition();
+        definition.setIssuer(issuer);
+        definition.setEmailDomain(emailDomains);
+        definition.setRelyingPartyId("uaa");
+        IdentityProvider<OIDCIdentityProviderDefinition> provider = new IdentityProvider<>();
+        provider.setOriginKey(origin);
+        provider.setName(origin);
+        provider.setIdentityZoneId(zoneId);
+        provider.setConfig(definition);
+        return provider;
+    }
+
+    private static List<String> ids(List<IdentityProvider> providers) {
+        return providers.stream().map(IdentityProvider::getId).toList();
+    }
+}
@@ -84,6 +84,7 @@ import org.springframework.security.saml.log.SAMLLogger;
 import org.springframework.security.saml.metadata.ExtendedMetadata;
 import org.springframework.security.saml.websso.WebSSOProfileConsumer;
 import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
@@ -159,6 +160,9 @@ class LoginSamlAuthenticationProviderTests {
     private ScimGroup uaaSamlAdmin;
     private IdentityZoneManager identityZoneManager;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
@@ -196,6 +200,7 @@ class LoginSamlAuthenticationProviderTests {
         JdbcScimGroupMembershipManager membershipManager = new JdbcScimGroupMembershipManager(
                 jdbcTemplate, new TimeServiceImpl(), userProvisioning, null, dbUtils);
         membershipManager.setScimGroupProvisioning(groupProvisioning);
+        membershipManager.setTransactionManager(transactionManager);
         ScimUserBootstrap bootstrap = new ScimUserBootstrap(userProvisioning, groupProvisioning, membershipManager, Collections.emptyList(), false, Collections.emptyList());
 
         externalManager = new JdbcScimGroupExternalMembershipManager(jdbcTemplate, dbUtils);
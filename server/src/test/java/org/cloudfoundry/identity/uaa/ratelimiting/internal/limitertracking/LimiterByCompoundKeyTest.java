@@ -4,6 +4,14 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cloudfoundry.identity.uaa.ratelimiting.core.CompoundKey;
 import org.cloudfoundry.identity.uaa.ratelimiting.core.config.RequestsPerWindowSecs;
@@ -142,4 +150,52 @@ class LimiterByCompoundKeyTest {
         assertFalse( limiterByCompoundKey.removeCompoundKey( p2.compoundKey, p2.expectedExpirationSecond ) );
         assertTrue( limiterByCompoundKey.removeCompoundKey( p2.compoundKey, p3.expectedExpirationSecond ) );
     }
-}
\ No newline at end of file
+
+    @Test
+    void concurrentGetTest() throws Exception {
+        int threads = 16;
+        CompoundKey compoundKey = CompoundKey.from( LIMITER_NAME, WINDOW_TYPE, "concurrentCaller" );
+        AtomicInteger expirationsAdded = new AtomicInteger();
+        CompoundKeyExpirationAdder countingAdder = ( key, expirationSecond ) -> expirationsAdded.incrementAndGet();
+        Set<InternalLimiter> limiters = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try {
+            Future<?>[] futures = new Future<?>[threads];
+            for ( int i = 0; i < threads; i++ ) {
+                futures[i] = executor.submit( () -> {
+                    start.await();
+                    for ( int j = 0; j < 1000; j++ ) {
+                        limiters.add( limiterByCompoundKey.get( compoundKey, factory, countingAdder ) );
+                    }
+                    return null;
+                } );
+            }
+            start.countDown();
+            for ( Future<?> future : futures ) {
+                future.get( 30, TimeUnit.SECONDS );
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals( 1, limiters.size() ); // clock never advanced, so all threads share one limiter
+        assertEquals( 1, expirationsAdded.get() );
+        assertEquals( 1, limiterByCompoundKey.size() );
+    }
+
+    @Test
+    void removedLimiterIsReplacedTest() {
+        String callerId = "purgedCaller";
+        Params p1 = addLimiterAndAdvanceClockBy1Sec( callerId );
+        mockCurrentTimeSupplier.add( Duration.ofSeconds( 1 ) ); // now past the window of p1
+
+        assertTrue( limiterByCompoundKey.removeCompoundKey( p1.compoundKey, p1.expectedExpirationSecond ) );
+        assertEquals( 0, limiterByCompoundKey.size() );
+
+        InternalLimiter limiter = getLimiter( callerId );
+        assertNotEquals( p1.expectedExpirationSecond, limiter.getWindowEndExclusive().getEpochSecond() );
+        assertEquals( 1, limiterByCompoundKey.size() );
+    }
+}
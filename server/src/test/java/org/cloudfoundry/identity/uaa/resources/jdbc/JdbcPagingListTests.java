@@ -1,6 +1,7 @@
 package org.cloudfoundry.identity.uaa.resources.jdbc;
 
 import org.cloudfoundry.identity.uaa.annotations.WithDatabaseContext;
+import org.cloudfoundry.identity.uaa.resources.KeysetPage;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -9,6 +10,8 @@ import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -155,4 +158,75 @@ class JdbcPagingListTests {
         assertEquals(3, count); // count is less than original size estimate
     }
 
+    @Test
+    void keysetPagesVisitEveryRowOnceInOrder() {
+        List<String> ids = keysetIds(true, true);
+        assertEquals(Arrays.asList("b", "d", "a", "c", "e"), ids);
+    }
+
+    @Test
+    void keysetPagesDescending() {
+        List<String> ids = keysetIds(false, true);
+        assertEquals(Arrays.asList("e", "c", "a", "d", "b"), ids);
+    }
+
+    @Test
+    void keysetPagesCanSkipTheCount() {
+        List<String> ids = keysetIds(true, false);
+        assertEquals(Arrays.asList("b", "d", "a", "c", "e"), ids);
+    }
+
+    @Test
+    void keysetPageIsNotAffectedByInsertsBeforeTheCursor() {
+        JdbcPagingListFactory factory = new JdbcPagingListFactory(jdbcTemplate, limitSqlAdapter);
+        createKeysetTable();
+        try {
+            KeysetPage<Map<String, Object>> first = factory.createKeysetPage("SELECT * from keyset_foo where (1=1)",
+                    Collections.emptyMap(), "name", "id", true, null, new ColumnMapRowMapper(), 2, true);
+            jdbcTemplate.execute("insert into keyset_foo (id, name) values ('0', 'aaa')");
+            KeysetPage<Map<String, Object>> second = factory.createKeysetPage("SELECT * from keyset_foo where (1=1)",
+                    Collections.emptyMap(), "name", "id", true, KeysetCursor.decode(first.getNextCursor()),
+                    new ColumnMapRowMapper(), 2, true);
+            assertEquals("a", second.getResources().get(0).get("id"));
+            assertEquals(6, second.getTotalResults());
+        } finally {
+            jdbcTemplate.execute("drop table keyset_foo");
+        }
+    }
+
+    @Test
+    void invalidCursor() {
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode("not-a-cursor"));
+    }
+
+    private List<String> keysetIds(boolean ascending, boolean includeTotal) {
+        JdbcPagingListFactory factory = new JdbcPagingListFactory(jdbcTemplate, limitSqlAdapter);
+        createKeysetTable();
+        try {
+            List<String> ids = new ArrayList<>();
+            KeysetCursor cursor = null;
+            int pages = 0;
+            do {
+                KeysetPage<Map<String, Object>> page = factory.createKeysetPage("SELECT * from keyset_foo where (id <> :id)",
+                        Collections.singletonMap("id", "x"), "name", "id", ascending, cursor, new ColumnMapRowMapper(), 2, includeTotal);
+                assertEquals(includeTotal ? 5 : KeysetPage.TOTAL_NOT_COUNTED, page.getTotalResults());
+                page.getResources().forEach(row -> ids.add((String) row.get("id")));
+                cursor = page.getNextCursor() == null ? null : KeysetCursor.decode(page.getNextCursor());
+                pages++;
+            } while (cursor != null);
+            assertEquals(3, pages);
+            return ids;
+        } finally {
+            jdbcTemplate.execute("drop table keyset_foo");
+        }
+    }
+
+    private void createKeysetTable() {
+        jdbcTemplate.execute("create table keyset_foo (id varchar(10) primary key, name varchar(10) not null)");
+        jdbcTemplate.execute("insert into keyset_foo (id, name) values ('a', 'bar')");
+        jdbcTemplate.execute("insert into keyset_foo (id, name) values ('b', 'abc')");
+        jdbcTemplate.execute("insert into keyset_foo (id, name) values ('c', 'bar')");
+        jdbcTemplate.execute("insert into keyset_foo (id, name) values ('d', 'abc')");
+        jdbcTemplate.execute("insert into keyset_foo (id, name) values ('e', 'foo')");
+    }
 }
@@ -42,6 +42,7 @@ import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -49,6 +50,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -82,6 +84,9 @@ class ScimUserBootstrapTests {
     private JdbcScimGroupMembershipManager jdbcScimGroupMembershipManager;
     private ScimUserEndpoints scimUserEndpoints;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
@@ -97,6 +102,7 @@ class ScimUserBootstrapTests {
         jdbcScimGroupMembershipManager = new JdbcScimGroupMembershipManager(
                 jdbcTemplate, new TimeServiceImpl(), jdbcScimUserProvisioning, null, dbUtils);
         jdbcScimGroupMembershipManager.setScimGroupProvisioning(jdbcScimGroupProvisioning);
+        jdbcScimGroupMembershipManager.setTransactionManager(transactionManager);
         scimUserEndpoints = new ScimUserEndpoints(
                 new IdentityZoneManagerImpl(),
                 new IsSelfCheck(null),
@@ -497,7 +503,49 @@ class ScimUserBootstrapTests {
 
         bootstrap.onApplicationEvent(new ExternalGroupAuthorizationEvent(user, true, authorities, true));
 
-        verify(spy, times(externalAuthorities.length*2)).addMember(any(), any(), any());
+        ArgumentCaptor<Collection<String>> added = ArgumentCaptor.forClass(Collection.class);
+        verify(spy, times(externalAuthorities.length)).addMember(any(), any(), any());
+        verify(spy, times(1)).updateExternalMemberships(eq(userId), eq(origin), added.capture(), any(), any());
+        assertEquals(externalAuthorities.length, added.getValue().size());
+        assertEquals(externalAuthorities.length, new HashSet<>(added.getValue()).size());
+    }
+
+    @Test
+    void externalGroupsAreReconciledInOneUpdate() {
+        String[] userAuthorities = new String[]{"usrTest1"};
+        String origin = "testOrigin";
+        addIdentityProvider(jdbcTemplate, origin);
+        String username = new RandomValueStringGenerator().generate();
+        UaaUser user = getUaaUser(userAuthorities, origin, "test@test.org", "FirstName", "LastName", "testPassword", null, new RandomValueStringGenerator().generate(), username);
+        ScimUserBootstrap bootstrap = new ScimUserBootstrap(jdbcScimUserProvisioning, jdbcScimGroupProvisioning, jdbcScimGroupMembershipManager, Collections.singletonList(user), false, Collections.emptyList());
+        bootstrap.afterPropertiesSet();
+        String userId = jdbcScimUserProvisioning.query("userName eq \"" + username + "\" and origin eq \"" + origin + "\"", IdentityZone.getUaaZoneId()).get(0).getId();
+        user = getUaaUser(userAuthorities, origin, "test@test.org", "FirstName", "LastName", "testPassword", null, userId, username);
+
+        String[] externalAuthorities = new String[50];
+        for (int i = 0; i < externalAuthorities.length; i++) {
+            externalAuthorities[i] = "extGroup" + i;
+        }
+        bootstrap.onApplicationEvent(new ExternalGroupAuthorizationEvent(user, false, getAuthorities(externalAuthorities), true));
+        ScimUser created = jdbcScimUserProvisioning.retrieve(userId, IdentityZone.getUaaZoneId());
+        validateAuthoritiesCreated(externalAuthorities, userAuthorities, origin, created, jdbcScimGroupMembershipManager);
+
+        JdbcScimGroupProvisioning groupProvisioning = spy(jdbcScimGroupProvisioning);
+        JdbcScimGroupMembershipManager membershipManager = spy(jdbcScimGroupMembershipManager);
+        bootstrap = new ScimUserBootstrap(jdbcScimUserProvisioning, groupProvisioning, membershipManager, Collections.emptyList(), false, Collections.emptyList());
+        String[] changedAuthorities = Arrays.copyOfRange(externalAuthorities, 10, 50);
+        changedAuthorities[0] = "EXTGROUP0";
+        changedAuthorities[1] = "extNewGroup";
+        bootstrap.onApplicationEvent(new ExternalGroupAuthorizationEvent(user, false, getAuthorities(changedAuthorities), true));
+
+        verify(groupProvisioning, times(1)).getByNames(any(), any());
+        verify(groupProvisioning, never()).query(any(), any());
+        verify(membershipManager, never()).addMember(any(), any(), any());
+        verify(membershipManager, never()).removeMemberById(any(), any(), any());
+        verify(membershipManager, times(1)).updateExternalMemberships(eq(userId), eq(origin), any(), any(), any());
+        String[] expected = changedAuthorities.clone();
+        expected[0] = "extGroup0";
+        validateAuthoritiesCreated(expected, userAuthorities, origin, created, jdbcScimGroupMembershipManager);
     }
 
     @Test
@@ -9,6 +9,7 @@ import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMember;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundException;
 import org.cloudfoundry.identity.uaa.scim.test.TestUtils;
 import org.cloudfoundry.identity.uaa.util.beans.DbUtils;
+import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.JdbcIdentityZoneProvisioning;
@@ -20,6 +21,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import javax.sql.DataSource;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -28,6 +30,8 @@ import java.util.List;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 @WithDatabaseContext
 class JdbcScimGroupExternalMembershipManagerTests {
@@ -124,6 +128,43 @@ class JdbcScimGroupExternalMembershipManagerTests {
         assertEquals(0, edao.getExternalGroupMapsByExternalGroup("cn=engineering,ou=groups,dc=example,dc=com", origin, "id").size());
     }
 
+    @Test
+    void lookupsByExternalGroupAreIndexedUntilTheTtlExpires() {
+        TimeService timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1000L);
+        edao.setTimeService(timeService);
+        edao.setIndexTtlMillis(30_000);
+        String zoneId = IdentityZone.getUaaZoneId();
+        createGroupMapping();
+        assertEquals(1, edao.getExternalGroupMapsByExternalGroup("CN=Engineering,ou=groups,dc=example,dc=com", origin, zoneId).size());
+
+        // a mapping added by another node
+        jdbcTemplate.update("insert into external_group_mapping (group_id, external_group, added, origin, identity_zone_id) values (?,?,?,?,?)",
+                "g2-" + zoneId, "cn=engineering,ou=groups,dc=example,dc=com", new Timestamp(System.currentTimeMillis()), origin, zoneId);
+        assertEquals(1, edao.getExternalGroupMapsByExternalGroup("cn=engineering,ou=groups,dc=example,dc=com", origin, zoneId).size());
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(31_000L);
+        List<ScimGroupExternalMember> mappings = edao.getExternalGroupMapsByExternalGroup("cn=engineering,ou=groups,dc=example,dc=com", origin, zoneId);
+        assertEquals(2, mappings.size());
+        assertEquals("test2", mappings.stream().filter(m -> m.getGroupId().equals("g2-" + zoneId)).findFirst().get().getDisplayName());
+    }
+
+    @Test
+    void mappingChangesUpdateTheIndexRightAway() {
+        String zoneId = IdentityZone.getUaaZoneId();
+        String externalGroup = "cn=engineering,ou=groups,dc=example,dc=com";
+        assertEquals(0, edao.getExternalGroupMapsByExternalGroup(externalGroup, origin, zoneId).size());
+        edao.mapExternalGroup("g1-" + zoneId, externalGroup, origin, zoneId);
+        edao.mapExternalGroup("g2-" + zoneId, externalGroup, origin, zoneId);
+        assertEquals(2, edao.getExternalGroupMapsByExternalGroup(externalGroup, origin, zoneId).size());
+        assertEquals(0, edao.getExternalGroupMapsByExternalGroup(externalGroup, OriginKeys.UAA, zoneId).size());
+
+        edao.unmapExternalGroup("g1-" + zoneId, externalGroup, origin, zoneId);
+        assertEquals(1, edao.getExternalGroupMapsByExternalGroup(externalGroup, origin, zoneId).size());
+        edao.unmapAll("g2-" + zoneId, zoneId);
+        assertEquals(0, edao.getExternalGroupMapsByExternalGroup(externalGroup, origin, zoneId).size());
+    }
+
     private void createGroupMapping() {
         ScimGroup group = gdao.retrieve("g1-" + IdentityZone.getUaaZoneId(), IdentityZone.getUaaZoneId());
         assertNotNull(group);
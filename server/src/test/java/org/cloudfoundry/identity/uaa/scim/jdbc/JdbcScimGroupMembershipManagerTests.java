@@ -28,6 +28,7 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -39,6 +40,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -55,7 +57,9 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
@@ -92,6 +96,9 @@ class JdbcScimGroupMembershipManagerTests {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @BeforeEach
     void setUp() throws SQLException {
         generator = new RandomValueStringGenerator();
@@ -107,6 +114,7 @@ class JdbcScimGroupMembershipManagerTests {
         jdbcScimGroupMembershipManager = new JdbcScimGroupMembershipManager(
                 jdbcTemplate, new TimeServiceImpl(), jdbcScimUserProvisioning, null, dbUtils);
         jdbcScimGroupMembershipManager.setScimGroupProvisioning(jdbcScimGroupProvisioning);
+        jdbcScimGroupMembershipManager.setTransactionManager(transactionManager);
         IdentityZoneHolder.get().getConfig().getUserConfig().setDefaultGroups(Collections.singletonList("uaa.user"));
         jdbcScimGroupProvisioning.createOrGet(new ScimGroup(null, "uaa.user", IdentityZoneHolder.get().getId()), IdentityZoneHolder.get().getId());
 
@@ -418,6 +426,48 @@ class JdbcScimGroupMembershipManagerTests {
         assertEquals(4, groups.size());
     }
 
+    @Test
+    void recursiveQueryAndLevelByLevelResolutionAgree() {
+        addMember("g1", "m3", "USER", "READER", jdbcTemplate, uaaIdentityZone.getId());
+        addMember("g1", "g2", "GROUP", "READER", jdbcTemplate, uaaIdentityZone.getId());
+        addMember("g2", "g3", "GROUP", "READER", jdbcTemplate, uaaIdentityZone.getId());
+        addMember("g3", "g1", "GROUP", "READER", jdbcTemplate, uaaIdentityZone.getId());
+        addMember("g1", "m3", "USER", "READER", jdbcTemplate, otherIdentityZone.getId());
+
+        Set<ScimGroup> recursive = jdbcScimGroupMembershipManager.getGroupsWithMember("m3", true, uaaIdentityZone.getId());
+        Set<ScimGroup> nestedGroups = jdbcScimGroupMembershipManager.getGroupsWithMember("g2", true, uaaIdentityZone.getId());
+        jdbcScimGroupMembershipManager.setRecursiveQueryEnabled(false);
+
+        assertEquals(jdbcScimGroupMembershipManager.getGroupsWithMember("m3", true, uaaIdentityZone.getId()), recursive);
+        assertEquals(jdbcScimGroupMembershipManager.getGroupsWithMember("g2", true, uaaIdentityZone.getId()), nestedGroups);
+        assertEquals(new HashSet<>(Arrays.asList("g1", "g2", "g3")), nestedGroups.stream().map(ScimGroup::getId).collect(Collectors.toSet()));
+    }
+
+    @Test
+    void canGetGroupsForUserMembersInBulk() {
+        addMember("g1", "m3", "USER", "READER", jdbcTemplate, uaaIdentityZone.getId());
+        addMember("g1", "g2", "GROUP", "READER", jdbcTemplate, uaaIdentityZone.getId());
+        addMember("g2", "g3", "GROUP", "READER", jdbcTemplate, uaaIdentityZone.getId());
+        addMember("g3", "g1", "GROUP", "READER", jdbcTemplate, uaaIdentityZone.getId());
+        addMember("g3", "m1", "USER", "READER", jdbcTemplate, uaaIdentityZone.getId());
+        jdbcScimGroupMembershipManager.setMaxSqlParameters(3); // forces several queries per level
+
+        List<String> userIds = Arrays.asList("m1", "m3", "m5");
+        Map<String, Set<ScimGroup>> direct = jdbcScimGroupMembershipManager.getGroupsWithUserMembers(userIds, false, uaaIdentityZone.getId());
+        Map<String, Set<ScimGroup>> transitive = jdbcScimGroupMembershipManager.getGroupsWithUserMembers(userIds, true, uaaIdentityZone.getId());
+
+        assertEquals(2, direct.get("m1").size());
+        assertEquals(2, direct.get("m3").size());
+        assertEquals(1, direct.get("m5").size());
+        assertEquals(4, transitive.get("m1").size());
+        assertEquals(4, transitive.get("m3").size());
+        assertEquals(1, transitive.get("m5").size());
+        for (String userId : userIds) {
+            assertEquals(jdbcScimGroupMembershipManager.getGroupsWithMember(userId, false, uaaIdentityZone.getId()), direct.get(userId));
+            assertEquals(jdbcScimGroupMembershipManager.getGroupsWithMember(userId, true, uaaIdentityZone.getId()), transitive.get(userId));
+        }
+    }
+
     @Test
     void canAddMember() throws SQLException {
         validateCount(0, jdbcTemplate, uaaIdentityZone.getId());
@@ -623,6 +673,53 @@ class JdbcScimGroupMembershipManagerTests {
         assertThat(groupIds, hasItem("g2"));
     }
 
+    @Test
+    void canUpdateExternalMemberships() {
+        String zoneId = uaaIdentityZone.getId();
+        String defaultGroupId = jdbcScimGroupProvisioning.getByName("uaa.user", zoneId).getId();
+        addMember("g1", "m1", "USER", LOGIN_SERVER, jdbcTemplate, zoneId);
+        addMember("g2", "m1", "USER", UAA, jdbcTemplate, zoneId);
+
+        jdbcScimGroupMembershipManager.updateExternalMemberships("m1", LOGIN_SERVER,
+                Arrays.asList("g2", "g3", "g3", defaultGroupId), Collections.singletonList("g1"), zoneId);
+
+        Set<ScimGroup> external = jdbcScimGroupMembershipManager.getGroupsWithExternalMember("m1", LOGIN_SERVER, zoneId);
+        assertEquals(Collections.singletonList("g3"), external.stream().map(ScimGroup::getId).collect(Collectors.toList()));
+        assertEquals(UAA, jdbcScimGroupMembershipManager.getMemberById("g2", "m1", zoneId).getOrigin());
+        assertThrows(MemberNotFoundException.class, () -> jdbcScimGroupMembershipManager.getMemberById(defaultGroupId, "m1", zoneId));
+    }
+
+    @Test
+    void updateExternalMembershipsSkipsExistingMemberships() {
+        String zoneId = uaaIdentityZone.getId();
+        jdbcScimGroupMembershipManager.updateExternalMemberships("m1", LOGIN_SERVER, Arrays.asList("g1", "g2"), emptyList(), zoneId);
+        jdbcScimGroupMembershipManager.updateExternalMemberships("m1", LOGIN_SERVER, Arrays.asList("g1", "g2", "g3"), emptyList(), zoneId);
+
+        assertEquals(3, jdbcScimGroupMembershipManager.getGroupsWithExternalMember("m1", LOGIN_SERVER, zoneId).size());
+    }
+
+    @Test
+    void updateExternalMembershipsRetriesTheWholeUpdateAfterAConcurrentInsert() throws SQLException {
+        String zoneId = uaaIdentityZone.getId();
+        addMember("g1", "m1", "USER", LOGIN_SERVER, jdbcTemplate, zoneId);
+        addMember("g2", "m1", "USER", LOGIN_SERVER, jdbcTemplate, zoneId);
+        JdbcTemplate racingTemplate = spy(jdbcTemplate);
+        // the first attempt does not see the membership to g2, as if another login inserted it meanwhile
+        doReturn(emptyList()).doCallRealMethod()
+                .when(racingTemplate).queryForList(anyString(), eq(String.class), eq("m1"), eq(zoneId));
+        JdbcScimGroupMembershipManager manager = new JdbcScimGroupMembershipManager(
+                racingTemplate, new TimeServiceImpl(), null, null, dbUtils);
+        manager.setScimGroupProvisioning(jdbcScimGroupProvisioning);
+        manager.setTransactionManager(transactionManager);
+
+        manager.updateExternalMemberships("m1", LOGIN_SERVER, Arrays.asList("g2", "g3"), Collections.singletonList("g1"), zoneId);
+
+        Set<String> external = manager.getGroupsWithExternalMember("m1", LOGIN_SERVER, zoneId).stream()
+                .map(ScimGroup::getId).collect(Collectors.toSet());
+        assertEquals(Set.of("g2", "g3"), external);
+        verify(racingTemplate, times(2)).queryForList(anyString(), eq(String.class), eq("m1"), eq(zoneId));
+    }
+
     @Test
     void canAddMultipleMembers() {
         jdbcScimGroupMembershipManager.addMember("g1", new ScimGroupMember("m1", ScimGroupMember.Type.USER), uaaIdentityZone.getId());
@@ -34,6 +34,7 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -42,6 +43,7 @@ import static org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimGroupMembershipMan
 import static org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimGroupMembershipManager.MEMBERSHIP_TABLE;
 import static org.cloudfoundry.identity.uaa.util.AssertThrowsWithMessage.assertThrowsWithMessageThat;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.core.Is.is;
@@ -157,6 +159,14 @@ class JdbcScimGroupProvisioningTests {
         assertNotNull(dao.getByName(group2Description, zoneId));
     }
 
+    @Test
+    void get_by_names() {
+        dao.setMaxSqlParameters(2);
+        List<ScimGroup> groups = dao.getByNames(Arrays.asList(group1Description.toUpperCase(), group2Description, group3Description, group3Description, "", "invalid-group-name"), zoneId);
+        assertThat(groups.stream().map(ScimGroup::getId).collect(Collectors.toList()), containsInAnyOrder(g1Id, g2Id, g3Id));
+        assertThat(dao.getByNames(Collections.singletonList(group1Description), generator.generate()), hasSize(0));
+    }
+
     @Test
     void get_by_invalid_name() {
         assertThrowsWithMessageThat(
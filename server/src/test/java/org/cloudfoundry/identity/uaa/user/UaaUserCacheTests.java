@@ -0,0 +1,150 @@
+package org.cloudfoundry.identity.uaa.user;
+
+import org.cloudfoundry.identity.uaa.annotations.WithDatabaseContext;
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.db.DatabaseUrlModifier;
+import org.cloudfoundry.identity.uaa.db.Vendor;
+import org.cloudfoundry.identity.uaa.scim.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.test.TestUtils;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.beans.DbUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneConfiguration;
+import org.cloudfoundry.identity.uaa.zone.UserConfig;
+import org.cloudfoundry.identity.uaa.zone.beans.IdentityZoneManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@WithDatabaseContext
+class UaaUserCacheTests {
+
+    private static final String ZONE_ID = "user-cache-zone";
+    private static final String ADD_USER_SQL = "insert into users (id, username, password, email, givenName, familyName, phoneNumber, origin, identity_zone_id, created, lastmodified, passwd_lastmodified) values (?,?,?,?,?,?,?,?,?,?,?,?)";
+    private static final String ADD_MEMBER_SQL = "insert into group_membership (group_id, member_id, member_type, authorities, identity_zone_id) values (?,?,?,?,?)";
+
+    private UaaUserCache cache;
+    private JdbcUaaUserDatabase userDatabase;
+    private TimeService timeService;
+    private String userId;
+    private String quotedGroupsIdentifier;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1000L);
+
+        IdentityZoneManager identityZoneManager = mock(IdentityZoneManager.class);
+        IdentityZone identityZone = mock(IdentityZone.class);
+        IdentityZoneConfiguration identityZoneConfiguration = mock(IdentityZoneConfiguration.class);
+        UserConfig userConfig = mock(UserConfig.class);
+        when(identityZoneManager.getCurrentIdentityZoneId()).thenReturn(ZONE_ID);
+        when(identityZoneManager.getCurrentIdentityZone()).thenReturn(identityZone);
+        when(identityZone.getConfig()).thenReturn(identityZoneConfiguration);
+        when(identityZoneConfiguration.getUserConfig()).thenReturn(userConfig);
+        when(userConfig.getDefaultGroups()).thenReturn(Collections.emptyList());
+
+        DbUtils dbUtils = new DbUtils();
+        userDatabase = new JdbcUaaUserDatabase(jdbcTemplate, timeService, false, identityZoneManager,
+                new DatabaseUrlModifier(Vendor.unknown, ""), dbUtils);
+        cache = new UaaUserCache(userDatabase, jdbcTemplate, identityZoneManager, timeService);
+        userDatabase.setUserCache(cache);
+        cache.setMaxStalenessMillis(10_000);
+        cache.setMaxEntries(100);
+
+        userId = UUID.randomUUID().toString();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        jdbcTemplate.update(ADD_USER_SQL, userId, "joe", "joespassword", "joe@test.org", "Joe", "User", "", OriginKeys.UAA, ZONE_ID, now, now, now);
+        quotedGroupsIdentifier = dbUtils.getQuotedIdentifier("groups", jdbcTemplate);
+        addAuthority("cached.read");
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestUtils.deleteFrom(jdbcTemplate, "users");
+        jdbcTemplate.update("delete from group_membership where identity_zone_id = ?", ZONE_ID);
+        jdbcTemplate.update("delete from " + quotedGroupsIdentifier + " where identity_zone_id = ?", ZONE_ID);
+    }
+
+    @Test
+    void authoritiesAreCachedUntilTheStalenessBound() {
+        UaaUser user = cache.retrieveUserById(userId);
+        addAuthority("cached.write");
+
+        assertThat(cache.retrieveUserById(userId), sameInstance(user));
+        assertThat(AuthorityUtils.authorityListToSet(cache.retrieveUserById(userId).getAuthorities()), not(hasItem("cached.write")));
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(11_000L);
+        assertThat(AuthorityUtils.authorityListToSet(cache.retrieveUserById(userId).getAuthorities()), hasItem("cached.write"));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void revocationRelevantChangesAreSeenRightAway() {
+        cache.retrieveUserById(userId);
+
+        jdbcTemplate.update("update users set password = ? where id = ?", "newpassword", userId);
+        assertEquals("newpassword", cache.retrieveUserById(userId).getPassword());
+
+        jdbcTemplate.update("update users set email = ?, version = version + 1 where id = ?", "joe@other.org", userId);
+        assertEquals("joe@other.org", cache.retrieveUserById(userId).getEmail());
+        assertEquals(3, cache.getMisses());
+
+        jdbcTemplate.update("update users set active = ? where id = ?", false, userId);
+        assertThrows(UsernameNotFoundException.class, () -> cache.retrieveUserById(userId));
+    }
+
+    @Test
+    void logonsAndGroupChangesEvictCachedUsers() {
+        UaaUser user = cache.retrieveUserById(userId);
+
+        userDatabase.updateLastLogonTime(userId);
+        UaaUser loggedOn = cache.retrieveUserById(userId);
+        assertThat(loggedOn, not(sameInstance(user)));
+        assertEquals(1000L, (long) loggedOn.getLastLogonTime());
+
+        cache.onApplicationEvent(GroupModifiedEvent.groupModified("group-id", "cached.read", new String[] {userId}, ZONE_ID));
+        assertThat(cache.retrieveUserById(userId), not(sameInstance(loggedOn)));
+        assertEquals(3, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    void disabledCacheAlwaysLoadsTheUser() {
+        cache.setEnabled(false);
+        UaaUser user = cache.retrieveUserById(userId);
+
+        assertThat(cache.retrieveUserById(userId), not(sameInstance(user)));
+        assertEquals(0, cache.getHits());
+    }
+
+    private void addAuthority(String authority) {
+        String groupId = new RandomValueStringGenerator().generate();
+        jdbcTemplate.update("insert into " + quotedGroupsIdentifier + " (id, displayName, identity_zone_id) values (?,?,?)", groupId, authority, ZONE_ID);
+        jdbcTemplate.update(ADD_MEMBER_SQL, groupId, userId, "USER", "MEMBER", ZONE_ID);
+    }
+}
@@ -5,7 +5,6 @@ import org.junit.jupiter.api.Test;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
-import org.springframework.test.util.ReflectionTestUtils;
 
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
@@ -14,8 +13,10 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
@@ -60,8 +61,7 @@ class CachingPasswordEncoderTest {
     @Test
     void matchesButExpires() throws Exception {
         Duration shortTTL = Duration.ofSeconds(1);
-        ReflectionTestUtils.setField(cachingPasswordEncoder, "CACHE_TTL", shortTTL);
-        cachingPasswordEncoder.buildCache();
+        cachingPasswordEncoder.setCacheTtlSeconds(shortTTL.getSeconds());
         String encoded = cachingPasswordEncoder.encode(password);
         String cacheKey = cachingPasswordEncoder.cacheEncode(password);
 
@@ -122,8 +122,8 @@ class CachingPasswordEncoderTest {
     }
 
     @Test
-    // TODO: This test takes a long time to run :(
     void ensureNoMemoryLeak() {
+        cachingPasswordEncoder.setMaxKeys(100);
         assertEquals(0, cachingPasswordEncoder.getNumberOfKeys());
         for (int i = 0; i < cachingPasswordEncoder.getMaxKeys(); i++) {
             String password = new RandomValueStringGenerator().generate();
@@ -132,12 +132,14 @@ class CachingPasswordEncoderTest {
                 assertTrue(cachingPasswordEncoder.matches(password, encoded));
             }
         }
-        assertEquals(cachingPasswordEncoder.getMaxKeys(), cachingPasswordEncoder.getNumberOfKeys());
+        assertThat(cachingPasswordEncoder.getNumberOfKeys(), is(lessThanOrEqualTo((long) cachingPasswordEncoder.getMaxKeys())));
         String password = new RandomValueStringGenerator().generate();
         String encoded = cachingPasswordEncoder.encode(password);
         assertTrue(cachingPasswordEncoder.matches(password, encoded));
-        //overflow happened
-        assertEquals(1, cachingPasswordEncoder.getNumberOfKeys());
+        //overflow evicts single keys instead of dropping the cache
+        assertThat(cachingPasswordEncoder.getNumberOfKeys(), is(lessThanOrEqualTo((long) cachingPasswordEncoder.getMaxKeys())));
+        assertThat(cachingPasswordEncoder.getNumberOfKeys(), is(greaterThan(1L)));
+        assertThat(cachingPasswordEncoder.getEvictionCount(), is(greaterThan(0L)));
 
 
         for (int j = 1; j < cachingPasswordEncoder.getMaxEncodedPasswords(); j++) {
@@ -153,4 +155,31 @@ class CachingPasswordEncoderTest {
         cachingPasswordEncoder.matches(password, cachingPasswordEncoder.encode(password));
         assertEquals(1, passwords.size());
     }
+
+    @Test
+    void recentlyUsedPasswordSurvivesEviction() {
+        cachingPasswordEncoder.setMaxKeys(10);
+        String encoded = cachingPasswordEncoder.encode(password);
+        assertTrue(cachingPasswordEncoder.matches(password, encoded));
+        for (int i = 0; i < 50; i++) {
+            String other = new RandomValueStringGenerator().generate();
+            assertTrue(cachingPasswordEncoder.matches(other, cachingPasswordEncoder.encode(other)));
+            assertTrue(cachingPasswordEncoder.matches(password, encoded));
+        }
+        assertEquals(51, cachingPasswordEncoder.getMissCount());
+        assertEquals(50, cachingPasswordEncoder.getHitCount());
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        String encoded = cachingPasswordEncoder.encode(password);
+        assertTrue(cachingPasswordEncoder.matches(password, encoded));
+        assertTrue(cachingPasswordEncoder.matches(password, encoded));
+        assertTrue(cachingPasswordEncoder.matches(password, encoded));
+        assertFalse(cachingPasswordEncoder.matches("wrong", encoded));
+
+        assertEquals(2, cachingPasswordEncoder.getHitCount());
+        assertEquals(2, cachingPasswordEncoder.getMissCount());
+        assertEquals(1, cachingPasswordEncoder.getNumberOfKeys());
+    }
 }
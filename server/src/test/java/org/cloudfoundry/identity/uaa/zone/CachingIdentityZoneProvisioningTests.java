@@ -0,0 +1,154 @@
+package org.cloudfoundry.identity.uaa.zone;
+
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CachingIdentityZoneProvisioningTests {
+
+    private JdbcIdentityZoneProvisioning delegate;
+    private TimeService timeService;
+    private CachingIdentityZoneProvisioning cache;
+    private IdentityZone zone;
+    private long now;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(JdbcIdentityZoneProvisioning.class);
+        timeService = mock(TimeService.class);
+        now = 1_000_000L;
+        when(timeService.getCurrentTimeMillis()).thenAnswer(invocation -> now);
+
+        cache = new CachingIdentityZoneProvisioning(delegate);
+        cache.setTimeService(timeService);
+        cache.setRevalidateAfterMillis(1_000);
+        cache.setMaxAgeMillis(10_000);
+        cache.setNegativeTtlMillis(1_000);
+
+        zone = zone("zone-id", "myzone", 3);
+        when(delegate.retrieveBySubdomain("myzone")).thenReturn(zone);
+        when(delegate.retrieveBySubdomain("unknown")).thenThrow(new EmptyResultDataAccessException(1));
+    }
+
+    @Test
+    void zoneIsServedFromTheCache() {
+        assertSame(zone, cache.retrieveBySubdomain("myzone"));
+        assertSame(zone, cache.retrieveBySubdomain("MyZone"));
+
+        verify(delegate, times(1)).retrieveBySubdomain("myzone");
+        verify(delegate, never()).retrieveVersion("zone-id");
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void unchangedVersionKeepsTheCachedZone() {
+        cache.retrieveBySubdomain("myzone");
+        when(delegate.retrieveVersion("zone-id")).thenReturn(3);
+
+        now += 1_500;
+        assertSame(zone, cache.retrieveBySubdomain("myzone"));
+        assertSame(zone, cache.retrieveBySubdomain("myzone"));
+
+        verify(delegate, times(1)).retrieveBySubdomain("myzone");
+        verify(delegate, times(1)).retrieveVersion("zone-id");
+    }
+
+    @Test
+    void changedVersionReloadsTheZone() {
+        cache.retrieveBySubdomain("myzone");
+        IdentityZone updated = zone("zone-id", "myzone", 4);
+        when(delegate.retrieveVersion("zone-id")).thenReturn(4);
+        when(delegate.retrieveBySubdomain("myzone")).thenReturn(updated);
+
+        now += 1_500;
+        assertSame(updated, cache.retrieveBySubdomain("myzone"));
+    }
+
+    @Test
+    void zoneIsReloadedAfterMaxAge() {
+        cache.retrieveBySubdomain("myzone");
+        when(delegate.retrieveVersion("zone-id")).thenReturn(3);
+
+        now += 10_000;
+        cache.retrieveBySubdomain("myzone");
+
+        verify(delegate, times(2)).retrieveBySubdomain("myzone");
+        verify(delegate, never()).retrieveVersion("zone-id");
+    }
+
+    @Test
+    void unknownSubdomainIsCachedUntilTheNegativeTtlElapses() {
+        assertThrows(EmptyResultDataAccessException.class, () -> cache.retrieveBySubdomain("unknown"));
+        assertThrows(EmptyResultDataAccessException.class, () -> cache.retrieveBySubdomain("unknown"));
+        verify(delegate, times(1)).retrieveBySubdomain("unknown");
+
+        now += 1_000;
+        assertThrows(EmptyResultDataAccessException.class, () -> cache.retrieveBySubdomain("unknown"));
+        verify(delegate, times(2)).retrieveBySubdomain("unknown");
+    }
+
+    @Test
+    void localModificationInvalidatesTheCache() {
+        cache.retrieveBySubdomain("myzone");
+        assertThrows(EmptyResultDataAccessException.class, () -> cache.retrieveBySubdomain("unknown"));
+
+        when(delegate.getModificationCount()).thenReturn(1L);
+        cache.retrieveBySubdomain("myzone");
+        assertThrows(EmptyResultDataAccessException.class, () -> cache.retrieveBySubdomain("unknown"));
+
+        verify(delegate, times(2)).retrieveBySubdomain("myzone");
+        verify(delegate, times(2)).retrieveBySubdomain("unknown");
+    }
+
+    @Test
+    void zoneModifiedEventEvictsTheZoneAndUnknownSubdomains() {
+        cache.retrieveBySubdomain("myzone");
+        assertThrows(EmptyResultDataAccessException.class, () -> cache.retrieveBySubdomain("unknown"));
+
+        IdentityZone created = zone("new-id", "unknown", 0);
+        when(delegate.retrieveBySubdomain("unknown")).thenReturn(created);
+        cache.onApplicationEvent(new IdentityZoneModifiedEvent(zone, null, null, "uaa"));
+
+        assertSame(created, cache.retrieveBySubdomain("unknown"));
+        cache.retrieveBySubdomain("myzone");
+        verify(delegate, times(2)).retrieveBySubdomain("myzone");
+    }
+
+    @Test
+    void sizeIsBounded() {
+        cache.setMaxEntries(2);
+        when(delegate.retrieveBySubdomain("a")).thenReturn(zone("a", "a", 0));
+        when(delegate.retrieveBySubdomain("b")).thenReturn(zone("b", "b", 0));
+
+        cache.retrieveBySubdomain("myzone");
+        cache.retrieveBySubdomain("a");
+        cache.retrieveBySubdomain("b");
+        cache.retrieveBySubdomain("myzone");
+        cache.retrieveBySubdomain("a");
+        cache.retrieveBySubdomain("b");
+
+        // with room for two zones, at least one of the second round has been evicted
+        assertTrue(cache.getMisses() > 3);
+    }
+
+    private static IdentityZone zone(String id, String subdomain, int version) {
+        IdentityZone result = new IdentityZone();
+        result.setId(id);
+        result.setSubdomain(subdomain);
+        result.setVersion(version);
+        return result;
+    }
+}
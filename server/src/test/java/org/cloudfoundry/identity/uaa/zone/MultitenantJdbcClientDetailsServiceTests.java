@@ -11,12 +11,14 @@ import org.cloudfoundry.identity.uaa.oauth.UaaOauth2Authentication;
 import org.cloudfoundry.identity.uaa.oauth.client.ClientConstants;
 import org.cloudfoundry.identity.uaa.provider.ClientAlreadyExistsException;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.zone.beans.IdentityZoneManager;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -26,6 +28,8 @@ import org.springframework.security.oauth2.provider.ClientDetails;
 import org.cloudfoundry.identity.uaa.provider.NoSuchClientException;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
 import java.sql.Timestamp;
 import java.util.Arrays;
@@ -761,6 +765,110 @@ class MultitenantJdbcClientDetailsServiceTests {
         assertNull(service.getCreatedByForClientAndZone(client2, currentZoneId));
     }
 
+    @Test
+    void loadedClientsAreCachedUntilTheyAreRevalidated() {
+        TimeService timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1000L);
+        service.setTimeService(timeService);
+        service.setCacheRevalidateAfterMillis(5000);
+        service.setCacheMaxAgeMillis(60000);
+        service.setCacheMaxEntries(100);
+        addClientToDb("cached-client", service);
+        assertEquals(1, service.getCacheMisses());
+
+        jdbcTemplate.update("update oauth_client_details set scope = 'changed', lastmodified = ? where client_id = ?",
+                new Timestamp(System.currentTimeMillis() + 60000), "cached-client");
+        assertThat(service.loadClientByClientId("cached-client").getScope(), not(Matchers.contains("changed")));
+        assertEquals(1, service.getCacheHits());
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(7000L);
+        assertThat(service.loadClientByClientId("cached-client").getScope(), Matchers.contains("changed"));
+        assertEquals(1, service.getCacheVersionChecks());
+        assertEquals(2, service.getCacheMisses());
+
+        when(timeService.getCurrentTimeMillis()).thenReturn(13000L);
+        service.loadClientByClientId("cached-client");
+        assertEquals(2, service.getCacheVersionChecks());
+        assertEquals(2, service.getCacheHits());
+        assertEquals(2, service.getCacheMisses());
+    }
+
+    @Test
+    void changesMadeThroughTheServiceInvalidateTheCachedClient() {
+        service.setCacheRevalidateAfterMillis(5000);
+        service.setCacheMaxAgeMillis(60000);
+        service.setCacheMaxEntries(100);
+        ClientDetails client = addClientToDb("cached-client", service);
+
+        service.updateClientSecret("cached-client", "newSecret");
+        assertThat(service.loadClientByClientId("cached-client").getClientSecret(), not(client.getClientSecret()));
+
+        service.updateClientJwtConfig("cached-client", "{\"jwks_uri\":\"http://localhost:8080/uaa/token_keys\"}", currentZoneId);
+        assertEquals("{\"jwks_uri\":\"http://localhost:8080/uaa/token_keys\"}",
+                ((UaaClientDetails) service.loadClientByClientId("cached-client")).getClientJwtConfig());
+
+        service.removeClientDetails("cached-client");
+        assertThrows(NoSuchClientException.class, () -> service.loadClientByClientId("cached-client"));
+    }
+
+    @Test
+    void changingAClientKeepsOtherClientsCached() {
+        service.setCacheRevalidateAfterMillis(5000);
+        service.setCacheMaxAgeMillis(60000);
+        service.setCacheMaxEntries(100);
+        addClientToDb("cached-client", service);
+        addClientToDb("other-client", service);
+        assertEquals(2, service.getCacheMisses());
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        try {
+            service.loadClientByClientId("other-client");
+            service.updateClientSecret("cached-client", "newSecret");
+            service.loadClientByClientId("other-client");
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+        assertEquals(2, service.getCacheMisses());
+        assertEquals(2, service.getCacheHits());
+    }
+
+    @Test
+    void cachedClientsAreCopiedForEachCaller() {
+        service.setCacheRevalidateAfterMillis(5000);
+        service.setCacheMaxAgeMillis(60000);
+        service.setCacheMaxEntries(100);
+        ClientDetails client = addClientToDb("cached-client", service);
+        ((UaaClientDetails) client).setScope(Collections.singleton("modified"));
+        client.getAdditionalInformation().put("modified", true);
+
+        ClientDetails loaded = service.loadClientByClientId("cached-client");
+        assertThat(loaded.getScope(), not(Matchers.contains("modified")));
+        assertFalse(loaded.getAdditionalInformation().containsKey("modified"));
+    }
+
+    @Test
+    void clientsAreLoadedOncePerRequest() {
+        TimeService timeService = mock(TimeService.class);
+        when(timeService.getCurrentTimeMillis()).thenReturn(1000L);
+        service.setTimeService(timeService);
+        service.setCacheRevalidateAfterMillis(5000);
+        service.setCacheMaxAgeMillis(60000);
+        service.setCacheMaxEntries(100);
+        addClientToDb("cached-client", service);
+        when(timeService.getCurrentTimeMillis()).thenReturn(7000L);
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        try {
+            service.loadClientByClientId("cached-client");
+            service.loadClientByClientId("cached-client");
+            service.loadClientByClientId("cached-client");
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+        assertEquals(1, service.getCacheVersionChecks());
+        assertEquals(3, service.getCacheHits());
+    }
+
     private static void validateRequiredGroups(String clientId, JdbcTemplate jdbcTemplate, String... expectedGroups) {
         String requiredUserGroups = jdbcTemplate.queryForObject("select required_user_groups from oauth_client_details where client_id = ?", String.class, clientId);
         assertNotNull(requiredUserGroups);
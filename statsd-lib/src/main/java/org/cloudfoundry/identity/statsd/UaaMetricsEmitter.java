@@ -13,7 +13,10 @@
 package org.cloudfoundry.identity.statsd;
 
 import com.timgroup.statsd.StatsDClient;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.cloudfoundry.identity.uaa.metrics.LatencySummary;
 import org.cloudfoundry.identity.uaa.metrics.MetricsQueue;
+import org.cloudfoundry.identity.uaa.metrics.MetricsUtil;
 import org.cloudfoundry.identity.uaa.metrics.RequestMetricSummary;
 import org.cloudfoundry.identity.uaa.metrics.StatusCodeGroup;
 import org.cloudfoundry.identity.uaa.metrics.UaaMetrics;
@@ -104,6 +107,39 @@ public class UaaMetricsEmitter {
         }
     }
 
+    @Scheduled(fixedRate = 5000, initialDelay = 1000)
+    public void emitLatencyMetrics() throws Exception {
+        try {
+            UaaMetrics metrics = metricsUtils.getUaaMetrics(server);
+            emitLatencyMetrics(metrics);
+        } catch (Exception x) {
+            throwIfOtherThanNotFound(x);
+        }
+    }
+
+    public void emitLatencyMetrics(UaaMetrics metrics) {
+        Map<String, String> latencies = metrics.getLatencies();
+        for (Map.Entry<String, String> entry : latencies.entrySet()) {
+            String key = entry.getKey();
+            String prefix = "requests." + (MetricsUtil.GLOBAL_GROUP.equals(key) ? "global" : key.startsWith("/") ? key.substring(1) : key) + ".";
+            Map<String, LatencySummary> summaries = JsonUtils.readValue(entry.getValue(), new TypeReference<Map<String, LatencySummary>>() {});
+            LatencySummary all = summaries.get(MetricsQueue.ALL_STATUS_CODES);
+            if (all != null) {
+                statsDClient.gauge(prefix + "completed.p50", all.getP50());
+                statsDClient.gauge(prefix + "completed.p90", all.getP90());
+                statsDClient.gauge(prefix + "completed.p99", all.getP99());
+                statsDClient.gauge(prefix + "completed.p999", all.getP999());
+                statsDClient.gauge(prefix + "completed.max", all.getMax());
+            }
+            for (StatusCodeGroup family : StatusCodeGroup.values()) {
+                LatencySummary summary = summaries.get(family.getName());
+                if (summary != null) {
+                    statsDClient.gauge(prefix + "status_" + family.getName() + ".p99", summary.getP99());
+                }
+            }
+        }
+    }
+
     private void emitUrlGroupRequestMetrics(UaaMetrics metrics) {
         Map<String,String> perUrlMetrics = metrics.getSummary();
         String prefix = "requests.%s.";
@@ -148,6 +148,24 @@ class UaaMetricsEmitterTest {
         Mockito.verify(statsDClient).gauge(eq("vitals.vm.memory.free"), geq(1L));
     }
 
+    @Test
+    void latency_percentiles_emitted() throws Exception {
+        Map<String, String> latencies = new HashMap<>();
+        latencies.put("uaa.global.metrics", "{\"2xx\":{\"count\":10,\"p50\":12,\"p90\":40,\"p99\":95,\"p999\":95,\"max\":95},\"all\":{\"count\":10,\"p50\":12,\"p90\":40,\"p99\":95,\"p999\":95,\"max\":95}}");
+        latencies.put("/oauth-oidc", "{\"all\":{\"count\":0,\"p50\":0,\"p90\":0,\"p99\":0,\"p999\":0,\"max\":0}}");
+        when(uaaMetrics1.getLatencies()).thenReturn(latencies);
+        Mockito.when(metricsUtils.getUaaMetrics(any())).thenReturn(uaaMetrics1);
+        uaaMetricsEmitter.emitLatencyMetrics();
+        Mockito.verify(statsDClient).gauge("requests.global.completed.p50", 12L);
+        Mockito.verify(statsDClient).gauge("requests.global.completed.p90", 40L);
+        Mockito.verify(statsDClient).gauge("requests.global.completed.p99", 95L);
+        Mockito.verify(statsDClient).gauge("requests.global.completed.p999", 95L);
+        Mockito.verify(statsDClient).gauge("requests.global.completed.max", 95L);
+        Mockito.verify(statsDClient).gauge("requests.global.status_2xx.p99", 95L);
+        Mockito.verify(statsDClient).gauge("requests.oauth-oidc.completed.p99", 0L);
+        Mockito.verify(statsDClient, never()).gauge(eq("requests.global.status_5xx.p99"), anyLong());
+    }
+
     @Test
     void perUrlGroup_request_metrics() throws Exception {
         Mockito.when(metricsUtils.getUaaMetrics(any())).thenReturn(uaaMetrics1);
@@ -4,6 +4,7 @@ import org.cloudfoundry.identity.uaa.mock.EndpointDocs;
 import org.cloudfoundry.identity.uaa.mock.util.MockMvcUtils;
 import org.cloudfoundry.identity.uaa.test.UaaTestAccounts;
 import org.junit.jupiter.api.Test;
+import org.springframework.restdocs.payload.FieldDescriptor;
 import org.springframework.restdocs.snippet.Snippet;
 
 import static org.springframework.restdocs.headers.HeaderDocumentation.headerWithName;
@@ -25,6 +26,16 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 class IntrospectTokenEndpointDocs extends EndpointDocs {
 
+    private static final Snippet AUTHORIZATION_HEADER = requestHeaders(
+            headerWithName("Authorization").description("One of the following authentication/authorization mechanisms:<br />" +
+                    "<ul>" +
+                    "<li>Bearer token for a registered client with authority `uaa.resource` &nbsp;&nbsp;<b>[Recommended]</b></li>" +
+                    "<li>Basic authentication using client_id / client_secret for a registered client with authority `uaa.resource` &nbsp;&nbsp;<b>[Deprecated]</b></li>" +
+                    "</ul>" +
+                    "<b>If both bearer token and basic auth credentials are provided, only the bearer token will be used.</b>"
+            )
+    );
+
     @Test
     void introspectToken() throws Exception {
 
@@ -51,42 +62,79 @@ class IntrospectTokenEndpointDocs extends EndpointDocs {
                 parameterWithName("token").description("The token").attributes(key("constraints").value("Required"), key("type").value(STRING))
         );
 
-        Snippet responseFields = responseFields(
-                fieldWithPath("active").type(BOOLEAN).description("Indicates whether or not the presented token is currently valid (given token has been issued by this authorization server, has not been revoked by the resource owner, and is within its given time window of validity)"),
-                fieldWithPath("user_id").type(STRING).description("Only applicable for user tokens").optional(),
-                fieldWithPath("user_name").type(STRING).description("Only applicable for user tokens").optional(),
-                fieldWithPath("email").type(STRING).description("Only applicable for user tokens").optional(),
-                fieldWithPath("client_id").description("A unique string representing the registration information provided by the client"),
-                fieldWithPath("exp").description("[Expiration Time](https://tools.ietf.org/html/rfc7662#section-2.2) Claim"),
-                fieldWithPath("authorities").type(ARRAY).description("Only applicable for client tokens").optional(),
-                fieldWithPath("scope").description("List of scopes authorized by the user for this client"),
-                fieldWithPath("jti").description("[JWT ID](https://tools.ietf.org/html/rfc7662#section-2.2) Claim"),
-                fieldWithPath("aud").description("[Audience](https://tools.ietf.org/html/rfc7662#section-2.2) Claim"),
-                fieldWithPath("sub").description("[Subject](https://tools.ietf.org/html/rfc7662#section-2.2) Claim"),
-                fieldWithPath("iss").description("[Issuer](https://tools.ietf.org/html/rfc7662#section-2.2) Claim"),
-                fieldWithPath("iat").description("[Issued At](https://tools.ietf.org/html/rfc7662#section-2.2) Claim"),
-                fieldWithPath("cid").description("See `client_id`"),
-                fieldWithPath("grant_type").description("The type of authentication being used to obtain the token, in this case `password`"),
-                fieldWithPath("azp").description("Authorized party"),
-                fieldWithPath("auth_time").type(NUMBER).description("Only applicable for user tokens").optional(),
-                fieldWithPath("zid").description("Zone ID"),
-                fieldWithPath("rev_sig").description("Revocation Signature - token revocation hash salted with at least client ID and client secret, and optionally various user values."),
-                fieldWithPath("origin").type(STRING).description("Only applicable for user tokens").optional(),
-                fieldWithPath("revocable").type(BOOLEAN).description("Set to true if this token is revocable").optional()
-        );
+        Snippet responseFields = responseFields(claimFields(""));
 
         mockMvc.perform(post("/introspect")
                 .header("Authorization", "bearer " + identityClientAccessToken)
                 .param("token", identityAccessToken))
                 .andExpect(status().isOk())
-                .andDo(document("{ClassName}/{methodName}", preprocessResponse(prettyPrint()), requestHeaders(
-                        headerWithName("Authorization").description("One of the following authentication/authorization mechanisms:<br />" +
-                                "<ul>" +
-                                "<li>Bearer token for a registered client with authority `uaa.resource` &nbsp;&nbsp;<b>[Recommended]</b></li>" +
-                                "<li>Basic authentication using client_id / client_secret for a registered client with authority `uaa.resource` &nbsp;&nbsp;<b>[Deprecated]</b></li>" +
-                                "</ul>" +
-                                "<b>If both bearer token and basic auth credentials are provided, only the bearer token will be used.</b>"
-                        )
-                ), requestParameters, responseFields));
+                .andDo(document("{ClassName}/{methodName}", preprocessResponse(prettyPrint()), AUTHORIZATION_HEADER, requestParameters, responseFields));
+    }
+
+    @Test
+    void introspectTokenBatch() throws Exception {
+
+        String identityClientAccessToken = MockMvcUtils.getClientOAuthAccessToken(
+                mockMvc,
+                "app",
+                "appclientsecret",
+                "",
+                true
+        );
+
+        String identityAccessToken = MockMvcUtils.getUserOAuthAccessToken(
+                mockMvc,
+                "app",
+                "appclientsecret",
+                UaaTestAccounts.DEFAULT_USERNAME,
+                UaaTestAccounts.DEFAULT_PASSWORD,
+                "",
+                null,
+                true
+        );
+
+        Snippet requestParameters = requestParameters(
+                parameterWithName("token").description("A token to introspect. Repeat the parameter for each token, up to `introspect.batch.maxTokens` (default 100) tokens per request.").attributes(key("constraints").value("Required"), key("type").value(STRING))
+        );
+
+        FieldDescriptor[] claimFields = claimFields("[].");
+        for (int i = 1; i < claimFields.length; i++) {
+            claimFields[i].optional();
+        }
+        Snippet responseFields = responseFields(
+                fieldWithPath("[]").type(ARRAY).description("The introspection claims of each token, in the order the tokens were given. The claims of an inactive token only contain `active`.")
+        ).and(claimFields);
+
+        mockMvc.perform(post("/introspect/batch")
+                .header("Authorization", "bearer " + identityClientAccessToken)
+                .param("token", identityAccessToken, "invalid-token"))
+                .andExpect(status().isOk())
+                .andDo(document("{ClassName}/{methodName}", preprocessResponse(prettyPrint()), AUTHORIZATION_HEADER, requestParameters, responseFields));
+    }
+
+    private static FieldDescriptor[] claimFields(String prefix) {
+        return new FieldDescriptor[]{
+                fieldWithPath(prefix + "active").type(BOOLEAN).description("Indicates whether or not the presented token is currently valid (given token has been issued by this authorization server, has not been revoked by the resource owner, and is within its given time window of validity)"),
+                fieldWithPath(prefix + "user_id").type(STRING).description("Only applicable for user tokens").optional(),
+                fieldWithPath(prefix + "user_name").type(STRING).description("Only applicable for user tokens").optional(),
+                fieldWithPath(prefix + "email").type(STRING).description("Only applicable for user tokens").optional(),
+                fieldWithPath(prefix + "client_id").description("A unique string representing the registration information provided by the client"),
+                fieldWithPath(prefix + "exp").description("[Expiration Time](https://tools.ietf.org/html/rfc7662#section-2.2) Claim"),
+                fieldWithPath(prefix + "authorities").type(ARRAY).description("Only applicable for client tokens").optional(),
+                fieldWithPath(prefix + "scope").description("List of scopes authorized by the user for this client"),
+                fieldWithPath(prefix + "jti").description("[JWT ID](https://tools.ietf.org/html/rfc7662#section-2.2) Claim"),
+                fieldWithPath(prefix + "aud").description("[Audience](https://tools.ietf.org/html/rfc7662#section-2.2) Claim"),
+                fieldWithPath(prefix + "sub").description("[Subject](https://tools.ietf.org/html/rfc7662#section-2.2) Claim"),
+                fieldWithPath(prefix + "iss").description("[Issuer](https://tools.ietf.org/html/rfc7662#section-2.2) Claim"),
+                fieldWithPath(prefix + "iat").description("[Issued At](https://tools.ietf.org/html/rfc7662#section-2.2) Claim"),
+                fieldWithPath(prefix + "cid").description("See `client_id`"),
+                fieldWithPath(prefix + "grant_type").description("The type of authentication being used to obtain the token, in this case `password`"),
+                fieldWithPath(prefix + "azp").description("Authorized party"),
+                fieldWithPath(prefix + "auth_time").type(NUMBER).description("Only applicable for user tokens").optional(),
+                fieldWithPath(prefix + "zid").description("Zone ID"),
+                fieldWithPath(prefix + "rev_sig").description("Revocation Signature - token revocation hash salted with at least client ID and client secret, and optionally various user values."),
+                fieldWithPath(prefix + "origin").type(STRING).description("Only applicable for user tokens").optional(),
+                fieldWithPath(prefix + "revocable").type(BOOLEAN).description("Set to true if this token is revocable").optional()
+        };
     }
 }
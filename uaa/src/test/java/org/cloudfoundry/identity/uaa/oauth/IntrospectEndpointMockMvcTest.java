@@ -8,6 +8,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.common.util.OAuth2Utils;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 import static org.cloudfoundry.identity.uaa.oauth.token.TokenConstants.GRANT_TYPE_PASSWORD;
@@ -25,12 +26,16 @@ class IntrospectEndpointMockMvcTest extends AbstractTokenMockMvcTests {
 
     private static final String CLIENT_ID = "oauth_showcase_password_grant";
     private static final String CLIENT_SECRET = "secret";
+    private String username;
     private String userAccessToken;
 
     @BeforeEach
     void setUp() throws Exception {
-        String username = createUserForPasswordGrant(jdbcScimUserProvisioning, jdbcScimGroupMembershipManager, jdbcScimGroupProvisioning, generator);
+        username = createUserForPasswordGrant(jdbcScimUserProvisioning, jdbcScimGroupMembershipManager, jdbcScimGroupProvisioning, generator);
+        userAccessToken = getUserAccessToken(username);
+    }
 
+    private String getUserAccessToken(String username) throws Exception {
         String tokenEndpointResponse = mockMvc.perform(
                 post("/oauth/token")
                         .param("client_id", CLIENT_ID)
@@ -45,7 +50,7 @@ class IntrospectEndpointMockMvcTest extends AbstractTokenMockMvcTests {
                 .andExpect(status().isOk())
                 .andReturn().getResponse().getContentAsString();
 
-        userAccessToken = Objects.requireNonNull(JsonUtils.readValue(tokenEndpointResponse, OAuth2AccessToken.class)).getValue();
+        return Objects.requireNonNull(JsonUtils.readValue(tokenEndpointResponse, OAuth2AccessToken.class)).getValue();
     }
 
     @Test
@@ -90,4 +95,72 @@ class IntrospectEndpointMockMvcTest extends AbstractTokenMockMvcTests {
                 .andExpect(jsonPath("$.error").value("method_not_allowed"))
                 .andExpect(jsonPath("$.error_description").value("Request method 'DELETE' not supported"));
     }
+
+    @Test
+    void batchWithoutCredentials() throws Exception {
+        mockMvc.perform(
+                post("/introspect/batch")
+                        .header(ACCEPT, APPLICATION_JSON_VALUE)
+                        .header(CONTENT_TYPE, APPLICATION_FORM_URLENCODED_VALUE)
+                        .param("token", userAccessToken))
+                .andDo(print())
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void batchWithoutResourceAuthority() throws Exception {
+        String clientId = "introspect-batch-" + generator.generate();
+        setUpClients(clientId, "uaa.none", "openid", "client_credentials", true);
+
+        mockMvc.perform(
+                post("/introspect/batch")
+                        .with(httpBasic(clientId, SECRET))
+                        .header(ACCEPT, APPLICATION_JSON_VALUE)
+                        .header(CONTENT_TYPE, APPLICATION_FORM_URLENCODED_VALUE)
+                        .param("token", userAccessToken))
+                .andDo(print())
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void batchWithTooManyTokens() throws Exception {
+        String[] tokens = new String[101];
+        Arrays.fill(tokens, userAccessToken);
+
+        mockMvc.perform(
+                post("/introspect/batch")
+                        .with(httpBasic(CLIENT_ID, CLIENT_SECRET))
+                        .header(ACCEPT, APPLICATION_JSON_VALUE)
+                        .header(CONTENT_TYPE, APPLICATION_FORM_URLENCODED_VALUE)
+                        .param("token", tokens))
+                .andDo(print())
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("invalid_request"))
+                .andExpect(jsonPath("$.error_description").value("At most 100 tokens can be introspected at once."));
+    }
+
+    @Test
+    void batchReturnsClaimsInTokenOrder() throws Exception {
+        String otherUsername = createUserForPasswordGrant(jdbcScimUserProvisioning, jdbcScimGroupMembershipManager, jdbcScimGroupProvisioning, generator);
+        String otherUserAccessToken = getUserAccessToken(otherUsername);
+
+        mockMvc.perform(
+                post("/introspect/batch")
+                        .with(httpBasic(CLIENT_ID, CLIENT_SECRET))
+                        .header(ACCEPT, APPLICATION_JSON_VALUE)
+                        .header(CONTENT_TYPE, APPLICATION_FORM_URLENCODED_VALUE)
+                        .param("token", otherUserAccessToken, "invalid-token", userAccessToken, otherUserAccessToken))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(APPLICATION_JSON))
+                .andExpect(jsonPath("$.length()").value(4))
+                .andExpect(jsonPath("$[0].active").value("true"))
+                .andExpect(jsonPath("$[0].user_name").value(otherUsername))
+                .andExpect(jsonPath("$[1].active").value("false"))
+                .andExpect(jsonPath("$[2].active").value("true"))
+                .andExpect(jsonPath("$[2].user_name").value(username))
+                .andExpect(jsonPath("$[2].client_id").value(CLIENT_ID))
+                .andExpect(jsonPath("$[3].active").value("true"))
+                .andExpect(jsonPath("$[3].user_name").value(otherUsername));
+    }
 }
@@ -85,8 +85,10 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doThrow;
@@ -563,13 +565,12 @@ class ScimUserEndpointsTests {
 
         SearchResults<?> results = scimUserEndpoints.findUsers("id,groups,approvals", isJoelOrDaleFilter, null, "ascending", 1, 100);
         assertEquals(2, results.getTotalResults());
-        verify(spiedScimGroupMembershipManager).getGroupsWithMember(joel.getId(), false, identityZone.getId());
-        verify(spiedScimGroupMembershipManager).getGroupsWithMember(joel.getId(), true, identityZone.getId());
-        verify(spiedScimGroupMembershipManager).getGroupsWithMember(dale.getId(), false, identityZone.getId());
-        verify(spiedScimGroupMembershipManager).getGroupsWithMember(dale.getId(), true, identityZone.getId());
+        verify(spiedScimGroupMembershipManager).getGroupsWithUserMembers(argThat(ids -> ids.containsAll(asList(joel.getId(), dale.getId()))), eq(false), eq(identityZone.getId()));
+        verify(spiedScimGroupMembershipManager).getGroupsWithUserMembers(argThat(ids -> ids.containsAll(asList(joel.getId(), dale.getId()))), eq(true), eq(identityZone.getId()));
+        verify(spiedScimGroupMembershipManager, never()).getGroupsWithMember(anyString(), anyBoolean(), anyString());
 
-        verify(mockApprovalStore).getApprovalsForUser(joel.getId(), identityZone.getId());
-        verify(mockApprovalStore).getApprovalsForUser(dale.getId(), identityZone.getId());
+        verify(mockApprovalStore).getApprovalsForUsers(argThat(ids -> ids.containsAll(asList(joel.getId(), dale.getId()))), eq(identityZone.getId()));
+        verify(mockApprovalStore, never()).getApprovalsForUser(anyString(), anyString());
     }
 
     @Test
@@ -587,6 +588,35 @@ class ScimUserEndpointsTests {
         assertEquals(2, results.getResources().size());
     }
 
+    @Test
+    void findPagesOfIdsByCursor() {
+        SearchResults<?> first = scimUserEndpoints.findUsers("id", "id pr", "userName", "ascending", 1, 1, "", true);
+        assertEquals(2, first.getTotalResults());
+        assertEquals(Collections.singletonMap("id", joel.getId()), first.getResources().get(0));
+        assertNotNull(first.getNextCursor());
+
+        SearchResults<?> second = scimUserEndpoints.findUsers("id", "id pr", "userName", "ascending", 1, 1, first.getNextCursor(), false);
+        assertEquals(-1, second.getTotalResults());
+        assertEquals(Collections.singletonMap("id", dale.getId()), second.getResources().get(0));
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    void cursorPagesIgnoreTheStartIndex() {
+        SearchResults<?> results = scimUserEndpoints.findUsers("id", "id pr", "userName", "ascending", 5, 1, "", true);
+        assertEquals(1, results.getStartIndex());
+        assertEquals(Collections.singletonMap("id", joel.getId()), results.getResources().get(0));
+    }
+
+    @Test
+    void cursorMustMatchSortOrder() {
+        SearchResults<?> first = scimUserEndpoints.findUsers("id", "id pr", "userName", "ascending", 1, 1, "", true);
+        assertThrowsWithMessageThat(
+                ScimException.class,
+                () -> scimUserEndpoints.findUsers("id", "id pr", "userName", "descending", 1, 1, first.getNextCursor(), true),
+                containsString("Invalid filter"));
+    }
+
     @Test
     void findWhenStartGreaterThanTotal() {
         SearchResults<?> results = scimUserEndpoints.findUsers("id", "id pr", null, "ascending", 3, 100);
@@ -661,13 +691,13 @@ class ScimUserEndpointsTests {
     @Test
     void findUsersGroupsSyncedByDefault() {
         scimUserEndpoints.findUsers("", "id pr", null, "ascending", 1, 100);
-        verify(spiedScimGroupMembershipManager, atLeastOnce()).getGroupsWithMember(anyString(), anyBoolean(), eq(identityZone.getId()));
+        verify(spiedScimGroupMembershipManager, atLeastOnce()).getGroupsWithUserMembers(anyCollection(), anyBoolean(), eq(identityZone.getId()));
     }
 
     @Test
     void findUsersGroupsSyncedIfIncluded() {
         scimUserEndpoints.findUsers("groups", "id pr", null, "ascending", 1, 100);
-        verify(spiedScimGroupMembershipManager, atLeastOnce()).getGroupsWithMember(anyString(), anyBoolean(), eq(identityZone.getId()));
+        verify(spiedScimGroupMembershipManager, atLeastOnce()).getGroupsWithUserMembers(anyCollection(), anyBoolean(), eq(identityZone.getId()));
     }
 
     @Test
@@ -679,13 +709,13 @@ class ScimUserEndpointsTests {
     @Test
     void findUsersApprovalsSyncedByDefault() {
         scimUserEndpoints.findUsers("", "id pr", null, "ascending", 1, 100);
-        verify(mockApprovalStore, atLeastOnce()).getApprovalsForUser(anyString(), eq(identityZone.getId()));
+        verify(mockApprovalStore, atLeastOnce()).getApprovalsForUsers(anyCollection(), eq(identityZone.getId()));
     }
 
     @Test
     void findUsersApprovalsSyncedIfIncluded() {
         scimUserEndpoints.findUsers("approvals", "id pr", null, "ascending", 1, 100);
-        verify(mockApprovalStore, atLeastOnce()).getApprovalsForUser(anyString(), eq(identityZone.getId()));
+        verify(mockApprovalStore, atLeastOnce()).getApprovalsForUsers(anyCollection(), eq(identityZone.getId()));
     }
 
     @Test